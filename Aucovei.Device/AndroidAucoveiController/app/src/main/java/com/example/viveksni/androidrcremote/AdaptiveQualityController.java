@@ -0,0 +1,214 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the camera view inside a latency budget by trading picture quality for lag. The
+ * receive and render threads report each frame's transfer and decode time, and
+ * {@link #evaluate()} runs once a window to move along a ladder of {@link Level}s.
+ * <p>
+ * The lag of a window is the mean time from requesting a frame to having it in hand plus the
+ * mean decode time. A window over budget, or one where decoding cannot keep up with the
+ * level's frame rate, steps down at once. Stepping up takes {@link #UPGRADE_WINDOWS} windows
+ * well under budget in a row, and that requirement doubles each time a step up has to be
+ * undone straight away, so a link on the edge between two levels does not flip between them.
+ * Windows right after a change are skipped while the car switches settings.
+ */
+public class AdaptiveQualityController {
+    public static final long DEFAULT_LATENCY_BUDGET_MILLIS = 250;
+    public static final long WINDOW_MILLIS = 1000;
+    public static final int INITIAL_LEVEL = 2;
+
+    static final int UPGRADE_WINDOWS = 3;
+    static final int MAX_UPGRADE_WINDOWS = 48;
+    static final int SETTLE_WINDOWS = 1;
+
+    // Resolutions are the car's VideoResolution values; the default quality there is 60.
+    static final Level[] LEVELS = {
+            new Level(Level.SD640_480, 30, 10),
+            new Level(Level.SD640_480, 50, 15),
+            new Level(Level.SD800_600, 60, 20),
+            new Level(Level.SD1024_768, 70, 25),
+            new Level(Level.HD720P, 80, 30),
+    };
+
+    public interface Listener {
+        void onLevelChanged(Level level);
+    }
+
+    private final Listener mListener;
+    private final long mBudgetNanos;
+    private int mLevel;
+    private int mUpgradeWindows = UPGRADE_WINDOWS;
+    private int mGoodWindows;
+    private int mSettleWindows;
+    private boolean mJustUpgraded;
+
+    // The current window.
+    private long mWindowStartNanos;
+    private int mFrames;
+    private long mBytes;
+    private long mTransferNanos;
+    private int mDecodes;
+    private long mDecodeNanos;
+
+    // The last evaluated window, for display.
+    private double mFramesPerSecond;
+    private double mBytesPerSecond;
+    private double mLagMillis;
+    private double mDecodeMillis;
+
+    public AdaptiveQualityController(Listener listener, long latencyBudgetMillis, long nowNanos) {
+        mListener = listener;
+        mBudgetNanos = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+        mLevel = INITIAL_LEVEL;
+        mWindowStartNanos = nowNanos;
+    }
+
+    /**
+     * @param transferNanos from requesting the frame to its last byte arriving.
+     */
+    public synchronized void onFrameReceived(int bytes, long transferNanos) {
+        mFrames++;
+        mBytes += bytes;
+        mTransferNanos += transferNanos;
+    }
+
+    public synchronized void onFrameDecoded(long decodeNanos) {
+        mDecodes++;
+        mDecodeNanos += decodeNanos;
+    }
+
+    public void evaluate() {
+        evaluate(System.nanoTime());
+    }
+
+    synchronized void evaluate(long nowNanos) {
+        long elapsedNanos = nowNanos - mWindowStartNanos;
+        if (elapsedNanos <= 0) {
+            return;
+        }
+        int frames = mFrames;
+        double seconds = elapsedNanos / 1e9;
+        long meanTransfer = frames > 0 ? mTransferNanos / frames : 0;
+        long meanDecode = mDecodes > 0 ? mDecodeNanos / mDecodes : 0;
+        mFramesPerSecond = frames / seconds;
+        mBytesPerSecond = mBytes / seconds;
+        mLagMillis = (meanTransfer + meanDecode) / 1e6;
+        mDecodeMillis = meanDecode / 1e6;
+
+        mWindowStartNanos = nowNanos;
+        mFrames = 0;
+        mBytes = 0;
+        mTransferNanos = 0;
+        mDecodes = 0;
+        mDecodeNanos = 0;
+
+        if (mSettleWindows > 0) {
+            mSettleWindows--;
+            return;
+        }
+        if (frames == 0) {
+            // Camera off or stalled; nothing to judge.
+            mGoodWindows = 0;
+            return;
+        }
+
+        long lag = meanTransfer + meanDecode;
+        boolean decodeBehind = meanDecode > getMinFrameIntervalNanos();
+        if (lag > mBudgetNanos || decodeBehind) {
+            if (mJustUpgraded) {
+                mUpgradeWindows = Math.min(mUpgradeWindows * 2, MAX_UPGRADE_WINDOWS);
+            }
+            mGoodWindows = 0;
+            mJustUpgraded = false;
+            if (mLevel > 0) {
+                setLevel(mLevel - 1);
+            }
+            return;
+        }
+
+        mJustUpgraded = false;
+        if (lag < mBudgetNanos / 2 && meanDecode < getMinFrameIntervalNanos() / 2) {
+            mGoodWindows++;
+        } else {
+            mGoodWindows = 0;
+        }
+        if (mGoodWindows >= mUpgradeWindows && mLevel < LEVELS.length - 1) {
+            mGoodWindows = 0;
+            mJustUpgraded = true;
+            setLevel(mLevel + 1);
+        }
+    }
+
+    private void setLevel(int level) {
+        mLevel = level;
+        mSettleWindows = SETTLE_WINDOWS;
+        mListener.onLevelChanged(LEVELS[level]);
+    }
+
+    public synchronized Level getLevel() {
+        return LEVELS[mLevel];
+    }
+
+    synchronized int getLevelIndex() {
+        return mLevel;
+    }
+
+    /**
+     * The shortest time between frame requests at the current level.
+     */
+    public synchronized long getMinFrameIntervalNanos() {
+        return TimeUnit.SECONDS.toNanos(1) / LEVELS[mLevel].mFramesPerSecond;
+    }
+
+    /**
+     * The last window, e.g. "level 2 18.5 fps 420 kB/s lag 85.0 ms decode 12.1 ms".
+     */
+    public synchronized String toSummaryString() {
+        return String.format(Locale.US, "level %d %.1f fps %.0f kB/s lag %.1f ms decode %.1f ms",
+                mLevel, mFramesPerSecond, mBytesPerSecond / 1024, mLagMillis, mDecodeMillis);
+    }
+
+    /**
+     * One step of the quality ladder: the car's resolution and JPEG quality, and the frame rate
+     * the app requests frames at.
+     */
+    public static final class Level {
+        public static final int HD720P = 1;
+        public static final int SD1024_768 = 2;
+        public static final int SD800_600 = 3;
+        public static final int SD640_480 = 4;
+
+        private final int mResolution;
+        private final int mQuality;
+        private final int mFramesPerSecond;
+
+        Level(int resolution, int quality, int framesPerSecond) {
+            mResolution = resolution;
+            mQuality = quality;
+            mFramesPerSecond = framesPerSecond;
+        }
+
+        public int getResolution() {
+            return mResolution;
+        }
+
+        // JPEG quality in percent.
+        public int getQuality() {
+            return mQuality;
+        }
+
+        public int getFramesPerSecond() {
+            return mFramesPerSecond;
+        }
+
+        /**
+         * The command that asks the car for this level, see {@link Commands#VIDEO_PREFIX}.
+         */
+        public String toCommand() {
+            return Commands.VIDEO_PREFIX + mResolution + "," + mQuality;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples an analog throttle and steering input at a fixed rate and streams it to the car.
+ * <p>
+ * Samples are quantized to {@link #MAX_LEVEL} steps per direction. An update is only sent when
+ * either axis moved by at least the threshold, when the stick returns to centre, or when no
+ * update has gone out for a keyframe interval, so a resting stick costs a frame per keyframe
+ * and a moving one at most a frame per tick. Ticking allocates nothing.
+ */
+public class AnalogDriveStreamer {
+    public static final int MAX_LEVEL = 100;
+    public static final int DEFAULT_RATE_HZ = 50;
+    public static final int DEFAULT_THRESHOLD = 4;
+    public static final long DEFAULT_KEYFRAME_MILLIS = 500;
+
+    // Below this level the stick counts as centred when mapped to discrete drive commands.
+    private static final int DISCRETE_DEAD_ZONE = 20;
+
+    // Called on the streaming thread; values are in [-1, 1], positive is forward and right.
+    public interface Source {
+        float getThrottle();
+
+        float getSteering();
+    }
+
+    // Called on the streaming thread with levels in [-MAX_LEVEL, MAX_LEVEL].
+    public interface Sink {
+        void onDrive(int throttle, int steering);
+    }
+
+    private final Source mSource;
+    private final Sink mSink;
+    private final TimerWheel mTimers;
+    private final int mOwner;
+    private final long mTickNanos;
+    private final int mThreshold;
+    private final long mKeyframeNanos;
+    private long mHandle;
+
+    // Only touched on the streaming thread.
+    private boolean mHasSent;
+    private int mLastThrottle;
+    private int mLastSteering;
+    private long mLastSentNanos;
+
+    private volatile long mTickCount;
+    private volatile long mSentCount;
+    private volatile long mKeyframeCount;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            tick(System.nanoTime());
+        }
+    };
+
+    public AnalogDriveStreamer(Source source, Sink sink, TimerWheel timers) {
+        this(source, sink, timers, DEFAULT_RATE_HZ, DEFAULT_THRESHOLD, DEFAULT_KEYFRAME_MILLIS);
+    }
+
+    public AnalogDriveStreamer(Source source, Sink sink, TimerWheel timers,
+                               int rateHz, int threshold, long keyframeMillis) {
+        mSource = source;
+        mSink = sink;
+        mTimers = timers;
+        mOwner = timers != null ? timers.newOwner() : TimerWheel.NO_OWNER;
+        mTickNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        mThreshold = threshold;
+        mKeyframeNanos = TimeUnit.MILLISECONDS.toNanos(keyframeMillis);
+    }
+
+    public synchronized void start() {
+        if (mHandle == 0) {
+            mHandle = mTimers.scheduleAtFixedRate(mOwner, mTick, 0, mTickNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops streaming and tells the car to stop.
+     */
+    public synchronized void stop() {
+        if (mHandle != 0) {
+            mTimers.cancel(mHandle);
+            mHandle = 0;
+            mTimers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mHasSent = false;
+                    mSink.onDrive(0, 0);
+                }
+            });
+        }
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    public long getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    void tick(long nowNanos) {
+        mTickCount++;
+        int throttle = quantize(mSource.getThrottle());
+        int steering = quantize(mSource.getSteering());
+
+        boolean keyframe = !mHasSent || nowNanos - mLastSentNanos >= mKeyframeNanos;
+        boolean moved = Math.abs(throttle - mLastThrottle) >= mThreshold
+                || Math.abs(steering - mLastSteering) >= mThreshold;
+        boolean centred = throttle == 0 && steering == 0
+                && (mLastThrottle != 0 || mLastSteering != 0);
+        if (!keyframe && !moved && !centred) {
+            return;
+        }
+
+        if (keyframe && !moved && !centred) {
+            mKeyframeCount++;
+        }
+        mHasSent = true;
+        mLastThrottle = throttle;
+        mLastSteering = steering;
+        mLastSentNanos = nowNanos;
+        mSentCount++;
+        mSink.onDrive(throttle, steering);
+    }
+
+    static int quantize(float value) {
+        if (value != value) {
+            return 0; // NaN
+        }
+        float clamped = Math.max(-1f, Math.min(1f, value));
+        return Math.round(clamped * MAX_LEVEL);
+    }
+
+    /**
+     * Maps an analog level to the nearest of the car's discrete drive commands, for firmware
+     * that does not support {@link DeviceCapabilities#ANALOG_DRIVE}.
+     */
+    public static String toDriveCommand(int throttle, int steering) {
+        if (Math.abs(throttle) < DISCRETE_DEAD_ZONE && Math.abs(steering) < DISCRETE_DEAD_ZONE) {
+            return Commands.DRIVE_STOP;
+        }
+        if (Math.abs(steering) > Math.abs(throttle)) {
+            return steering < 0 ? Commands.DRIVE_LEFT : Commands.DRIVE_RIGHT;
+        }
+        return throttle > 0 ? Commands.DRIVE_FORWARD : Commands.DRIVE_REVERSE;
+    }
+}
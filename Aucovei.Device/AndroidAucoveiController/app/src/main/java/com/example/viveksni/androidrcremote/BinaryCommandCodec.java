@@ -0,0 +1,133 @@
+package com.example.viveksni.androidrcremote;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact encoding of the {@link Commands} tokens, used once the car has advertised
+ * {@link DeviceCapabilities#BINARY_COMMANDS} and the app has acknowledged it with
+ * {@link #ACKNOWLEDGE_COMMAND}.
+ * <p>
+ * A binary payload is a one byte opcode followed by its arguments, and travels in the same
+ * length-prefixed frames as text. Opcodes are below 0x20, so a receiver tells binary payloads
+ * from text commands by the first byte. Commands without a binary form, such as free text from
+ * voice input, are still sent as text.
+ */
+public final class BinaryCommandCodec {
+    public static final String ACKNOWLEDGE_COMMAND = "PROTO-BIN1";
+
+    public static final byte OP_DRIVE = 0x01;
+    public static final byte OP_DRIVE_AUTO = 0x02;
+    public static final byte OP_TILT = 0x03;
+    public static final byte OP_CAMERA = 0x04;
+    public static final byte OP_CAMERA_LED = 0x05;
+    public static final byte OP_HORN = 0x06;
+    public static final byte OP_SPEED = 0x07;
+    public static final byte OP_ANALOG_DRIVE = 0x08;
+
+    public static final int MAX_ENCODED_LENGTH = 3;
+
+    private static final Map<String, byte[]> ENCODINGS = new HashMap<>();
+    private static final String[][] DECODINGS = new String[0x20][];
+
+    static {
+        register(Commands.DRIVE_STOP, OP_DRIVE, 1);
+        register(Commands.DRIVE_FORWARD, OP_DRIVE, 2);
+        register(Commands.DRIVE_REVERSE, OP_DRIVE, 3);
+        register(Commands.DRIVE_LEFT, OP_DRIVE, 4);
+        register(Commands.DRIVE_RIGHT, OP_DRIVE, 5);
+        register(Commands.DRIVE_REVERSE_LEFT, OP_DRIVE, 10);
+        register(Commands.DRIVE_REVERSE_RIGHT, OP_DRIVE, 11);
+        register(Commands.DRIVE_AUTO_OFF, OP_DRIVE_AUTO, 0);
+        register(Commands.DRIVE_AUTO_ON, OP_DRIVE_AUTO, 1);
+        register(Commands.TILT_UP, OP_TILT, 1);
+        register(Commands.TILT_DOWN, OP_TILT, 2);
+        register(Commands.PAN_LEFT, OP_TILT, 3);
+        register(Commands.PAN_RIGHT, OP_TILT, 4);
+        register(Commands.PAN_TILT_CENTER, OP_TILT, 5);
+        register(Commands.CAMERA_OFF, OP_CAMERA, 0);
+        register(Commands.CAMERA_ON, OP_CAMERA, 1);
+        register(Commands.CAMERA_LED_OFF, OP_CAMERA_LED, 0);
+        register(Commands.CAMERA_LED_ON, OP_CAMERA_LED, 1);
+        register(Commands.HORN, OP_HORN, -1);
+        register(Commands.SPEED_STOP, OP_SPEED, 0);
+        register(Commands.SPEED_VERY_SLOW, OP_SPEED, 1);
+        register(Commands.SPEED_SLOW, OP_SPEED, 2);
+        register(Commands.SPEED_NORMAL, OP_SPEED, 3);
+    }
+
+    private BinaryCommandCodec() {
+    }
+
+    private static void register(String command, byte opcode, int argument) {
+        byte[] encoded = argument < 0
+                ? new byte[]{opcode}
+                : new byte[]{opcode, (byte) argument};
+        ENCODINGS.put(command, encoded);
+
+        int index = argument < 0 ? 0 : argument;
+        String[] decodings = DECODINGS[opcode];
+        if (decodings == null || decodings.length <= index) {
+            String[] grown = new String[index + 1];
+            if (decodings != null) {
+                System.arraycopy(decodings, 0, grown, 0, decodings.length);
+            }
+            DECODINGS[opcode] = decodings = grown;
+        }
+        decodings[index] = command;
+    }
+
+    /**
+     * Writes the binary form of a command into {@code dest}.
+     *
+     * @return the number of bytes written, or -1 if the command has no binary form.
+     */
+    public static int encode(String command, byte[] dest, int offset) {
+        byte[] encoded = ENCODINGS.get(command);
+        if (encoded == null) {
+            return -1;
+        }
+        System.arraycopy(encoded, 0, dest, offset, encoded.length);
+        return encoded.length;
+    }
+
+    /**
+     * Writes an analog drive update: the opcode followed by throttle and steering as signed
+     * bytes.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encodeAnalogDrive(int throttle, int steering, byte[] dest, int offset) {
+        dest[offset] = OP_ANALOG_DRIVE;
+        dest[offset + 1] = (byte) throttle;
+        dest[offset + 2] = (byte) steering;
+        return 3;
+    }
+
+    public static boolean isBinaryPayload(ByteBuffer payload) {
+        return payload.remaining() > 0 && (payload.get(payload.position()) & 0xFF) < 0x20;
+    }
+
+    /**
+     * Maps a binary payload back to its text command, or null if it is not recognised.
+     */
+    public static String decode(ByteBuffer payload) {
+        if (!isBinaryPayload(payload)) {
+            return null;
+        }
+
+        int position = payload.position();
+        if (payload.get(position) == OP_ANALOG_DRIVE && payload.remaining() >= 3) {
+            return Commands.ANALOG_DRIVE_PREFIX + payload.get(position + 1) + "," + payload.get(position + 2);
+        }
+
+        String[] decodings = DECODINGS[payload.get(position)];
+        if (decodings == null) {
+            return null;
+        }
+
+        int argument = payload.remaining() > 1 ? payload.get(position + 1) & 0xFF : 0;
+        return argument < decodings.length ? decodings[argument] : null;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for the Bluetooth connection, kept for the life of the process so they span
+ * reconnects. Updating a counter is a single atomic add: no locks and no allocation, so they
+ * are safe on the reader and writer threads. Each counter sits on its own cache line, so the
+ * two threads do not slow each other down.
+ * <p>
+ * Read them through a {@link Snapshot}.
+ */
+public class BluetoothMetrics {
+    public static final int FRAMES_SENT = 0;
+    public static final int BYTES_SENT = 1;
+    public static final int FRAMES_RECEIVED = 2;
+    public static final int BYTES_RECEIVED = 3;
+    public static final int DECODE_ERRORS = 4;
+    public static final int WRITE_FAILURES = 5;
+    public static final int CONNECTS = 6;
+    public static final int RECONNECTS = 7;
+    public static final int CONNECT_FAILURES = 8;
+    public static final int DISCONNECTS = 9;
+    public static final int RECONNECT_ATTEMPTS = 10;
+    public static final int COUNT = 11;
+
+    private static final String[] NAMES = {
+            "frames_sent", "bytes_sent", "frames_received", "bytes_received", "decode_errors",
+            "write_failures", "connects", "reconnects", "connect_failures", "disconnects",
+            "reconnect_attempts"};
+
+    // 8 longs make a 64 byte cache line.
+    private static final int STRIDE = 8;
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNT * STRIDE);
+    private final LatencyHistogram mWriteLatency = new LatencyHistogram();
+    private final LatencyHistogram mReconnectTime = new LatencyHistogram();
+
+    public void increment(int counter) {
+        mCounters.incrementAndGet(counter * STRIDE);
+    }
+
+    public void add(int counter, long delta) {
+        mCounters.addAndGet(counter * STRIDE, delta);
+    }
+
+    public long get(int counter) {
+        return mCounters.get(counter * STRIDE);
+    }
+
+    /**
+     * Time from queueing a command to flushing it to the socket.
+     */
+    public void recordWriteLatency(long nanos) {
+        mWriteLatency.recordNanos(nanos);
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return mWriteLatency;
+    }
+
+    /**
+     * Time from a connection dropping to the reconnect succeeding.
+     */
+    public void recordReconnectTime(long nanos) {
+        mReconnectTime.recordNanos(nanos);
+    }
+
+    public LatencyHistogram getReconnectTime() {
+        return mReconnectTime;
+    }
+
+    public static String name(int counter) {
+        return NAMES[counter];
+    }
+
+    /**
+     * Copies the counters. Each value is read atomically but the set as a whole is not, which
+     * is fine for display and reports.
+     *
+     * @param queueDepth commands waiting in the send queue, or 0 when not connected.
+     */
+    public Snapshot snapshot(int queueDepth) {
+        long[] values = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            values[i] = get(i);
+        }
+        return new Snapshot(System.currentTimeMillis(), values, queueDepth, mWriteLatency.copy(),
+                mReconnectTime.copy());
+    }
+
+    public static final class Snapshot {
+        private final long mTimeMillis;
+        private final long[] mValues;
+        private final int mQueueDepth;
+        private final LatencyHistogram mWriteLatency;
+        private final LatencyHistogram mReconnectTime;
+
+        Snapshot(long timeMillis, long[] values, int queueDepth, LatencyHistogram writeLatency,
+                 LatencyHistogram reconnectTime) {
+            mTimeMillis = timeMillis;
+            mValues = values;
+            mQueueDepth = queueDepth;
+            mWriteLatency = writeLatency;
+            mReconnectTime = reconnectTime;
+        }
+
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        public long get(int counter) {
+            return mValues[counter];
+        }
+
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public LatencyHistogram getWriteLatency() {
+            return mWriteLatency;
+        }
+
+        public LatencyHistogram getReconnectTime() {
+            return mReconnectTime;
+        }
+
+        /**
+         * Writes one "name value" line per counter followed by the write latency and reconnect
+         * time distributions.
+         */
+        public void writeTo(Writer out) throws IOException {
+            out.write("# Bluetooth metrics " + new Date(mTimeMillis) + "\n");
+            for (int i = 0; i < COUNT; i++) {
+                out.write(NAMES[i] + " " + mValues[i] + "\n");
+            }
+            out.write("queue_depth " + mQueueDepth + "\n");
+            out.write("\n# Write latency\n");
+            mWriteLatency.writePercentileDistribution(out);
+            if (mReconnectTime.getTotalCount() > 0) {
+                out.write("\n# Time to reconnect\n");
+                mReconnectTime.writePercentileDistribution(out);
+            }
+        }
+    }
+}
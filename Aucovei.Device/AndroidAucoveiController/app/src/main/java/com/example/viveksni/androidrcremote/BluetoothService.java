@@ -1,36 +1,38 @@
 package com.example.viveksni.androidrcremote;
 
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.util.Log;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.util.UUID;
 
+/**
+ * The app's cars. The one picked on the connect screen is the primary, which the controls
+ * drive and whose events, metrics and telemetry the UI shows; more can be added to the
+ * {@link ConnectionPool} and follow the primary's commands, see {@link #setFollowers}.
+ */
 public class BluetoothService {
     public static final UUID SERVICE_UUID = UUID.fromString("34B1CF4D-1069-4AD6-89B6-E161D79BE4D9");
-    private String connectedDevice = null;
-    private String hostIpAddress = "192.168.100.57";
-    private static final String TAG = "BluetoothService";
+
+    // No connection and none being made.
+    public static final int STATE_IDLE = 0;
+    // The first attempt to reach a car the user picked.
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+    // The link dropped and is being won back, see ReconnectBackoff.
+    public static final int STATE_RECONNECTING = 3;
+
     private static BluetoothService instance = new BluetoothService();
-    private ConnectThread mConnectThread;
-    private ConnectedThread mConnectedThread;
-    private Handler mHandler; // handler that gets info from Bluetooth service
+    private final ConnectionEventBus mEventBus = new ConnectionEventBus();
+    // Every timed control action in the app: probes, hold repeats, analog ticks, voice plans.
+    private final TimerWheel mTimers = new TimerWheel("ControlTimers");
+    private final BluetoothMetrics mMetrics = new BluetoothMetrics();
+    private final Telemetry mTelemetry = new Telemetry();
+    private final ConnectionPool mPool = new ConnectionPool(mTimers, mEventBus, mMetrics, mTelemetry);
+    private final CarLink mPrimary = mPool.getPrimary();
+    // Other cars that get every command sent to the primary.
+    private volatile long mFollowers = ConnectionPool.NONE;
+    private volatile CommandJournal mJournal;
 
     private BluetoothService() {
-        mHandler = new Handler(new Handler.Callback() {
-            @Override
-            public boolean handleMessage(Message msg) {
-                Log.d(TAG, "got a notification in " + Thread.currentThread());
-                return false;
-            }
-        });
     }
 
     public static BluetoothService getInstance() {
@@ -38,221 +40,155 @@ public class BluetoothService {
     }
 
     public String getConnectedDeviceName() {
-        return connectedDevice;
+        return mPrimary.getDeviceName();
     }
 
+    /**
+     * One of the STATE_ constants.
+     */
+    public int getConnectionState() {
+        return mPrimary.getState();
+    }
 
     public void disConnectFromDevice() {
-        //close existing connections
-        if (mConnectedThread != null) mConnectedThread.cancel();
-        if (mConnectThread != null) mConnectThread.cancel();
-        connectedDevice = null;
+        mPrimary.disconnect();
     }
 
     public void connectToDevice(BluetoothDevice device) {
-        //close existing connections
-        if (mConnectedThread != null) mConnectedThread.cancel();
-        if (mConnectThread != null) mConnectThread.cancel();
-
-        mConnectThread = new ConnectThread(device);
-        mConnectThread.start();
+        connect(RfcommTransport.factory(device));
     }
 
-    private void manageMyConnectedSocket(String deviceName, BluetoothSocket mmSocket) {
-        if (mmSocket.isConnected()) {
-
-            connectedDevice = deviceName;
-
-            // Send the obtained bytes to the UI activity.
-            Message readMsg = mHandler.obtainMessage(
-                    MessageConstants.MESSAGE_CONNECTED, -1, -1,
-                    deviceName);
-            readMsg.sendToTarget();
-
-            mConnectedThread = new ConnectedThread(mmSocket);
-            mConnectedThread.start();
-        } else {
-            // Send the obtained bytes to the UI activity.
-            connectedDevice = null;
-            Message readMsg = mHandler.obtainMessage(
-                    MessageConstants.MESSAGE_UNABLE_TO_CONNECT, -1, -1,
-                    deviceName);
-            readMsg.sendToTarget();
-        }
+    /**
+     * Connects to the car the factory's transports reach, e.g. {@link LoopbackTransport}s to
+     * the simulator, and keeps reconnecting if the link drops until
+     * {@link #disConnectFromDevice()} or the backoff gives up.
+     */
+    public void connect(Transport.Factory factory) {
+        mPrimary.connect(factory);
     }
 
-    public boolean send(String command) {
-        return mConnectedThread.write(command);
+    /**
+     * Connects another car alongside the primary, on a link of its own.
+     *
+     * @return its link id in {@link #getPool()}, or -1 if every link is in use.
+     */
+    public int addCar(BluetoothDevice device) {
+        return mPool.add(RfcommTransport.factory(device));
     }
 
-    public void registerNewHandlerCallback(Handler.Callback callback) {
-        mHandler = new Handler(callback);
+    public ConnectionPool getPool() {
+        return mPool;
     }
 
-    // Defines several constants used when transmitting messages between the
-    // service and the UI.
-    public interface MessageConstants {
-        public static final int MESSAGE_READ = 0;
-        public static final int MESSAGE_WRITE = 1;
-        public static final int MESSAGE_TOAST = 2;
-        public static final int MESSAGE_CONNECTED = 3;
-        public static final int MESSAGE_UNABLE_TO_CONNECT = 4;
-        public static final int MESSAGE_DISCONNECTED = 5;
+    /**
+     * Sends every command for the primary to these cars as well, e.g. {@link ConnectionPool#ALL}
+     * to drive them all together, or {@link ConnectionPool#NONE}. The primary's bit is ignored.
+     */
+    public void setFollowers(long address) {
+        mFollowers = address & ~ConnectionPool.address(ConnectionPool.PRIMARY);
     }
 
-    private class ConnectThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
+    public long getFollowers() {
+        return mFollowers;
+    }
 
-        public ConnectThread(BluetoothDevice device) {
-            // Use a temporary object that is later assigned to mmSocket
-            // because mmSocket is final.
-            BluetoothSocket tmp = null;
-            mmDevice = device;
-            try {
-                // Get a BluetoothSocket to connect with the given BluetoothDevice.
-                // SERVICE_UUID is the app's UUID string, also used in the server code.
-                tmp = device.createRfcommSocketToServiceRecord(SERVICE_UUID);
-            } catch (IOException e) {
-                Log.e(TAG, "Socket's create() method failed", e);
-            }
-            mmSocket = tmp;
+    /**
+     * Queues a command for the connection's writer thread and returns without blocking, so it
+     * is safe to call from the UI thread. If there is no connection the returned handle has
+     * already failed with {@link PendingSend#FAILURE_NOT_CONNECTED}.
+     */
+    public PendingSend send(String command) {
+        CommandJournal journal = mJournal;
+        if (journal != null && mPrimary.getState() == STATE_CONNECTED) {
+            journal.recordCommand(command, System.nanoTime());
         }
-
-        public void run() {
-            try {
-                // Connect to the remote device through the socket. This call blocks
-                // until it succeeds or throws an exception.
-                mmSocket.connect();
-            } catch (IOException connectException) {
-                // Unable to connect; close the socket and return.
-                try {
-                    mmSocket.close();
-                } catch (IOException closeException) {
-                    Log.e(TAG, "Could not close the client socket", closeException);
-                }
-            }
-
-            // The connection attempt succeeded. Perform work associated with
-            // the connection in a separate thread.
-            manageMyConnectedSocket(mmDevice.getName(), mmSocket);
-        }
-
-        // Closes the client socket and causes the thread to finish.
-        public void cancel() {
-            try {
-                mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Could not close the client socket", e);
-            }
+        long followers = mFollowers;
+        if (followers != ConnectionPool.NONE) {
+            mPool.send(followers, command);
         }
+        return mPrimary.send(command);
     }
 
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final InputStream mmInStream;
-        private final OutputStream mmOutStream;
-
-        public ConnectedThread(BluetoothSocket socket) {
-            mmSocket = socket;
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
-
-            // Get the input and output streams; using temp objects because
-            // member streams are final.
-            try {
-                tmpIn = socket.getInputStream();
-            } catch (IOException e) {
-                Log.e(TAG, "Error occurred when creating input stream", e);
-            }
-            try {
-                tmpOut = socket.getOutputStream();
-            } catch (IOException e) {
-                Log.e(TAG, "Error occurred when creating output stream", e);
-            }
-
-            mmInStream = tmpIn;
-            mmOutStream = tmpOut;
+    /**
+     * Sends an analog drive update, see {@link AnalogDriveStreamer}. Cars without
+     * {@link DeviceCapabilities#ANALOG_DRIVE} get the nearest discrete drive command instead.
+     */
+    public void sendAnalogDrive(int throttle, int steering) {
+        CommandJournal journal = mJournal;
+        if (journal != null && mPrimary.getState() == STATE_CONNECTED) {
+            journal.recordAnalogDrive(throttle, steering, System.nanoTime());
         }
+        long followers = mFollowers;
+        if (followers != ConnectionPool.NONE) {
+            mPool.sendAnalogDrive(followers, throttle, steering);
+        }
+        mPrimary.sendAnalogDrive(throttle, steering);
+    }
 
-        public void run() {
-            // Keep listening to the InputStream until an exception occurs.
-            while (true) {
-                try {
-                    // Read from the InputStream.
-                    byte[] buffer = new byte[4];
-                    int read = mmInStream.read(buffer);
-                    if (read < 4) {
-                        this.cancel();
-                    }
-                    int dataLength = ByteBuffer.wrap(buffer).getInt();
-
-                    buffer = new byte[dataLength];
-                    read = mmInStream.read(buffer);
-                    if (read < dataLength) {
-                        this.cancel();
-                    }
+    /**
+     * Journals every command given to {@link #send} and {@link #sendAnalogDrive} and every
+     * frame received from now on, or stops journaling if null. The caller closes the journal.
+     */
+    public void setJournal(CommandJournal journal) {
+        mJournal = journal;
+        mPrimary.setJournal(journal);
+    }
 
-                    String command = new String(buffer);
+    /**
+     * Protocol extensions negotiated with the connected car, see {@link DeviceCapabilities}.
+     */
+    public int getDeviceCapabilities() {
+        return mPrimary.getCapabilities();
+    }
 
-                    // Send the obtained bytes to the UI activity.
-                    Message readMsg = mHandler.obtainMessage(
-                            MessageConstants.MESSAGE_READ, -1, -1,
-                            command);
-                    readMsg.sendToTarget();
-                } catch (IOException e) {
-                    Log.d(TAG, "Input stream was disconnected", e);
-                    Message readMsg = mHandler.obtainMessage(
-                            MessageConstants.MESSAGE_DISCONNECTED, -1, -1,
-                            "");
-                    readMsg.sendToTarget();
-                    break;
-                }
-            }
-        }
+    /**
+     * Average framed bytes per command sent on the current connection, header included.
+     */
+    public double getBytesPerCommand() {
+        return mPrimary.getBytesPerCommand();
+    }
 
-        // Call this from the main activity to send data to the remote device.
-        public boolean write(String command) {
+    /**
+     * Commands on the channel that were replaced by a newer one before reaching the car,
+     * see {@link CommandChannel}.
+     */
+    public long getSupersededCount(int channel) {
+        return mPrimary.getSupersededCount(channel);
+    }
 
-            try {
-                // Allocate bytes for integer indicating size and message itself
-                ByteBuffer bb = ByteBuffer.allocate(4 + command.length())
-                        .putInt(command.length())
-                        .put(command.getBytes());
+    public TimerWheel getTimers() {
+        return mTimers;
+    }
 
-                mmOutStream.write(bb.array());
-                mmOutStream.flush();
+    /**
+     * Round trip probe of the current connection, or null when not connected. It only collects
+     * samples if the car supports {@link DeviceCapabilities#PING}.
+     */
+    public LatencyProbe getLatencyProbe() {
+        return mPrimary.getLatencyProbe();
+    }
 
-                // Share the sent message with the UI activity.
-                Message writtenMsg = mHandler.obtainMessage(MessageConstants.MESSAGE_WRITE, -1, -1, command);
-                writtenMsg.sendToTarget();
-                return true;
-            } catch (IOException e) {
-                Log.e(TAG, "Error occurred when sending data", e);
-                Message readMsg = mHandler.obtainMessage(
-                        MessageConstants.MESSAGE_DISCONNECTED, -1, -1,
-                        "");
-                readMsg.sendToTarget();
+    /**
+     * Counters and write latency for every connection since the app started, see
+     * {@link BluetoothMetrics}.
+     */
+    public BluetoothMetrics.Snapshot getMetricsSnapshot() {
+        return mPrimary.getMetricsSnapshot();
+    }
 
-                // Send a failure message back to the activity.
-//                Message writeErrorMsg =
-//                        mHandler.obtainMessage(MessageConstants.MESSAGE_TOAST);
-//                Bundle bundle = new Bundle();
-//                bundle.putString("toast",
-//                        "Couldn't send data to the other device");
-//                writeErrorMsg.setData(bundle);
-                //mHandler.sendMessage(writeErrorMsg);
-            }
-            return false;
-        }
+    /**
+     * Sensor readings from every connection since the app started, for cars that advertise
+     * {@link DeviceCapabilities#TELEMETRY}.
+     */
+    public Telemetry getTelemetry() {
+        return mTelemetry;
+    }
 
-        // Call this method from the main activity to shut down the connection.
-        public void cancel() {
-            try {
-                mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Could not close the connect socket", e);
-            }
-        }
+    /**
+     * Connection events for the UI and anything else that wants them. Successful writes are
+     * not published; use the {@link PendingSend} returned by {@link #send} to follow one.
+     */
+    public ConnectionEventBus getEventBus() {
+        return mEventBus;
     }
 }
@@ -0,0 +1,90 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * Every slot carries a sequence number telling producers whether it is free and the consumer
+ * whether it has been published, so neither side takes a lock and offering never allocates.
+ * Only one thread may call {@link #poll()}.
+ */
+public class BoundedMpscQueue<E> {
+    private final AtomicReferenceArray<E> mElements;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+
+    public BoundedMpscQueue(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mElements = new AtomicReferenceArray<>(capacity);
+        mSequences = new AtomicLongArray(capacity);
+        mMask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return false if the queue is full.
+     */
+    public boolean offer(E element) {
+        long tail;
+        int index;
+        while (true) {
+            tail = mTail.get();
+            index = (int) tail & mMask;
+            long available = mSequences.get(index) - tail;
+            if (available == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                return false;
+            }
+        }
+
+        mElements.lazySet(index, element);
+        mSequences.lazySet(index, tail + 1);
+        return true;
+    }
+
+    /**
+     * @return the oldest element, or null if the queue is empty. Consumer thread only.
+     */
+    public E poll() {
+        long head = mHead.get();
+        int index = (int) head & mMask;
+        if (mSequences.get(index) != head + 1) {
+            return null;
+        }
+
+        E element = mElements.get(index);
+        mElements.lazySet(index, null);
+        mSequences.lazySet(index, head + mMask + 1);
+        mHead.lazySet(head + 1);
+        return element;
+    }
+
+    public boolean isEmpty() {
+        long head = mHead.get();
+        return mSequences.get((int) head & mMask) != head + 1;
+    }
+
+    /**
+     * Approximate number of queued elements; exact only when producers are idle.
+     */
+    public int size() {
+        long size = mTail.get() - mHead.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+}
@@ -7,8 +7,6 @@ import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.WebView;
-import android.webkit.WebViewClient;
 import android.widget.Toast;
 
 
@@ -30,7 +28,7 @@ public class CameraFeedFragment extends Fragment {
     private String mParam2;
 
     //private OnFragmentInteractionListener mListener;
-    private WebView mWebView = null;
+    private CameraStreamView mFeedView = null;
 
     public CameraFeedFragment() {
         // Required empty public constructor
@@ -59,20 +57,20 @@ public class CameraFeedFragment extends Fragment {
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
         View rootView = inflater.inflate(R.layout.fragment_camera_feed, container, false);
-        mWebView = (WebView) rootView.findViewById(R.id.feedview);
-        mWebView.getSettings().setJavaScriptEnabled(true);
-        mWebView.setWebViewClient(new HelloWebViewClient());
+        mFeedView = (CameraStreamView) rootView.findViewById(R.id.feedview);
 
         return rootView;
     }
 
     @Override
     public void setUserVisibleHint(boolean isVisibleToUser) {
-        if (this.hostIpAddress != null) {
-            mWebView.loadUrl(getFeedUrl());
+        if (mFeedView == null) {
+            return;
         }
-        else{
-            mWebView.loadUrl("http://nofeed/");
+        if (isVisibleToUser && this.hostIpAddress != null) {
+            mFeedView.start(hostIpAddress);
+        } else {
+            mFeedView.stop();
         }
     }
 
@@ -108,15 +106,4 @@ public class CameraFeedFragment extends Fragment {
 //        // TODO: Update argument type and name
 //        void onFragmentInteraction(Uri uri);
 //    }
-    private String getFeedUrl() {
-        return "http://" + hostIpAddress + "/";
-    }
-
-    private class HelloWebViewClient extends WebViewClient {
-        @Override
-        public boolean shouldOverrideUrlLoading(WebView view, String url) {
-            view.loadUrl(url);
-            return true;
-        }
-    }
 }
@@ -0,0 +1,312 @@
+package com.example.viveksni.androidrcremote;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.TextureView;
+
+import java.io.IOException;
+
+/**
+ * Shows the car's camera without a WebView. One thread pulls JPEG frames over a
+ * {@link VideoFrameSocket} and asks for the next frame as soon as one has arrived, while a
+ * second decodes the newest frame into a reused bitmap and draws it, so network and decode
+ * overlap and a frame that arrives during a decode replaces the one waiting instead of adding
+ * to the lag.
+ */
+public class CameraStreamView extends TextureView {
+    private static final String TAG = "CameraStreamView";
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final long RETRY_MILLIS = 1000;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mDestination = new Rect();
+    // A stopped stream's render thread can still be drawing when the next one starts.
+    private final Object mDrawLock = new Object();
+    private final LatencyHistogram mDisplayLatency = new LatencyHistogram();
+    private Stream mStream;
+    private Runnable mFirstFrameCallback;
+    private volatile FrameRecorder mRecorder;
+    private volatile AdaptiveQualityController mQualityController;
+    private volatile long mFramesShown;
+
+    public CameraStreamView(Context context) {
+        super(context);
+        setOpaque(true);
+    }
+
+    public CameraStreamView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setOpaque(true);
+    }
+
+    public CameraStreamView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        setOpaque(true);
+    }
+
+    /**
+     * Starts streaming from the car, reconnecting until {@link #stop()} if the stream drops.
+     */
+    public void start(String hostIpAddress) {
+        stop();
+        mStream = new Stream(hostIpAddress);
+        mStream.start();
+    }
+
+    public void stop() {
+        if (mStream != null) {
+            mStream.cancel();
+            mStream = null;
+        }
+    }
+
+    /**
+     * Runs on the UI thread when the first frame of each {@link #start} has been drawn.
+     */
+    public void setFirstFrameCallback(Runnable callback) {
+        mFirstFrameCallback = callback;
+    }
+
+    /**
+     * Tees every received frame, shown or dropped, into the recorder, or stops with null.
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    /**
+     * Reports transfer and decode times to the controller and paces frame requests to its
+     * level's frame rate, or requests frames as fast as they come with null.
+     */
+    public void setQualityController(AdaptiveQualityController controller) {
+        mQualityController = controller;
+    }
+
+    public long getFramesShown() {
+        return mFramesShown;
+    }
+
+    public long getFramesDropped() {
+        Stream stream = mStream;
+        return stream != null ? stream.mExchanger.getDroppedCount() : 0;
+    }
+
+    // From the last byte of a frame arriving to it being posted to the display.
+    public LatencyHistogram getDisplayLatency() {
+        return mDisplayLatency;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stop();
+        super.onDetachedFromWindow();
+    }
+
+    private void draw(Stream stream, Bitmap bitmap, long receivedNanos) {
+        synchronized (mDrawLock) {
+            if (stream.mCancelled) {
+                return;
+            }
+            Canvas canvas = lockCanvas();
+            if (canvas == null) {
+                // The surface is not available yet or any more.
+                return;
+            }
+            try {
+                canvas.drawColor(Color.BLACK);
+                // Fit the frame inside the view, keeping its aspect ratio.
+                float scale = Math.min((float) getWidth() / bitmap.getWidth(), (float) getHeight() / bitmap.getHeight());
+                int width = Math.round(bitmap.getWidth() * scale);
+                int height = Math.round(bitmap.getHeight() * scale);
+                int left = (getWidth() - width) / 2;
+                int top = (getHeight() - height) / 2;
+                mDestination.set(left, top, left + width, top + height);
+                canvas.drawBitmap(bitmap, null, mDestination, mPaint);
+            } finally {
+                unlockCanvasAndPost(canvas);
+            }
+            mDisplayLatency.recordNanos(System.nanoTime() - receivedNanos);
+            mFramesShown++;
+        }
+    }
+
+    private final class Stream {
+        private final String mHost;
+        private final VideoFrameExchanger mExchanger = new VideoFrameExchanger();
+        private final Thread mReceiveThread;
+        private final Thread mRenderThread;
+        private volatile boolean mCancelled;
+        private volatile VideoFrameSocket mSocket;
+
+        Stream(String host) {
+            mHost = host;
+            mReceiveThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    receive();
+                }
+            }, "CameraStream-receive");
+            mRenderThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    render();
+                }
+            }, "CameraStream-render");
+        }
+
+        void start() {
+            mReceiveThread.start();
+            mRenderThread.start();
+        }
+
+        void cancel() {
+            mCancelled = true;
+            mExchanger.close();
+            closeSocket();
+            mReceiveThread.interrupt();
+        }
+
+        private void receive() {
+            while (!mCancelled) {
+                try {
+                    mSocket = VideoFrameSocket.connect(mHost, VideoFrameSocket.DEFAULT_PORT, TIMEOUT_MILLIS);
+                    if (mCancelled) {
+                        break;
+                    }
+                    long requestedNanos = System.nanoTime();
+                    mSocket.requestFrame();
+                    while (!mCancelled && mSocket.readFrame(mExchanger.getWriteFrame())) {
+                        VideoFrameExchanger.Frame frame = mExchanger.getWriteFrame();
+                        long receivedNanos = frame.getReceivedNanos();
+                        long nextRequestNanos = receivedNanos;
+                        AdaptiveQualityController controller = mQualityController;
+                        if (controller != null) {
+                            controller.onFrameReceived(frame.getLength(), receivedNanos - requestedNanos);
+                            nextRequestNanos = requestedNanos + controller.getMinFrameIntervalNanos();
+                        }
+
+                        // The car handles one request at a time, so unless that would exceed the
+                        // frame rate, ask for the next frame straight away and let the decode
+                        // overlap its capture and transfer.
+                        boolean requested = nextRequestNanos <= receivedNanos;
+                        if (requested) {
+                            requestedNanos = System.nanoTime();
+                            mSocket.requestFrame();
+                        }
+                        record(frame);
+                        mExchanger.publish();
+                        if (!requested) {
+                            long delayNanos = nextRequestNanos - System.nanoTime();
+                            if (delayNanos > 0) {
+                                Thread.sleep(delayNanos / 1000000, (int) (delayNanos % 1000000));
+                            }
+                            requestedNanos = System.nanoTime();
+                            mSocket.requestFrame();
+                        }
+                    }
+                } catch (IOException e) {
+                    if (!mCancelled) {
+                        Log.d(TAG, "Camera stream failed", e);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+                closeSocket();
+                if (!mCancelled) {
+                    try {
+                        Thread.sleep(RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            // A connect that finished after cancel() is closed here.
+            closeSocket();
+        }
+
+        private void render() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            // JPEGs have no alpha, and 565 halves the memory the decoder has to fill.
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            boolean first = true;
+            try {
+                while (!mCancelled) {
+                    VideoFrameExchanger.Frame frame = mExchanger.take(TIMEOUT_MILLIS);
+                    if (frame == null) {
+                        continue;
+                    }
+                    long decodeStartNanos = System.nanoTime();
+                    Bitmap bitmap = decode(frame, options);
+                    AdaptiveQualityController controller = mQualityController;
+                    if (controller != null) {
+                        controller.onFrameDecoded(System.nanoTime() - decodeStartNanos);
+                    }
+                    if (bitmap == null) {
+                        continue;
+                    }
+                    options.inBitmap = bitmap;
+                    draw(this, bitmap, frame.getReceivedNanos());
+                    if (first) {
+                        first = false;
+                        post(mFirstFrameRunnable);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Cancelled.
+            }
+        }
+
+        // Runs while the car captures the next frame, so it costs the live view nothing.
+        private void record(VideoFrameExchanger.Frame frame) {
+            FrameRecorder recorder = mRecorder;
+            if (recorder == null) {
+                return;
+            }
+            try {
+                recorder.append(frame.getData(), frame.getLength(), System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not record camera frame, recording stopped", e);
+                mRecorder = null;
+                recorder.close();
+            }
+        }
+
+        private Bitmap decode(VideoFrameExchanger.Frame frame, BitmapFactory.Options options) {
+            try {
+                return BitmapFactory.decodeByteArray(frame.getData(), 0, frame.getLength(), options);
+            } catch (IllegalArgumentException e) {
+                // The frame no longer fits the reused bitmap, e.g. after a resolution change.
+                options.inBitmap = null;
+                return BitmapFactory.decodeByteArray(frame.getData(), 0, frame.getLength(), options);
+            }
+        }
+
+        private void closeSocket() {
+            VideoFrameSocket socket = mSocket;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "Could not close the camera socket", e);
+                }
+            }
+        }
+    }
+
+    private final Runnable mFirstFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mFirstFrameCallback != null) {
+                mFirstFrameCallback.run();
+            }
+        }
+    };
+}
@@ -0,0 +1,450 @@
+package com.example.viveksni.androidrcremote;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The link to one car: a session that connects and reconnects on the link's own thread, which
+ * then reads from the car, and a {@link CommandWriter} with its own writer thread. Each link
+ * has its own metrics and latency probe, and tags the events it publishes with its id, so a
+ * slow or dropped car does not hold up or confuse the others in a {@link ConnectionPool}.
+ * <p>
+ * Nothing here blocks the caller: connecting runs on the link's thread and closing a transport
+ * runs on the closer executor, so the UI thread never touches a socket.
+ */
+public class CarLink {
+    private static final String TAG = "CarLink";
+
+    private final int mId;
+    private final ConnectionEventBus mEventBus;
+    private final BluetoothMetrics mMetrics;
+    // Null if this link's readings are not wanted.
+    private final Telemetry mTelemetry;
+    private final TimerWheel mTimers;
+    private final int mProbeOwner;
+    private final Executor mCloser;
+    // Every session of this link runs on this one thread; the next starts once the previous
+    // has closed.
+    private final ExecutorService mConnectionExecutor;
+    private Session mSession;
+    private volatile Connection mConnection;
+    private volatile String mDeviceName;
+    private volatile int mState = BluetoothService.STATE_IDLE;
+    private volatile CommandJournal mJournal;
+
+    /**
+     * @param telemetry receives the car's sensor readings, or null to drop them.
+     * @param closer    closes transports, off the caller's thread.
+     */
+    public CarLink(int id, ConnectionEventBus eventBus, BluetoothMetrics metrics, Telemetry telemetry,
+                   TimerWheel timers, Executor closer) {
+        mId = id;
+        mEventBus = eventBus;
+        mMetrics = metrics;
+        mTelemetry = telemetry;
+        mTimers = timers;
+        mProbeOwner = timers.newOwner();
+        mCloser = closer;
+        mConnectionExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    // The connected car's name, or null.
+    public String getDeviceName() {
+        return mDeviceName;
+    }
+
+    /**
+     * One of the BluetoothService.STATE_ constants.
+     */
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * Connects to the car the factory's transports reach, and keeps reconnecting if the link
+     * drops until {@link #disconnect()} or the backoff gives up. Replaces any earlier session.
+     */
+    public synchronized void connect(Transport.Factory factory) {
+        if (mSession != null) {
+            mSession.cancel();
+        }
+        mSession = new Session(factory);
+        // Set here rather than on the link's thread, so the link is never seen idle meanwhile.
+        setState(BluetoothService.STATE_CONNECTING);
+        mConnectionExecutor.execute(mSession);
+    }
+
+    public synchronized void disconnect() {
+        if (mSession != null) {
+            mSession.cancel();
+            mSession = null;
+        }
+        mDeviceName = null;
+    }
+
+    // Disconnects and lets the link's thread end.
+    public synchronized void shutdown() {
+        disconnect();
+        mConnectionExecutor.shutdown();
+    }
+
+    /**
+     * Queues a command for the link's writer thread and returns without blocking. If there is
+     * no connection the returned handle has already failed with
+     * {@link PendingSend#FAILURE_NOT_CONNECTED}.
+     */
+    public PendingSend send(String command) {
+        Connection connection = mConnection;
+        if (connection == null) {
+            return PendingSend.failed(command, PendingSend.FAILURE_NOT_CONNECTED);
+        }
+        return connection.mmWriter.send(command);
+    }
+
+    /**
+     * Queues an analog drive update, or the nearest discrete drive command for cars without
+     * {@link DeviceCapabilities#ANALOG_DRIVE}.
+     *
+     * @return false if not connected.
+     */
+    public boolean sendAnalogDrive(int throttle, int steering) {
+        Connection connection = mConnection;
+        if (connection == null) {
+            return false;
+        }
+        if (DeviceCapabilities.supports(connection.mmCapabilities, DeviceCapabilities.ANALOG_DRIVE)) {
+            connection.mmWriter.sendAnalogDrive(throttle, steering);
+        } else {
+            connection.mmWriter.send(AnalogDriveStreamer.toDriveCommand(throttle, steering));
+        }
+        return true;
+    }
+
+    /**
+     * Journals the frames this link receives and its connections from now on, or stops if
+     * null. Commands are journaled by the sender.
+     */
+    public void setJournal(CommandJournal journal) {
+        mJournal = journal;
+    }
+
+    public int getCapabilities() {
+        Connection connection = mConnection;
+        return connection != null ? connection.mmCapabilities : DeviceCapabilities.NONE;
+    }
+
+    public double getBytesPerCommand() {
+        Connection connection = mConnection;
+        if (connection == null || connection.mmWriter.getCommandsSent() == 0) {
+            return 0;
+        }
+        return (double) connection.mmWriter.getBytesSent() / connection.mmWriter.getCommandsSent();
+    }
+
+    public long getSupersededCount(int channel) {
+        Connection connection = mConnection;
+        return connection != null ? connection.mmWriter.getSupersededCount(channel) : 0;
+    }
+
+    // Round trip probe of the current connection, or null when not connected.
+    public LatencyProbe getLatencyProbe() {
+        Connection connection = mConnection;
+        return connection != null ? connection.mmProbe : null;
+    }
+
+    public BluetoothMetrics.Snapshot getMetricsSnapshot() {
+        Connection connection = mConnection;
+        return mMetrics.snapshot(connection != null ? connection.mmWriter.getQueueDepth() : 0);
+    }
+
+    public ConnectionEventBus getEventBus() {
+        return mEventBus;
+    }
+
+    /**
+     * Connects, runs the connection and wins it back after a dropout, all on the link's
+     * thread. Explicit states make the transitions visible to the UI and in the log.
+     */
+    private class Session implements Runnable {
+        private final Transport.Factory mmFactory;
+        private final ReconnectBackoff mmBackoff = new ReconnectBackoff();
+        // Released by cancel(), which ends a backoff wait at once.
+        private final CountDownLatch mmCancelLatch = new CountDownLatch(1);
+        private volatile boolean mmCancelled;
+        private volatile Transport mmTransport;
+
+        Session(Transport.Factory factory) {
+            mmFactory = factory;
+        }
+
+        @Override
+        public void run() {
+            String deviceName = null;
+            long droppedNanos = 0;
+            setState(BluetoothService.STATE_CONNECTING);
+            while (!mmCancelled) {
+                Transport transport = mmFactory.create();
+                mmTransport = transport;
+                deviceName = transport.getName();
+                boolean connected = false;
+                try {
+                    // Blocks until it succeeds or throws; a failed transport closes itself.
+                    transport.connect();
+                    connected = transport.isConnected();
+                } catch (IOException connectException) {
+                    Log.e(TAG, "Could not connect to " + deviceName, connectException);
+                }
+
+                if (mmCancelled) {
+                    closeQuietly(transport);
+                    break;
+                }
+                if (connected) {
+                    if (droppedNanos != 0) {
+                        mMetrics.increment(BluetoothMetrics.RECONNECTS);
+                        mMetrics.recordReconnectTime(System.nanoTime() - droppedNanos);
+                    }
+                    mmBackoff.reset();
+                    runConnection(deviceName, transport);
+                    if (mmCancelled) {
+                        break;
+                    }
+                    droppedNanos = System.nanoTime();
+                } else {
+                    mMetrics.increment(BluetoothMetrics.CONNECT_FAILURES);
+                    if (droppedNanos == 0) {
+                        // The user's own attempt failed; let them decide whether to retry.
+                        setState(BluetoothService.STATE_IDLE);
+                        mEventBus.publishConnectFailed(mId, deviceName);
+                        return;
+                    }
+                }
+
+                long delayMillis = mmBackoff.nextDelayMillis();
+                if (delayMillis < 0) {
+                    Log.d(TAG, "Giving up on " + deviceName + " after " + mmBackoff.getAttempts() + " attempts");
+                    break;
+                }
+                mMetrics.increment(BluetoothMetrics.RECONNECT_ATTEMPTS);
+                setState(BluetoothService.STATE_RECONNECTING);
+                mEventBus.publishReconnecting(mId, deviceName, mmBackoff.getAttempts());
+                if (!sleep(delayMillis)) {
+                    break;
+                }
+            }
+
+            setState(BluetoothService.STATE_IDLE);
+            if (droppedNanos != 0 || mmCancelled) {
+                mEventBus.publishDisconnected(mId);
+            }
+        }
+
+        private void runConnection(String deviceName, Transport transport) {
+            Connection connection = new Connection(transport);
+            mMetrics.increment(BluetoothMetrics.CONNECTS);
+            mDeviceName = deviceName;
+            mConnection = connection;
+            setState(BluetoothService.STATE_CONNECTED);
+            CommandJournal journal = mJournal;
+            if (journal != null) {
+                journal.recordConnected(deviceName, System.nanoTime());
+            }
+            mEventBus.publishConnected(mId, deviceName);
+
+            try {
+                // Returns once the link drops or the session is cancelled.
+                connection.run();
+            } finally {
+                mConnection = null;
+                mDeviceName = null;
+                mMetrics.increment(BluetoothMetrics.DISCONNECTS);
+            }
+        }
+
+        private boolean sleep(long millis) {
+            try {
+                return !mmCancelLatch.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        // Closes the transport on the closer, which unblocks a connect or read in progress.
+        void cancel() {
+            mmCancelled = true;
+            mmCancelLatch.countDown();
+            final Transport transport = mmTransport;
+            if (transport != null) {
+                mCloser.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeQuietly(transport);
+                    }
+                });
+            }
+        }
+    }
+
+    private void setState(int state) {
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Car " + mId + " connection state " + mState + " -> " + state);
+        }
+        mState = state;
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close the client socket", e);
+        }
+    }
+
+    private class Connection implements CommandWriter.Callback {
+        private final Transport mmTransport;
+        private final InputStream mmInStream;
+        private final CommandWriter mmWriter;
+        private final FrameCodec mmCodec = new FrameCodec();
+        private final LatencyProbe mmProbe;
+        private long mmResyncCount;
+        private volatile int mmCapabilities = DeviceCapabilities.NONE;
+
+        public Connection(Transport transport) {
+            mmTransport = transport;
+            InputStream tmpIn = null;
+            OutputStream tmpOut = null;
+
+            // Get the input and output streams; using temp objects because
+            // member streams are final.
+            try {
+                tmpIn = transport.getInputStream();
+            } catch (IOException e) {
+                Log.e(TAG, "Error occurred when creating input stream", e);
+            }
+            try {
+                tmpOut = transport.getOutputStream();
+            } catch (IOException e) {
+                Log.e(TAG, "Error occurred when creating output stream", e);
+            }
+
+            mmInStream = tmpIn;
+            mmWriter = new CommandWriter(tmpOut, this, CommandWriter.DEFAULT_QUEUE_CAPACITY, mMetrics);
+            mmProbe = new LatencyProbe(new LatencyProbe.Sender() {
+                @Override
+                public void send(String command) {
+                    mmWriter.send(command);
+                }
+            }, mTimers, mProbeOwner);
+        }
+
+        // Runs on the session's thread until the link drops or is closed.
+        public void run() {
+            mmWriter.start();
+            try {
+                readFrames();
+            } catch (IOException e) {
+                Log.d(TAG, "Input stream was disconnected", e);
+            } catch (RuntimeException e) {
+                // A frame that could not be decoded or handled; the session reconnects.
+                Log.e(TAG, "Dropping the link after a bad frame", e);
+                mMetrics.increment(BluetoothMetrics.DECODE_ERRORS);
+            } finally {
+                mmProbe.stop();
+                mmWriter.close();
+                closeQuietly(mmTransport);
+            }
+        }
+
+        // Keeps listening to the InputStream until it ends or an exception occurs.
+        private void readFrames() throws IOException {
+            while (true) {
+                // Read from the InputStream; blocks until a whole frame has arrived.
+                int dataLength = mmCodec.readFrame(mmInStream);
+                long receivedNanos = System.nanoTime();
+                countFrame(dataLength);
+                if (dataLength < 0) {
+                    Log.d(TAG, "Input stream reached end of stream");
+                    return;
+                }
+                if (dataLength == 0) {
+                    continue;
+                }
+                CommandJournal journal = mJournal;
+                if (journal != null) {
+                    journal.recordFrame(mmCodec.getPayload().array(), 0, dataLength, receivedNanos);
+                }
+
+                // Readings go straight from the frame buffer into the rings, never via a String.
+                if (DeviceCapabilities.supports(mmCapabilities, DeviceCapabilities.TELEMETRY)
+                        && Telemetry.isTelemetryPayload(mmCodec.getPayload())) {
+                    if (mTelemetry != null) {
+                        mTelemetry.decode(mmCodec.getPayload(), receivedNanos);
+                    }
+                    continue;
+                }
+
+                String command = mmCodec.getPayloadString();
+                if (DeviceCapabilities.isCapabilitiesMessage(command)) {
+                    negotiate(DeviceCapabilities.parse(command));
+                    continue;
+                }
+                if (mmProbe.onMessage(command, receivedNanos)) {
+                    continue;
+                }
+
+                mEventBus.publishMessage(mId, command);
+            }
+        }
+
+        private void countFrame(int dataLength) {
+            if (dataLength >= 0) {
+                mMetrics.increment(BluetoothMetrics.FRAMES_RECEIVED);
+                mMetrics.add(BluetoothMetrics.BYTES_RECEIVED, FrameCodec.HEADER_LENGTH + dataLength);
+            }
+            // Each resync skipped past a frame header that could not be valid.
+            long resyncCount = mmCodec.getResyncCount();
+            if (resyncCount != mmResyncCount) {
+                mMetrics.add(BluetoothMetrics.DECODE_ERRORS, resyncCount - mmResyncCount);
+                mmResyncCount = resyncCount;
+            }
+        }
+
+        @Override
+        public void onWritten(PendingSend send) {
+            mMetrics.recordWriteLatency(System.nanoTime() - send.getEnqueuedNanos());
+        }
+
+        @Override
+        public void onWriteFailed(PendingSend send, IOException e) {
+            Log.e(TAG, "Error occurred when sending data", e);
+            mMetrics.increment(BluetoothMetrics.WRITE_FAILURES);
+            mEventBus.publishWriteFailed(mId, send != null ? send.getCommand() : null);
+            // Closing the transport ends the reader, and the session reconnects.
+            closeQuietly(mmTransport);
+        }
+
+        // Switches to the binary command encoding if the car offered it.
+        private void negotiate(int capabilities) {
+            mmCapabilities = capabilities;
+            if (DeviceCapabilities.supports(capabilities, DeviceCapabilities.BINARY_COMMANDS)) {
+                mmWriter.acknowledgeBinaryCommands();
+                Log.d(TAG, "Using binary command encoding");
+            }
+            if (DeviceCapabilities.supports(capabilities, DeviceCapabilities.PING)) {
+                mmProbe.start();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Logical control channels of the car. Each command on a channel replaces the state set by the
+ * previous one, so only the newest unsent command per channel is worth sending. Commands that
+ * belong to no channel, such as HORN or the auto mode toggle, are one-shots and always sent.
+ */
+public final class CommandChannel {
+    public static final int NONE = -1;
+    public static final int DRIVE = 0;
+    public static final int PAN_TILT = 1;
+    public static final int CAMERA = 2;
+    public static final int LIGHTS = 3;
+
+    public static final int COUNT = 4;
+
+    private static final String[] NAMES = {"drive", "pan/tilt", "camera", "lights"};
+
+    private CommandChannel() {
+    }
+
+    public static int of(String command) {
+        if (isNumbered(command, "DRIVE-")) {
+            return DRIVE;
+        } else if (isNumbered(command, "TILT-")) {
+            return PAN_TILT;
+        } else if (isNumbered(command, "CAM-")) {
+            return CAMERA;
+        } else if (command.equals(Commands.CAMERA_LED_ON) || command.equals(Commands.CAMERA_LED_OFF)) {
+            return LIGHTS;
+        }
+        return NONE;
+    }
+
+    public static String name(int channel) {
+        return channel >= 0 && channel < COUNT ? NAMES[channel] : "none";
+    }
+
+    // DRIVE-2 is a channel command, DRIVE-AUTO a one-shot.
+    private static boolean isNumbered(String command, String prefix) {
+        int length = command.length();
+        if (length <= prefix.length() || !command.startsWith(prefix)) {
+            return false;
+        }
+        for (int i = prefix.length(); i < length; i++) {
+            char c = command.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journals the commands sent and the frames received, with their {@link System#nanoTime()}
+ * stamps, to an append-only file that {@link CommandReplayer} can play back.
+ * <p>
+ * Recording must not slow the send path, so entries go into a ring of preallocated slots with
+ * the same lock-free claim and publish protocol as {@link BoundedMpscQueue}: a producer claims
+ * a slot, copies the command's bytes into it and publishes it, without allocating or waking
+ * anyone. A writer thread drains the ring every {@link #DRAIN_INTERVAL_MILLIS}. If the ring is
+ * full the entry is dropped and counted rather than making the producer wait.
+ * <p>
+ * The file is a header of {@link #MAGIC}, the wall clock time and the nanoTime it was taken
+ * at, followed by entries: the type, the stamp as a zigzag varint offset from the previous
+ * entry's, the payload length as a varint, and the payload. Text is UTF-8.
+ */
+public class CommandJournal implements Closeable {
+    public static final int MAGIC = 0x41564A31;
+    public static final String FILE_SUFFIX = ".journal";
+
+    // A text command given to BluetoothService.send().
+    public static final byte ENTRY_COMMAND = 1;
+    // An analog drive update: throttle and steering as signed bytes.
+    public static final byte ENTRY_ANALOG_DRIVE = 2;
+    // A frame payload read from the car, text or binary.
+    public static final byte ENTRY_FRAME = 3;
+    // A connection was made; the payload is the device name.
+    public static final byte ENTRY_CONNECTED = 4;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    // Longer payloads are cut; commands and status messages are far shorter.
+    public static final int MAX_ENTRY_BYTES = 256;
+    public static final long DRAIN_INTERVAL_MILLIS = 20;
+
+    private final long[] mStamps;
+    private final byte[] mTypes;
+    private final int[] mLengths;
+    private final byte[] mData;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    // Only used by the writer thread.
+    private long mHead;
+    private long mLastStamp;
+    private final ByteBuffer mOut = ByteBuffer.allocate(64 * 1024);
+    private final FileOutputStream mFile;
+    private final FileChannel mChannel;
+    private final Thread mWriter;
+
+    private volatile boolean mClosed;
+    private volatile long mEntriesWritten;
+    private volatile IOException mError;
+
+    public CommandJournal(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity entries the ring holds, a power of two.
+     */
+    public CommandJournal(File file, int capacity) throws IOException {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mStamps = new long[capacity];
+        mTypes = new byte[capacity];
+        mLengths = new int[capacity];
+        mData = new byte[capacity * MAX_ENTRY_BYTES];
+        mSequences = new AtomicLongArray(capacity);
+        mMask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, i);
+        }
+
+        mFile = new FileOutputStream(file);
+        mChannel = mFile.getChannel();
+        mLastStamp = System.nanoTime();
+        mOut.putInt(MAGIC);
+        mOut.putLong(System.currentTimeMillis());
+        mOut.putLong(mLastStamp);
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "CommandJournal");
+        mWriter.start();
+    }
+
+    public void recordCommand(String command, long nanos) {
+        // A claimed slot must always be published, so nothing may throw after claim().
+        if (command == null) {
+            return;
+        }
+        long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        int index = (int) sequence & mMask;
+        // Cut at a character boundary if it does not fit the slot.
+        mLengths[index] = FrameCodec.encodeUtf8(command, mData, index * MAX_ENTRY_BYTES,
+                (index + 1) * MAX_ENTRY_BYTES, true);
+        publish(sequence, index, ENTRY_COMMAND, nanos);
+    }
+
+    public void recordAnalogDrive(int throttle, int steering, long nanos) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        int index = (int) sequence & mMask;
+        mData[index * MAX_ENTRY_BYTES] = (byte) throttle;
+        mData[index * MAX_ENTRY_BYTES + 1] = (byte) steering;
+        mLengths[index] = 2;
+        publish(sequence, index, ENTRY_ANALOG_DRIVE, nanos);
+    }
+
+    public void recordFrame(byte[] payload, int offset, int length, long nanos) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        int index = (int) sequence & mMask;
+        int kept = Math.min(length, MAX_ENTRY_BYTES);
+        System.arraycopy(payload, offset, mData, index * MAX_ENTRY_BYTES, kept);
+        mLengths[index] = kept;
+        publish(sequence, index, ENTRY_FRAME, nanos);
+    }
+
+    public void recordConnected(String deviceName, long nanos) {
+        if (deviceName == null) {
+            return;
+        }
+        long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        int index = (int) sequence & mMask;
+        mLengths[index] = FrameCodec.encodeUtf8(deviceName, mData, index * MAX_ENTRY_BYTES,
+                (index + 1) * MAX_ENTRY_BYTES, true);
+        publish(sequence, index, ENTRY_CONNECTED, nanos);
+    }
+
+    // Returns the claimed sequence, or -1 if the ring is full or the journal closed.
+    private long claim() {
+        if (mClosed) {
+            return -1;
+        }
+        while (true) {
+            long tail = mTail.get();
+            long available = mSequences.get((int) tail & mMask) - tail;
+            if (available == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    return tail;
+                }
+            } else if (available < 0) {
+                mDropped.incrementAndGet();
+                return -1;
+            }
+        }
+    }
+
+    private void publish(long sequence, int index, byte type, long nanos) {
+        mTypes[index] = type;
+        mStamps[index] = nanos;
+        // Orders the slot's plain writes before the writer can see it published.
+        mSequences.lazySet(index, sequence + 1);
+    }
+
+    // Entries lost because the ring was full.
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public long getEntriesWritten() {
+        return mEntriesWritten;
+    }
+
+    // Why the writer stopped, or null if it has not.
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * Writes what has been recorded and closes the file. Returns without waiting.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        LockSupport.unpark(mWriter);
+    }
+
+    // Waits for the writer to finish; for tests and replaying a journal just closed.
+    public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        mWriter.join(timeoutMillis);
+        return !mWriter.isAlive();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                boolean closed = mClosed;
+                // Every producer that claimed a slot before the close is publishing it now.
+                while (drainOnce() || (closed && mHead < mTail.get())) {
+                    Thread.yield();
+                }
+                flush();
+                if (closed) {
+                    break;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL_MILLIS));
+            }
+        } catch (IOException e) {
+            mError = e;
+            mClosed = true;
+        } finally {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                if (mError == null) {
+                    mError = e;
+                }
+            }
+        }
+    }
+
+    // Moves the published entries into the output buffer; returns false if there were none.
+    private boolean drainOnce() throws IOException {
+        boolean drained = false;
+        while (true) {
+            int index = (int) mHead & mMask;
+            if (mSequences.get(index) != mHead + 1) {
+                return drained;
+            }
+            int length = mLengths[index];
+            // Type, two varints of at most 10 bytes, and the payload.
+            if (mOut.remaining() < 21 + length) {
+                flush();
+            }
+            mOut.put(mTypes[index]);
+            SessionLog.writeZigzag(mOut, mStamps[index] - mLastStamp);
+            SessionLog.writeVarint(mOut, length);
+            mOut.put(mData, index * MAX_ENTRY_BYTES, length);
+            mLastStamp = mStamps[index];
+
+            mSequences.lazySet(index, mHead + mMask + 1);
+            mHead++;
+            mEntriesWritten++;
+            drained = true;
+        }
+    }
+
+    private void flush() throws IOException {
+        mOut.flip();
+        while (mOut.hasRemaining()) {
+            mChannel.write(mOut);
+        }
+        mOut.clear();
+    }
+
+    public interface Visitor {
+        /**
+         * @param payload valid up to {@code length}, and only until this call returns.
+         */
+        void onEntry(byte type, long nanos, byte[] payload, int length);
+    }
+
+    /**
+     * Reads a journal's entries in order, stopping quietly at an entry cut short by a crash.
+     *
+     * @return the wall clock time in milliseconds when the journal was started.
+     */
+    public static long read(File file, Visitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a command journal: " + file);
+            }
+            long startMillis = in.readLong();
+            long stamp = in.readLong();
+            byte[] payload = new byte[MAX_ENTRY_BYTES];
+            try {
+                while (true) {
+                    int type = in.read();
+                    if (type < 0) {
+                        break;
+                    }
+                    long delta = readVarint(in);
+                    stamp += (delta >>> 1) ^ -(delta & 1);
+                    int length = (int) readVarint(in);
+                    if (length > MAX_ENTRY_BYTES) {
+                        break;
+                    }
+                    in.readFully(payload, 0, length);
+                    visitor.onEntry((byte) type, stamp, payload, length);
+                }
+            } catch (EOFException e) {
+                // The last entry was cut short.
+            }
+            return startMillis;
+        }
+    }
+
+    /**
+     * The journals in a directory, oldest first, if they are named by their start time.
+     */
+    public static File[] listJournals(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint longer than 64 bits");
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the commands in a {@link CommandJournal} again, to a real car through
+ * {@link BluetoothService} or to a {@link DeviceSimulator} over a {@link LoopbackTransport},
+ * with the gaps between them as they were recorded or scaled by a speed factor. Frames the car
+ * sent are not replayed; they are counted so a run can be compared with the original.
+ * <p>
+ * The journal is loaded before the first command goes out so reading the file cannot delay
+ * one. Each command is due at its recorded offset from the first divided by the speed; the
+ * replay parks until shortly before that, then spins, and records how late each send was.
+ */
+public class CommandReplayer {
+    // Ignore the recorded gaps and send everything back to back.
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    // Parking can overshoot by about a scheduler tick, so the last stretch is spun.
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    public interface Target {
+        void sendCommand(String command);
+
+        void sendAnalogDrive(int throttle, int steering);
+    }
+
+    private final Target mTarget;
+    private final double mSpeed;
+    private final LatencyHistogram mLateness = new LatencyHistogram();
+    // Held while sending, so nothing goes out once cancel() has returned.
+    private final Object mSendLock = new Object();
+    private volatile boolean mCancelled;
+    private volatile long mCommandsReplayed;
+    private long mFramesRecorded;
+
+    /**
+     * @param speed 1 for the recorded timing, 10 for ten times faster, or
+     *              {@link #AS_FAST_AS_POSSIBLE}.
+     */
+    public CommandReplayer(Target target, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        mTarget = target;
+        mSpeed = speed;
+    }
+
+    /**
+     * Replays the journal on the calling thread, returning when every command has been sent
+     * or the replay was cancelled.
+     *
+     * @return the number of commands sent.
+     */
+    public long replay(File journal) throws IOException, InterruptedException {
+        final ArrayList<Entry> entries = new ArrayList<>();
+        mCommandsReplayed = 0;
+        mFramesRecorded = 0;
+        CommandJournal.read(journal, new CommandJournal.Visitor() {
+            @Override
+            public void onEntry(byte type, long nanos, byte[] payload, int length) {
+                if (type == CommandJournal.ENTRY_COMMAND) {
+                    entries.add(new Entry(nanos, new String(payload, 0, length, SessionLog.UTF_8), 0, 0));
+                } else if (type == CommandJournal.ENTRY_ANALOG_DRIVE && length == 2) {
+                    entries.add(new Entry(nanos, null, payload[0], payload[1]));
+                } else if (type == CommandJournal.ENTRY_FRAME) {
+                    mFramesRecorded++;
+                }
+            }
+        });
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            long dueNanos = startNanos;
+            if (mSpeed != AS_FAST_AS_POSSIBLE) {
+                dueNanos += (long) ((entry.mNanos - entries.get(0).mNanos) / mSpeed);
+                waitUntil(dueNanos);
+            }
+            synchronized (mSendLock) {
+                if (mCancelled) {
+                    break;
+                }
+                mLateness.recordNanos(System.nanoTime() - dueNanos);
+                if (entry.mCommand != null) {
+                    mTarget.sendCommand(entry.mCommand);
+                } else {
+                    mTarget.sendAnalogDrive(entry.mThrottle, entry.mSteering);
+                }
+                mCommandsReplayed++;
+            }
+        }
+        return mCommandsReplayed;
+    }
+
+    private static void waitUntil(long dueNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = dueNanos - System.nanoTime()) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Stops a replay in progress. Once this returns no further command goes out, so the caller
+     * can stop the car. Interrupt the replaying thread as well to end a wait at once.
+     */
+    public void cancel() {
+        synchronized (mSendLock) {
+            mCancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public long getCommandsReplayed() {
+        return mCommandsReplayed;
+    }
+
+    // Frames from the car in the journal replayed last, for comparing with what came back.
+    public long getFramesRecorded() {
+        return mFramesRecorded;
+    }
+
+    /**
+     * How late each command went out compared with its recorded timing.
+     */
+    public LatencyHistogram getLateness() {
+        return mLateness;
+    }
+
+    // A text command, or an analog drive update if mCommand is null.
+    private static final class Entry {
+        final long mNanos;
+        final String mCommand;
+        final int mThrottle;
+        final int mSteering;
+
+        Entry(long nanos, String command, int throttle, int steering) {
+            mNanos = nanos;
+            mCommand = command;
+            mThrottle = throttle;
+            mSteering = steering;
+        }
+    }
+}
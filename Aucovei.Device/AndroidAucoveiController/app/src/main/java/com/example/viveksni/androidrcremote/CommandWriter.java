@@ -0,0 +1,329 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Owns the output stream of a connection. Commands from any thread are queued and written in
+ * order by a single writer thread, so socket I/O never runs on the caller's thread and the
+ * frame buffer is never shared.
+ * <p>
+ * Commands on a {@link CommandChannel} are conflated: each channel has one slot, and a newer
+ * command replaces an older one the writer has not picked up yet. When the link is congested
+ * the car therefore receives the latest drive or tilt state instead of working through
+ * movements the operator already released. One-shot commands keep their queue position.
+ * Analog drive updates have a slot of their own holding the packed levels, so streaming them
+ * allocates nothing.
+ */
+public class CommandWriter {
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private static final int NO_ANALOG_DRIVE = Integer.MIN_VALUE;
+
+    // Called on the writer thread. Analog drive updates have no PendingSend, so send is null
+    // when one of them fails.
+    public interface Callback {
+        void onWritten(PendingSend send);
+
+        void onWriteFailed(PendingSend send, IOException e);
+    }
+
+    private final OutputStream mOutStream;
+    private final Callback mCallback;
+    private final BoundedMpscQueue<PendingSend> mQueue;
+    private final AtomicReferenceArray<PendingSend> mSlots = new AtomicReferenceArray<>(CommandChannel.COUNT);
+    private final PendingSend[] mSlotSignals = new PendingSend[CommandChannel.COUNT];
+    private final AtomicLongArray mSuperseded = new AtomicLongArray(CommandChannel.COUNT);
+    private final AtomicInteger mAnalogDrive = new AtomicInteger(NO_ANALOG_DRIVE);
+    private final PendingSend mAnalogDriveSignal = new PendingSend(null);
+    private final AtomicInteger mQueuedOneShots = new AtomicInteger();
+    private final int mOneShotCapacity;
+    private final StringBuilder mTextBuffer = new StringBuilder(16);
+    private final FrameCodec mCodec = new FrameCodec();
+    private final byte[] mBinaryBuffer = new byte[BinaryCommandCodec.MAX_ENCODED_LENGTH];
+    private final Thread mThread;
+    private volatile boolean mClosed;
+    // Set once the writer thread has stopped taking commands; see afterQueued.
+    private volatile boolean mDrained;
+    private volatile boolean mStarted;
+    private volatile boolean mWaiting;
+    private volatile boolean mBinaryRequested;
+    private boolean mBinaryCommands;
+    private volatile long mBytesSent;
+    private volatile long mCommandsSent;
+    private final BluetoothMetrics mMetrics;
+
+    public CommandWriter(OutputStream outStream, Callback callback) {
+        this(outStream, callback, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public CommandWriter(OutputStream outStream, Callback callback, int queueCapacity) {
+        this(outStream, callback, queueCapacity, new BluetoothMetrics());
+    }
+
+    /**
+     * @param metrics also receives the frames and bytes this writer sends.
+     */
+    public CommandWriter(OutputStream outStream, Callback callback, int queueCapacity,
+                         BluetoothMetrics metrics) {
+        if (queueCapacity <= CommandChannel.COUNT + 1) {
+            throw new IllegalArgumentException("Queue capacity must exceed " + (CommandChannel.COUNT + 1));
+        }
+        mOutStream = outStream;
+        mCallback = callback;
+        mMetrics = metrics;
+        mQueue = new BoundedMpscQueue<>(queueCapacity);
+        // Queue entries for conflated channels are signals to empty that channel's slot. There
+        // is at most one per channel plus one for analog drive, and room is always left for them.
+        mOneShotCapacity = queueCapacity - CommandChannel.COUNT - 1;
+        for (int i = 0; i < CommandChannel.COUNT; i++) {
+            mSlotSignals[i] = new PendingSend(null);
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "CommandWriter");
+        // A writer nobody closed must not keep the app alive.
+        mThread.setDaemon(true);
+    }
+
+    public void start() {
+        mStarted = true;
+        mThread.start();
+    }
+
+    /**
+     * Queues a command for the writer thread. Never blocks.
+     */
+    public PendingSend send(String command) {
+        PendingSend send = new PendingSend(command);
+        if (mClosed) {
+            send.fail(PendingSend.FAILURE_CLOSED, null);
+            return send;
+        }
+
+        int channel = CommandChannel.of(command);
+        if (channel != CommandChannel.NONE) {
+            PendingSend previous = mSlots.getAndSet(channel, send);
+            if (previous != null) {
+                // The writer has not taken the older command yet and its signal is still
+                // queued, so it will pick up this one instead.
+                mSuperseded.incrementAndGet(channel);
+                previous.supersede();
+            } else if (mQueue.offer(mSlotSignals[channel])) {
+                signal();
+            } else {
+                // Room is kept for the signal, so this is a writer that fell far behind.
+                mSlots.compareAndSet(channel, send, null);
+                send.fail(PendingSend.FAILURE_QUEUE_FULL, null);
+            }
+        } else if (mQueuedOneShots.incrementAndGet() > mOneShotCapacity) {
+            mQueuedOneShots.decrementAndGet();
+            send.fail(PendingSend.FAILURE_QUEUE_FULL, null);
+        } else if (mQueue.offer(send)) {
+            signal();
+        } else {
+            mQueuedOneShots.decrementAndGet();
+            send.fail(PendingSend.FAILURE_QUEUE_FULL, null);
+        }
+        afterQueued(send);
+        return send;
+    }
+
+    /**
+     * Queues an analog drive update, replacing one that has not been written yet. Levels are in
+     * [-{@link AnalogDriveStreamer#MAX_LEVEL}, {@link AnalogDriveStreamer#MAX_LEVEL}]. Never
+     * blocks or allocates.
+     */
+    public void sendAnalogDrive(int throttle, int steering) {
+        if (mClosed) {
+            return;
+        }
+        int previous = mAnalogDrive.getAndSet((throttle << 16) | (steering & 0xFFFF));
+        if (previous != NO_ANALOG_DRIVE) {
+            mSuperseded.incrementAndGet(CommandChannel.DRIVE);
+        } else if (mQueue.offer(mAnalogDriveSignal)) {
+            signal();
+        } else {
+            mAnalogDrive.set(NO_ANALOG_DRIVE);
+        }
+    }
+
+    /**
+     * Acknowledges the car's offer of binary commands. Everything queued after the
+     * acknowledgement goes out binary-encoded where a binary form exists.
+     */
+    public PendingSend acknowledgeBinaryCommands() {
+        mBinaryRequested = true;
+        return send(BinaryCommandCodec.ACKNOWLEDGE_COMMAND);
+    }
+
+    public boolean isBinaryCommands() {
+        return mBinaryCommands;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getCommandsSent() {
+        return mCommandsSent;
+    }
+
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Number of commands on the channel that were replaced by a newer one before being sent.
+     */
+    public long getSupersededCount(int channel) {
+        return mSuperseded.get(channel);
+    }
+
+    public long getSupersededCount() {
+        long total = 0;
+        for (int i = 0; i < CommandChannel.COUNT; i++) {
+            total += mSuperseded.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Stops the writer thread. Commands still queued, or sent while closing, fail with
+     * {@link PendingSend#FAILURE_CLOSED}.
+     */
+    public void close() {
+        mClosed = true;
+        if (mStarted) {
+            LockSupport.unpark(mThread);
+        } else {
+            // No writer thread to fail them; nothing else takes from the queue.
+            failQueued();
+        }
+    }
+
+    // A send that raced with close() may have been queued after the writer's last look at the
+    // queue. mDrained is set before that last look, so if it is still clear here the writer
+    // will see the send; otherwise nobody will, and it fails now.
+    private void afterQueued(PendingSend send) {
+        if (mDrained) {
+            send.fail(PendingSend.FAILURE_CLOSED, null);
+        }
+    }
+
+    private void signal() {
+        if (mWaiting) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    private void drain() {
+        while (!mClosed) {
+            PendingSend send = take();
+            if (send == null) {
+                mWaiting = true;
+                // Re-check after publishing mWaiting so a concurrent offer cannot be missed.
+                if (mQueue.isEmpty() && !mClosed) {
+                    LockSupport.park(this);
+                }
+                mWaiting = false;
+                continue;
+            }
+
+            if (send == mAnalogDriveSignal) {
+                try {
+                    writeAnalogDrive(mAnalogDrive.getAndSet(NO_ANALOG_DRIVE));
+                } catch (IOException e) {
+                    mClosed = true;
+                    mCallback.onWriteFailed(null, e);
+                }
+                continue;
+            }
+
+            // The callback runs before the handle completes, so it has been notified by the
+            // time anyone waiting on the handle wakes up.
+            try {
+                write(send.getCommand());
+                mCallback.onWritten(send);
+                send.complete();
+            } catch (IOException e) {
+                mClosed = true;
+                mCallback.onWriteFailed(send, e);
+                send.fail(PendingSend.FAILURE_IO, e);
+            }
+        }
+
+        failQueued();
+    }
+
+    private void failQueued() {
+        mDrained = true;
+        PendingSend send;
+        while ((send = take()) != null) {
+            if (send != mAnalogDriveSignal) {
+                send.fail(PendingSend.FAILURE_CLOSED, null);
+            }
+        }
+    }
+
+    // Polls the queue, swapping a channel signal for the newest command on that channel.
+    private PendingSend take() {
+        PendingSend send = mQueue.poll();
+        if (send == null) {
+            return null;
+        }
+        for (int i = 0; i < CommandChannel.COUNT; i++) {
+            if (send == mSlotSignals[i]) {
+                return mSlots.getAndSet(i, null);
+            }
+        }
+        mQueuedOneShots.decrementAndGet();
+        return send;
+    }
+
+    private void writeAnalogDrive(int levels) throws IOException {
+        int throttle = levels >> 16;
+        int steering = (short) levels;
+        int written;
+        if (mBinaryCommands) {
+            int length = BinaryCommandCodec.encodeAnalogDrive(throttle, steering, mBinaryBuffer, 0);
+            written = mCodec.writeFrame(mOutStream, mBinaryBuffer, 0, length);
+        } else {
+            mTextBuffer.setLength(0);
+            mTextBuffer.append(Commands.ANALOG_DRIVE_PREFIX).append(throttle).append(',').append(steering);
+            written = mCodec.writeFrame(mOutStream, mTextBuffer);
+        }
+        mOutStream.flush();
+        countFrame(written);
+    }
+
+    private void countFrame(int written) {
+        mBytesSent += written;
+        mCommandsSent++;
+        mMetrics.increment(BluetoothMetrics.FRAMES_SENT);
+        mMetrics.add(BluetoothMetrics.BYTES_SENT, written);
+    }
+
+    private void write(String command) throws IOException {
+        int length = mBinaryCommands
+                ? BinaryCommandCodec.encode(command, mBinaryBuffer, 0)
+                : -1;
+        int written = length > 0
+                ? mCodec.writeFrame(mOutStream, mBinaryBuffer, 0, length)
+                : mCodec.writeFrame(mOutStream, command);
+        mOutStream.flush();
+        countFrame(written);
+
+        // The acknowledgement is the last text frame before switching encodings.
+        if (mBinaryRequested && BinaryCommandCodec.ACKNOWLEDGE_COMMAND.equals(command)) {
+            mBinaryCommands = true;
+        }
+    }
+}
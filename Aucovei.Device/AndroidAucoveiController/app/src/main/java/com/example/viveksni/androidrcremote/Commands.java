@@ -0,0 +1,50 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Command tokens understood by the car. Mirrors Helper/Commands.cs in Aucovei.Device.
+ */
+public final class Commands {
+    public static final String DRIVE_STOP = "DRIVE-1";
+    public static final String DRIVE_FORWARD = "DRIVE-2";
+    public static final String DRIVE_REVERSE = "DRIVE-3";
+    public static final String DRIVE_LEFT = "DRIVE-4";
+    public static final String DRIVE_RIGHT = "DRIVE-5";
+    public static final String DRIVE_REVERSE_LEFT = "DRIVE-10";
+    public static final String DRIVE_REVERSE_RIGHT = "DRIVE-11";
+    public static final String DRIVE_AUTO_ON = "DRIVE-AUTO";
+    public static final String DRIVE_AUTO_OFF = "DRIVE-AUTOOFF";
+
+    // Followed by "<throttle>,<steering>", each in [-100, 100]. Only sent to cars that
+    // advertise DeviceCapabilities.ANALOG_DRIVE.
+    public static final String ANALOG_DRIVE_PREFIX = "JOY-";
+
+    public static final String TILT_UP = "TILT-1";
+    public static final String TILT_DOWN = "TILT-2";
+    public static final String PAN_LEFT = "TILT-3";
+    public static final String PAN_RIGHT = "TILT-4";
+    public static final String PAN_TILT_CENTER = "TILT-5";
+
+    public static final String CAMERA_ON = "CAM-1";
+    public static final String CAMERA_OFF = "CAM-0";
+    public static final String CAMERA_LED_ON = "CAMERA-LED-ON";
+    public static final String CAMERA_LED_OFF = "CAMERA-LED-OFF";
+
+    // Followed by "<resolution>,<quality>": a VideoResolution value and a JPEG quality in
+    // percent. Only sent to cars that advertise DeviceCapabilities.VIDEO_SETTINGS.
+    public static final String VIDEO_PREFIX = "VIDEO-";
+
+    public static final String HORN = "HORN";
+
+    public static final String SPEED_STOP = "SPEEDSTOP";
+    public static final String SPEED_VERY_SLOW = "SPEEDVERYSLOW";
+    public static final String SPEED_SLOW = "SPEEDSLOW";
+    public static final String SPEED_NORMAL = "SPEEDNORMAL";
+
+    // Followed by a System.nanoTime() stamp that the car echoes back after PONG_PREFIX. Only
+    // sent to cars that advertise DeviceCapabilities.PING.
+    public static final String PING_PREFIX = "PING-";
+    public static final String PONG_PREFIX = "PONG-";
+
+    private Commands() {
+    }
+}
@@ -3,7 +3,6 @@ package com.example.viveksni.androidrcremote;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -17,6 +16,7 @@ import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.Set;
 
 
@@ -28,6 +28,8 @@ import java.util.Set;
  * create an instance of this fragment.
  */
 public class ConnectFragment extends Fragment {
+    private static final String PREF_LAST_DEVICE = "lastConnectedDevice";
+    private static final String PREF_LAST_ADDRESS = "lastConnectedAddress";
 
     private Button mScanButton;
     private ListView mDeviceList;
@@ -35,7 +37,10 @@ public class ConnectFragment extends Fragment {
     private ArrayAdapter<String> mDeviceListAdapter;
     private BluetoothAdapter mBluetoothAdapter;
     private Set<BluetoothDevice> mPairedDevices;
+    // MAC address of each row in the device list, or null for the simulator.
+    private final ArrayList<String> mDeviceAddresses = new ArrayList<>();
     private BluetoothDevice mSelectedDevice;
+    private boolean mSimulatorSelected;
     private Button mReconnectButton;
     private String mLastDevice = null;
     private BluetoothService bluetoothService;
@@ -74,6 +79,7 @@ public class ConnectFragment extends Fragment {
             public void onClick(View v) {
                 mConnectButton.setVisibility(View.GONE);
                 mDeviceListAdapter.clear();
+                mDeviceAddresses.clear();
 
                 mPairedDevices = mBluetoothAdapter.getBondedDevices();
                 if (mPairedDevices.size() > 0) {
@@ -81,8 +87,13 @@ public class ConnectFragment extends Fragment {
                     for (BluetoothDevice device : mPairedDevices) {
                         String deviceName = device.getName();
                         mDeviceListAdapter.add(deviceName);
+                        mDeviceAddresses.add(device.getAddress());
                     }
                 }
+                if (BuildConfig.DEBUG) {
+                    mDeviceListAdapter.add(DeviceSimulator.NAME);
+                    mDeviceAddresses.add(null);
+                }
             }
         });
 
@@ -92,22 +103,21 @@ public class ConnectFragment extends Fragment {
                 String deviceName = ((TextView) view).getText().toString();
                 mConnectButton.setText("Connect " + deviceName);
                 mConnectButton.setVisibility(View.VISIBLE);
-                for (BluetoothDevice device : mPairedDevices) {
-                    if (device.getName().equalsIgnoreCase(deviceName)) {
-                        mSelectedDevice = device;
-                    }
-                }
+                // By position, so two cars with the same name are still told apart.
+                String address = mDeviceAddresses.get(position);
+                mSimulatorSelected = address == null;
+                mSelectedDevice = address != null ? mBluetoothAdapter.getRemoteDevice(address) : null;
             }
         });
 
         mConnectButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (bluetoothService.getConnectedDeviceName() == null) {
+                if (bluetoothService.getConnectedDeviceName() == null && mSimulatorSelected) {
+                    connectToSimulator();
+                } else if (bluetoothService.getConnectedDeviceName() == null) {
                     connectToDevice(mSelectedDevice);
-                    SharedPreferences.Editor editor = MainActivity.sharedPreferences.edit();
-                    editor.putString("lastConnectedDevice", mSelectedDevice.getName());
-                    editor.commit();
+                    rememberDevice(mSelectedDevice);
                 } else {
                     bluetoothService.disConnectFromDevice();
                     mConnectButton.setText("Connect " + mLastDevice);
@@ -115,7 +125,7 @@ public class ConnectFragment extends Fragment {
             }
         });
 
-        String lastDevice = MainActivity.sharedPreferences.getString("lastConnectedDevice", null);
+        String lastDevice = MainActivity.sharedPreferences.getString(PREF_LAST_DEVICE, null);
         if (lastDevice != null) {
             mReconnectButton.setText("Reconnect " + lastDevice);
             mLastDevice = lastDevice;
@@ -151,11 +161,17 @@ public class ConnectFragment extends Fragment {
     }
 
     private void reconnect() {
-        if (mLastDevice != null) {
+        String address = MainActivity.sharedPreferences.getString(PREF_LAST_ADDRESS, null);
+        if (address != null && BluetoothAdapter.checkBluetoothAddress(address)) {
+            // Straight to the cached address, without walking the bonded devices.
+            connectToDevice(mBluetoothAdapter.getRemoteDevice(address));
+        } else if (mLastDevice != null) {
+            // Saved before addresses were cached.
             Set<BluetoothDevice> devices = mBluetoothAdapter.getBondedDevices();
             for (BluetoothDevice device : devices) {
                 if (device.getName().equalsIgnoreCase(mLastDevice)) {
                     connectToDevice(device);
+                    rememberDevice(device);
                     break;
                 }
             }
@@ -164,9 +180,33 @@ public class ConnectFragment extends Fragment {
         }
     }
 
+    private void rememberDevice(BluetoothDevice device) {
+        // apply() writes to disk in the background instead of blocking the UI thread.
+        MainActivity.sharedPreferences.edit()
+                .putString(PREF_LAST_DEVICE, device.getName())
+                .putString(PREF_LAST_ADDRESS, device.getAddress())
+                .apply();
+    }
+
     private void connectToDevice(BluetoothDevice device) {
         progressBar.setVisibility(View.VISIBLE);
         BluetoothService bluetooth = BluetoothService.getInstance();
         bluetooth.connectToDevice(device);
     }
+
+    // Debug builds can drive an in-process car with every protocol extension and a slow link.
+    private void connectToSimulator() {
+        progressBar.setVisibility(View.VISIBLE);
+        BluetoothService.getInstance().connect(new Transport.Factory() {
+            @Override
+            public Transport create() {
+                DeviceSimulator simulator = new DeviceSimulator()
+                        .setCapabilities(DeviceSimulator.ALL_CAPABILITIES)
+                        .setLatencyMillis(20)
+                        .setBytesPerSecond(20 * 1024)
+                        .setTelemetryHz(20);
+                return new LoopbackTransport(simulator);
+            }
+        });
+    }
 }
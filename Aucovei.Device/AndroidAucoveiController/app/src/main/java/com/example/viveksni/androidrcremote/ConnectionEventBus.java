@@ -0,0 +1,184 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fans connection events out to any number of {@link ConnectionListener}s, each on the
+ * {@link Executor} it subscribed with.
+ * <p>
+ * Every link of a {@link ConnectionPool} publishes here, and each event carries the id of the
+ * link it came from. A subscriber hears the links in its address, by default only
+ * {@link ConnectionPool#PRIMARY}, so a listener written for one car is not confused by others.
+ * <p>
+ * Events for a subscriber are queued and delivered in order by a single task, and a new task
+ * is only handed to the executor once the previous one has emptied the queue. However fast
+ * messages arrive, a subscriber costs at most one pending post, so with a {@link FrameExecutor}
+ * a burst of inbound messages becomes one main thread callback per frame. With
+ * {@link #DIRECT} a publisher that finds a drain running leaves its event to that drain, so
+ * callbacks never overlap.
+ */
+public class ConnectionEventBus {
+
+    // Runs callbacks on the publishing thread.
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final int EVENT_CONNECTED = 0;
+    private static final int EVENT_CONNECT_FAILED = 1;
+    private static final int EVENT_DISCONNECTED = 2;
+    private static final int EVENT_MESSAGE = 3;
+    private static final int EVENT_WRITE_FAILED = 4;
+    private static final int EVENT_RECONNECTING = 5;
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+
+    // Hears only the primary car.
+    public void subscribe(ConnectionListener listener, Executor executor) {
+        subscribe(listener, executor, ConnectionPool.address(ConnectionPool.PRIMARY));
+    }
+
+    /**
+     * Hears the links in the address, see {@link ConnectionPool#address(int...)}. Subscribe a
+     * listener per link to tell the cars apart.
+     */
+    public void subscribe(ConnectionListener listener, Executor executor, long linkAddress) {
+        mSubscriptions.add(new Subscription(listener, executor, linkAddress));
+    }
+
+    /**
+     * Stops delivery to the listener, including events already queued for it.
+     */
+    public void unsubscribe(ConnectionListener listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mListener == listener) {
+                subscription.mActive = false;
+                mSubscriptions.remove(subscription);
+            }
+        }
+    }
+
+    public void publishConnected(int link, String deviceName) {
+        publish(link, EVENT_CONNECTED, deviceName);
+    }
+
+    public void publishConnectFailed(int link, String deviceName) {
+        publish(link, EVENT_CONNECT_FAILED, deviceName);
+    }
+
+    public void publishDisconnected(int link) {
+        publish(link, EVENT_DISCONNECTED, null);
+    }
+
+    public void publishMessage(int link, String message) {
+        publish(link, EVENT_MESSAGE, message);
+    }
+
+    public void publishWriteFailed(int link, String command) {
+        publish(link, EVENT_WRITE_FAILED, command);
+    }
+
+    public void publishReconnecting(int link, String deviceName, int attempt) {
+        publish(link, EVENT_RECONNECTING, deviceName, attempt);
+    }
+
+    private void publish(int link, int type, String value) {
+        publish(link, type, value, 0);
+    }
+
+    private void publish(int link, int type, String value, int number) {
+        if (mSubscriptions.isEmpty()) {
+            return;
+        }
+        Event event = null;
+        for (Subscription subscription : mSubscriptions) {
+            if ((subscription.mLinkAddress & (1L << link)) == 0) {
+                continue;
+            }
+            if (event == null) {
+                event = new Event(type, value, number);
+            }
+            subscription.post(event);
+        }
+    }
+
+    private static final class Event {
+        final int mType;
+        final String mValue;
+        final int mNumber;
+
+        Event(int type, String value, int number) {
+            mType = type;
+            mValue = value;
+            mNumber = number;
+        }
+
+        void deliver(ConnectionListener listener) {
+            switch (mType) {
+                case EVENT_CONNECTED:
+                    listener.onConnected(mValue);
+                    break;
+                case EVENT_CONNECT_FAILED:
+                    listener.onConnectFailed(mValue);
+                    break;
+                case EVENT_DISCONNECTED:
+                    listener.onDisconnected();
+                    break;
+                case EVENT_MESSAGE:
+                    listener.onMessage(mValue);
+                    break;
+                case EVENT_WRITE_FAILED:
+                    listener.onWriteFailed(mValue);
+                    break;
+                case EVENT_RECONNECTING:
+                    listener.onReconnecting(mValue, mNumber);
+                    break;
+            }
+        }
+    }
+
+    private static final class Subscription implements Runnable {
+        final ConnectionListener mListener;
+        final Executor mExecutor;
+        final long mLinkAddress;
+        final ConcurrentLinkedQueue<Event> mPending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean mScheduled = new AtomicBoolean();
+        volatile boolean mActive = true;
+
+        Subscription(ConnectionListener listener, Executor executor, long linkAddress) {
+            mListener = listener;
+            mExecutor = executor;
+            mLinkAddress = linkAddress;
+        }
+
+        void post(Event event) {
+            mPending.offer(event);
+            if (mScheduled.compareAndSet(false, true)) {
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Cleared only once the queue is empty, so no second drain starts meanwhile. An
+            // event queued just after that either schedules the next run or is taken by this
+            // one if it wins the flag back.
+            do {
+                try {
+                    Event event;
+                    while (mActive && (event = mPending.poll()) != null) {
+                        event.deliver(mListener);
+                    }
+                } finally {
+                    mScheduled.set(false);
+                }
+            } while (mActive && !mPending.isEmpty() && mScheduled.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Connection events published by {@link BluetoothService} through its
+ * {@link ConnectionEventBus}. Each subscriber picks the thread its callbacks run on.
+ */
+public interface ConnectionListener {
+
+    void onConnected(String deviceName);
+
+    void onConnectFailed(String deviceName);
+
+    /**
+     * The link dropped and another attempt is about to be made. The car is either reached
+     * again, followed by {@link #onConnected}, or given up on with {@link #onDisconnected}.
+     *
+     * @param attempt counts from 1 for each dropout.
+     */
+    void onReconnecting(String deviceName, int attempt);
+
+    void onDisconnected();
+
+    // A text message from the car; the "caps:" list and PING replies are not passed on.
+    void onMessage(String message);
+
+    /**
+     * A command could not be written; the connection is closing.
+     *
+     * @param command the command, or null for an analog drive update.
+     */
+    void onWriteFailed(String command);
+}
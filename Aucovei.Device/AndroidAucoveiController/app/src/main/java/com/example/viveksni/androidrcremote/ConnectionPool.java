@@ -0,0 +1,165 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Up to {@link #MAX_LINKS} cars connected at once, each on its own {@link CarLink} with its own
+ * reader and writer threads.
+ * <p>
+ * Commands are addressed with a bit mask of link ids: {@link #address(int...)} for one car or
+ * a group, {@link #ALL} for every car. Sending to several cars queues the command on each
+ * link's writer in turn and returns; no link waits for another's socket, so a slow or stalled
+ * car does not hold up the rest. Addressing reads the links without locking.
+ * <p>
+ * Every link publishes on the pool's event bus, tagged with its id; a subscriber hears only
+ * the primary unless it asks for other links. Link {@link #PRIMARY} is the car the controls
+ * drive. It always exists and reports through the metrics and telemetry it was created with;
+ * it is reconnected rather than removed. Other links keep metrics of their own and no
+ * telemetry.
+ */
+public class ConnectionPool {
+    public static final int MAX_LINKS = 8;
+    public static final int PRIMARY = 0;
+    public static final long ALL = -1L;
+    public static final long NONE = 0;
+
+    private final AtomicReferenceArray<CarLink> mLinks = new AtomicReferenceArray<>(MAX_LINKS);
+    private final TimerWheel mTimers;
+    private final ConnectionEventBus mEventBus;
+    // Closing a socket can block, so it never happens on the caller's thread.
+    private final ExecutorService mCloser = Executors.newCachedThreadPool();
+
+    public ConnectionPool(TimerWheel timers, ConnectionEventBus eventBus,
+                          BluetoothMetrics primaryMetrics, Telemetry primaryTelemetry) {
+        mTimers = timers;
+        mEventBus = eventBus;
+        mLinks.set(PRIMARY, new CarLink(PRIMARY, eventBus, primaryMetrics, primaryTelemetry,
+                timers, mCloser));
+    }
+
+    public static long address(int... ids) {
+        long address = NONE;
+        for (int id : ids) {
+            address |= 1L << id;
+        }
+        return address;
+    }
+
+    public CarLink getPrimary() {
+        return mLinks.get(PRIMARY);
+    }
+
+    /**
+     * Connects another car on a link of its own, with its own metrics. Its events go to the
+     * pool's event bus, tagged with its id.
+     *
+     * @return the new link's id, or -1 if every link is in use.
+     */
+    public synchronized int add(Transport.Factory factory) {
+        for (int id = PRIMARY + 1; id < MAX_LINKS; id++) {
+            if (mLinks.get(id) == null) {
+                CarLink link = new CarLink(id, mEventBus, new BluetoothMetrics(), null, mTimers,
+                        mCloser);
+                mLinks.set(id, link);
+                link.connect(factory);
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Disconnects the car and frees its link, or only disconnects the primary.
+     */
+    public synchronized void remove(int id) {
+        CarLink link = get(id);
+        if (link == null) {
+            return;
+        }
+        if (id == PRIMARY) {
+            link.disconnect();
+            return;
+        }
+        link.shutdown();
+        mLinks.set(id, null);
+    }
+
+    // Disconnects every car and ends the links' threads. The pool is unusable afterwards.
+    public synchronized void shutdown() {
+        for (int id = 0; id < MAX_LINKS; id++) {
+            CarLink link = mLinks.getAndSet(id, null);
+            if (link != null) {
+                link.shutdown();
+            }
+        }
+        mCloser.shutdown();
+    }
+
+    // The link with the id, or null.
+    public CarLink get(int id) {
+        return id >= 0 && id < MAX_LINKS ? mLinks.get(id) : null;
+    }
+
+    // The links in use, connected or not.
+    public long getLinkAddress() {
+        long address = NONE;
+        for (int id = 0; id < MAX_LINKS; id++) {
+            if (mLinks.get(id) != null) {
+                address |= 1L << id;
+            }
+        }
+        return address;
+    }
+
+    public long getConnectedAddress() {
+        long address = NONE;
+        for (int id = 0; id < MAX_LINKS; id++) {
+            CarLink link = mLinks.get(id);
+            if (link != null && link.getState() == BluetoothService.STATE_CONNECTED) {
+                address |= 1L << id;
+            }
+        }
+        return address;
+    }
+
+    /**
+     * Queues the command on every addressed link, without blocking.
+     *
+     * @return the number of links it was queued on; the rest are not connected or full.
+     */
+    public int send(long address, String command) {
+        int queued = 0;
+        for (int id = 0; id < MAX_LINKS; id++) {
+            if ((address & (1L << id)) == 0) {
+                continue;
+            }
+            CarLink link = mLinks.get(id);
+            if (link != null && link.send(command).getState() != PendingSend.STATE_FAILED) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Queues an analog drive update on every addressed link, see
+     * {@link CarLink#sendAnalogDrive}.
+     *
+     * @return the number of links it was queued on.
+     */
+    public int sendAnalogDrive(long address, int throttle, int steering) {
+        int queued = 0;
+        for (int id = 0; id < MAX_LINKS; id++) {
+            if ((address & (1L << id)) == 0) {
+                continue;
+            }
+            CarLink link = mLinks.get(id);
+            if (link != null && link.sendAnalogDrive(throttle, steering)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.viveksni.androidrcremote;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Listens to the microphone in the app's own process, with partial results, and starts
+ * listening again after every utterance until stopped, feeding a {@link VoiceStream}. Unlike
+ * launching {@link RecognizerIntent#ACTION_RECOGNIZE_SPEECH} there is no activity switch, and a
+ * short command can be acted on before the operator has finished speaking.
+ * <p>
+ * Needs the RECORD_AUDIO permission. Call everything on the main thread.
+ */
+public class ContinuousRecognizer implements RecognitionListener {
+    private static final String TAG = "ContinuousRecognizer";
+    // Before listening again after an error the recognizer may still be recovering from.
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    public interface Callback {
+        // Listening stopped for good, for example because the permission was revoked.
+        void onStopped(int error);
+    }
+
+    private final Context mContext;
+    private final VoiceStream mStream;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Intent mIntent;
+    private SpeechRecognizer mRecognizer;
+    private boolean mListening;
+
+    public ContinuousRecognizer(Context context, VoiceStream stream, Callback callback) {
+        mContext = context.getApplicationContext();
+        mStream = stream;
+        mCallback = callback;
+        mIntent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+        mIntent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+        mIntent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
+        mIntent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, 1);
+        // An on-device model answers sooner than a round trip to a server.
+        mIntent.putExtra(RecognizerIntent.EXTRA_PREFER_OFFLINE, true);
+        mIntent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, mContext.getPackageName());
+    }
+
+    public static boolean isAvailable(Context context) {
+        return SpeechRecognizer.isRecognitionAvailable(context);
+    }
+
+    public boolean isListening() {
+        return mListening;
+    }
+
+    public void start() {
+        if (mListening) {
+            return;
+        }
+        if (mRecognizer == null) {
+            mRecognizer = SpeechRecognizer.createSpeechRecognizer(mContext);
+            mRecognizer.setRecognitionListener(this);
+        }
+        mListening = true;
+        mRecognizer.startListening(mIntent);
+    }
+
+    public void stop() {
+        mListening = false;
+        mHandler.removeCallbacks(listenAgain);
+        if (mRecognizer != null) {
+            mRecognizer.cancel();
+        }
+        mStream.onNoResult();
+    }
+
+    public void destroy() {
+        stop();
+        if (mRecognizer != null) {
+            mRecognizer.destroy();
+            mRecognizer = null;
+        }
+    }
+
+    private final Runnable listenAgain = new Runnable() {
+        @Override
+        public void run() {
+            if (mListening && mRecognizer != null) {
+                mRecognizer.startListening(mIntent);
+            }
+        }
+    };
+
+    @Override
+    public void onBeginningOfSpeech() {
+        mStream.onSpeechStart(System.nanoTime());
+    }
+
+    @Override
+    public void onPartialResults(Bundle partialResults) {
+        long nanos = System.nanoTime();
+        ArrayList<String> texts = partialResults.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+        if (texts == null || texts.isEmpty() || texts.get(0).isEmpty()) {
+            return;
+        }
+        float[] scores = partialResults.getFloatArray(SpeechRecognizer.CONFIDENCE_SCORES);
+        mStream.onPartialResult(texts.get(0), scores != null && scores.length > 0 ? scores[0] : -1, nanos);
+    }
+
+    @Override
+    public void onResults(Bundle results) {
+        long nanos = System.nanoTime();
+        ArrayList<String> texts = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+        if (texts != null && !texts.isEmpty()) {
+            mStream.onFinalResult(texts.get(0), nanos);
+        } else {
+            mStream.onNoResult();
+        }
+        if (mListening) {
+            mRecognizer.startListening(mIntent);
+        }
+    }
+
+    @Override
+    public void onError(int error) {
+        mStream.onNoResult();
+        if (!mListening) {
+            return;
+        }
+        switch (error) {
+            case SpeechRecognizer.ERROR_NO_MATCH:
+            case SpeechRecognizer.ERROR_SPEECH_TIMEOUT:
+                // Silence or noise; the normal way an idle listen ends.
+                mRecognizer.startListening(mIntent);
+                break;
+            case SpeechRecognizer.ERROR_INSUFFICIENT_PERMISSIONS:
+                Log.w(TAG, "Recognition stopped, error " + error);
+                mListening = false;
+                mCallback.onStopped(error);
+                break;
+            default:
+                // Busy, client, audio, network or server: try again shortly.
+                mHandler.postDelayed(listenAgain, RETRY_DELAY_MILLIS);
+                break;
+        }
+    }
+
+    @Override
+    public void onReadyForSpeech(Bundle params) {
+    }
+
+    @Override
+    public void onRmsChanged(float rmsdB) {
+    }
+
+    @Override
+    public void onBufferReceived(byte[] buffer) {
+    }
+
+    @Override
+    public void onEndOfSpeech() {
+    }
+
+    @Override
+    public void onEvent(int eventType, Bundle params) {
+    }
+}
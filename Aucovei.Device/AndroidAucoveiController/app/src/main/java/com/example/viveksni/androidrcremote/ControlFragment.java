@@ -1,18 +1,27 @@
 package com.example.viveksni.androidrcremote;
 
-import android.os.AsyncTask;
+import android.content.Context;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.WebView;
-import android.webkit.WebViewClient;
+import android.widget.CompoundButton;
 import android.widget.ImageButton;
 import android.widget.ProgressBar;
+import android.widget.Switch;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * A simple {@link Fragment} subclass.
@@ -22,6 +31,9 @@ import android.widget.Toast;
  * create an instance of this fragment.
  */
 public class ControlFragment extends Fragment {
+    private static final String TAG = "ControlFragment";
+    private static final long DIAGNOSTICS_REFRESH_MILLIS = 1000;
+
     // TODO: Rename parameter arguments, choose names that match
     // the fragment initialization parameters, e.g. ARG_ITEM_NUMBER
     ImageButton forward_btn, forward_left_btn, stop_btn, forward_right_btn, reverse_btn, disconnect_btn;
@@ -30,8 +42,64 @@ public class ControlFragment extends Fragment {
 
     String command; //string variable that will store value to be transmitted to the bluetooth module
     public String hostIpAddress;
-    private WebView mWebView = null;
-    AsyncTaskRunner asyncTaskRunner;
+    private CameraStreamView mFeedView = null;
+    private FrameRecorder mRecorder;
+    private AdaptiveQualityController mQualityController;
+    private long mQualityTask;
+    HoldRepeatScheduler holdScheduler;
+    AnalogDriveStreamer analogStreamer;
+    ControlPadInput padInput;
+    JoystickView joystick;
+    Switch analog_switch;
+    Switch diagnostics_switch;
+    Switch record_switch;
+    Switch charts_switch;
+    TelemetryChartView telemetry_chart;
+    TextView diagnostics_text;
+    private TimerWheel timers;
+    // Quality evaluation, cancelled when the fragment goes.
+    private int timerOwner;
+    private final VoiceIntentMatcher voiceMatcher = VoiceIntentMatcher.createDefault();
+    private final VoiceStream voiceStream = new VoiceStream(voiceMatcher, new VoiceStream.Listener() {
+        @Override
+        public void onPlan(VoicePlan plan, long startNanos, int firstStep) {
+            runVoicePlan(plan, startNanos, firstStep);
+        }
+    });
+    private VoicePlanRunner voicePlans;
+    private MacroEngine macroEngine;
+    // The journal replay in progress, if any; see replayJournal.
+    private volatile CommandReplayer replayer;
+    private volatile Thread replayThread;
+    // Feeds the car's messages to the running macro as they arrive, on the connection thread.
+    private final ConnectionListener macroConditions = new ConnectionListener() {
+        @Override
+        public void onConnected(String deviceName) {
+        }
+
+        @Override
+        public void onConnectFailed(String deviceName) {
+        }
+
+        @Override
+        public void onReconnecting(String deviceName, int attempt) {
+            macroEngine.abort();
+        }
+
+        @Override
+        public void onDisconnected() {
+            macroEngine.abort();
+        }
+
+        @Override
+        public void onMessage(String message) {
+            macroEngine.onMessage(message);
+        }
+
+        @Override
+        public void onWriteFailed(String command) {
+        }
+    };
     ProgressBar progressBar;
     private boolean iscamon, isAutoMode, isCamLightOn = false;
 
@@ -49,6 +117,68 @@ public class ControlFragment extends Fragment {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Hold repeats, analog streaming and voice plans share the app's one timer thread.
+        timers = BluetoothService.getInstance().getTimers();
+        timerOwner = timers.newOwner();
+        holdScheduler = new HoldRepeatScheduler(new HoldRepeatScheduler.Sender() {
+            @Override
+            public void send(String command) {
+                sendCommand(command);
+            }
+        }, HoldRepeatScheduler.DEFAULT_PERIOD_MILLIS, timers);
+        voicePlans = new VoicePlanRunner(new VoicePlanRunner.Sender() {
+            @Override
+            public void send(String command) {
+                sendCommand(command);
+            }
+        }, timers);
+        macroEngine = new MacroEngine(new MacroEngine.Sender() {
+            @Override
+            public void send(String command) {
+                sendCommand(command);
+            }
+        }, timers);
+        macroEngine.setListener(new MacroEngine.Listener() {
+            @Override
+            public void onMacroEnded(final Macro macro, final int reason) {
+                if (reason != MacroEngine.END_ABORTED) {
+                    final Context context = getContext();
+                    if (context == null || diagnostics_text == null) {
+                        return;
+                    }
+                    diagnostics_text.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(context.getApplicationContext(), describeMacroEnd(macro, reason),
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
+                }
+            }
+        });
+        BluetoothService.getInstance().getEventBus().subscribe(macroConditions, ConnectionEventBus.DIRECT);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        BluetoothService.getInstance().getEventBus().unsubscribe(macroConditions);
+        macroEngine.abort();
+        cancelReplay();
+        holdScheduler.shutdown();
+        timers.cancelOwner(timerOwner);
+        // Stops the car if a plan was still driving it.
+        voicePlans.cancel();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        diagnostics_text.removeCallbacks(refreshDiagnostics);
+        padInput.reset();
+        mFeedView.stop();
+        stopQualityControl();
+        setRecording(false);
     }
 
     @Override
@@ -56,11 +186,14 @@ public class ControlFragment extends Fragment {
                              final Bundle savedInstanceState) {
         // Inflate the layout for this fragment
         View rootView = inflater.inflate(R.layout.fragment_control, container, false);
-        mWebView = (WebView) rootView.findViewById(R.id.feedview);
+        mFeedView = (CameraStreamView) rootView.findViewById(R.id.feedview);
         progressBar = rootView.findViewById(R.id.progressBar);
-        mWebView.getSettings().setJavaScriptEnabled(true);
-        mWebView.setWebViewClient(new ControlFragment.AppWebViewClients(progressBar));
-        mWebView.stopLoading();
+        mFeedView.setFirstFrameCallback(new Runnable() {
+            @Override
+            public void run() {
+                progressBar.setVisibility(View.GONE);
+            }
+        });
 
         //declaration of button variables
         forward_btn = (ImageButton) rootView.findViewById(R.id.fwd_btn);
@@ -79,173 +212,104 @@ public class ControlFragment extends Fragment {
         tiltright_btn = (ImageButton) rootView.findViewById(R.id.titlright_btn);
         tiltup_btn = (ImageButton) rootView.findViewById(R.id.tiltup_btn);
         center_btn = (ImageButton) rootView.findViewById(R.id.center_btn);
-
-        forward_btn.setOnTouchListener(new View.OnTouchListener() {
+        joystick = (JoystickView) rootView.findViewById(R.id.joystick);
+        analog_switch = (Switch) rootView.findViewById(R.id.analog_switch);
+        diagnostics_switch = (Switch) rootView.findViewById(R.id.diagnostics_switch);
+        diagnostics_text = (TextView) rootView.findViewById(R.id.diagnostics_text);
+        record_switch = (Switch) rootView.findViewById(R.id.record_switch);
+        charts_switch = (Switch) rootView.findViewById(R.id.charts_switch);
+        telemetry_chart = (TelemetryChartView) rootView.findViewById(R.id.telemetry_chart);
+        telemetry_chart.setTelemetry(BluetoothService.getInstance().getTelemetry());
+
+        analogStreamer = new AnalogDriveStreamer(joystick, new AnalogDriveStreamer.Sink() {
             @Override
-            public boolean onTouch(View view, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) //MotionEvent.ACTION_DOWN is when you hold a button down
-                {
-                    command = "DRIVE-2";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) //MotionEvent.ACTION_UP is when you release a button
-                {
-                    command = "DRIVE-1";
-                    asyncTaskRunner.cancel(true);
-                    sendCommand(command);
-                }
-
-                return false;
+            public void onDrive(int throttle, int steering) {
+                BluetoothService.getInstance().sendAnalogDrive(throttle, steering);
             }
-        });
-
+        }, timers);
 
-        //OnTouchListener code for the reverse button (button long press)
-        reverse_btn.setOnTouchListener(new View.OnTouchListener() {
+        analog_switch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                    command = "DRIVE-3";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    command = "DRIVE-1";
-                    asyncTaskRunner.cancel(true);
-                    sendCommand(command);
-                }
-                return false;
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                setAnalogMode(isChecked);
             }
         });
 
-        //OnTouchListener code for the forward left button (button long press)
-        forward_left_btn.setOnTouchListener(new View.OnTouchListener() {
+        diagnostics_switch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                    command = "DRIVE-4";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    command = "DRIVE-1";
-                    asyncTaskRunner.cancel(true);
-                    sendCommand(command);
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                diagnostics_text.removeCallbacks(refreshDiagnostics);
+                diagnostics_text.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+                if (isChecked) {
+                    diagnostics_text.post(refreshDiagnostics);
                 }
-                return false;
             }
         });
 
-        //OnTouchListener code for the forward right button (button long press)
-        forward_right_btn.setOnTouchListener(new View.OnTouchListener() {
+        record_switch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                    command = "DRIVE-5";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    command = "DRIVE-1";
-                    asyncTaskRunner.cancel(true);
-                    sendCommand(command);
-                }
-                return false;
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                setRecording(isChecked);
             }
         });
 
-        //OnTouchListener code for the forward right button (button long press)
-        stop_btn.setOnTouchListener(new View.OnTouchListener() {
-            @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                command = "DRIVE-1";
-                sendCommand(command);
-
-                return false;
-            }
-        });
-
-        //OnTouchListener code for the forward right button (button long press)
-        disconnect_btn.setOnTouchListener(new View.OnTouchListener() {
+        charts_switch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                BluetoothService bluetooth = BluetoothService.getInstance();
-                bluetooth.disConnectFromDevice();
-                return false;
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                telemetry_chart.setVisibility(isChecked ? View.VISIBLE : View.GONE);
             }
         });
 
-        tiltup_btn.setOnTouchListener(new View.OnTouchListener() {
+        // Long press the statistics to save them to a file.
+        diagnostics_text.setOnLongClickListener(new View.OnLongClickListener() {
             @Override
-            public boolean onTouch(View view, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) //MotionEvent.ACTION_DOWN is when you hold a button down
-                {
-                    command = "TILT-1";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    asyncTaskRunner.cancel(true);
-                }
-                return false;
+            public boolean onLongClick(View view) {
+                exportDiagnostics();
+                return true;
             }
         });
 
-        tiltdown_btn.setOnTouchListener(new View.OnTouchListener() {
+        // One input layer for the drive and pan/tilt buttons, sampled once per frame. Stop wins
+        // the drive channel over any other button held with it.
+        padInput = new ControlPadInput(new ControlPad.Listener() {
             @Override
-            public boolean onTouch(View view, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) //MotionEvent.ACTION_DOWN is when you hold a button down
-                {
-                    command = "TILT-2";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    asyncTaskRunner.cancel(true);
-                }
-                return false;
+            public void onPress(int key, String command, String releaseCommand) {
+                // The operator takes over from a running macro, replay or voice plan. The plan's
+                // stop, if any, is queued on the wheel ahead of the press.
+                macroEngine.abort();
+                cancelReplay();
+                voicePlans.cancel();
+                holdScheduler.press(key, command, releaseCommand);
             }
-        });
 
-        tiltleft_btn.setOnTouchListener(new View.OnTouchListener() {
             @Override
-            public boolean onTouch(View view, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) //MotionEvent.ACTION_DOWN is when you hold a button down
-                {
-                    command = "TILT-3";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    asyncTaskRunner.cancel(true);
-                }
-                return false;
+            public void onRelease(int key) {
+                holdScheduler.release(key);
             }
         });
+        padInput.addButton(forward_btn, "DRIVE-2", "DRIVE-1", false);
+        padInput.addButton(reverse_btn, "DRIVE-3", "DRIVE-1", false);
+        padInput.addButton(forward_left_btn, "DRIVE-4", "DRIVE-1", false);
+        padInput.addButton(forward_right_btn, "DRIVE-5", "DRIVE-1", false);
+        padInput.addButton(stop_btn, "DRIVE-1", null, true);
 
-        tiltright_btn.setOnTouchListener(new View.OnTouchListener() {
+        //OnTouchListener code for the forward right button (button long press)
+        disconnect_btn.setOnTouchListener(new View.OnTouchListener() {
             @Override
-            public boolean onTouch(View view, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) //MotionEvent.ACTION_DOWN is when you hold a button down
-                {
-                    command = "TILT-4";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    asyncTaskRunner.cancel(true);
-                }
+            public boolean onTouch(View v, MotionEvent event) {
+                holdScheduler.releaseAll(false);
+                padInput.reset();
+                BluetoothService bluetooth = BluetoothService.getInstance();
+                bluetooth.disConnectFromDevice();
                 return false;
             }
         });
 
-        center_btn.setOnTouchListener(new View.OnTouchListener() {
-            @Override
-            public boolean onTouch(View view, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) //MotionEvent.ACTION_DOWN is when you hold a button down
-                {
-                    command = "TILT-5";
-                    asyncTaskRunner = new AsyncTaskRunner();
-                    asyncTaskRunner.execute(command);
-                } else if (event.getAction() == MotionEvent.ACTION_UP) {
-                    asyncTaskRunner.cancel(true);
-                }
-                return false;
-            }
-        });
+        padInput.addButton(tiltup_btn, "TILT-1", null, false);
+        padInput.addButton(tiltdown_btn, "TILT-2", null, false);
+        padInput.addButton(tiltleft_btn, "TILT-3", null, false);
+        padInput.addButton(tiltright_btn, "TILT-4", null, false);
+        padInput.addButton(center_btn, "TILT-5", null, false);
 
         automode_btn.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -305,55 +369,190 @@ public class ControlFragment extends Fragment {
         return rootView;
     }
 
-    public void reloadWebView(String message) {
+    // The car stops its camera when the link drops, so ask for it again after a reconnect.
+    public void onReconnected() {
+        if (iscamon) {
+            sendCommand(Commands.CAMERA_ON);
+        }
+    }
+
+    public void reloadCameraFeed(String message) {
         if (message.equalsIgnoreCase("CAMON")) {
             this.progressBar.setVisibility(View.VISIBLE);
-            this.mWebView.loadUrl(this.getFeedUrl());
-            this.mWebView.setVisibility(View.VISIBLE);
+            startQualityControl();
+            this.mFeedView.start(hostIpAddress);
+            this.mFeedView.setVisibility(View.VISIBLE);
             this.iscamon = true;
         } else {
-            this.mWebView.setVisibility(View.INVISIBLE);
+            this.mFeedView.stop();
+            stopQualityControl();
+            this.progressBar.setVisibility(View.GONE);
+            this.mFeedView.setVisibility(View.INVISIBLE);
             this.iscamon = false;
         }
     }
 
+    // Cars without video settings still get their frame rate adapted, as the app paces requests.
+    private void startQualityControl() {
+        stopQualityControl();
+        mQualityController = new AdaptiveQualityController(new AdaptiveQualityController.Listener() {
+            @Override
+            public void onLevelChanged(AdaptiveQualityController.Level level) {
+                sendVideoSettings(level);
+            }
+        }, AdaptiveQualityController.DEFAULT_LATENCY_BUDGET_MILLIS, System.nanoTime());
+        sendVideoSettings(mQualityController.getLevel());
+        mFeedView.setQualityController(mQualityController);
+        final AdaptiveQualityController controller = mQualityController;
+        mQualityTask = timers.scheduleAtFixedRate(timerOwner, new Runnable() {
+            @Override
+            public void run() {
+                controller.evaluate();
+            }
+        }, AdaptiveQualityController.WINDOW_MILLIS, AdaptiveQualityController.WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopQualityControl() {
+        if (mQualityTask != 0) {
+            timers.cancel(mQualityTask);
+            mQualityTask = 0;
+        }
+        mFeedView.setQualityController(null);
+        mQualityController = null;
+    }
+
+    private void sendVideoSettings(AdaptiveQualityController.Level level) {
+        BluetoothService bluetooth = BluetoothService.getInstance();
+        if (DeviceCapabilities.supports(bluetooth.getDeviceCapabilities(), DeviceCapabilities.VIDEO_SETTINGS)) {
+            bluetooth.send(level.toCommand());
+        }
+    }
+
+    // Records the camera to the app's external files, oldest drives deleted first.
+    private void setRecording(boolean recording) {
+        if (mRecorder != null) {
+            mFeedView.setRecorder(null);
+            mRecorder.close();
+            mRecorder = null;
+        }
+        Context context = getContext();
+        if (recording && context != null) {
+            mRecorder = new FrameRecorder(new File(context.getExternalFilesDir(null), "recordings"),
+                    FrameRecorder.DEFAULT_SEGMENT_BYTES, FrameRecorder.DEFAULT_BUDGET_BYTES);
+            mFeedView.setRecorder(mRecorder);
+        }
+    }
+
+    // Plans the final result of RecognizerIntent, when in-process recognition is unavailable.
     public void sendVoiceCommand(String command) {
-        if (command.contains("forward")) {
-            sendCommand("DRIVE-2");
-            DelayExecutor.delay(500, new DelayExecutor.DelayCallback() {
-                @Override
-                public void afterDelay() {
-                    sendCommand("DRIVE-1");
-                }
-            });
-        } else if (command.contains("back")) {
-            sendCommand("DRIVE-3");
-            DelayExecutor.delay(500, new DelayExecutor.DelayCallback() {
-                @Override
-                public void afterDelay() {
-                    sendCommand("DRIVE-1");
-                }
-            });
-        } else if (command.contains("turn left")) {
-            sendCommand("DRIVE-4");
-            DelayExecutor.delay(500, new DelayExecutor.DelayCallback() {
-                @Override
-                public void afterDelay() {
-                    sendCommand("DRIVE-1");
-                }
-            });
-        } else if (command.contains("turn right")) {
-            sendCommand("DRIVE-5");
-            DelayExecutor.delay(500, new DelayExecutor.DelayCallback() {
-                @Override
-                public void afterDelay() {
-                    sendCommand("DRIVE-1");
-                }
-            });
-        } else if (command.startsWith("message")) {
-            sendCommand(command.substring(7).trim());
-        } else {
+        VoicePlan plan = voiceMatcher.plan(command);
+        if (plan.isEmpty()) {
             Toast.makeText(getActivity().getApplicationContext(), "Command not recognized: " + command, Toast.LENGTH_LONG).show();
+            return;
+        }
+        runVoicePlan(plan, System.nanoTime(), 0);
+    }
+
+    // Continuous recognition feeds this; see VoiceStream.Listener for the arguments.
+    public VoiceStream getVoiceStream() {
+        return voiceStream;
+    }
+
+    private void runVoicePlan(VoicePlan plan, long startNanos, int firstStep) {
+        macroEngine.abort();
+        cancelReplay();
+        voicePlans.run(plan, startNanos, firstStep);
+    }
+
+    // Runs a macro in place of whatever the car was doing; any manual control aborts it.
+    public void runMacro(Macro macro) {
+        holdScheduler.releaseAll(false);
+        if (padInput != null) {
+            padInput.reset();
+        }
+        voicePlans.cancel();
+        cancelReplay();
+        if (analog_switch != null) {
+            analog_switch.setChecked(false);
+        }
+        macroEngine.run(macro);
+    }
+
+    /**
+     * Sends a journal's commands to the car again with their recorded timing, in place of
+     * whatever the car was doing. Any manual control, a disconnect or leaving cancels it.
+     *
+     * @return false if a replay is already running.
+     */
+    public boolean replayJournal(final File file) {
+        if (replayThread != null) {
+            return false;
+        }
+        holdScheduler.releaseAll(false);
+        if (padInput != null) {
+            padInput.reset();
+        }
+        voicePlans.cancel();
+        macroEngine.abort();
+        if (analog_switch != null) {
+            analog_switch.setChecked(false);
+        }
+
+        final CommandReplayer replay = new CommandReplayer(new CommandReplayer.Target() {
+            @Override
+            public void sendCommand(String command) {
+                ControlFragment.this.sendCommand(command);
+            }
+
+            @Override
+            public void sendAnalogDrive(int throttle, int steering) {
+                BluetoothService.getInstance().sendAnalogDrive(throttle, steering);
+            }
+        }, 1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay.replay(file);
+                    Log.d(TAG, "Replayed " + replay.getCommandsReplayed() + " commands, lateness "
+                            + replay.getLateness().toSummaryString());
+                } catch (IOException | InterruptedException e) {
+                    if (!replay.isCancelled()) {
+                        Log.e(TAG, "Replay of " + file + " failed", e);
+                    }
+                } finally {
+                    // Only this thread clears them, and a new replay waits until it has.
+                    replayer = null;
+                    replayThread = null;
+                }
+            }
+        }, "CommandReplayer");
+        replayer = replay;
+        replayThread = thread;
+        thread.start();
+        return true;
+    }
+
+    // Ends a journal replay in progress and stops the car, as manual control takes over.
+    public void cancelReplay() {
+        CommandReplayer replay = replayer;
+        Thread thread = replayThread;
+        if (replay == null || thread == null) {
+            return;
+        }
+        replay.cancel();
+        thread.interrupt();
+        sendCommand(Commands.DRIVE_STOP);
+    }
+
+    private static String describeMacroEnd(Macro macro, int reason) {
+        switch (reason) {
+            case MacroEngine.END_COMPLETED:
+                return "Finished " + macro.getName();
+            case MacroEngine.END_CONDITION:
+                return macro.getName() + " aborted by the car";
+            default:
+                return macro.getName() + " timed out waiting for the car";
         }
     }
 
@@ -369,62 +568,200 @@ public class ControlFragment extends Fragment {
 
         reverse_btn.setEnabled(!isAutoMode);
         reverse_btn.setClickable(!isAutoMode);
-    }
 
-    private String getFeedUrl() {
-        return "http://" + hostIpAddress + "/";
+        joystick.setEnabled(!isAutoMode);
+        // Fingers left on a disabled button let go at the next frame.
+        padInput.invalidate();
     }
 
-    private class AppWebViewClients extends WebViewClient {
-        private ProgressBar progressBar;
+    private void sendCommand(String command) {
+        BluetoothService bluetooth = BluetoothService.getInstance();
+        bluetooth.send(command);
+    }
 
-        public AppWebViewClients(ProgressBar progressBar) {
-            this.progressBar = progressBar;
+    // Ends every held button, analog stream, voice plan and replay, e.g. once the car is
+    // disconnected.
+    public void stopHolds() {
+        if (holdScheduler != null) {
+            holdScheduler.releaseAll(false);
+        }
+        if (padInput != null) {
+            padInput.reset();
+        }
+        if (voicePlans != null) {
+            voicePlans.cancel();
         }
+        cancelReplay();
+        if (analog_switch != null) {
+            analog_switch.setChecked(false);
+        }
+    }
 
-        @Override
-        public boolean shouldOverrideUrlLoading(WebView view, String url) {
-            progressBar.setVisibility(View.VISIBLE);
-            view.loadUrl(url);
-            return true;
+    // Swaps the drive buttons for the joystick, which streams throttle and steering.
+    private void setAnalogMode(boolean analog) {
+        int buttonVisibility = analog ? View.GONE : View.VISIBLE;
+        forward_btn.setVisibility(buttonVisibility);
+        reverse_btn.setVisibility(buttonVisibility);
+        forward_left_btn.setVisibility(buttonVisibility);
+        forward_right_btn.setVisibility(buttonVisibility);
+        stop_btn.setVisibility(buttonVisibility);
+        joystick.setVisibility(analog ? View.VISIBLE : View.GONE);
+
+        if (analog) {
+            macroEngine.abort();
+            voicePlans.cancel();
+            cancelReplay();
+            holdScheduler.releaseAll(true);
+            padInput.reset();
+            analogStreamer.start();
+        } else {
+            analogStreamer.stop();
+            padInput.invalidate();
         }
+    }
 
+    private final Runnable refreshDiagnostics = new Runnable() {
         @Override
-        public void onPageFinished(WebView view, String url) {
-            super.onPageFinished(view, url);
-            progressBar.setVisibility(View.GONE);
+        public void run() {
+            diagnostics_text.setText(getDiagnosticsText());
+            diagnostics_text.postDelayed(this, DIAGNOSTICS_REFRESH_MILLIS);
         }
-    }
+    };
 
-    private void sendCommand(String command) {
+    private String getDiagnosticsText() {
         BluetoothService bluetooth = BluetoothService.getInstance();
-        boolean sent = bluetooth.send(command);
+        LatencyProbe probe = bluetooth.getLatencyProbe();
+        if (probe == null) {
+            return "Not connected";
+        }
+
+        StringBuilder text = new StringBuilder();
+        if (DeviceCapabilities.supports(bluetooth.getDeviceCapabilities(), DeviceCapabilities.PING)) {
+            text.append("RTT   ").append(probe.getHistogram().toSummaryString())
+                    .append("\n      pings ").append(probe.getPingsSent())
+                    .append(" echoes ").append(probe.getPongsReceived());
+        } else {
+            text.append("RTT   not supported by the car");
+        }
+        BluetoothMetrics.Snapshot metrics = bluetooth.getMetricsSnapshot();
+        text.append("\nWrite ").append(metrics.getWriteLatency().toSummaryString());
+        text.append(String.format(Locale.US,
+                "\nSent %d frames %d bytes, received %d frames %d bytes"
+                        + "\nQueue %d, bytes/command %.1f, decode errors %d, reconnects %d",
+                metrics.get(BluetoothMetrics.FRAMES_SENT), metrics.get(BluetoothMetrics.BYTES_SENT),
+                metrics.get(BluetoothMetrics.FRAMES_RECEIVED), metrics.get(BluetoothMetrics.BYTES_RECEIVED),
+                metrics.getQueueDepth(), bluetooth.getBytesPerCommand(),
+                metrics.get(BluetoothMetrics.DECODE_ERRORS), metrics.get(BluetoothMetrics.RECONNECTS)));
+        if (metrics.getReconnectTime().getTotalCount() > 0) {
+            text.append("\nReconnect ").append(metrics.getReconnectTime().toSummaryString());
+        }
+        ConnectionPool pool = bluetooth.getPool();
+        if (pool.getLinkAddress() != ConnectionPool.address(ConnectionPool.PRIMARY)) {
+            text.append(bluetooth.getFollowers() != ConnectionPool.NONE ? "\nCars, all driven" : "\nCars");
+            for (int id = 0; id < ConnectionPool.MAX_LINKS; id++) {
+                CarLink link = pool.get(id);
+                if (link == null) {
+                    continue;
+                }
+                BluetoothMetrics.Snapshot linkMetrics = link.getMetricsSnapshot();
+                text.append(String.format(Locale.US, "\n  %d %s %s queue %d write ", id,
+                        link.getDeviceName() != null ? link.getDeviceName() : "-", describeLinkState(link.getState()), linkMetrics.getQueueDepth()))
+                        .append(linkMetrics.getWriteLatency().toSummaryString());
+            }
+        }
+        text.append("\nTimer late ").append(timers.getLateness().toSummaryString())
+                .append("\n      pending ").append(timers.getPendingCount())
+                .append(" fired ").append(timers.getFiredCount())
+                .append(" failed ").append(timers.getTaskFailures());
+        ControlPad pad = padInput.getPad();
+        if (pad.getUpdates() > 0) {
+            text.append("\nTouch to send ").append(pad.getInputToSend().toSummaryString())
+                    .append(String.format(Locale.US, "\n      events %d frames %d updates %d",
+                            pad.getEvents(), pad.getSamples(), pad.getUpdates()));
+        }
+        if (macroEngine.getStepsSent() > 0) {
+            String running = macroEngine.getRunningName();
+            text.append("\nMacro step error ").append(macroEngine.getStepError().toSummaryString())
+                    .append("\n      ").append(running != null ? "running " + running : "idle")
+                    .append(" completed ").append(macroEngine.getCompleted())
+                    .append(" aborted ").append(macroEngine.getAborted());
+        }
+        if (voiceStream.getEarlyPlans() + voiceStream.getFinalPlans() > 0) {
+            text.append("\nVoice ").append(voiceStream.getSpeechToSend().toSummaryString())
+                    .append("\n      result to send ").append(voiceStream.getResultToSend().toSummaryString())
+                    .append("\n      early ").append(voiceStream.getEarlyPlans())
+                    .append(" final ").append(voiceStream.getFinalPlans())
+                    .append(" unrecognized ").append(voiceStream.getUnrecognized());
+        }
+        if (DeviceCapabilities.supports(bluetooth.getDeviceCapabilities(), DeviceCapabilities.TELEMETRY)) {
+            text.append("\nSensors ").append(bluetooth.getTelemetry().toSummaryString());
+        }
+        if (iscamon) {
+            text.append("\nVideo ").append(mFeedView.getDisplayLatency().toSummaryString())
+                    .append("\n      shown ").append(mFeedView.getFramesShown())
+                    .append(" dropped ").append(mFeedView.getFramesDropped());
+            if (mRecorder != null) {
+                text.append(" recorded ").append(mRecorder.getFramesRecorded());
+            }
+            AdaptiveQualityController controller = mQualityController;
+            if (controller != null) {
+                text.append("\n      ").append(controller.toSummaryString());
+            }
+        }
+        return text.toString();
     }
 
-    private class AsyncTaskRunner extends AsyncTask<String, Void, Boolean> {
+    private static String describeLinkState(int state) {
+        switch (state) {
+            case BluetoothService.STATE_CONNECTED:
+                return "connected";
+            case BluetoothService.STATE_CONNECTING:
+                return "connecting";
+            case BluetoothService.STATE_RECONNECTING:
+                return "reconnecting";
+            default:
+                return "idle";
+        }
+    }
 
-        @Override
-        protected Boolean doInBackground(String... params) {
-            try {
-                String delay = "2000";
-                while (!isCancelled()) {
-                    String command = params[0];
-                    if (command == null) {
-                        continue;
-                    }
-                    if (params.length > 1) {
-                        delay = params[1];
-                    }
+    // Writes the metrics and latency histograms to the app's external files for field reports.
+    private void exportDiagnostics() {
+        BluetoothService bluetooth = BluetoothService.getInstance();
+        LatencyProbe probe = bluetooth.getLatencyProbe();
+        final Context context = getContext();
+        if (probe == null || context == null) {
+            return;
+        }
 
-                    sendCommand(command);
-                    Thread.sleep(Integer.parseInt(delay));
+        final String deviceName = bluetooth.getConnectedDeviceName();
+        final LatencyHistogram roundTrip = probe.getHistogram().copy();
+        final BluetoothMetrics.Snapshot metrics = bluetooth.getMetricsSnapshot();
+        final File file = new File(context.getExternalFilesDir(null),
+                "stats-" + metrics.getTimeMillis() + ".txt");
+        // File IO would hold up every timer queued behind it, so it gets a thread of its own.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try (Writer out = new FileWriter(file)) {
+                    out.write("# Device " + deviceName + "\n");
+                    metrics.writeTo(out);
+                    out.write("\n# Round trip latency\n");
+                    roundTrip.writePercentileDistribution(out);
+                    result = "Saved " + file.getAbsolutePath();
+                } catch (IOException e) {
+                    result = "Could not save stats: " + e.getMessage();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
 
-            return true;
-        }
+                final String toast = result;
+                diagnostics_text.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context.getApplicationContext(), toast, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "ExportDiagnostics").start();
     }
 
 
@@ -0,0 +1,288 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.Arrays;
+
+/**
+ * Merges every finger on the control buttons into one control state, sampled once per display
+ * frame, so pressing forward and tilt together or sliding a finger from one button to the next
+ * does not depend on the order the touch events arrived in.
+ * <p>
+ * Touches only record where each pointer is. {@link #sample} then hit tests every pointer
+ * against the buttons and picks one button per {@link CommandChannel}: a button added as an
+ * override, such as stop, wins its channel while it is touched, otherwise the button a pointer
+ * entered last. For each channel whose button changed since the last sample it calls the
+ * {@link Listener} once. Commands on no channel get a key of their own per button.
+ * <p>
+ * Coordinates may be in any frame as long as pointers and bounds use the same one. Call
+ * everything on one thread.
+ */
+public final class ControlPad {
+    public static final int MAX_BUTTONS = 16;
+    public static final int MAX_POINTERS = 10;
+
+    public interface Listener {
+        /**
+         * @param key the button's channel, or {@link CommandChannel#COUNT} plus the button's
+         *            index if its command is on no channel.
+         */
+        void onPress(int key, String command, String releaseCommand);
+
+        // Nothing on the key is touched any more.
+        void onRelease(int key);
+    }
+
+    private final Listener mListener;
+
+    private final String[] mCommands = new String[MAX_BUTTONS];
+    private final String[] mReleaseCommands = new String[MAX_BUTTONS];
+    private final int[] mKeys = new int[MAX_BUTTONS];
+    private final boolean[] mOverrides = new boolean[MAX_BUTTONS];
+    private final boolean[] mEnabled = new boolean[MAX_BUTTONS];
+    private final float[] mLeft = new float[MAX_BUTTONS];
+    private final float[] mTop = new float[MAX_BUTTONS];
+    private final float[] mRight = new float[MAX_BUTTONS];
+    private final float[] mBottom = new float[MAX_BUTTONS];
+    private int mButtonCount;
+
+    private final int[] mPointerIds = new int[MAX_POINTERS];
+    private final float[] mPointerX = new float[MAX_POINTERS];
+    private final float[] mPointerY = new float[MAX_POINTERS];
+    // The button each pointer was over at the last sample, and when it entered it.
+    private final int[] mPointerButtons = new int[MAX_POINTERS];
+    private final long[] mPointerSequence = new long[MAX_POINTERS];
+    private int mPointerCount;
+    private long mSequence;
+
+    // Per key: the button held as of the last sample, and this sample's choice.
+    private final int[] mHeld = new int[CommandChannel.COUNT + MAX_BUTTONS];
+    private final int[] mWinners = new int[CommandChannel.COUNT + MAX_BUTTONS];
+    private final long[] mWinnerSequence = new long[CommandChannel.COUNT + MAX_BUTTONS];
+
+    private boolean mDirty;
+    // The oldest input not yet sampled, 0 if none.
+    private long mFirstInputNanos;
+    private final LatencyHistogram mInputToSend = new LatencyHistogram();
+    private volatile long mSamples;
+    private volatile long mUpdates;
+    private volatile long mEvents;
+
+    public ControlPad(Listener listener) {
+        mListener = listener;
+        Arrays.fill(mHeld, -1);
+    }
+
+    /**
+     * @param override whether the button wins its channel over any other touched button.
+     * @return the button's index.
+     */
+    public int addButton(String command, String releaseCommand, boolean override) {
+        if (mButtonCount == MAX_BUTTONS) {
+            throw new IllegalStateException("More than " + MAX_BUTTONS + " buttons");
+        }
+        int index = mButtonCount++;
+        int channel = CommandChannel.of(command);
+        mCommands[index] = command;
+        mReleaseCommands[index] = releaseCommand;
+        mKeys[index] = channel != CommandChannel.NONE ? channel : CommandChannel.COUNT + index;
+        mOverrides[index] = override;
+        mEnabled[index] = true;
+        return index;
+    }
+
+    public int getButtonCount() {
+        return mButtonCount;
+    }
+
+    public void setBounds(int button, float left, float top, float right, float bottom) {
+        mLeft[button] = left;
+        mTop[button] = top;
+        mRight[button] = right;
+        mBottom[button] = bottom;
+    }
+
+    // A disabled or hidden button is not hit, so a finger resting on it lets go.
+    public void setEnabled(int button, boolean enabled) {
+        if (mEnabled[button] != enabled) {
+            mEnabled[button] = enabled;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * @param eventNanos when the touch happened, on the System.nanoTime() clock.
+     */
+    public void onPointerDown(int pointerId, float x, float y, long eventNanos) {
+        int pointer = indexOf(pointerId);
+        if (pointer < 0) {
+            if (mPointerCount == MAX_POINTERS) {
+                return;
+            }
+            pointer = mPointerCount++;
+            mPointerIds[pointer] = pointerId;
+            mPointerButtons[pointer] = -1;
+        }
+        mPointerX[pointer] = x;
+        mPointerY[pointer] = y;
+        input(eventNanos);
+    }
+
+    public void onPointerMove(int pointerId, float x, float y, long eventNanos) {
+        int pointer = indexOf(pointerId);
+        if (pointer >= 0 && (mPointerX[pointer] != x || mPointerY[pointer] != y)) {
+            mPointerX[pointer] = x;
+            mPointerY[pointer] = y;
+            input(eventNanos);
+        }
+    }
+
+    public void onPointerUp(int pointerId, long eventNanos) {
+        int pointer = indexOf(pointerId);
+        if (pointer < 0) {
+            return;
+        }
+        int last = --mPointerCount;
+        mPointerIds[pointer] = mPointerIds[last];
+        mPointerX[pointer] = mPointerX[last];
+        mPointerY[pointer] = mPointerY[last];
+        mPointerButtons[pointer] = mPointerButtons[last];
+        mPointerSequence[pointer] = mPointerSequence[last];
+        input(eventNanos);
+    }
+
+    // Every pointer lifted at once, e.g. when the view is detached or the gesture cancelled.
+    public void onCancel(long eventNanos) {
+        if (mPointerCount > 0) {
+            mPointerCount = 0;
+            input(eventNanos);
+        }
+    }
+
+    // Whether anything changed since the last sample.
+    public boolean isDirty() {
+        return mDirty;
+    }
+
+    // Whether a pointer was over the button at the last sample.
+    public boolean isTouched(int button) {
+        for (int i = 0; i < mPointerCount; i++) {
+            if (mPointerButtons[i] == button) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Brings the held buttons up to date with the pointers, calling the listener at most once
+     * per key.
+     *
+     * @return the number of keys that changed.
+     */
+    public int sample(long nowNanos) {
+        if (!mDirty) {
+            return 0;
+        }
+        mDirty = false;
+        mSamples++;
+        for (int i = 0; i < mPointerCount; i++) {
+            int button = hit(mPointerX[i], mPointerY[i]);
+            if (button != mPointerButtons[i]) {
+                mPointerButtons[i] = button;
+                mPointerSequence[i] = ++mSequence;
+            }
+        }
+
+        int keyCount = CommandChannel.COUNT + mButtonCount;
+        Arrays.fill(mWinners, 0, keyCount, -1);
+        for (int i = 0; i < mPointerCount; i++) {
+            int button = mPointerButtons[i];
+            if (button < 0) {
+                continue;
+            }
+            int key = mKeys[button];
+            int winner = mWinners[key];
+            if (winner < 0 || (mOverrides[button] && !mOverrides[winner])
+                    || (mOverrides[button] == mOverrides[winner] && mPointerSequence[i] > mWinnerSequence[key])) {
+                mWinners[key] = button;
+                mWinnerSequence[key] = mPointerSequence[i];
+            }
+        }
+
+        int updates = 0;
+        for (int key = 0; key < keyCount; key++) {
+            int button = mWinners[key];
+            if (button == mHeld[key]) {
+                continue;
+            }
+            mHeld[key] = button;
+            updates++;
+            if (button < 0) {
+                mListener.onRelease(key);
+            } else {
+                mListener.onPress(key, mCommands[button], mReleaseCommands[button]);
+            }
+        }
+        mUpdates += updates;
+        if (updates > 0 && mFirstInputNanos != 0) {
+            // Not for a button disabled under a finger, which no touch caused.
+            mInputToSend.recordNanos(nowNanos - mFirstInputNanos);
+        }
+        mFirstInputNanos = 0;
+        return updates;
+    }
+
+    /**
+     * Forgets the held buttons without calling the listener, for when the holds were ended
+     * some other way, e.g. on disconnect. Fingers still down are picked up again next sample.
+     */
+    public void reset() {
+        Arrays.fill(mHeld, -1);
+        for (int i = 0; i < mPointerCount; i++) {
+            mPointerButtons[i] = -1;
+        }
+        mDirty = true;
+    }
+
+    // From the first touch event a sample acted on to handing the update over.
+    public LatencyHistogram getInputToSend() {
+        return mInputToSend;
+    }
+
+    public long getSamples() {
+        return mSamples;
+    }
+
+    public long getUpdates() {
+        return mUpdates;
+    }
+
+    public long getEvents() {
+        return mEvents;
+    }
+
+    private void input(long eventNanos) {
+        mEvents++;
+        mDirty = true;
+        if (mFirstInputNanos == 0) {
+            mFirstInputNanos = eventNanos;
+        }
+    }
+
+    private int indexOf(int pointerId) {
+        for (int i = 0; i < mPointerCount; i++) {
+            if (mPointerIds[i] == pointerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int hit(float x, float y) {
+        for (int i = 0; i < mButtonCount; i++) {
+            if (mEnabled[i] && x >= mLeft[i] && x < mRight[i] && y >= mTop[i] && y < mBottom[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.viveksni.androidrcremote;
+
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the touches on the control buttons to a {@link ControlPad} and samples it once per
+ * display frame, on the Choreographer's frame callback. Pointers are tracked in screen
+ * coordinates, so a finger that went down on one button and slid onto another, whose events
+ * still go to the first, is seen over the second.
+ * <p>
+ * Create and use it on the main thread.
+ */
+public class ControlPadInput implements View.OnTouchListener, Choreographer.FrameCallback {
+    private final ControlPad mPad;
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final ArrayList<View> mButtons = new ArrayList<>();
+    private final int[] mLocation = new int[2];
+    private boolean mFramePosted;
+
+    public ControlPadInput(ControlPad.Listener listener) {
+        mPad = new ControlPad(listener);
+    }
+
+    public ControlPad getPad() {
+        return mPad;
+    }
+
+    /**
+     * Takes over the button's touches.
+     *
+     * @param override see {@link ControlPad#addButton}.
+     */
+    public void addButton(View button, String command, String releaseCommand, boolean override) {
+        mPad.addButton(command, releaseCommand, override);
+        mButtons.add(button);
+        button.setOnTouchListener(this);
+    }
+
+    // Re-reads which buttons are enabled and shown at the next frame.
+    public void invalidate() {
+        postFrame();
+    }
+
+    /**
+     * Lets go of every pointer and stops sampling, without telling the listener, e.g. when the
+     * buttons are torn down or the holds were ended another way.
+     */
+    public void reset() {
+        mPad.onCancel(System.nanoTime());
+        mPad.reset();
+        if (mFramePosted) {
+            mChoreographer.removeFrameCallback(this);
+            mFramePosted = false;
+        }
+        for (int i = 0; i < mButtons.size(); i++) {
+            mButtons.get(i).setPressed(false);
+        }
+        mPad.sample(System.nanoTime());
+    }
+
+    @Override
+    public boolean onTouch(View view, MotionEvent event) {
+        view.getLocationOnScreen(mLocation);
+        // Event times are uptime milliseconds, on the same monotonic clock as System.nanoTime().
+        long eventNanos = TimeUnit.MILLISECONDS.toNanos(event.getEventTime());
+        int index = event.getActionIndex();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN:
+                mPad.onPointerDown(event.getPointerId(index),
+                        mLocation[0] + event.getX(index), mLocation[1] + event.getY(index), eventNanos);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                for (int i = 0; i < event.getPointerCount(); i++) {
+                    mPad.onPointerMove(event.getPointerId(i),
+                            mLocation[0] + event.getX(i), mLocation[1] + event.getY(i), eventNanos);
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
+                mPad.onPointerUp(event.getPointerId(index), eventNanos);
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                for (int i = 0; i < event.getPointerCount(); i++) {
+                    mPad.onPointerUp(event.getPointerId(i), eventNanos);
+                }
+                break;
+            default:
+                return false;
+        }
+        if (mPad.isDirty()) {
+            postFrame();
+        }
+        return true;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFramePosted = false;
+        for (int i = 0; i < mButtons.size(); i++) {
+            View button = mButtons.get(i);
+            button.getLocationOnScreen(mLocation);
+            mPad.setBounds(i, mLocation[0], mLocation[1],
+                    mLocation[0] + button.getWidth(), mLocation[1] + button.getHeight());
+            mPad.setEnabled(i, button.isEnabled() && button.isShown());
+        }
+        mPad.sample(System.nanoTime());
+        for (int i = 0; i < mButtons.size(); i++) {
+            mButtons.get(i).setPressed(mPad.isTouched(i));
+        }
+    }
+
+    private void postFrame() {
+        if (!mFramePosted) {
+            mFramePosted = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Protocol extensions the car advertises right after the "hostip:" handshake, as a text frame
+ * such as "caps:bin1,joy1". Firmware that predates the extensions never sends one, and because
+ * the car speaks any command it does not recognise, nothing beyond the plain text commands may
+ * be sent unless the car listed it here.
+ */
+public final class DeviceCapabilities {
+    public static final String MESSAGE_PREFIX = "caps:";
+
+    public static final int NONE = 0;
+    public static final int BINARY_COMMANDS = 1;
+    public static final int ANALOG_DRIVE = 1 << 1;
+    public static final int PING = 1 << 2;
+    public static final int VIDEO_SETTINGS = 1 << 3;
+    public static final int TELEMETRY = 1 << 4;
+
+    // Bit i of the mask is NAMES[i].
+    private static final String[] NAMES = {"bin1", "joy1", "ping1", "vid1", "tel1"};
+
+    private DeviceCapabilities() {
+    }
+
+    public static boolean isCapabilitiesMessage(String message) {
+        return message.startsWith(MESSAGE_PREFIX);
+    }
+
+    /**
+     * Parses a "caps:" message into a bit mask of the capabilities this app knows about.
+     * Unknown names are ignored so the car can advertise newer extensions.
+     */
+    public static int parse(String message) {
+        if (!isCapabilitiesMessage(message)) {
+            return NONE;
+        }
+
+        int capabilities = NONE;
+        int start = MESSAGE_PREFIX.length();
+        while (start < message.length()) {
+            int end = message.indexOf(',', start);
+            if (end < 0) {
+                end = message.length();
+            }
+            for (int i = 0; i < NAMES.length; i++) {
+                if (message.regionMatches(true, start, NAMES[i], 0, end - start)
+                        && NAMES[i].length() == end - start) {
+                    capabilities |= 1 << i;
+                }
+            }
+            start = end + 1;
+        }
+        return capabilities;
+    }
+
+    public static boolean supports(int capabilities, int capability) {
+        return (capabilities & capability) == capability;
+    }
+}
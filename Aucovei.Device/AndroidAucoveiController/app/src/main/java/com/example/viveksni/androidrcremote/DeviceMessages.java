@@ -0,0 +1,39 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Classifies the text messages the car sends, so the UI can route them without repeated
+ * string searches.
+ */
+public final class DeviceMessages {
+    public static final int TYPE_OTHER = 0;
+    public static final int TYPE_HOST_IP = 1;
+    public static final int TYPE_CAMERA_ON = 2;
+    public static final int TYPE_CAMERA_OFF = 3;
+
+    public static final String HOST_IP_PREFIX = "hostip:";
+    public static final String CAMERA_ON = "CAMON";
+    public static final String CAMERA_OFF = "CAMOFF";
+
+    private DeviceMessages() {
+    }
+
+    public static int classify(String message) {
+        if (message.startsWith(HOST_IP_PREFIX)) {
+            return TYPE_HOST_IP;
+        }
+        if (message.equalsIgnoreCase(CAMERA_ON)) {
+            return TYPE_CAMERA_ON;
+        }
+        if (message.equalsIgnoreCase(CAMERA_OFF)) {
+            return TYPE_CAMERA_OFF;
+        }
+        return TYPE_OTHER;
+    }
+
+    /**
+     * The address of the car's camera server from a {@link #TYPE_HOST_IP} message.
+     */
+    public static String getHostIp(String message) {
+        return message.substring(HOST_IP_PREFIX.length()).trim();
+    }
+}
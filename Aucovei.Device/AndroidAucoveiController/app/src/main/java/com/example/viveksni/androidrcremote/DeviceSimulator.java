@@ -0,0 +1,308 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays the car's side of the protocol, as RfcommServiceManager and CommandProcessor in
+ * Aucovei.Device do, so connection code can be exercised without hardware. Use it through a
+ * {@link LoopbackTransport}.
+ * <p>
+ * On connect it sends "hostip:", the optional "caps:" list and "Ready!". It answers CAM-1 and
+ * CAM-0 with CAMON and CAMOFF, accepts the drive, tilt, light, speed and horn commands, and
+ * counts anything else as spoken, which is what the firmware does with unknown text. Extensions
+ * such as binary commands and PING are only honoured if listed in {@link #setCapabilities}.
+ * <p>
+ * With {@link DeviceCapabilities#TELEMETRY} advertised and a telemetry rate set, it also
+ * streams made-up readings for every {@link Telemetry} channel.
+ * <p>
+ * Latency and bandwidth apply to each direction of the link. Loss drops whole frames after the
+ * handshake, both commands and replies, using a seeded random source so runs are repeatable.
+ */
+public class DeviceSimulator {
+    public static final String NAME = "Simulated car";
+    public static final String DEFAULT_HOST_IP = "127.0.0.1";
+    public static final String READY_MESSAGE = "Ready!";
+    public static final String ALL_CAPABILITIES = "bin1,joy1,ping1,vid1,tel1";
+
+    private String mHostIp = DEFAULT_HOST_IP;
+    private String mCapabilities;
+    private long mLatencyMillis;
+    private long mBytesPerSecond;
+    private double mLossRate;
+    private int mTelemetryHz;
+    private Random mRandom = new Random(0);
+
+    // Guarded by this.
+    private long mCommandsReceived;
+    private long mCommandsLost;
+    private long mSpokenCount;
+    private String mLastCommand;
+    private String mLastDriveCommand;
+    private String mLastTiltCommand;
+    private String mLastVideoCommand;
+    private boolean mCameraOn;
+
+    public DeviceSimulator setHostIp(String hostIp) {
+        mHostIp = hostIp;
+        return this;
+    }
+
+    /**
+     * @param capabilities advertised after the handshake, e.g. "bin1,ping1", or null to behave
+     *                     like firmware without protocol extensions.
+     */
+    public DeviceSimulator setCapabilities(String capabilities) {
+        mCapabilities = capabilities;
+        return this;
+    }
+
+    // One way latency of each direction.
+    public DeviceSimulator setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    // Bandwidth of each direction, or 0 for unlimited.
+    public DeviceSimulator setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    // Fraction of frames dropped in each direction after the handshake, in [0, 1].
+    public DeviceSimulator setLossRate(double lossRate) {
+        mLossRate = lossRate;
+        return this;
+    }
+
+    // Telemetry frames per second, or 0 for none.
+    public DeviceSimulator setTelemetryHz(int telemetryHz) {
+        mTelemetryHz = telemetryHz;
+        return this;
+    }
+
+    public DeviceSimulator setSeed(long seed) {
+        mRandom = new Random(seed);
+        return this;
+    }
+
+    public long getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * Runs the device side of one connection until the input ends, the app sends an empty
+     * frame, or the streams fail.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        int capabilities = mCapabilities != null
+                ? DeviceCapabilities.parse(DeviceCapabilities.MESSAGE_PREFIX + mCapabilities)
+                : DeviceCapabilities.NONE;
+        FrameCodec codec = new FrameCodec();
+
+        send(codec, out, DeviceMessages.HOST_IP_PREFIX + mHostIp);
+        if (mCapabilities != null) {
+            send(codec, out, DeviceCapabilities.MESSAGE_PREFIX + mCapabilities);
+        }
+        send(codec, out, READY_MESSAGE);
+
+        Thread telemetry = null;
+        if (mTelemetryHz > 0 && DeviceCapabilities.supports(capabilities, DeviceCapabilities.TELEMETRY)) {
+            telemetry = startTelemetry(out);
+        }
+        try {
+            serveCommands(in, out, codec, capabilities);
+        } finally {
+            if (telemetry != null) {
+                telemetry.interrupt();
+            }
+        }
+    }
+
+    private void serveCommands(InputStream in, OutputStream out, FrameCodec codec, int capabilities)
+            throws IOException {
+        boolean binaryCommands = false;
+        while (codec.readFrame(in) > 0) {
+            ByteBuffer payload = codec.getPayload();
+            String command = binaryCommands && BinaryCommandCodec.isBinaryPayload(payload)
+                    ? BinaryCommandCodec.decode(payload)
+                    : codec.getPayloadString();
+
+            // The encoding switch is part of the handshake and never lost.
+            if (BinaryCommandCodec.ACKNOWLEDGE_COMMAND.equals(command)) {
+                binaryCommands = DeviceCapabilities.supports(capabilities, DeviceCapabilities.BINARY_COMMANDS);
+            } else if (isLost()) {
+                synchronized (this) {
+                    mCommandsReceived++;
+                    mCommandsLost++;
+                    notifyAll();
+                }
+                continue;
+            }
+
+            String reply = handle(command, capabilities);
+            if (reply != null && !isLost()) {
+                send(codec, out, reply);
+            }
+        }
+    }
+
+    private synchronized String handle(String command, int capabilities) {
+        mCommandsReceived++;
+        mLastCommand = command;
+        notifyAll();
+
+        if (command == null) {
+            mSpokenCount++;
+            return null;
+        }
+        if (command.equals(BinaryCommandCodec.ACKNOWLEDGE_COMMAND)) {
+            if (!DeviceCapabilities.supports(capabilities, DeviceCapabilities.BINARY_COMMANDS)) {
+                mSpokenCount++;
+            }
+            return null;
+        }
+        if (command.equals(Commands.CAMERA_ON)) {
+            mCameraOn = true;
+            return DeviceMessages.CAMERA_ON;
+        }
+        if (command.equals(Commands.CAMERA_OFF)) {
+            mCameraOn = false;
+            return DeviceMessages.CAMERA_OFF;
+        }
+        if (command.startsWith("DRIVE-")) {
+            mLastDriveCommand = command;
+            return null;
+        }
+        if (command.startsWith("TILT-")) {
+            mLastTiltCommand = command;
+            return null;
+        }
+        if (command.startsWith(Commands.ANALOG_DRIVE_PREFIX)
+                && DeviceCapabilities.supports(capabilities, DeviceCapabilities.ANALOG_DRIVE)) {
+            mLastDriveCommand = command;
+            return null;
+        }
+        if (command.startsWith(Commands.VIDEO_PREFIX)
+                && DeviceCapabilities.supports(capabilities, DeviceCapabilities.VIDEO_SETTINGS)) {
+            mLastVideoCommand = command;
+            return null;
+        }
+        if (command.startsWith(Commands.PING_PREFIX)
+                && DeviceCapabilities.supports(capabilities, DeviceCapabilities.PING)) {
+            return Commands.PONG_PREFIX + command.substring(Commands.PING_PREFIX.length());
+        }
+        if (command.equals(Commands.HORN) || command.startsWith("SPEED")
+                || command.equals(Commands.CAMERA_LED_ON) || command.equals(Commands.CAMERA_LED_OFF)) {
+            return null;
+        }
+
+        mSpokenCount++;
+        return null;
+    }
+
+    private boolean isLost() {
+        return mLossRate > 0 && mRandom.nextDouble() < mLossRate;
+    }
+
+    // Replies and telemetry share the stream, so whole frames are written under its lock.
+    private static void send(FrameCodec codec, OutputStream out, String message) throws IOException {
+        synchronized (out) {
+            codec.writeFrame(out, message);
+            out.flush();
+        }
+    }
+
+    private Thread startTelemetry(final OutputStream out) {
+        final long periodNanos = TimeUnit.SECONDS.toNanos(1) / mTelemetryHz;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameCodec codec = new FrameCodec();
+                int[] channels = {Telemetry.CHANNEL_DISTANCE, Telemetry.CHANNEL_SPEED,
+                        Telemetry.CHANNEL_HEADING, Telemetry.CHANNEL_BATTERY};
+                float[] values = new float[channels.length];
+                byte[] payload = new byte[1 + channels.length * Telemetry.RECORD_LENGTH];
+                long startNanos = System.nanoTime();
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        TimeUnit.NANOSECONDS.sleep(periodNanos);
+                        double seconds = (System.nanoTime() - startNanos) / 1e9;
+                        values[0] = (float) (120 + 80 * Math.sin(seconds / 3));
+                        values[1] = (float) (0.8 + 0.4 * Math.sin(seconds));
+                        values[2] = (float) (seconds * 15 % 360);
+                        values[3] = (float) Math.max(6.4, 8.2 - seconds / 600);
+                        int length = Telemetry.encode(channels, values, channels.length, payload, 0);
+                        synchronized (out) {
+                            codec.writeFrame(out, payload, 0, length);
+                            out.flush();
+                        }
+                    }
+                } catch (InterruptedException | IOException e) {
+                    // The connection is over.
+                }
+            }
+        }, "SimulatorTelemetry");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Waits until the simulator has read at least {@code count} commands, lost ones included.
+     *
+     * @return false if that did not happen within the timeout.
+     */
+    public synchronized boolean awaitCommands(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (mCommandsReceived < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public synchronized long getCommandsReceived() {
+        return mCommandsReceived;
+    }
+
+    public synchronized long getCommandsLost() {
+        return mCommandsLost;
+    }
+
+    // Commands the car did not understand and would have read out loud.
+    public synchronized long getSpokenCount() {
+        return mSpokenCount;
+    }
+
+    public synchronized String getLastCommand() {
+        return mLastCommand;
+    }
+
+    public synchronized String getLastDriveCommand() {
+        return mLastDriveCommand;
+    }
+
+    public synchronized String getLastTiltCommand() {
+        return mLastTiltCommand;
+    }
+
+    public synchronized String getLastVideoCommand() {
+        return mLastVideoCommand;
+    }
+
+    public synchronized boolean isCameraOn() {
+        return mCameraOn;
+    }
+}
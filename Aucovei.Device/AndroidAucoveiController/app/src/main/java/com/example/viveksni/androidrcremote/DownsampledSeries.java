@@ -0,0 +1,167 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * A series' whole history at a fixed memory cost, for charting. Level 0 keeps the newest raw
+ * samples; every time a level fills a block of {@link #BLOCK_SIZE} new points, the block is
+ * downsampled with {@link Lttb} to a quarter of that and appended to the next level, which so
+ * covers four times the span at the same capacity. Blocks are downsampled once, when they
+ * complete, and the result is kept.
+ * <p>
+ * {@link #select} serves a time window from the finest level that still reaches back to its
+ * start, topped up with the newer points the coarser levels have not received yet, and
+ * downsamples that to the number of points wanted. Neither step depends on how long the session
+ * has run, only on the fixed level capacity.
+ * <p>
+ * Not thread safe; charts feed and read it on the UI thread.
+ */
+public class DownsampledSeries {
+    public static final int LEVEL_CAPACITY = 2048;
+    public static final int BLOCK_SIZE = 256;
+    public static final int REDUCTION = 4;
+    // At 20 Hz level 0 covers 100 seconds and the top level about 19 days.
+    public static final int LEVEL_COUNT = 8;
+
+    private final Level[] mLevels = new Level[LEVEL_COUNT];
+    // Window points gathered across levels, before the final downsample.
+    private final long[] mWindowX = new long[LEVEL_CAPACITY + LEVEL_COUNT * BLOCK_SIZE];
+    private final float[] mWindowY = new float[LEVEL_CAPACITY + LEVEL_COUNT * BLOCK_SIZE];
+
+    public DownsampledSeries() {
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            mLevels[i] = new Level();
+        }
+    }
+
+    // Timestamps must not go backwards.
+    public void add(long timestamp, float value) {
+        add(0, timestamp, value);
+    }
+
+    private void add(int levelIndex, long timestamp, float value) {
+        Level level = mLevels[levelIndex];
+        level.add(timestamp, value);
+        if (++level.mPending < BLOCK_SIZE || levelIndex + 1 == LEVEL_COUNT) {
+            return;
+        }
+
+        level.mPending = 0;
+        int kept = level.downsampleNewestBlock();
+        for (int i = 0; i < kept; i++) {
+            // May complete a block on the next level too; each level has its own scratch.
+            add(levelIndex + 1, level.mReducedX[i], level.mReducedY[i]);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mLevels[0].mCount == 0;
+    }
+
+    // Timestamp of the newest sample, or 0 if there is none.
+    public long getNewestTimestamp() {
+        Level level = mLevels[0];
+        return level.mCount == 0 ? 0 : level.timestampAt(level.mCount - 1);
+    }
+
+    // Timestamp of the oldest sample any level still covers, or 0 if there is none.
+    public long getOldestTimestamp() {
+        for (int i = LEVEL_COUNT - 1; i >= 0; i--) {
+            Level level = mLevels[i];
+            if (level.mCount > 0) {
+                return level.timestampAt(level.oldest());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes at most {@code maxPoints} points between {@code from} and {@code to}, inclusive,
+     * to the start of {@code outX} and {@code outY}.
+     *
+     * @return the number of points written.
+     */
+    public int select(long from, long to, int maxPoints, long[] outX, float[] outY) {
+        // The finest level that reaches back to the start of the window. One that has not
+        // wrapped yet still holds everything since the first sample.
+        int levelIndex = 0;
+        while (levelIndex + 1 < LEVEL_COUNT && mLevels[levelIndex].mCount > LEVEL_CAPACITY
+                && mLevels[levelIndex].timestampAt(mLevels[levelIndex].oldest()) > from) {
+            levelIndex++;
+        }
+
+        int count = 0;
+        long after = Long.MIN_VALUE;
+        for (int i = levelIndex; i >= 0; i--) {
+            Level level = mLevels[i];
+            long start = Math.max(from, after == Long.MIN_VALUE ? from : after + 1);
+            for (long n = level.firstAtOrAfter(start); n < level.mCount; n++) {
+                long timestamp = level.timestampAt(n);
+                if (timestamp > to || count == mWindowX.length) {
+                    break;
+                }
+                mWindowX[count] = timestamp;
+                mWindowY[count++] = level.valueAt(n);
+            }
+            if (count > 0) {
+                after = mWindowX[count - 1];
+            }
+        }
+        return Lttb.downsample(mWindowX, mWindowY, 0, count, maxPoints, outX, outY);
+    }
+
+    // One ring of points; indices are sequence numbers counting every point added.
+    private static final class Level {
+        final long[] mX = new long[LEVEL_CAPACITY];
+        final float[] mY = new float[LEVEL_CAPACITY];
+        long mCount;
+        int mPending;
+        // Scratch for downsampleNewestBlock, which needs the block contiguous.
+        private final long[] mBlockX = new long[BLOCK_SIZE];
+        private final float[] mBlockY = new float[BLOCK_SIZE];
+        final long[] mReducedX = new long[BLOCK_SIZE / REDUCTION];
+        final float[] mReducedY = new float[BLOCK_SIZE / REDUCTION];
+
+        void add(long timestamp, float value) {
+            int index = (int) (mCount % LEVEL_CAPACITY);
+            mX[index] = timestamp;
+            mY[index] = value;
+            mCount++;
+        }
+
+        long oldest() {
+            return Math.max(0, mCount - LEVEL_CAPACITY);
+        }
+
+        long timestampAt(long n) {
+            return mX[(int) (n % LEVEL_CAPACITY)];
+        }
+
+        float valueAt(long n) {
+            return mY[(int) (n % LEVEL_CAPACITY)];
+        }
+
+        // Sequence number of the first point at or after the timestamp, or mCount if none.
+        long firstAtOrAfter(long timestamp) {
+            long low = oldest();
+            long high = mCount;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (timestampAt(middle) < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // Downsamples the newest block into mReducedX and mReducedY.
+        int downsampleNewestBlock() {
+            long first = mCount - BLOCK_SIZE;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                mBlockX[i] = timestampAt(first + i);
+                mBlockY[i] = valueAt(first + i);
+            }
+            return Lttb.downsample(mBlockX, mBlockY, 0, BLOCK_SIZE, mReducedX.length, mReducedX, mReducedY);
+        }
+    }
+}
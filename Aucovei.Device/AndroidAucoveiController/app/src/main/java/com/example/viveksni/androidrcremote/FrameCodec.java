@@ -0,0 +1,215 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Length-prefixed framing shared with the RFCOMM service on the car: every frame is a
+ * big-endian 4 byte payload length followed by the payload bytes.
+ * <p>
+ * A codec owns one reusable buffer per direction, so reading and writing frames does not
+ * allocate. Reads loop until the header and the payload are complete, so a split RFCOMM read
+ * is not mistaken for a dropped link. A corrupt length is skipped one byte at a time until a
+ * plausible header turns up again, instead of trusting it for an allocation.
+ * <p>
+ * The read and write sides share no state: one thread may read while another writes, but each
+ * side must only be used by one thread at a time.
+ */
+public class FrameCodec {
+    public static final int HEADER_LENGTH = 4;
+    public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int mMaxPayloadLength;
+    private final ByteBuffer mReadBuffer;
+    private final ByteBuffer mWriteBuffer;
+    private long mResyncCount;
+    private long mSkippedBytes;
+
+    public FrameCodec() {
+        this(DEFAULT_MAX_PAYLOAD_LENGTH);
+    }
+
+    public FrameCodec(int maxPayloadLength) {
+        mMaxPayloadLength = maxPayloadLength;
+        mReadBuffer = ByteBuffer.allocate(HEADER_LENGTH + maxPayloadLength);
+        mWriteBuffer = ByteBuffer.allocate(HEADER_LENGTH + maxPayloadLength);
+    }
+
+    public int getMaxPayloadLength() {
+        return mMaxPayloadLength;
+    }
+
+    /**
+     * Blocks until a complete frame has been read from the stream.
+     *
+     * @return the payload length, or -1 if the stream ended. The payload is available from
+     * {@link #getPayload()} until the next call.
+     */
+    public int readFrame(InputStream in) throws IOException {
+        byte[] buffer = mReadBuffer.array();
+        // The last payload's limit may be shorter than the header.
+        mReadBuffer.clear();
+        if (!readFully(in, buffer, 0, HEADER_LENGTH)) {
+            return -1;
+        }
+
+        int length = mReadBuffer.getInt(0);
+        if (length < 0 || length > mMaxPayloadLength) {
+            mResyncCount++;
+            do {
+                // Slide the header window by one byte until it holds a plausible length.
+                System.arraycopy(buffer, 1, buffer, 0, HEADER_LENGTH - 1);
+                if (!readFully(in, buffer, HEADER_LENGTH - 1, 1)) {
+                    return -1;
+                }
+                mSkippedBytes++;
+                length = mReadBuffer.getInt(0);
+            } while (length < 0 || length > mMaxPayloadLength);
+        }
+
+        if (!readFully(in, buffer, 0, length)) {
+            return -1;
+        }
+
+        mReadBuffer.limit(length);
+        return length;
+    }
+
+    /**
+     * Returns the payload of the last frame read. The buffer is reused by the next
+     * {@link #readFrame(InputStream)}.
+     */
+    public ByteBuffer getPayload() {
+        return mReadBuffer;
+    }
+
+    public String getPayloadString() {
+        return new String(mReadBuffer.array(), 0, mReadBuffer.limit(), UTF_8);
+    }
+
+    /**
+     * Number of corrupt length prefixes encountered since this codec was created.
+     */
+    public long getResyncCount() {
+        return mResyncCount;
+    }
+
+    /**
+     * Number of bytes dropped while resynchronising after a corrupt length prefix.
+     */
+    public long getSkippedBytes() {
+        return mSkippedBytes;
+    }
+
+    /**
+     * Encodes the text as UTF-8 and writes it as a single frame.
+     *
+     * @return the number of bytes written, header included.
+     */
+    public int writeFrame(OutputStream out, CharSequence text) throws IOException {
+        int length;
+        try {
+            length = encodeUtf8(text, mWriteBuffer.array(), HEADER_LENGTH,
+                    HEADER_LENGTH + mMaxPayloadLength, false);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Frame payload exceeds " + mMaxPayloadLength + " bytes");
+        }
+        return writeBufferedFrame(out, length);
+    }
+
+    public int writeFrame(OutputStream out, byte[] payload, int offset, int length) throws IOException {
+        checkPayloadLength(length);
+        System.arraycopy(payload, offset, mWriteBuffer.array(), HEADER_LENGTH, length);
+        return writeBufferedFrame(out, length);
+    }
+
+    private int writeBufferedFrame(OutputStream out, int length) throws IOException {
+        mWriteBuffer.putInt(0, length);
+        out.write(mWriteBuffer.array(), 0, HEADER_LENGTH + length);
+        return HEADER_LENGTH + length;
+    }
+
+    /**
+     * Encodes the text as UTF-8, as String.getBytes() would, into dest from offset up to limit.
+     * Shared by everything that writes commands, so the wire and the journal agree.
+     *
+     * @param truncate whether to stop at the last whole character that fits, rather than throw
+     *                 IllegalArgumentException.
+     * @return the number of bytes written.
+     */
+    static int encodeUtf8(CharSequence text, byte[] dest, int offset, int limit, boolean truncate) {
+        int pos = offset;
+        int count = text.length();
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            int required;
+            int codePoint = c;
+            if (c < 0x80) {
+                required = 1;
+            } else if (c < 0x800) {
+                required = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                required = 4;
+                codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired, so not encodable; String.getBytes() writes '?' too.
+                required = 1;
+                codePoint = '?';
+            } else {
+                required = 3;
+            }
+            if (pos + required > limit) {
+                if (truncate) {
+                    break;
+                }
+                throw new IllegalArgumentException("Text exceeds " + (limit - offset) + " bytes");
+            }
+            switch (required) {
+                case 1:
+                    dest[pos++] = (byte) codePoint;
+                    break;
+                case 2:
+                    dest[pos++] = (byte) (0xC0 | (codePoint >> 6));
+                    dest[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                    break;
+                case 3:
+                    dest[pos++] = (byte) (0xE0 | (codePoint >> 12));
+                    dest[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    dest[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                    break;
+                default:
+                    dest[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                    dest[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    dest[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    dest[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                    i++;
+                    break;
+            }
+        }
+        return pos - offset;
+    }
+
+    private void checkPayloadLength(int length) {
+        if (length < 0 || length > mMaxPayloadLength) {
+            throw new IllegalArgumentException("Frame payload exceeds " + mMaxPayloadLength + " bytes");
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+            length -= read;
+        }
+        return true;
+    }
+}
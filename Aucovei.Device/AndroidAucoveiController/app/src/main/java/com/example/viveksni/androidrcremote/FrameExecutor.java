@@ -0,0 +1,22 @@
+package com.example.viveksni.androidrcremote;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the main thread at the start of the next frame. Create it on the main thread.
+ */
+public class FrameExecutor implements Executor {
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    @Override
+    public void execute(final Runnable command) {
+        mChoreographer.postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                command.run();
+            }
+        });
+    }
+}
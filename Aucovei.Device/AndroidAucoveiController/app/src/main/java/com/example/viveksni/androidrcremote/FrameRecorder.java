@@ -0,0 +1,112 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records camera frames into a directory of {@link FrameSegment} files named by the time of
+ * their first frame. A new segment is started when the current one is full, and the oldest
+ * segments are deleted to keep the directory within its disk budget.
+ * <p>
+ * Appending copies the frame into the current segment's mapping; files are only created on
+ * rotation, so recording does not allocate or block on the file system per frame.
+ */
+public class FrameRecorder implements Closeable {
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+    public static final String SEGMENT_SUFFIX = ".frames";
+
+    private final File mDirectory;
+    private final int mSegmentBytes;
+    private final long mBudgetBytes;
+    private FrameSegment mSegment;
+    private long mFramesRecorded;
+    private boolean mClosed;
+
+    /**
+     * @param budgetBytes total size of the segment files to keep, at least one segment.
+     */
+    public FrameRecorder(File directory, int segmentBytes, long budgetBytes) {
+        mDirectory = directory;
+        mSegmentBytes = segmentBytes;
+        mBudgetBytes = Math.max(budgetBytes, segmentBytes);
+    }
+
+    /**
+     * Records a frame. Does nothing once closed.
+     */
+    public synchronized void append(byte[] data, int length, long timestampMillis) throws IOException {
+        if (mClosed) {
+            return;
+        }
+        if (mSegment == null || !mSegment.append(data, length, timestampMillis)) {
+            rotate(timestampMillis);
+            if (!mSegment.append(data, length, timestampMillis)) {
+                throw new IOException("Frame of " + length + " bytes is larger than a segment");
+            }
+        }
+        mFramesRecorded++;
+    }
+
+    public synchronized long getFramesRecorded() {
+        return mFramesRecorded;
+    }
+
+    @Override
+    public synchronized void close() {
+        // The mapping is released when the segment is collected; its header is already committed.
+        mClosed = true;
+        mSegment = null;
+    }
+
+    private void rotate(long timestampMillis) throws IOException {
+        mSegment = null;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+
+        File[] segments = listSegments(mDirectory);
+        long total = 0;
+        for (File segment : segments) {
+            total += segment.length();
+        }
+        for (int i = 0; i < segments.length && total + mSegmentBytes > mBudgetBytes; i++) {
+            total -= segments[i].length();
+            if (!segments[i].delete()) {
+                throw new IOException("Could not delete " + segments[i]);
+            }
+        }
+
+        File file = segmentFile(timestampMillis);
+        while (file.exists()) {
+            file = segmentFile(++timestampMillis);
+        }
+        mSegment = FrameSegment.create(file, mSegmentBytes);
+    }
+
+    private File segmentFile(long timestampMillis) {
+        // Zero padded so name order is time order.
+        return new File(mDirectory, String.format(Locale.US, "%013d%s", timestampMillis, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * The segment files in a recording directory, oldest first.
+     */
+    public static File[] listSegments(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Read side of a {@link FrameRecorder} directory for playback. Finding the frame for a moment
+ * is a binary search over the segments' start times and then over the segment's index.
+ */
+public class FrameRecording {
+    private final FrameSegment[] mSegments;
+
+    private FrameRecording(FrameSegment[] segments) {
+        mSegments = segments;
+    }
+
+    /**
+     * Opens every non-empty segment in the directory.
+     */
+    public static FrameRecording open(File directory) throws IOException {
+        File[] files = FrameRecorder.listSegments(directory);
+        FrameSegment[] segments = new FrameSegment[files.length];
+        int count = 0;
+        for (File file : files) {
+            FrameSegment segment = FrameSegment.open(file);
+            if (segment.getFrameCount() > 0) {
+                segments[count++] = segment;
+            }
+        }
+        FrameSegment[] opened = new FrameSegment[count];
+        System.arraycopy(segments, 0, opened, 0, count);
+        return new FrameRecording(opened);
+    }
+
+    public int getSegmentCount() {
+        return mSegments.length;
+    }
+
+    public FrameSegment getSegment(int index) {
+        return mSegments[index];
+    }
+
+    public long getStartMillis() {
+        return mSegments.length > 0 ? mSegments[0].getStartMillis() : 0;
+    }
+
+    public long getEndMillis() {
+        return mSegments.length > 0 ? mSegments[mSegments.length - 1].getEndMillis() : 0;
+    }
+
+    /**
+     * The segment holding the frame showing at the given time, see
+     * {@link FrameSegment#findFrame}. -1 if the recording is empty.
+     */
+    public int findSegment(long timestampMillis) {
+        int low = 0;
+        int high = mSegments.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mSegments[middle].getStartMillis() <= timestampMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return mSegments.length == 0 ? -1 : Math.max(0, low - 1);
+    }
+}
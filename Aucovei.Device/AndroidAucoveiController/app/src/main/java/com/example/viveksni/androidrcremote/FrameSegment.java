@@ -0,0 +1,187 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * One append-only file of recorded camera frames, written and read through a memory mapping so
+ * appending a frame is a copy into the page cache with no system call or allocation.
+ * <p>
+ * The file starts with a 16 byte header: magic, version and the committed length, which is
+ * updated after each frame so a crash loses at most the frame being written. Each frame is its
+ * timestamp in milliseconds, its length and the JPEG bytes. The timestamp to offset index is
+ * kept in two primitive arrays and rebuilt by walking the frame headers when a file is opened.
+ */
+public class FrameSegment {
+    static final int MAGIC = 0x41564652; // "AVFR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int FRAME_HEADER_BYTES = 12;
+    private static final int COMMITTED_OFFSET = 8;
+
+    private final File mFile;
+    private final MappedByteBuffer mBuffer;
+    private final boolean mWritable;
+    private int mEnd;
+    private int mCount;
+    private long[] mTimestamps = new long[256];
+    private int[] mOffsets = new int[256];
+
+    private FrameSegment(File file, MappedByteBuffer buffer, boolean writable) {
+        mFile = file;
+        mBuffer = buffer;
+        mWritable = writable;
+    }
+
+    /**
+     * Creates a segment file of exactly {@code capacity} bytes, replacing any existing file.
+     */
+    public static FrameSegment create(File file, int capacity) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(capacity);
+            // The mapping outlives the channel.
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        FrameSegment segment = new FrameSegment(file, buffer, true);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        segment.commit(HEADER_BYTES);
+        return segment;
+    }
+
+    /**
+     * Opens a segment for reading, up to its last committed frame.
+     */
+    public static FrameSegment open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a frame segment: " + file);
+        }
+        int committed = buffer.getInt(COMMITTED_OFFSET);
+        if (committed < HEADER_BYTES || committed > buffer.capacity()) {
+            throw new IOException("Bad committed length " + committed + " in " + file);
+        }
+
+        FrameSegment segment = new FrameSegment(file, buffer, false);
+        int offset = HEADER_BYTES;
+        while (offset + FRAME_HEADER_BYTES <= committed) {
+            int length = buffer.getInt(offset + 8);
+            if (length < 0 || offset + FRAME_HEADER_BYTES + length > committed) {
+                break;
+            }
+            segment.index(buffer.getLong(offset), offset);
+            offset += FRAME_HEADER_BYTES + length;
+        }
+        segment.mEnd = offset;
+        return segment;
+    }
+
+    /**
+     * Appends a frame. Timestamps that go backwards, e.g. after a clock change, are recorded
+     * as the previous timestamp so the index stays sorted.
+     *
+     * @return false if the frame does not fit in the space left.
+     */
+    public boolean append(byte[] data, int length, long timestampMillis) {
+        if (!mWritable) {
+            throw new IllegalStateException("Segment is read only");
+        }
+        if ((long) mEnd + FRAME_HEADER_BYTES + length > mBuffer.capacity()) {
+            return false;
+        }
+        if (mCount > 0) {
+            timestampMillis = Math.max(timestampMillis, mTimestamps[mCount - 1]);
+        }
+        mBuffer.putLong(mEnd, timestampMillis);
+        mBuffer.putInt(mEnd + 8, length);
+        mBuffer.position(mEnd + FRAME_HEADER_BYTES);
+        mBuffer.put(data, 0, length);
+        index(timestampMillis, mEnd);
+        commit(mEnd + FRAME_HEADER_BYTES + length);
+        return true;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public int getFrameCount() {
+        return mCount;
+    }
+
+    // Bytes used, header included.
+    public int getLength() {
+        return mEnd;
+    }
+
+    public long getTimestampMillis(int index) {
+        return mTimestamps[index];
+    }
+
+    public long getStartMillis() {
+        return mCount > 0 ? mTimestamps[0] : 0;
+    }
+
+    public long getEndMillis() {
+        return mCount > 0 ? mTimestamps[mCount - 1] : 0;
+    }
+
+    /**
+     * The frame showing at the given time: the last one at or before it, or the first frame if
+     * the time is before the segment starts. -1 if the segment is empty.
+     */
+    public int findFrame(long timestampMillis) {
+        if (mCount == 0) {
+            return -1;
+        }
+        // Binary search for the first frame after the time.
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mTimestamps[middle] <= timestampMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return Math.max(0, low - 1);
+    }
+
+    /**
+     * Copies a frame's JPEG bytes into the given frame buffer.
+     */
+    public void readFrame(int index, VideoFrameExchanger.Frame frame) {
+        int offset = mOffsets[index];
+        int length = mBuffer.getInt(offset + 8);
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offset + FRAME_HEADER_BYTES);
+        view.get(frame.ensureCapacity(length), 0, length);
+        frame.set(length, 0);
+    }
+
+    private void index(long timestampMillis, int offset) {
+        if (mCount == mTimestamps.length) {
+            mTimestamps = Arrays.copyOf(mTimestamps, mCount * 2);
+            mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+        }
+        mTimestamps[mCount] = timestampMillis;
+        mOffsets[mCount] = offset;
+        mCount++;
+    }
+
+    private void commit(int end) {
+        mEnd = end;
+        mBuffer.putInt(COMMITTED_OFFSET, end);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeats the command of every held control button at a fixed rate, on a {@link TimerWheel}.
+ * <p>
+ * Holds are keyed by button, so releasing a button only ends its own hold. A new hold on a
+ * {@link CommandChannel} that is already held takes over that channel. Pressing, releasing and
+ * repeating all run on the scheduler thread, so a repeat can never slip out after the release
+ * command. The repeats are the wheel owner's timers, so ending every hold is one call.
+ */
+public class HoldRepeatScheduler {
+    public static final long DEFAULT_PERIOD_MILLIS = 2000;
+
+    public interface Sender {
+        void send(String command);
+    }
+
+    private final Sender mSender;
+    private final TimerWheel mTimers;
+    private final int mOwner;
+    private final boolean mOwnsTimers;
+    // Only touched on the scheduler thread.
+    private final ArrayList<Hold> mHolds = new ArrayList<>();
+    private volatile long mPeriodNanos;
+
+    // Written on the scheduler thread only.
+    private volatile long mTickCount;
+    private volatile long mTotalJitterNanos;
+    private volatile long mMaxJitterNanos;
+
+    public HoldRepeatScheduler(Sender sender) {
+        this(sender, DEFAULT_PERIOD_MILLIS);
+    }
+
+    public HoldRepeatScheduler(Sender sender, long periodMillis) {
+        this(sender, periodMillis, new TimerWheel("HoldRepeatScheduler"), true);
+    }
+
+    public HoldRepeatScheduler(Sender sender, long periodMillis, TimerWheel timers) {
+        this(sender, periodMillis, timers, false);
+    }
+
+    private HoldRepeatScheduler(Sender sender, long periodMillis, TimerWheel timers, boolean ownsTimers) {
+        mSender = sender;
+        mPeriodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        mTimers = timers;
+        mOwner = timers.newOwner();
+        mOwnsTimers = ownsTimers;
+    }
+
+    /**
+     * Sets the repeat period for holds started from now on.
+     */
+    public void setPeriodMillis(long periodMillis) {
+        mPeriodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+    }
+
+    public long getPeriodMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mPeriodNanos);
+    }
+
+    /**
+     * Sends the command now and then once per period until the button is released.
+     *
+     * @param releaseCommand sent when the hold ends, or null.
+     */
+    public void press(final int buttonId, final String command, final String releaseCommand) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                int channel = CommandChannel.of(command);
+                for (int i = mHolds.size() - 1; i >= 0; i--) {
+                    Hold hold = mHolds.get(i);
+                    if (hold.mButtonId == buttonId
+                            || (channel != CommandChannel.NONE && hold.mChannel == channel)) {
+                        mTimers.cancel(hold.mHandle);
+                        mHolds.remove(i);
+                    }
+                }
+
+                Hold hold = new Hold(buttonId, channel, command, releaseCommand, mPeriodNanos);
+                mHolds.add(hold);
+                hold.mHandle = mTimers.scheduleAtFixedRate(mOwner, hold, 0, hold.mPeriodNanos, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    /**
+     * Ends the button's hold and sends its release command. Does nothing if the hold was taken
+     * over by another button on the same channel.
+     */
+    public void release(final int buttonId) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = mHolds.size() - 1; i >= 0; i--) {
+                    Hold hold = mHolds.get(i);
+                    if (hold.mButtonId == buttonId) {
+                        stop(i, true);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends every hold, e.g. when the connection is lost.
+     *
+     * @param sendRelease whether to send the holds' release commands.
+     */
+    public void releaseAll(final boolean sendRelease) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = mHolds.size() - 1; i >= 0; i--) {
+                    stop(i, sendRelease);
+                }
+            }
+        });
+        // Repeats already due may still be queued; none run after this.
+        mTimers.cancelOwner(mOwner);
+    }
+
+    /**
+     * Ends every hold without sending release commands, and stops the wheel if this scheduler
+     * made its own.
+     */
+    public void shutdown() {
+        mTimers.cancelOwner(mOwner);
+        if (mOwnsTimers) {
+            mTimers.shutdown();
+        } else {
+            releaseAll(false);
+        }
+    }
+
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    /**
+     * Mean delay of repeats behind their fixed-rate schedule, in microseconds.
+     */
+    public long getMeanJitterMicros() {
+        long ticks = mTickCount;
+        return ticks == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(mTotalJitterNanos / ticks);
+    }
+
+    public long getMaxJitterMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(mMaxJitterNanos);
+    }
+
+    private void stop(int index, boolean sendRelease) {
+        Hold hold = mHolds.remove(index);
+        mTimers.cancel(hold.mHandle);
+        if (sendRelease && hold.mReleaseCommand != null) {
+            mSender.send(hold.mReleaseCommand);
+        }
+    }
+
+    private void execute(Runnable runnable) {
+        mTimers.execute(runnable);
+    }
+
+    private void recordJitter(long jitterNanos) {
+        mTickCount++;
+        mTotalJitterNanos += jitterNanos;
+        if (jitterNanos > mMaxJitterNanos) {
+            mMaxJitterNanos = jitterNanos;
+        }
+    }
+
+    private class Hold implements Runnable {
+        private final int mButtonId;
+        private final int mChannel;
+        private final String mCommand;
+        private final String mReleaseCommand;
+        private final long mPeriodNanos;
+        private final long mStartNanos = System.nanoTime();
+        private long mRepeats;
+        private long mHandle;
+
+        Hold(int buttonId, int channel, String command, String releaseCommand, long periodNanos) {
+            mButtonId = buttonId;
+            mChannel = channel;
+            mCommand = command;
+            mReleaseCommand = releaseCommand;
+            mPeriodNanos = periodNanos;
+        }
+
+        @Override
+        public void run() {
+            long due = mStartNanos + mRepeats++ * mPeriodNanos;
+            recordJitter(Math.max(0, System.nanoTime() - due));
+            mSender.send(mCommand);
+        }
+    }
+}
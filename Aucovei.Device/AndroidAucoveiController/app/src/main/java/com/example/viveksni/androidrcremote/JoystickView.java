@@ -0,0 +1,100 @@
+package com.example.viveksni.androidrcremote;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Virtual analog stick. Dragging the knob sets throttle (up is forward) and steering (right is
+ * positive) in [-1, 1]; letting go recentres it. The values are read by
+ * {@link AnalogDriveStreamer} from its own thread.
+ */
+public class JoystickView extends View implements AnalogDriveStreamer.Source {
+
+    private final Paint basePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint knobPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private volatile float throttle, steering;
+
+    public JoystickView(Context context) {
+        super(context);
+        init();
+    }
+
+    public JoystickView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public JoystickView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        basePaint.setColor(Color.argb(96, 255, 255, 255));
+        knobPaint.setColor(Color.argb(192, 255, 255, 255));
+    }
+
+    @Override
+    public float getThrottle() {
+        return throttle;
+    }
+
+    @Override
+    public float getSteering() {
+        return steering;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float centerX = getWidth() / 2f;
+        float centerY = getHeight() / 2f;
+        float radius = getTravelRadius();
+        canvas.drawCircle(centerX, centerY, radius, basePaint);
+        canvas.drawCircle(centerX + steering * radius, centerY - throttle * radius, radius / 3, knobPaint);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE) {
+            float radius = getTravelRadius();
+            float dx = (event.getX() - getWidth() / 2f) / radius;
+            float dy = (getHeight() / 2f - event.getY()) / radius;
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            if (distance > 1) {
+                dx /= distance;
+                dy /= distance;
+            }
+            steering = dx;
+            throttle = dy;
+        } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            steering = 0;
+            throttle = 0;
+        }
+        invalidate();
+        return true;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (!enabled) {
+            steering = 0;
+            throttle = 0;
+            invalidate();
+        }
+    }
+
+    private float getTravelRadius() {
+        return Math.min(getWidth(), getHeight()) / 2f * 0.75f;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with HdrHistogram-style log-linear buckets: values from 1 microsecond to
+ * {@link #HIGHEST_TRACKABLE_MICROS} are kept to within 1% with a fixed array of counts, so
+ * recording never allocates. Larger values are clamped to the top bucket.
+ * <p>
+ * Recording is lock-free, so it is safe on the Bluetooth threads while the UI reads. A
+ * histogram being recorded into can change between two reads; take a {@link #copy()} to read
+ * several percentiles of one consistent state.
+ */
+public class LatencyHistogram {
+    public static final long HIGHEST_TRACKABLE_MICROS = 60L * 1000 * 1000;
+
+    // 128 linear sub-buckets per power of two, so each bucket is at most 1/128 of its value.
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 7;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+    private static final long SUB_BUCKET_MASK = (SUB_BUCKET_HALF_COUNT << 1) - 1;
+    private static final int LEADING_ZERO_COUNT_BASE = 64 - SUB_BUCKET_HALF_COUNT_MAGNITUDE - 1;
+    private static final int COUNTS_LENGTH = countsIndex(HIGHEST_TRACKABLE_MICROS) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(COUNTS_LENGTH);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMinMicros = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMaxMicros = new AtomicLong();
+    private final AtomicLong mClampedCount = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        if (micros > HIGHEST_TRACKABLE_MICROS) {
+            micros = HIGHEST_TRACKABLE_MICROS;
+            mClampedCount.incrementAndGet();
+        }
+        mCounts.incrementAndGet(countsIndex(micros));
+        mTotalMicros.addAndGet(micros);
+        mTotalCount.incrementAndGet();
+
+        long min;
+        while (micros < (min = mMinMicros.get()) && !mMinMicros.compareAndSet(min, micros)) {
+            // Retry against the newer minimum.
+        }
+        long max;
+        while (micros > (max = mMaxMicros.get()) && !mMaxMicros.compareAndSet(max, micros)) {
+            // Retry against the newer maximum.
+        }
+    }
+
+    // Not atomic with respect to concurrent recording.
+    public void reset() {
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalMicros.set(0);
+        mMinMicros.set(Long.MAX_VALUE);
+        mMaxMicros.set(0);
+        mClampedCount.set(0);
+    }
+
+    /**
+     * Copies the histogram. The copy's total is the sum of the copied buckets, so its
+     * percentiles are consistent even if samples were recorded while copying.
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        long total = 0;
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            long count = mCounts.get(i);
+            if (count != 0) {
+                copy.mCounts.set(i, count);
+                total += count;
+            }
+        }
+        copy.mTotalCount.set(total);
+        copy.mTotalMicros.set(mTotalMicros.get());
+        copy.mMinMicros.set(mMinMicros.get());
+        copy.mMaxMicros.set(mMaxMicros.get());
+        copy.mClampedCount.set(mClampedCount.get());
+        return copy;
+    }
+
+    public long getTotalCount() {
+        return mTotalCount.get();
+    }
+
+    // Samples above HIGHEST_TRACKABLE_MICROS that were recorded as that value.
+    public long getClampedCount() {
+        return mClampedCount.get();
+    }
+
+    public long getMinMicros() {
+        long min = mMinMicros.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    public long getMaxMicros() {
+        return mMaxMicros.get();
+    }
+
+    public double getMeanMicros() {
+        long total = mTotalCount.get();
+        return total == 0 ? 0 : (double) mTotalMicros.get() / total;
+    }
+
+    /**
+     * The value at or below which the given percentage of samples fall, reported as the top
+     * of its bucket and never above the recorded maximum.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = mTotalCount.get();
+        long max = mMaxMicros.get();
+        if (total == 0) {
+            return 0;
+        }
+        double clamped = Math.min(Math.max(percentile, 0), 100);
+        long countAtPercentile = Math.max(1, (long) Math.ceil(clamped / 100 * total));
+        long cumulative = 0;
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            cumulative += mCounts.get(i);
+            if (cumulative >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * One line summary in milliseconds, e.g. "n=120 p50=12.3 p95=20.1 p99=35.0 max=41.2 ms".
+     */
+    public String toSummaryString() {
+        LatencyHistogram copy = copy();
+        return String.format(Locale.US, "n=%d p50=%.1f p95=%.1f p99=%.1f max=%.1f ms",
+                copy.getTotalCount(),
+                copy.getValueAtPercentile(50) / 1000.0,
+                copy.getValueAtPercentile(95) / 1000.0,
+                copy.getValueAtPercentile(99) / 1000.0,
+                copy.getMaxMicros() / 1000.0);
+    }
+
+    /**
+     * Writes the percentile distribution in the same column layout as HdrHistogram's
+     * outputPercentileDistribution, with values in milliseconds, so exports can be plotted with
+     * the usual HdrHistogram tools.
+     */
+    public void writePercentileDistribution(Writer out) throws IOException {
+        LatencyHistogram copy = copy();
+        long total = copy.getTotalCount();
+        long max = copy.getMaxMicros();
+        out.write(String.format(Locale.US, "%12s %14s %10s %14s%n%n",
+                "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        long cumulative = 0;
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            long count = copy.mCounts.get(i);
+            if (count == 0) {
+                continue;
+            }
+            cumulative += count;
+            double fraction = (double) cumulative / total;
+            long value = Math.min(highestEquivalentValue(i), max);
+            if (fraction < 1) {
+                out.write(String.format(Locale.US, "%12.3f %2.12f %10d %14.2f%n",
+                        value / 1000.0, fraction, cumulative, 1 / (1 - fraction)));
+            } else {
+                out.write(String.format(Locale.US, "%12.3f %2.12f %10d%n",
+                        value / 1000.0, fraction, cumulative));
+            }
+        }
+        out.write(String.format(Locale.US, "#[Mean    = %12.3f, StdDeviation   = %12.3f]%n",
+                copy.getMeanMicros() / 1000.0, copy.getStdDeviationMicros() / 1000.0));
+        out.write(String.format(Locale.US, "#[Max     = %12.3f, Total count    = %12d]%n",
+                max / 1000.0, total));
+        out.write(String.format(Locale.US, "#[Buckets = %12d, SubBuckets     = %12d]%n",
+                COUNTS_LENGTH / SUB_BUCKET_HALF_COUNT - 1, SUB_BUCKET_HALF_COUNT * 2));
+    }
+
+    private double getStdDeviationMicros() {
+        long total = mTotalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        double mean = getMeanMicros();
+        double sumOfSquares = 0;
+        for (int i = 0; i < COUNTS_LENGTH; i++) {
+            long count = mCounts.get(i);
+            if (count != 0) {
+                double deviation = medianEquivalentValue(i) - mean;
+                sumOfSquares += deviation * deviation * count;
+            }
+        }
+        return Math.sqrt(sumOfSquares / total);
+    }
+
+    static int countsIndex(long micros) {
+        int bucketIndex = LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(micros | SUB_BUCKET_MASK);
+        int subBucketIndex = (int) (micros >>> bucketIndex);
+        return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + subBucketIndex - SUB_BUCKET_HALF_COUNT;
+    }
+
+    static long lowestEquivalentValue(int index) {
+        int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+        int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        if (bucketIndex < 0) {
+            subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+            bucketIndex = 0;
+        }
+        return (long) subBucketIndex << bucketIndex;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        return lowestEquivalentValue(index + 1) - 1;
+    }
+
+    private static double medianEquivalentValue(int index) {
+        return (lowestEquivalentValue(index) + highestEquivalentValue(index)) / 2.0;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the round trip to the car. Every period a {@link Commands#PING_PREFIX} frame
+ * carrying the local {@link System#nanoTime()} is queued like any other command, and the car
+ * echoes the stamp back after {@link Commands#PONG_PREFIX}. The difference lands in a
+ * {@link LatencyHistogram}, so it covers the send queue, the radio link and the car's command
+ * loop in both directions.
+ * <p>
+ * Only cars advertising {@link DeviceCapabilities#PING} are probed.
+ */
+public class LatencyProbe {
+    public static final long DEFAULT_PERIOD_MILLIS = 1000;
+
+    // Echoes older than this are counted as lost rather than recorded.
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    public interface Sender {
+        void send(String command);
+    }
+
+    private final Sender mSender;
+    private final TimerWheel mTimers;
+    private final int mOwner;
+    private final long mPeriodMillis;
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private long mHandle;
+
+    private volatile long mPingsSent;
+    private volatile long mPongsReceived;
+    private volatile long mPongsDiscarded;
+
+    private final Runnable mPing = new Runnable() {
+        @Override
+        public void run() {
+            mPingsSent++;
+            mSender.send(Commands.PING_PREFIX + System.nanoTime());
+        }
+    };
+
+    /**
+     * @param owner the {@link TimerWheel} owner to ping under, so the connection's timers can be
+     *              cancelled together.
+     */
+    public LatencyProbe(Sender sender, TimerWheel timers, int owner) {
+        this(sender, timers, owner, DEFAULT_PERIOD_MILLIS);
+    }
+
+    public LatencyProbe(Sender sender, TimerWheel timers, int owner, long periodMillis) {
+        mSender = sender;
+        mTimers = timers;
+        mOwner = owner;
+        mPeriodMillis = periodMillis;
+    }
+
+    public synchronized void start() {
+        if (mHandle == 0) {
+            mHandle = mTimers.scheduleAtFixedRate(mOwner, mPing, 0, mPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (mHandle != 0) {
+            mTimers.cancel(mHandle);
+            mHandle = 0;
+        }
+    }
+
+    /**
+     * Records the round trip if the message is an echo.
+     *
+     * @param receivedNanos {@link System#nanoTime()} when the frame was read.
+     * @return true if the message was an echo and should not be passed on.
+     */
+    public boolean onMessage(String message, long receivedNanos) {
+        if (!message.startsWith(Commands.PONG_PREFIX)) {
+            return false;
+        }
+
+        long sentNanos;
+        try {
+            sentNanos = Long.parseLong(message.substring(Commands.PONG_PREFIX.length()).trim());
+        } catch (NumberFormatException e) {
+            mPongsDiscarded++;
+            return true;
+        }
+
+        long roundTripNanos = receivedNanos - sentNanos;
+        if (roundTripNanos < 0 || roundTripNanos > TIMEOUT_NANOS) {
+            mPongsDiscarded++;
+        } else {
+            mPongsReceived++;
+            mHistogram.recordNanos(roundTripNanos);
+        }
+        return true;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return mHistogram;
+    }
+
+    public long getPingsSent() {
+        return mPingsSent;
+    }
+
+    public long getPongsReceived() {
+        return mPongsReceived;
+    }
+
+    // Echoes that could not be parsed or were too old to belong to this connection.
+    public long getPongsDiscarded() {
+        return mPongsDiscarded;
+    }
+}
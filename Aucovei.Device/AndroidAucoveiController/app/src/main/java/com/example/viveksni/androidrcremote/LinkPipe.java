@@ -0,0 +1,160 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One direction of a simulated radio link. Bytes written to the output stream become readable
+ * from the input stream once they have been transmitted at the link's bandwidth and then
+ * delayed by its latency, in order, like a serial link with a send buffer.
+ * <p>
+ * A writer only blocks when {@link #BUFFER_CAPACITY} bytes are in flight. Closing either end
+ * lets the reader drain what was written and then see end of stream.
+ */
+public class LinkPipe {
+    public static final int BUFFER_CAPACITY = 64 * 1024;
+
+    private final long mLatencyNanos;
+    private final long mBytesPerSecond;
+    private final ArrayDeque<Chunk> mChunks = new ArrayDeque<>();
+    private int mBufferedBytes;
+    private long mLinkFreeNanos;
+    private boolean mClosed;
+
+    private final InputStream mInputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return LinkPipe.this.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() {
+            LinkPipe.this.close();
+        }
+    };
+
+    private final OutputStream mOutputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            LinkPipe.this.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() {
+            LinkPipe.this.close();
+        }
+    };
+
+    /**
+     * @param bytesPerSecond link bandwidth, or 0 for unlimited.
+     */
+    public LinkPipe(long latencyMillis, long bytesPerSecond) {
+        mLatencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    private synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        try {
+            while (!mClosed && mBufferedBytes > 0 && mBufferedBytes + length > BUFFER_CAPACITY) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (mClosed) {
+            throw new IOException("Link closed");
+        }
+
+        long now = System.nanoTime();
+        long transmitNanos = mBytesPerSecond > 0
+                ? length * TimeUnit.SECONDS.toNanos(1) / mBytesPerSecond
+                : 0;
+        mLinkFreeNanos = Math.max(now, mLinkFreeNanos) + transmitNanos;
+
+        byte[] data = new byte[length];
+        System.arraycopy(buffer, offset, data, 0, length);
+        mChunks.addLast(new Chunk(data, mLinkFreeNanos + mLatencyNanos));
+        mBufferedBytes += length;
+        notifyAll();
+    }
+
+    private synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        try {
+            while (true) {
+                Chunk chunk = mChunks.peekFirst();
+                if (chunk == null) {
+                    if (mClosed) {
+                        return -1;
+                    }
+                    wait();
+                    continue;
+                }
+
+                long remainingNanos = chunk.mDeliverNanos - System.nanoTime();
+                if (remainingNanos > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                    continue;
+                }
+
+                int count = Math.min(length, chunk.mData.length - chunk.mPosition);
+                System.arraycopy(chunk.mData, chunk.mPosition, buffer, offset, count);
+                chunk.mPosition += count;
+                if (chunk.mPosition == chunk.mData.length) {
+                    mChunks.removeFirst();
+                }
+                mBufferedBytes -= count;
+                notifyAll();
+                return count;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] mData;
+        final long mDeliverNanos;
+        int mPosition;
+
+        Chunk(byte[] data, long deliverNanos) {
+            mData = data;
+            mDeliverNanos = deliverNanos;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * In-process connection to a {@link DeviceSimulator}, which runs on its own thread behind a
+ * pair of {@link LinkPipe}s with the simulator's latency and bandwidth. Configure the simulator
+ * before creating the transport.
+ */
+public class LoopbackTransport implements Transport {
+    private final DeviceSimulator mSimulator;
+    private final LinkPipe mUplink;
+    private final LinkPipe mDownlink;
+    private volatile boolean mConnected;
+
+    public LoopbackTransport(DeviceSimulator simulator) {
+        mSimulator = simulator;
+        mUplink = new LinkPipe(simulator.getLatencyMillis(), simulator.getBytesPerSecond());
+        mDownlink = new LinkPipe(simulator.getLatencyMillis(), simulator.getBytesPerSecond());
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (mConnected) {
+            throw new IOException("Already connected");
+        }
+        mConnected = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mSimulator.serve(mUplink.getInputStream(), mDownlink.getOutputStream());
+                } catch (IOException e) {
+                    // The app closed the link.
+                } finally {
+                    mDownlink.close();
+                }
+            }
+        }, "DeviceSimulator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public String getName() {
+        return DeviceSimulator.NAME;
+    }
+
+    public DeviceSimulator getSimulator() {
+        return mSimulator;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mDownlink.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mUplink.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        mConnected = false;
+        mUplink.close();
+        mDownlink.close();
+    }
+}
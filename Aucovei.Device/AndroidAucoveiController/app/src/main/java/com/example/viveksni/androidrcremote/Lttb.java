@@ -0,0 +1,92 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling (Steinarsson, 2013). The first and last points
+ * are kept; the points between are split into equal buckets and from each the point that
+ * makes the largest triangle with the point kept before it and the average of the next bucket
+ * is kept. Peaks and dips survive, which plain decimation or averaging would lose.
+ * <p>
+ * It runs in one pass over the input and writes into caller-owned arrays, so charts can
+ * downsample every frame without allocating.
+ */
+public final class Lttb {
+    private Lttb() {
+    }
+
+    /**
+     * Downsamples {@code count} points starting at {@code offset}, in ascending x order.
+     *
+     * @param threshold the most points to keep; below 3 only the first and last are kept.
+     * @return the number of points written to the start of {@code outX} and {@code outY}.
+     */
+    public static int downsample(long[] xs, float[] ys, int offset, int count, int threshold,
+                                 long[] outX, float[] outY) {
+        if (count <= threshold || count <= 2) {
+            System.arraycopy(xs, offset, outX, 0, count);
+            System.arraycopy(ys, offset, outY, 0, count);
+            return count;
+        }
+        if (threshold < 3) {
+            outX[0] = xs[offset];
+            outY[0] = ys[offset];
+            outX[1] = xs[offset + count - 1];
+            outY[1] = ys[offset + count - 1];
+            return 2;
+        }
+
+        // Measure x from the first point so the products stay well inside a double's precision.
+        long origin = xs[offset];
+        int buckets = threshold - 2;
+        int kept = 0;
+        int a = offset;
+        outX[kept] = xs[a];
+        outY[kept++] = ys[a];
+
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int start = bucketStart(offset, count, buckets, bucket);
+            int end = bucketStart(offset, count, buckets, bucket + 1);
+
+            // Average of the next bucket, or the last point for the final bucket.
+            int nextStart = end;
+            int nextEnd = bucket + 1 < buckets
+                    ? bucketStart(offset, count, buckets, bucket + 2)
+                    : offset + count;
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += xs[i] - origin;
+                averageY += ys[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            averageX /= nextCount;
+            averageY /= nextCount;
+
+            double ax = xs[a] - origin;
+            double ay = ys[a];
+            double maxArea = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                // Twice the triangle's area; only the comparison matters.
+                double area = Math.abs((ax - averageX) * (ys[i] - ay)
+                        - (ax - (xs[i] - origin)) * (averageY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+
+            outX[kept] = xs[chosen];
+            outY[kept++] = ys[chosen];
+            a = chosen;
+        }
+
+        outX[kept] = xs[offset + count - 1];
+        outY[kept++] = ys[offset + count - 1];
+        return kept;
+    }
+
+    // The interior points, all but the first and last, split as evenly as integers allow.
+    private static int bucketStart(int offset, int count, int buckets, int bucket) {
+        return offset + 1 + (int) ((long) bucket * (count - 2) / buckets);
+    }
+}
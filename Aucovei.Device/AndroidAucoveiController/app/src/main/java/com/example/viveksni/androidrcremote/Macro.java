@@ -0,0 +1,451 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A manoeuvre such as a patrol loop or a camera sweep, compiled from a short script into a flat
+ * array of instructions that {@link MacroEngine} runs without parsing or allocating per step.
+ * <p>
+ * A script has one step per line; "#" starts a comment and words are not case sensitive.
+ * <pre>
+ * drive forward|reverse|left|right|reverse-left|reverse-right|stop [duration]
+ * tilt up|down|left|right|center [duration]
+ * cam on|off
+ * light on|off
+ * speed very-slow|slow|normal|stop
+ * horn [duration]
+ * send TOKEN [duration]      any other command token
+ * wait duration
+ * repeat [count] [until MESSAGE]
+ *   ...
+ * end
+ * await MESSAGE [duration]   wait for the car to send MESSAGE, aborting after the duration
+ * abort on MESSAGE           abort if the car sends MESSAGE from here on
+ * </pre>
+ * A duration is a number followed by "ms" or "s", such as "500ms" or "1.5s"; a step with one
+ * waits that long after sending before the next step. Drive commands keep the car moving into
+ * the next step, and a macro that leaves the car driving ends with a stop. A message matches
+ * when the car's message starts with it, ignoring case. A repeat without a count loops until
+ * aborted, or until its message has arrived by the end of an iteration, so it must wait
+ * somewhere in its body.
+ */
+public final class Macro {
+    public static final int MAX_DURATION_MILLIS = 10 * 60 * 1000;
+    public static final int MAX_REPEAT = 1000;
+    // Conditions are tracked as bits of an int, and counters in a fixed array.
+    public static final int MAX_MESSAGES = 32;
+    public static final int MAX_NESTING = 8;
+
+    // Each instruction is three ints: the opcode and two operands.
+    static final int WIDTH = 3;
+    // Send constant a.
+    static final int OP_SEND = 1;
+    // The next step is due a milliseconds after this one.
+    static final int OP_WAIT = 2;
+    // Counter a = b.
+    static final int OP_SET = 3;
+    // Decrement counter a and jump to b while it is positive.
+    static final int OP_LOOP = 4;
+    // Jump to b.
+    static final int OP_JUMP = 5;
+    // Forget earlier arrivals of message a.
+    static final int OP_CLEAR = 6;
+    // Jump to b if message a has arrived since it was cleared.
+    static final int OP_BREAK_IF = 7;
+    // Wait until message a arrives, aborting after b milliseconds unless b is 0.
+    static final int OP_AWAIT = 8;
+    // Abort if message a arrives.
+    static final int OP_GUARD = 9;
+    static final int OP_END = 10;
+
+    private static final String[] DRIVE_NAMES = {
+            "forward", "reverse", "left", "right", "reverse-left", "reverse-right", "stop"};
+    private static final String[] DRIVE_COMMANDS = {
+            Commands.DRIVE_FORWARD, Commands.DRIVE_REVERSE, Commands.DRIVE_LEFT, Commands.DRIVE_RIGHT,
+            Commands.DRIVE_REVERSE_LEFT, Commands.DRIVE_REVERSE_RIGHT, Commands.DRIVE_STOP};
+    private static final String[] TILT_NAMES = {"up", "down", "left", "right", "center"};
+    private static final String[] TILT_COMMANDS = {
+            Commands.TILT_UP, Commands.TILT_DOWN, Commands.PAN_LEFT, Commands.PAN_RIGHT,
+            Commands.PAN_TILT_CENTER};
+    private static final String[] SWITCH_NAMES = {"on", "off"};
+    private static final String[] CAM_COMMANDS = {Commands.CAMERA_ON, Commands.CAMERA_OFF};
+    private static final String[] LIGHT_COMMANDS = {Commands.CAMERA_LED_ON, Commands.CAMERA_LED_OFF};
+    private static final String[] SPEED_NAMES = {"very-slow", "slow", "normal", "stop"};
+    private static final String[] SPEED_COMMANDS = {
+            Commands.SPEED_VERY_SLOW, Commands.SPEED_SLOW, Commands.SPEED_NORMAL, Commands.SPEED_STOP};
+
+    private final String mName;
+    private final int[] mCode;
+    private final String[] mCommands;
+    private final String[] mMessages;
+    private final int mCounterCount;
+
+    private Macro(String name, int[] code, String[] commands, String[] messages, int counterCount) {
+        mName = name;
+        mCode = code;
+        mCommands = commands;
+        mMessages = messages;
+        mCounterCount = counterCount;
+    }
+
+    /**
+     * @throws IllegalArgumentException naming the line, if the script is not valid.
+     */
+    public static Macro compile(String name, String source) {
+        try {
+            return compile(name, new StringReader(source));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public static Macro compile(String name, Reader source) throws IOException {
+        return new Compiler(name).compile(new BufferedReader(source));
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getMessageCount() {
+        return mMessages.length;
+    }
+
+    public String getMessage(int index) {
+        return mMessages[index];
+    }
+
+    // Whether the car's message is the one the condition at index waits for.
+    public boolean matches(int index, String message) {
+        String expected = mMessages[index];
+        return message.regionMatches(true, 0, expected, 0, expected.length());
+    }
+
+    int[] getCode() {
+        return mCode;
+    }
+
+    String getCommand(int index) {
+        return mCommands[index];
+    }
+
+    int getCounterCount() {
+        return mCounterCount;
+    }
+
+    // One instruction per line, for debugging compiled scripts.
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(mName);
+        for (int pc = 0; pc < mCode.length; pc += WIDTH) {
+            int a = mCode[pc + 1];
+            int b = mCode[pc + 2];
+            builder.append('\n').append(pc / WIDTH).append(' ');
+            switch (mCode[pc]) {
+                case OP_SEND:
+                    builder.append("send ").append(mCommands[a]);
+                    break;
+                case OP_WAIT:
+                    builder.append("wait ").append(a);
+                    break;
+                case OP_SET:
+                    builder.append("set ").append(a).append(' ').append(b);
+                    break;
+                case OP_LOOP:
+                    builder.append("loop ").append(a).append(' ').append(b / WIDTH);
+                    break;
+                case OP_JUMP:
+                    builder.append("jump ").append(b / WIDTH);
+                    break;
+                case OP_CLEAR:
+                    builder.append("clear ").append(mMessages[a]);
+                    break;
+                case OP_BREAK_IF:
+                    builder.append("break-if ").append(mMessages[a]).append(' ').append(b / WIDTH);
+                    break;
+                case OP_AWAIT:
+                    builder.append("await ").append(mMessages[a]).append(' ').append(b);
+                    break;
+                case OP_GUARD:
+                    builder.append("abort-on ").append(mMessages[a]);
+                    break;
+                default:
+                    builder.append("end");
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static final class Compiler {
+        private final String mName;
+        private int[] mCode = new int[16 * WIDTH];
+        private int mSize;
+        private final ArrayList<String> mCommands = new ArrayList<>();
+        private final ArrayList<String> mMessages = new ArrayList<>();
+        // For each open repeat: its counter or -1, its message or -1, where its body starts,
+        // and whether anything in the body waits.
+        private final int[] mLoopCounters = new int[MAX_NESTING];
+        private final int[] mLoopMessages = new int[MAX_NESTING];
+        private final int[] mLoopStarts = new int[MAX_NESTING];
+        private final boolean[] mLoopWaits = new boolean[MAX_NESTING];
+        private int mDepth;
+        private int mCounterCount;
+        // Whether the last drive command in the script keeps the car moving.
+        private boolean mDriving;
+        private int mLine;
+
+        Compiler(String name) {
+            mName = name;
+        }
+
+        Macro compile(BufferedReader reader) throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mLine++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    compileLine(line.split("\\s+"));
+                }
+            }
+            if (mDepth > 0) {
+                throw error("repeat without end");
+            }
+            if (mDriving) {
+                emit(OP_SEND, command(Commands.DRIVE_STOP), 0);
+            }
+            emit(OP_END, 0, 0);
+            return new Macro(mName, Arrays.copyOf(mCode, mSize),
+                    mCommands.toArray(new String[mCommands.size()]),
+                    mMessages.toArray(new String[mMessages.size()]), mCounterCount);
+        }
+
+        private void compileLine(String[] words) {
+            String keyword = words[0].toLowerCase(Locale.US);
+            switch (keyword) {
+                case "drive": {
+                    int index = choose(words, 1, DRIVE_NAMES);
+                    mDriving = index != DRIVE_NAMES.length - 1;
+                    send(DRIVE_COMMANDS[index], words, 2);
+                    break;
+                }
+                case "tilt":
+                    send(TILT_COMMANDS[choose(words, 1, TILT_NAMES)], words, 2);
+                    break;
+                case "cam":
+                    send(CAM_COMMANDS[choose(words, 1, SWITCH_NAMES)], words, 2);
+                    break;
+                case "light":
+                    send(LIGHT_COMMANDS[choose(words, 1, SWITCH_NAMES)], words, 2);
+                    break;
+                case "speed":
+                    send(SPEED_COMMANDS[choose(words, 1, SPEED_NAMES)], words, 2);
+                    break;
+                case "horn":
+                    send(Commands.HORN, words, 1);
+                    break;
+                case "send":
+                    if (words.length < 2) {
+                        throw error("send needs a command");
+                    }
+                    send(words[1], words, 2);
+                    break;
+                case "wait":
+                    if (words.length != 2) {
+                        throw error("wait needs one duration");
+                    }
+                    compileWait(parseDuration(words[1]));
+                    break;
+                case "repeat":
+                    compileRepeat(words);
+                    break;
+                case "end":
+                    expectWords(words, 1);
+                    compileEnd();
+                    break;
+                case "await": {
+                    if (words.length < 2) {
+                        throw error("await needs a message");
+                    }
+                    expectWords(words, 3);
+                    int message = message(words[1]);
+                    int timeout = words.length > 2 ? parseDuration(words[2]) : 0;
+                    emit(OP_CLEAR, message, 0);
+                    emit(OP_AWAIT, message, timeout);
+                    markWait();
+                    break;
+                }
+                case "abort":
+                    if (words.length != 3 || !words[1].equalsIgnoreCase("on")) {
+                        throw error("expected abort on MESSAGE");
+                    }
+                    emit(OP_GUARD, message(words[2]), 0);
+                    break;
+                default:
+                    throw error("unknown step " + words[0]);
+            }
+        }
+
+        // A command, then the optional duration at words[next].
+        private void send(String command, String[] words, int next) {
+            expectWords(words, next + 1);
+            emit(OP_SEND, command(command), 0);
+            if (words.length > next) {
+                compileWait(parseDuration(words[next]));
+            }
+        }
+
+        private void compileWait(int millis) {
+            emit(OP_WAIT, millis, 0);
+            markWait();
+        }
+
+        private void markWait() {
+            for (int i = 0; i < mDepth; i++) {
+                mLoopWaits[i] = true;
+            }
+        }
+
+        private void compileRepeat(String[] words) {
+            if (mDepth == MAX_NESTING) {
+                throw error("repeats nested more than " + MAX_NESTING + " deep");
+            }
+            int counter = -1;
+            int message = -1;
+            int i = 1;
+            if (i < words.length && !words[i].equalsIgnoreCase("until")) {
+                int count = parseInt(words[i++]);
+                if (count < 1 || count > MAX_REPEAT) {
+                    throw error("repeat count must be from 1 to " + MAX_REPEAT);
+                }
+                counter = mCounterCount++;
+                emit(OP_SET, counter, count);
+            }
+            if (i < words.length) {
+                if (!words[i].equalsIgnoreCase("until") || i + 2 != words.length) {
+                    throw error("expected repeat [count] [until MESSAGE]");
+                }
+                message = message(words[i + 1]);
+                emit(OP_CLEAR, message, 0);
+            }
+            mLoopCounters[mDepth] = counter;
+            mLoopMessages[mDepth] = message;
+            mLoopStarts[mDepth] = mSize;
+            mLoopWaits[mDepth] = false;
+            mDepth++;
+        }
+
+        private void compileEnd() {
+            if (mDepth == 0) {
+                throw error("end without repeat");
+            }
+            mDepth--;
+            int counter = mLoopCounters[mDepth];
+            int message = mLoopMessages[mDepth];
+            int start = mLoopStarts[mDepth];
+            if (counter < 0 && !mLoopWaits[mDepth]) {
+                // It would hold the timer thread forever.
+                throw error("a repeat without a count must wait");
+            }
+            if (message >= 0) {
+                // Past this instruction and the loop or jump after it.
+                emit(OP_BREAK_IF, message, mSize + 2 * WIDTH);
+            }
+            if (counter >= 0) {
+                emit(OP_LOOP, counter, start);
+            } else {
+                emit(OP_JUMP, 0, start);
+            }
+        }
+
+        private void emit(int op, int a, int b) {
+            if (mSize + WIDTH > mCode.length) {
+                mCode = Arrays.copyOf(mCode, mCode.length * 2);
+            }
+            mCode[mSize++] = op;
+            mCode[mSize++] = a;
+            mCode[mSize++] = b;
+        }
+
+        private int command(String command) {
+            int index = mCommands.indexOf(command);
+            if (index < 0) {
+                index = mCommands.size();
+                mCommands.add(command);
+            }
+            return index;
+        }
+
+        private int message(String message) {
+            for (int i = 0; i < mMessages.size(); i++) {
+                if (mMessages.get(i).equalsIgnoreCase(message)) {
+                    return i;
+                }
+            }
+            if (mMessages.size() == MAX_MESSAGES) {
+                throw error("more than " + MAX_MESSAGES + " messages");
+            }
+            mMessages.add(message);
+            return mMessages.size() - 1;
+        }
+
+        private int choose(String[] words, int index, String[] names) {
+            if (index < words.length) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equalsIgnoreCase(words[index])) {
+                        return i;
+                    }
+                }
+            }
+            throw error(words[0] + " needs one of " + Arrays.toString(names));
+        }
+
+        private void expectWords(String[] words, int max) {
+            if (words.length > max) {
+                throw error("unexpected " + words[max]);
+            }
+        }
+
+        private int parseDuration(String text) {
+            String lower = text.toLowerCase(Locale.US);
+            double millis;
+            try {
+                if (lower.endsWith("ms")) {
+                    millis = Double.parseDouble(lower.substring(0, lower.length() - 2));
+                } else if (lower.endsWith("s")) {
+                    millis = Double.parseDouble(lower.substring(0, lower.length() - 1)) * 1000;
+                } else {
+                    throw error("duration needs ms or s: " + text);
+                }
+            } catch (NumberFormatException e) {
+                throw error("not a duration: " + text);
+            }
+            if (!(millis >= 1 && millis <= MAX_DURATION_MILLIS)) {
+                throw error("duration must be from 1ms to " + MAX_DURATION_MILLIS / 1000 + "s: " + text);
+            }
+            return (int) Math.round(millis);
+        }
+
+        private int parseInt(String text) {
+            try {
+                return Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                throw error("not a number: " + text);
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(mName + " line " + mLine + ": " + message);
+        }
+    }
+}
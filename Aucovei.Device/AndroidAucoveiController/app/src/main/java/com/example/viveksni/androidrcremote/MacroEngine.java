@@ -0,0 +1,311 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one {@link Macro} at a time on a {@link TimerWheel}, sending its commands through a
+ * {@link Sender} such as {@link BluetoothService#send}.
+ * <p>
+ * Each step is due at a fixed offset from the start of the macro, or from the message an await
+ * was satisfied by, so waits do not add up the wheel's lateness; how late each command went out
+ * is kept in {@link #getStepError()}. Everything a run needs is allocated when it starts, so
+ * steps allocate nothing.
+ * <p>
+ * {@link #abort()} may be called from any thread and sends {@link Commands#DRIVE_STOP} once no
+ * further step of the macro can go out. Inbound messages are passed to {@link #onMessage} for
+ * the macro's await, repeat until and abort on conditions.
+ */
+public class MacroEngine {
+    public static final int END_COMPLETED = 0;
+    // By abort(), or by starting another macro.
+    public static final int END_ABORTED = 1;
+    // By an abort on condition.
+    public static final int END_CONDITION = 2;
+    // An await gave up.
+    public static final int END_TIMED_OUT = 3;
+
+    public interface Sender {
+        void send(String command);
+    }
+
+    public interface Listener {
+        // Called on whichever thread ended the macro, after the stop for an abort was sent.
+        void onMacroEnded(Macro macro, int reason);
+    }
+
+    private final Sender mSender;
+    private final TimerWheel mTimers;
+    private final int mOwner;
+    private volatile Listener mListener;
+    private final LatencyHistogram mStepError = new LatencyHistogram();
+    // Guarded by this.
+    private Run mRun;
+
+    private volatile long mStepsSent;
+    private volatile long mCompleted;
+    private volatile long mAborted;
+
+    public MacroEngine(Sender sender, TimerWheel timers) {
+        mSender = sender;
+        mTimers = timers;
+        mOwner = timers.newOwner();
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Starts the macro now, aborting one already running.
+     */
+    public void run(Macro macro) {
+        // The stop goes out before the new macro's first command.
+        abort();
+        Run run = new Run(macro);
+        Run previous;
+        synchronized (this) {
+            // Only if another thread started one meanwhile.
+            previous = end(END_ABORTED);
+            mRun = run;
+            run.mDueNanos = System.nanoTime();
+            run.schedule(0);
+        }
+        if (previous != null) {
+            ended(previous.mMacro, END_ABORTED);
+        }
+    }
+
+    /**
+     * Stops the running macro, if any, and the car with it.
+     *
+     * @return true if a macro was running.
+     */
+    public boolean abort() {
+        return abort(END_ABORTED);
+    }
+
+    public synchronized boolean isRunning() {
+        return mRun != null;
+    }
+
+    // The name of the running macro, or null.
+    public synchronized String getRunningName() {
+        return mRun != null ? mRun.mMacro.getName() : null;
+    }
+
+    /**
+     * Feeds a message from the car to the running macro's conditions.
+     */
+    public void onMessage(String message) {
+        long nanos = System.nanoTime();
+        Run ended;
+        synchronized (this) {
+            Run run = mRun;
+            if (run == null) {
+                return;
+            }
+            Macro macro = run.mMacro;
+            int arrived = 0;
+            for (int i = 0; i < macro.getMessageCount(); i++) {
+                if (macro.matches(i, message)) {
+                    arrived |= 1 << i;
+                    run.mArrivedNanos[i] = nanos;
+                }
+            }
+            if (arrived == 0) {
+                return;
+            }
+            run.mArrived |= arrived;
+            if ((arrived & run.mGuards) == 0) {
+                if (run.mAwaiting >= 0 && (arrived & (1 << run.mAwaiting)) != 0) {
+                    run.mAwaiting = -1;
+                    mTimers.cancel(run.mTimeoutHandle);
+                    run.schedule(0);
+                }
+                return;
+            }
+            ended = end(END_CONDITION);
+        }
+        ended(ended.mMacro, END_CONDITION);
+    }
+
+    private boolean abort(int reason) {
+        Run run;
+        synchronized (this) {
+            run = end(reason);
+        }
+        if (run == null) {
+            return false;
+        }
+        ended(run.mMacro, reason);
+        return true;
+    }
+
+    // Under the lock: forgets the running macro and cancels its timers.
+    private Run end(int reason) {
+        Run run = mRun;
+        if (run == null) {
+            return null;
+        }
+        mRun = null;
+        mTimers.cancelOwner(mOwner);
+        if (reason == END_COMPLETED) {
+            mCompleted++;
+        } else {
+            mAborted++;
+        }
+        return run;
+    }
+
+    private void ended(Macro macro, int reason) {
+        if (reason != END_COMPLETED) {
+            // Outside the lock, but no step of the macro can run any more.
+            mSender.send(Commands.DRIVE_STOP);
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onMacroEnded(macro, reason);
+        }
+    }
+
+    // How late each command went out against its place in the macro's timeline.
+    public LatencyHistogram getStepError() {
+        return mStepError;
+    }
+
+    public long getStepsSent() {
+        return mStepsSent;
+    }
+
+    public long getCompleted() {
+        return mCompleted;
+    }
+
+    public long getAborted() {
+        return mAborted;
+    }
+
+    // The state of one run of a macro, allocated when it starts. Its step runs at most once per
+    // schedule, and only while it is the engine's current run.
+    private final class Run implements Runnable {
+        private final Macro mMacro;
+        private final int[] mCode;
+        private final int[] mCounters;
+        private final long[] mArrivedNanos;
+        private int mPc;
+        private long mDueNanos;
+        // Bits of the messages that arrived since cleared, and of those that abort the macro.
+        private int mArrived;
+        private int mGuards;
+        // The message an await is parked on, or -1.
+        private int mAwaiting = -1;
+        private long mTimeoutHandle;
+        private final Runnable mTimeout = new Runnable() {
+            @Override
+            public void run() {
+                timeOut();
+            }
+        };
+
+        Run(Macro macro) {
+            mMacro = macro;
+            mCode = macro.getCode();
+            mCounters = new int[macro.getCounterCount()];
+            mArrivedNanos = new long[macro.getMessageCount()];
+        }
+
+        void schedule(long delayNanos) {
+            mTimers.schedule(mOwner, this, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            int reason;
+            synchronized (MacroEngine.this) {
+                if (mRun != this) {
+                    return;
+                }
+                reason = step();
+                if (reason < 0) {
+                    return;
+                }
+                end(reason);
+            }
+            ended(mMacro, reason);
+        }
+
+        private void timeOut() {
+            synchronized (MacroEngine.this) {
+                if (mRun != this || mAwaiting < 0) {
+                    return;
+                }
+                end(END_TIMED_OUT);
+            }
+            ended(mMacro, END_TIMED_OUT);
+        }
+
+        // Runs instructions until the macro waits, returning -1, or ends, returning why.
+        private int step() {
+            int[] code = mCode;
+            while (true) {
+                int pc = mPc;
+                int a = code[pc + 1];
+                int b = code[pc + 2];
+                mPc = pc + Macro.WIDTH;
+                switch (code[pc]) {
+                    case Macro.OP_SEND:
+                        mStepError.recordNanos(System.nanoTime() - mDueNanos);
+                        mSender.send(mMacro.getCommand(a));
+                        mStepsSent++;
+                        break;
+                    case Macro.OP_WAIT: {
+                        mDueNanos += TimeUnit.MILLISECONDS.toNanos(a);
+                        long delay = mDueNanos - System.nanoTime();
+                        if (delay > 0) {
+                            schedule(delay);
+                            return -1;
+                        }
+                        break;
+                    }
+                    case Macro.OP_SET:
+                        mCounters[a] = b;
+                        break;
+                    case Macro.OP_LOOP:
+                        if (--mCounters[a] > 0) {
+                            mPc = b;
+                        }
+                        break;
+                    case Macro.OP_JUMP:
+                        mPc = b;
+                        break;
+                    case Macro.OP_CLEAR:
+                        mArrived &= ~(1 << a);
+                        break;
+                    case Macro.OP_BREAK_IF:
+                        if ((mArrived & (1 << a)) != 0) {
+                            mPc = b;
+                        }
+                        break;
+                    case Macro.OP_AWAIT:
+                        if ((mArrived & (1 << a)) != 0) {
+                            // Later steps are timed from the message.
+                            mDueNanos = mArrivedNanos[a];
+                            break;
+                        }
+                        // Park here until onMessage or the timeout.
+                        mPc = pc;
+                        mAwaiting = a;
+                        if (b > 0) {
+                            mTimeoutHandle = mTimers.schedule(mOwner, mTimeout, b, TimeUnit.MILLISECONDS);
+                        }
+                        return -1;
+                    case Macro.OP_GUARD:
+                        mGuards |= 1 << a;
+                        break;
+                    default:
+                        return END_COMPLETED;
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.example.viveksni.androidrcremote;
 
+import android.Manifest;
+import android.app.AlertDialog;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.DialogInterface;
 import android.content.ActivityNotFoundException;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.Handler;
-import android.os.Message;
+import android.content.pm.PackageManager;
 import android.speech.RecognizerIntent;
 import android.support.design.widget.TabLayout;
 import android.support.design.widget.FloatingActionButton;
@@ -24,14 +28,22 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.Set;
 
 public class MainActivity extends AppCompatActivity {
 
     public static final String PREFS_NAME = "com.patricia.bluetoothremote.settings";
     private static final String TAG = "MainAcivity";
     private static final int REQ_CODE_SPEECH_INPUT = 100;
+    private static final int REQ_CODE_RECORD_AUDIO = 101;
 
     /**
      * The {@link android.support.v4.view.PagerAdapter} that will provide
@@ -50,6 +62,16 @@ public class MainActivity extends AppCompatActivity {
     public static SharedPreferences sharedPreferences;
     private CameraFeedFragment cameraFeedFragment;
     private ControlFragment controlFragment;
+    private ConnectionListener mConnectionListener;
+    private ContinuousRecognizer recognizer;
+    // Whether the operator turned continuous listening on; it pauses with the activity.
+    private boolean voiceListening;
+    // One log per run of the app, kept across configuration changes.
+    private static SessionStore sessionStore;
+    private static final int MAX_JOURNALS = 10;
+    private static volatile CommandJournal journal;
+    private static final String MACRO_DIRECTORY = "macros";
+    private static final String MACRO_SUFFIX = ".macro";
 
 
     @Override
@@ -78,7 +100,7 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(View view) {
 //                Snackbar.make(view, "Replace with your own action", Snackbar.LENGTH_LONG)
 //                        .setAction("Action", null).show();
-                startVoiceInput();
+                toggleVoiceInput();
             }
         });
 
@@ -87,60 +109,120 @@ public class MainActivity extends AppCompatActivity {
         ft.replace(R.id.fragment_container, connectFragment);
         ft.commit();
 
-        BluetoothService bs = BluetoothService.getInstance();
-        bs.registerNewHandlerCallback(new Handler.Callback() {
+        mConnectionListener = new ConnectionListener() {
             @Override
-            public boolean handleMessage(Message msg) {
-                try {
-                    Log.d(TAG, "got a notification in " + Thread.currentThread());
-                    String toasttext = "";
-                    if (msg.what == BluetoothService.MessageConstants.MESSAGE_CONNECTED) {
-                        toasttext = "Connected to device: ";
-                    } else if (msg.what == BluetoothService.MessageConstants.MESSAGE_UNABLE_TO_CONNECT) {
-                        toasttext = "Unable to connected to device: ";
-                        connectFragment.HideLoadingIndicator();
-                    } else if (msg.what == BluetoothService.MessageConstants.MESSAGE_DISCONNECTED) {
-                        toasttext = "Disconnected from device";
-                        controlFragment.hostIpAddress = null;
-                        FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
-                        ft.replace(R.id.fragment_container, connectFragment);
-                        ft.commit();
-                        movingFab.hide();
-                    } else if (msg.what == BluetoothService.MessageConstants.MESSAGE_READ) {
-                        if (msg.obj.toString().contains("hostip:")) {
-                           connectFragment.HideLoadingIndicator();
-                            controlFragment.hostIpAddress = msg.obj.toString().replace("hostip:", "");
-                            FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
-                            ft.replace(R.id.fragment_container, controlFragment);
-                            ft.commit();
-                            movingFab.show();
-                        }
-                        else if (msg.obj.toString().contains("CAM")) {
-                            controlFragment.reloadWebView(msg.obj.toString());
-                        }
-                        toasttext = "Reading from device: ";
-                    } else if (msg.what == BluetoothService.MessageConstants.MESSAGE_TOAST) {
-                        toasttext = "Info: ";
-                    } else if (msg.what == BluetoothService.MessageConstants.MESSAGE_WRITE) {
-                        // toasttext = "Sending to device: ";
-                        toasttext = null;
-                    }
+            public void onConnected(String deviceName) {
+                toast("Connected to device: " + deviceName);
+            }
 
-                    if (toasttext != null) {
-                        toasttext += msg.obj.toString();
-                        Toast.makeText(getApplicationContext(), toasttext, Toast.LENGTH_LONG).show();
-                    }
-                } catch (Throwable t) {
-                    Log.e(TAG, null, t);
+            @Override
+            public void onConnectFailed(String deviceName) {
+                connectFragment.HideLoadingIndicator();
+                toast("Unable to connected to device: " + deviceName);
+            }
+
+            @Override
+            public void onReconnecting(String deviceName, int attempt) {
+                // Nothing sent while the link is down reaches the car, so stop repeating.
+                controlFragment.stopHolds();
+                if (attempt == 1) {
+                    toast("Connection lost, reconnecting to " + deviceName);
                 }
+            }
 
-                return false;
+            @Override
+            public void onDisconnected() {
+                controlFragment.stopHolds();
+                setVoiceListening(false);
+                controlFragment.hostIpAddress = null;
+                FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
+                ft.replace(R.id.fragment_container, connectFragment);
+                ft.commit();
+                movingFab.hide();
+                toast("Disconnected from device");
             }
-        });
+
+            @Override
+            public void onMessage(String message) {
+                int type = DeviceMessages.classify(message);
+                if (type == DeviceMessages.TYPE_HOST_IP && controlFragment.isAdded()) {
+                    // The car greets every connection; still on the controls means a reconnect.
+                    controlFragment.hostIpAddress = DeviceMessages.getHostIp(message);
+                    controlFragment.onReconnected();
+                } else if (type == DeviceMessages.TYPE_HOST_IP) {
+                    connectFragment.HideLoadingIndicator();
+                    controlFragment.hostIpAddress = DeviceMessages.getHostIp(message);
+                    FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
+                    ft.replace(R.id.fragment_container, controlFragment);
+                    ft.commit();
+                    movingFab.show();
+                } else if (type == DeviceMessages.TYPE_CAMERA_ON || type == DeviceMessages.TYPE_CAMERA_OFF) {
+                    controlFragment.reloadCameraFeed(message);
+                }
+                toast("Reading from device: " + message);
+            }
+
+            @Override
+            public void onWriteFailed(String command) {
+                // The connection is closing; onReconnecting or onDisconnected follows.
+            }
+        };
+        // Delivered at the start of the next frame, so a burst of messages costs one post.
+        BluetoothService.getInstance().getEventBus().subscribe(mConnectionListener, new FrameExecutor());
+
+        if (sessionStore == null) {
+            // The store opens its file on its own thread; events are staged from the
+            // connection thread that publishes them.
+            BluetoothService bluetooth = BluetoothService.getInstance();
+            sessionStore = new SessionStore(new File(getFilesDir(), "sessions"), bluetooth.getTelemetry());
+            bluetooth.getEventBus().subscribe(sessionStore, ConnectionEventBus.DIRECT);
+            startJournal(new File(getFilesDir(), "journals"));
+        }
 
         sharedPreferences = getSharedPreferences(PREFS_NAME, 0);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (voiceListening) {
+            recognizer.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        // The microphone is not ours while the app is in the background.
+        if (recognizer != null) {
+            recognizer.stop();
+        }
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (recognizer != null) {
+            recognizer.destroy();
+        }
+        BluetoothService.getInstance().getEventBus().unsubscribe(mConnectionListener);
+        controlFragment.cancelReplay();
+        if (isFinishing() && sessionStore != null) {
+            BluetoothService.getInstance().getEventBus().unsubscribe(sessionStore);
+            sessionStore.close();
+            sessionStore = null;
+            BluetoothService.getInstance().setJournal(null);
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        }
+        super.onDestroy();
+    }
+
+    private void toast(String text) {
+        Toast.makeText(getApplicationContext(), text, Toast.LENGTH_LONG).show();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -148,6 +230,13 @@ public class MainActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_drive_all).setChecked(
+                BluetoothService.getInstance().getFollowers() != ConnectionPool.NONE);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -159,10 +248,241 @@ public class MainActivity extends AppCompatActivity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_replay) {
+            replayLastJournal(new File(getFilesDir(), "journals"));
+            return true;
+        }
+        if (id == R.id.action_macro) {
+            chooseMacro();
+            return true;
+        }
+        if (id == R.id.action_add_car) {
+            chooseCar();
+            return true;
+        }
+        if (id == R.id.action_drive_all) {
+            boolean all = !item.isChecked();
+            item.setChecked(all);
+            BluetoothService.getInstance().setFollowers(all ? ConnectionPool.ALL : ConnectionPool.NONE);
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
 
+    // Opens this run's command journal off the UI thread, keeping the last few runs' journals.
+    private static void startJournal(final File directory) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    Log.e(TAG, "Could not create " + directory);
+                    return;
+                }
+                File[] journals = CommandJournal.listJournals(directory);
+                for (int i = 0; i < journals.length - (MAX_JOURNALS - 1); i++) {
+                    journals[i].delete();
+                }
+                File file = new File(directory, String.format(Locale.US, "%013d%s",
+                        System.currentTimeMillis(), CommandJournal.FILE_SUFFIX));
+                try {
+                    journal = new CommandJournal(file);
+                    BluetoothService.getInstance().setJournal(journal);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not start the command journal", e);
+                }
+            }
+        }, "JournalOpener").start();
+    }
+
+    // Sends the previous run's commands to the connected car again, with their original timing.
+    private void replayLastJournal(final File directory) {
+        if (BluetoothService.getInstance().getConnectedDeviceName() == null) {
+            toast("Connect to a car first");
+            return;
+        }
+        File[] journals = CommandJournal.listJournals(directory);
+        // The newest is this run's, still being written.
+        if (journals.length < 2) {
+            toast("No earlier session to replay");
+            return;
+        }
+        File file = journals[journals.length - 2];
+        if (!controlFragment.isAdded()) {
+            return;
+        }
+        if (!controlFragment.replayJournal(file)) {
+            toast("A replay is already running");
+            return;
+        }
+        toast("Replaying " + file.getName());
+    }
+
+    // Connects another paired car alongside the one being driven; it follows the controls
+    // while Drive all cars is checked.
+    private void chooseCar() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        Set<BluetoothDevice> bonded = adapter != null && adapter.isEnabled()
+                ? adapter.getBondedDevices() : null;
+        if (bonded == null || bonded.isEmpty()) {
+            toast("No paired cars");
+            return;
+        }
+        final ArrayList<BluetoothDevice> devices = new ArrayList<>(bonded);
+        String[] labels = new String[devices.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = devices.get(i).getName();
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_add_car)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (BluetoothService.getInstance().addCar(devices.get(which)) < 0) {
+                            toast("Cannot connect more than " + ConnectionPool.MAX_LINKS + " cars");
+                        }
+                    }
+                })
+                .show();
+    }
+
+    // Offers the macros shipped in assets/macros and any the operator has copied to the app's
+    // external files, under macros/.
+    private void chooseMacro() {
+        if (!controlFragment.isAdded()) {
+            toast("Connect to a car first");
+            return;
+        }
+        final ArrayList<String> names = new ArrayList<>();
+        try {
+            String[] assets = getAssets().list(MACRO_DIRECTORY);
+            if (assets != null) {
+                for (String name : assets) {
+                    if (name.endsWith(MACRO_SUFFIX)) {
+                        names.add(name);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not list the built-in macros", e);
+        }
+        final File directory = getExternalFilesDir(MACRO_DIRECTORY);
+        File[] files = directory != null ? directory.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(MACRO_SUFFIX) && !names.contains(file.getName())) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            toast("No macros found");
+            return;
+        }
+
+        String[] labels = new String[names.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = names.get(i).substring(0, names.get(i).length() - MACRO_SUFFIX.length());
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_macro)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String name = names.get(which);
+                        File file = directory != null ? new File(directory, name) : null;
+                        loadMacro(name.substring(0, name.length() - MACRO_SUFFIX.length()),
+                                file != null && file.isFile() ? file : null);
+                    }
+                })
+                .show();
+    }
+
+    // Compiles the macro off the UI thread, then runs it. A file overrides the asset of that name.
+    private void loadMacro(final String name, final File file) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Macro macro = null;
+                String error = null;
+                try (InputStream in = file != null ? new FileInputStream(file)
+                        : getAssets().open(MACRO_DIRECTORY + "/" + name + MACRO_SUFFIX);
+                     Reader reader = new InputStreamReader(in, SessionLog.UTF_8)) {
+                    macro = Macro.compile(name, reader);
+                } catch (IOException | IllegalArgumentException e) {
+                    Log.e(TAG, "Could not load macro " + name, e);
+                    error = e.getMessage();
+                }
+
+                final Macro loaded = macro;
+                final String message = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loaded == null) {
+                            toast("Could not load " + name + ": " + message);
+                        } else if (controlFragment.isAdded()) {
+                            controlFragment.runMacro(loaded);
+                            toast("Running " + name + ", press stop to abort");
+                        }
+                    }
+                });
+            }
+        }, "MacroLoader").start();
+    }
+
+    // Listens continuously in process where the device allows it, otherwise asks the system
+    // recognizer for one utterance.
+    private void toggleVoiceInput() {
+        if (!ContinuousRecognizer.isAvailable(this)) {
+            startVoiceInput();
+        } else if (voiceListening) {
+            setVoiceListening(false);
+        } else if (checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{Manifest.permission.RECORD_AUDIO}, REQ_CODE_RECORD_AUDIO);
+        } else {
+            setVoiceListening(true);
+        }
+    }
+
+    private void setVoiceListening(boolean listening) {
+        if (listening == voiceListening) {
+            return;
+        }
+        voiceListening = listening;
+        if (listening) {
+            if (recognizer == null) {
+                recognizer = new ContinuousRecognizer(this, controlFragment.getVoiceStream(),
+                        new ContinuousRecognizer.Callback() {
+                            @Override
+                            public void onStopped(int error) {
+                                voiceListening = false;
+                                toast("Stopped listening");
+                            }
+                        });
+            }
+            recognizer.start();
+            toast("Listening for commands");
+        } else if (recognizer != null) {
+            recognizer.stop();
+            toast("Stopped listening");
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode != REQ_CODE_RECORD_AUDIO) {
+            return;
+        }
+        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            setVoiceListening(true);
+        } else {
+            // Still usable one utterance at a time through the system's own recognizer.
+            startVoiceInput();
+        }
+    }
+
     private void startVoiceInput() {
         Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
         intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
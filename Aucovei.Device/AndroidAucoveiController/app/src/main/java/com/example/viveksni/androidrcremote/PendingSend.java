@@ -0,0 +1,150 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion handle for a command handed to {@link BluetoothService#send(String)}. The command
+ * is written by the connection's writer thread; the handle tells whether it made it onto the
+ * socket and how long that took.
+ */
+public class PendingSend {
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_SENT = 1;
+    public static final int STATE_FAILED = 2;
+    public static final int STATE_SUPERSEDED = 3;
+
+    public static final int FAILURE_NONE = 0;
+    public static final int FAILURE_NOT_CONNECTED = 1;
+    public static final int FAILURE_QUEUE_FULL = 2;
+    public static final int FAILURE_IO = 3;
+    public static final int FAILURE_CLOSED = 4;
+
+    // Called on the writer thread, or on the sending thread if the send failed immediately.
+    public interface Listener {
+        void onComplete(PendingSend send);
+    }
+
+    private final String mCommand;
+    private final long mEnqueuedNanos;
+    private volatile int mState = STATE_PENDING;
+    private int mFailure = FAILURE_NONE;
+    private IOException mException;
+    private long mLatencyNanos;
+    private Listener mListener;
+
+    PendingSend(String command) {
+        mCommand = command;
+        mEnqueuedNanos = System.nanoTime();
+    }
+
+    static PendingSend failed(String command, int failure) {
+        PendingSend send = new PendingSend(command);
+        send.fail(failure, null);
+        return send;
+    }
+
+    public String getCommand() {
+        return mCommand;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public boolean isDone() {
+        return mState != STATE_PENDING;
+    }
+
+    public boolean isSent() {
+        return mState == STATE_SENT;
+    }
+
+    public synchronized int getFailure() {
+        return mFailure;
+    }
+
+    public synchronized IOException getException() {
+        return mException;
+    }
+
+    // System.nanoTime() when the command was handed to send().
+    long getEnqueuedNanos() {
+        return mEnqueuedNanos;
+    }
+
+    /**
+     * Nanoseconds from {@code send()} until the command was flushed or failed, or -1 while
+     * still pending.
+     */
+    public synchronized long getLatencyNanos() {
+        return isDone() ? mLatencyNanos : -1;
+    }
+
+    /**
+     * True if a newer command on the same {@link CommandChannel} replaced this one before it
+     * was written.
+     */
+    public boolean isSuperseded() {
+        return mState == STATE_SUPERSEDED;
+    }
+
+    /**
+     * Blocks until the command has been written, has failed or has been superseded.
+     *
+     * @return true if the command was sent.
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (!isDone() && remaining > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return isSent();
+    }
+
+    /**
+     * Sets the listener to notify on completion, calling it right away if already done.
+     */
+    public void setListener(Listener listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                mListener = listener;
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+    void complete() {
+        finish(STATE_SENT, FAILURE_NONE, null);
+    }
+
+    void supersede() {
+        finish(STATE_SUPERSEDED, FAILURE_NONE, null);
+    }
+
+    void fail(int failure, IOException exception) {
+        finish(STATE_FAILED, failure, exception);
+    }
+
+    private void finish(int state, int failure, IOException exception) {
+        Listener listener;
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            mLatencyNanos = System.nanoTime() - mEnqueuedNanos;
+            mFailure = failure;
+            mException = exception;
+            mState = state;
+            listener = mListener;
+            mListener = null;
+            notifyAll();
+        }
+        if (listener != null) {
+            listener.onComplete(this);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.Random;
+
+/**
+ * Delays between attempts to win back a dropped connection. The first attempt is immediate,
+ * since most dropouts are a moment of interference; after that the delay doubles from
+ * {@code initialDelayMillis} up to {@code maxDelayMillis}, each with equal jitter (half fixed,
+ * half random) so retries do not fall into step with whatever is interfering.
+ */
+public class ReconnectBackoff {
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 250;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 4000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mMaxAttempts;
+    private final Random mRandom;
+    private int mAttempts;
+
+    public ReconnectBackoff() {
+        this(DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MAX_ATTEMPTS, new Random());
+    }
+
+    public ReconnectBackoff(long initialDelayMillis, long maxDelayMillis, int maxAttempts, Random random) {
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxAttempts = maxAttempts;
+        mRandom = random;
+    }
+
+    /**
+     * The delay before the next attempt, counting it as made.
+     *
+     * @return -1 once every attempt has been used.
+     */
+    public long nextDelayMillis() {
+        if (mAttempts >= mMaxAttempts) {
+            return -1;
+        }
+        int attempt = mAttempts++;
+        if (attempt == 0) {
+            return 0;
+        }
+        long delay = mInitialDelayMillis << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > mMaxDelayMillis) {
+            delay = mMaxDelayMillis;
+        }
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    // Attempts made since the last reset.
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    public void reset() {
+        mAttempts = 0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.viveksni.androidrcremote;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Bluetooth RFCOMM connection to the car's {@link BluetoothService#SERVICE_UUID} service.
+ */
+public class RfcommTransport implements Transport {
+    private final BluetoothDevice mDevice;
+    private volatile BluetoothSocket mSocket;
+
+    public RfcommTransport(BluetoothDevice device) {
+        mDevice = device;
+    }
+
+    public static Transport.Factory factory(final BluetoothDevice device) {
+        return new Transport.Factory() {
+            @Override
+            public Transport create() {
+                return new RfcommTransport(device);
+            }
+        };
+    }
+
+    @Override
+    public void connect() throws IOException {
+        BluetoothSocket socket = mDevice.createRfcommSocketToServiceRecord(BluetoothService.SERVICE_UUID);
+        mSocket = socket;
+        try {
+            // Blocks until it succeeds or throws an exception.
+            socket.connect();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        BluetoothSocket socket = mSocket;
+        return socket != null && socket.isConnected();
+    }
+
+    @Override
+    public String getName() {
+        return mDevice.getName();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        BluetoothSocket socket = mSocket;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * The file format {@link SessionStore} writes: a sequence of batches, each a 4 byte payload
+ * length, the CRC-32 of the payload, and the payload. A payload starts with the batch's base
+ * time in epoch milliseconds, followed by records:
+ * <ul>
+ * <li>{@link #RECORD_SAMPLE}: the telemetry channel, the time as a zigzag varint offset from the
+ * base, and the value as a float.</li>
+ * <li>{@link #RECORD_EVENT}: one of the EVENT_ constants, the time offset, and a detail string
+ * as a varint of its UTF-8 length plus one, 0 meaning none, and the UTF-8 bytes.</li>
+ * </ul>
+ * A batch is written with one append and one sync, so after a crash the file ends either with
+ * a whole batch or with a torn one, which the length or checksum exposes. Readers stop there.
+ */
+public final class SessionLog {
+    public static final String FILE_SUFFIX = ".session";
+    public static final int BATCH_HEADER_BYTES = 8;
+
+    public static final byte RECORD_SAMPLE = 1;
+    public static final byte RECORD_EVENT = 2;
+
+    public static final int EVENT_CONNECTED = 1;
+    public static final int EVENT_CONNECT_FAILED = 2;
+    public static final int EVENT_RECONNECTING = 3;
+    public static final int EVENT_DISCONNECTED = 4;
+    public static final int EVENT_MESSAGE = 5;
+    public static final int EVENT_WRITE_FAILED = 6;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // No single batch is anywhere near this; a larger length is a torn or corrupt header.
+    private static final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+    public interface Visitor {
+        void onSample(int channel, long timeMillis, float value);
+
+        void onEvent(int event, long timeMillis, String detail);
+    }
+
+    private SessionLog() {
+    }
+
+    /**
+     * Reads every intact batch in order.
+     *
+     * @return the length of the file up to the end of the last intact batch.
+     */
+    public static long read(File file, Visitor visitor) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return read(raf.getChannel(), visitor);
+        }
+    }
+
+    /**
+     * Cuts a torn batch off the end of a log left by a crash, so it can be read or appended to
+     * cleanly.
+     *
+     * @return the number of bytes removed.
+     */
+    public static long recover(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            long valid = read(channel, null);
+            if (valid < length) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            return length - valid;
+        }
+    }
+
+    private static long read(FileChannel channel, Visitor visitor) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_BYTES);
+        ByteBuffer payload = ByteBuffer.allocate(0);
+        CRC32 crc = new CRC32();
+        long size = channel.size();
+        long position = 0;
+
+        while (position + BATCH_HEADER_BYTES <= size) {
+            header.clear();
+            if (!readFully(channel, header, position)) {
+                break;
+            }
+            int length = header.getInt(0);
+            if (length < 8 || length > MAX_BATCH_BYTES || position + BATCH_HEADER_BYTES + length > size) {
+                break;
+            }
+            if (payload.capacity() < length) {
+                payload = ByteBuffer.allocate(length);
+            }
+            payload.clear();
+            payload.limit(length);
+            if (!readFully(channel, payload, position + BATCH_HEADER_BYTES)) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+
+            payload.flip();
+            if (visitor != null && !visit(payload, visitor)) {
+                break;
+            }
+            position += BATCH_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    // Returns false if a record runs past the end of the batch.
+    private static boolean visit(ByteBuffer payload, Visitor visitor) {
+        try {
+            long baseMillis = payload.getLong();
+            while (payload.hasRemaining()) {
+                byte type = payload.get();
+                if (type == RECORD_SAMPLE) {
+                    int channel = payload.get() & 0xFF;
+                    long time = baseMillis + readZigzag(payload);
+                    visitor.onSample(channel, time, payload.getFloat());
+                } else if (type == RECORD_EVENT) {
+                    int event = payload.get() & 0xFF;
+                    long time = baseMillis + readZigzag(payload);
+                    int length = (int) readVarint(payload);
+                    String detail = null;
+                    if (length > 0) {
+                        detail = new String(payload.array(), payload.position(), length - 1, UTF_8);
+                        payload.position(payload.position() + length - 1);
+                    }
+                    visitor.onEvent(event, time, detail);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or a length past the end: the checksum matched, so the
+            // batch was written that way and nothing after it can be trusted either.
+            return false;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    static void writeVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void writeZigzag(ByteBuffer buffer, long value) {
+        writeVarint(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than 64 bits");
+    }
+
+    static long readZigzag(ByteBuffer buffer) {
+        long value = readVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
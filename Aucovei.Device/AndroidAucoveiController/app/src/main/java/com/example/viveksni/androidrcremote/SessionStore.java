@@ -0,0 +1,334 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a {@link SessionLog} of connection events and telemetry in a directory, one file per
+ * run of the app, named by its start time.
+ * <p>
+ * Nothing is written on the caller's thread. Events are appended to a bounded staging buffer,
+ * and are dropped and counted if the writer falls that far behind. A writer thread wakes every
+ * {@link #DEFAULT_FLUSH_INTERVAL_MILLIS}, or sooner once staging is half full, copies the new
+ * telemetry straight out of the {@link TelemetrySeries} rings, and commits it all as one batch:
+ * one append and one sync for everything since the last batch. A crash loses at most the batch
+ * being gathered, and the torn end it may leave is cut off by {@link SessionLog#recover}, which
+ * the writer runs on the previous logs before starting.
+ * <p>
+ * Subscribe it to {@link BluetoothService#getEventBus()} with {@link ConnectionEventBus#DIRECT}.
+ */
+public class SessionStore implements ConnectionListener, Closeable {
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_STAGING_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_LOGS = 20;
+
+    // Type, channel, a varint time offset of at most 10 bytes and the value.
+    private static final int MAX_SAMPLE_BYTES = 16;
+    private static final int MAX_DETAIL_BYTES = 256;
+
+    private final File mDirectory;
+    private final Telemetry mTelemetry;
+    private final long mFlushIntervalMillis;
+    private final int mMaxLogs;
+    // Epoch milliseconds minus System.nanoTime() milliseconds, to date telemetry stamps.
+    private final long mEpochOffsetMillis;
+
+    // Guarded by mStaging.
+    private final ByteBuffer mStaging;
+    private long mDroppedEvents;
+    private boolean mClosed;
+
+    // Only used by the writer thread.
+    private final ByteBuffer mBatch;
+    private final long[] mNextSequence = new long[Telemetry.CHANNEL_COUNT];
+    private final TelemetrySeries.Snapshot mSnapshot;
+    private final CRC32 mCrc = new CRC32();
+    private final Thread mWriter;
+
+    private volatile long mBatchesWritten;
+    private volatile long mBytesWritten;
+    private volatile long mRecoveredBytes;
+    private volatile IOException mError;
+
+    public SessionStore(File directory, Telemetry telemetry) {
+        this(directory, telemetry, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_STAGING_BYTES, DEFAULT_MAX_LOGS);
+    }
+
+    /**
+     * @param maxLogs the number of logs to keep, this run's included; older ones are deleted.
+     */
+    public SessionStore(File directory, Telemetry telemetry, long flushIntervalMillis,
+                        int stagingBytes, int maxLogs) {
+        mDirectory = directory;
+        mTelemetry = telemetry;
+        mFlushIntervalMillis = flushIntervalMillis;
+        mMaxLogs = Math.max(1, maxLogs);
+        mEpochOffsetMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        mStaging = ByteBuffer.allocate(stagingBytes);
+
+        int capacity = telemetry.getSeries(0).getCapacity();
+        mSnapshot = new TelemetrySeries.Snapshot(capacity);
+        // Staged events, which grow a little when their times are rebased, plus every ring full
+        // of new samples always fit.
+        mBatch = ByteBuffer.allocate(8 + 2 * stagingBytes + Telemetry.CHANNEL_COUNT * capacity * MAX_SAMPLE_BYTES);
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "SessionStore");
+        mWriter.start();
+    }
+
+    @Override
+    public void onConnected(String deviceName) {
+        stage(SessionLog.EVENT_CONNECTED, deviceName);
+    }
+
+    @Override
+    public void onConnectFailed(String deviceName) {
+        stage(SessionLog.EVENT_CONNECT_FAILED, deviceName);
+    }
+
+    @Override
+    public void onReconnecting(String deviceName, int attempt) {
+        stage(SessionLog.EVENT_RECONNECTING, deviceName);
+    }
+
+    @Override
+    public void onDisconnected() {
+        stage(SessionLog.EVENT_DISCONNECTED, null);
+    }
+
+    @Override
+    public void onMessage(String message) {
+        stage(SessionLog.EVENT_MESSAGE, message);
+    }
+
+    @Override
+    public void onWriteFailed(String command) {
+        stage(SessionLog.EVENT_WRITE_FAILED, command);
+    }
+
+    // Appends an event record with its absolute time; the writer rebases it on the batch's.
+    private void stage(int event, String detail) {
+        byte[] bytes = detail != null ? detail.getBytes(SessionLog.UTF_8) : null;
+        int length = bytes != null ? Math.min(bytes.length, MAX_DETAIL_BYTES) : 0;
+        long timeMillis = System.currentTimeMillis();
+        synchronized (mStaging) {
+            // Type, event, time, length and bytes, with room for the longest varints.
+            if (mClosed || mStaging.remaining() < 2 + 10 + 5 + length) {
+                mDroppedEvents++;
+                return;
+            }
+            mStaging.put(SessionLog.RECORD_EVENT);
+            mStaging.put((byte) event);
+            mStaging.putLong(timeMillis);
+            SessionLog.writeVarint(mStaging, bytes != null ? length + 1 : 0);
+            if (bytes != null) {
+                mStaging.put(bytes, 0, length);
+            }
+            if (mStaging.position() >= mStaging.capacity() / 2) {
+                mStaging.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Commits what is staged and stops the writer. Returns without waiting for it.
+     */
+    @Override
+    public void close() {
+        synchronized (mStaging) {
+            mClosed = true;
+            mStaging.notifyAll();
+        }
+    }
+
+    // Waits for the writer's last batch; for tests.
+    boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        mWriter.join(timeoutMillis);
+        return !mWriter.isAlive();
+    }
+
+    public long getBatchesWritten() {
+        return mBatchesWritten;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    // Bytes of torn batches cut from earlier logs when this store started.
+    public long getRecoveredBytes() {
+        return mRecoveredBytes;
+    }
+
+    // Why the writer stopped, or null if it has not.
+    public IOException getError() {
+        return mError;
+    }
+
+    public long getDroppedEvents() {
+        synchronized (mStaging) {
+            return mDroppedEvents;
+        }
+    }
+
+    private void writeLoop() {
+        try (RandomAccessFile raf = new RandomAccessFile(prepareDirectory(), "rw")) {
+            FileChannel channel = raf.getChannel();
+            boolean closed;
+            do {
+                closed = awaitBatch();
+                writeBatch(channel);
+            } while (!closed);
+        } catch (IOException e) {
+            mError = e;
+        } catch (InterruptedException e) {
+            // Only interrupted if the process is going away.
+        }
+        synchronized (mStaging) {
+            // Stop staging events nobody will write.
+            mClosed = true;
+        }
+    }
+
+    // Recovers the logs a crash may have left and deletes the oldest beyond the limit.
+    private File prepareDirectory() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+        File[] logs = listLogs(mDirectory);
+        for (int i = 0; i < logs.length; i++) {
+            if (i < logs.length - (mMaxLogs - 1)) {
+                if (!logs[i].delete()) {
+                    throw new IOException("Could not delete " + logs[i]);
+                }
+            } else {
+                mRecoveredBytes += SessionLog.recover(logs[i]);
+            }
+        }
+
+        long startMillis = System.currentTimeMillis();
+        File file = logFile(startMillis);
+        while (file.exists()) {
+            file = logFile(++startMillis);
+        }
+        return file;
+    }
+
+    // Returns true once closed, after which one last batch is written.
+    private boolean awaitBatch() throws InterruptedException {
+        synchronized (mStaging) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mFlushIntervalMillis);
+            long remaining;
+            while (!mClosed && mStaging.position() < mStaging.capacity() / 2
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(mStaging, remaining);
+            }
+            return mClosed;
+        }
+    }
+
+    private void writeBatch(FileChannel channel) throws IOException {
+        long baseMillis = System.currentTimeMillis();
+        mBatch.clear();
+        mBatch.position(SessionLog.BATCH_HEADER_BYTES);
+        mBatch.putLong(baseMillis);
+        int records = appendEvents(baseMillis) + appendSamples(baseMillis);
+        if (records == 0) {
+            return;
+        }
+
+        int length = mBatch.position() - SessionLog.BATCH_HEADER_BYTES;
+        mCrc.reset();
+        mCrc.update(mBatch.array(), SessionLog.BATCH_HEADER_BYTES, length);
+        mBatch.putInt(0, length);
+        mBatch.putInt(4, (int) mCrc.getValue());
+        mBatch.flip();
+        while (mBatch.hasRemaining()) {
+            channel.write(mBatch);
+        }
+        // The group commit: one sync for the whole batch.
+        channel.force(false);
+        mBatchesWritten++;
+        mBytesWritten += mBatch.limit();
+    }
+
+    // Moves the staged events into the batch, rebasing their times.
+    private int appendEvents(long baseMillis) {
+        synchronized (mStaging) {
+            mStaging.flip();
+            int records = 0;
+            while (mStaging.hasRemaining()) {
+                mBatch.put(mStaging.get());
+                mBatch.put(mStaging.get());
+                SessionLog.writeZigzag(mBatch, mStaging.getLong() - baseMillis);
+                int length = (int) SessionLog.readVarint(mStaging);
+                SessionLog.writeVarint(mBatch, length);
+                for (int i = 1; i < length; i++) {
+                    mBatch.put(mStaging.get());
+                }
+                records++;
+            }
+            mStaging.clear();
+            return records;
+        }
+    }
+
+    private int appendSamples(long baseMillis) {
+        int records = 0;
+        for (int channel = 0; channel < Telemetry.CHANNEL_COUNT; channel++) {
+            TelemetrySeries series = mTelemetry.getSeries(channel);
+            if (series.getSequence() == mNextSequence[channel]) {
+                continue;
+            }
+            series.readSince(mNextSequence[channel], mSnapshot);
+            long[] timestamps = mSnapshot.getTimestamps();
+            float[] values = mSnapshot.getValues();
+            for (int i = 0; i < mSnapshot.getCount(); i++) {
+                long timeMillis = mEpochOffsetMillis + TimeUnit.NANOSECONDS.toMillis(timestamps[i]);
+                mBatch.put(SessionLog.RECORD_SAMPLE);
+                mBatch.put((byte) channel);
+                SessionLog.writeZigzag(mBatch, timeMillis - baseMillis);
+                mBatch.putFloat(values[i]);
+            }
+            records += mSnapshot.getCount();
+            mNextSequence[channel] = mSnapshot.getNextSequence();
+        }
+        return records;
+    }
+
+    private File logFile(long startMillis) {
+        // Zero padded so name order is time order.
+        return new File(mDirectory, String.format(Locale.US, "%013d%s", startMillis, SessionLog.FILE_SUFFIX));
+    }
+
+    /**
+     * The session logs in a directory, oldest first.
+     */
+    public static File[] listLogs(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SessionLog.FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
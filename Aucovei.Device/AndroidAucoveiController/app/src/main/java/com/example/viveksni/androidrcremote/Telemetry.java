@@ -0,0 +1,138 @@
+package com.example.viveksni.androidrcremote;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Sensor readings the car streams once it has advertised {@link DeviceCapabilities#TELEMETRY},
+ * kept per channel in {@link TelemetrySeries} rings.
+ * <p>
+ * A telemetry payload is {@link #OP_TELEMETRY} followed by any number of 5 byte records: the
+ * channel number and its value as a big-endian float. It travels in the same frames as the
+ * text messages and is told apart by its first byte, like a {@link BinaryCommandCodec} payload.
+ * Decoding reads the frame buffer in place, so a reading costs no allocation between the
+ * radio and the rings. Unknown channels are skipped so the car can add sensors.
+ */
+public class Telemetry {
+    public static final byte OP_TELEMETRY = 0x10;
+    public static final int RECORD_LENGTH = 5;
+
+    // Distance to the nearest obstacle ahead, in centimetres.
+    public static final int CHANNEL_DISTANCE = 0;
+    // Ground speed in metres per second.
+    public static final int CHANNEL_SPEED = 1;
+    // Compass heading in degrees.
+    public static final int CHANNEL_HEADING = 2;
+    // Battery voltage.
+    public static final int CHANNEL_BATTERY = 3;
+    public static final int CHANNEL_COUNT = 4;
+
+    // A few minutes of history at 20 Hz.
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final String[] NAMES = {"Distance", "Speed", "Heading", "Battery"};
+    private static final String[] UNITS = {"cm", "m/s", "deg", "V"};
+
+    private final TelemetrySeries[] mSeries = new TelemetrySeries[CHANNEL_COUNT];
+    private volatile long mFramesDecoded;
+    private volatile long mMalformedFrames;
+
+    public Telemetry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Telemetry(int capacity) {
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            mSeries[i] = new TelemetrySeries(capacity);
+        }
+    }
+
+    public static boolean isTelemetryPayload(ByteBuffer payload) {
+        return payload.remaining() > 0 && payload.get(payload.position()) == OP_TELEMETRY;
+    }
+
+    /**
+     * Adds the readings in a telemetry payload to their series. Only called from the thread
+     * reading the connection.
+     *
+     * @param receivedNanos {@link System#nanoTime()} when the frame was read, used as every
+     *                      reading's timestamp.
+     * @return false if the payload was not telemetry or was cut short; whole records before the
+     * cut are still added.
+     */
+    public boolean decode(ByteBuffer payload, long receivedNanos) {
+        if (!isTelemetryPayload(payload)) {
+            return false;
+        }
+
+        int position = payload.position() + 1;
+        int limit = payload.limit();
+        for (; position + RECORD_LENGTH <= limit; position += RECORD_LENGTH) {
+            int channel = payload.get(position) & 0xFF;
+            if (channel < CHANNEL_COUNT) {
+                mSeries[channel].add(receivedNanos, payload.getFloat(position + 1));
+            }
+        }
+
+        if (position != limit) {
+            mMalformedFrames++;
+            return false;
+        }
+        mFramesDecoded++;
+        return true;
+    }
+
+    /**
+     * Writes a telemetry payload, as the car would, for {@code count} channel and value pairs.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encode(int[] channels, float[] values, int count, byte[] dest, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(dest, offset, dest.length - offset);
+        buffer.put(OP_TELEMETRY);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) channels[i]);
+            buffer.putFloat(values[i]);
+        }
+        return 1 + count * RECORD_LENGTH;
+    }
+
+    public TelemetrySeries getSeries(int channel) {
+        return mSeries[channel];
+    }
+
+    public static String getName(int channel) {
+        return NAMES[channel];
+    }
+
+    public static String getUnit(int channel) {
+        return UNITS[channel];
+    }
+
+    public long getFramesDecoded() {
+        return mFramesDecoded;
+    }
+
+    public long getMalformedFrames() {
+        return mMalformedFrames;
+    }
+
+    /**
+     * The newest reading of every channel that has one, e.g. "Distance 42.0 cm  Battery 7.3 V".
+     */
+    public String toSummaryString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            float value = mSeries[i].getLatest(Float.NaN);
+            if (Float.isNaN(value)) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append("  ");
+            }
+            text.append(NAMES[i]).append(' ')
+                    .append(String.format(Locale.US, "%.1f", value)).append(' ').append(UNITS[i]);
+        }
+        return text.length() > 0 ? text.toString() : "no readings";
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.viveksni.androidrcremote;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live strip charts of every {@link Telemetry} channel over a window ending at the newest
+ * reading. Pinch to zoom the window from seconds out to a day.
+ * <p>
+ * Each frame, readings that arrived since the last one are copied out of the telemetry rings
+ * into a {@link DownsampledSeries} per channel. Only when something changed are the lines
+ * rebuilt, from at most about one point per two pixels of width, so drawing costs the same
+ * after a minute as after an afternoon.
+ */
+public class TelemetryChartView extends View implements Choreographer.FrameCallback {
+    public static final long DEFAULT_WINDOW_MILLIS = 60 * 1000;
+    private static final long MIN_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_WINDOW_NANOS = TimeUnit.DAYS.toNanos(1);
+    private static final int MAX_POINTS = 512;
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint backgroundPaint = new Paint();
+    private final DownsampledSeries[] history = new DownsampledSeries[Telemetry.CHANNEL_COUNT];
+    private final long[] nextSequence = new long[Telemetry.CHANNEL_COUNT];
+    private final Path[] paths = new Path[Telemetry.CHANNEL_COUNT];
+    private final float[] minValues = new float[Telemetry.CHANNEL_COUNT];
+    private final float[] maxValues = new float[Telemetry.CHANNEL_COUNT];
+    private final long[] pointX = new long[MAX_POINTS];
+    private final float[] pointY = new float[MAX_POINTS];
+    private TelemetrySeries.Snapshot snapshot;
+    private ScaleGestureDetector scaleDetector;
+    private Telemetry telemetry;
+    private long windowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WINDOW_MILLIS);
+    private boolean dirty = true;
+    private boolean attached;
+
+    public TelemetryChartView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public TelemetryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public TelemetryChartView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context);
+    }
+
+    private void init(Context context) {
+        linePaint.setColor(Color.argb(224, 128, 255, 128));
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(2 * getResources().getDisplayMetrics().density);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(11 * getResources().getDisplayMetrics().scaledDensity);
+        backgroundPaint.setColor(Color.argb(128, 0, 0, 0));
+        for (int i = 0; i < Telemetry.CHANNEL_COUNT; i++) {
+            history[i] = new DownsampledSeries();
+            paths[i] = new Path();
+        }
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                // Spreading the fingers zooms in, to a shorter window.
+                long window = (long) (windowNanos / detector.getScaleFactor());
+                windowNanos = Math.max(MIN_WINDOW_NANOS, Math.min(MAX_WINDOW_NANOS, window));
+                dirty = true;
+                invalidate();
+                return true;
+            }
+        });
+    }
+
+    // The telemetry to chart; history already in its rings is picked up on the next frame.
+    public void setTelemetry(Telemetry telemetry) {
+        this.telemetry = telemetry;
+        snapshot = new TelemetrySeries.Snapshot(telemetry.getSeries(0).getCapacity());
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        attached = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!attached) {
+            return;
+        }
+        // Keep collecting while hidden so the history has no gaps when shown again.
+        if (pullReadings() && isShown()) {
+            invalidate();
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private boolean pullReadings() {
+        if (telemetry == null) {
+            return false;
+        }
+        boolean added = false;
+        for (int channel = 0; channel < Telemetry.CHANNEL_COUNT; channel++) {
+            TelemetrySeries series = telemetry.getSeries(channel);
+            if (series.getSequence() == nextSequence[channel]) {
+                continue;
+            }
+            series.readSince(nextSequence[channel], snapshot);
+            long[] timestamps = snapshot.getTimestamps();
+            float[] values = snapshot.getValues();
+            for (int i = 0; i < snapshot.getCount(); i++) {
+                history[channel].add(timestamps[i], values[i]);
+            }
+            nextSequence[channel] = snapshot.getNextSequence();
+            added = true;
+        }
+        dirty |= added;
+        return added;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        dirty = true;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawRect(0, 0, getWidth(), getHeight(), backgroundPaint);
+        float rowHeight = (float) getHeight() / Telemetry.CHANNEL_COUNT;
+        float padding = textPaint.getTextSize() / 2;
+        if (dirty) {
+            rebuildPaths(rowHeight, padding);
+            dirty = false;
+        }
+
+        for (int channel = 0; channel < Telemetry.CHANNEL_COUNT; channel++) {
+            float top = channel * rowHeight;
+            canvas.drawPath(paths[channel], linePaint);
+
+            String label;
+            if (history[channel].isEmpty()) {
+                label = Telemetry.getName(channel) + " -";
+            } else {
+                label = String.format(Locale.US, "%s %.1f %s  [%.1f, %.1f]",
+                        Telemetry.getName(channel),
+                        telemetry.getSeries(channel).getLatest(Float.NaN), Telemetry.getUnit(channel),
+                        minValues[channel], maxValues[channel]);
+            }
+            canvas.drawText(label, padding, top + textPaint.getTextSize(), textPaint);
+        }
+    }
+
+    // Every row ends at the newest reading of any channel, so the rows line up in time.
+    private void rebuildPaths(float rowHeight, float padding) {
+        long newest = 0;
+        for (DownsampledSeries series : history) {
+            newest = Math.max(newest, series.getNewestTimestamp());
+        }
+        long from = newest - windowNanos;
+        int maxPoints = Math.max(3, Math.min(MAX_POINTS, getWidth() / 2));
+        float width = getWidth() - 2 * padding;
+
+        for (int channel = 0; channel < Telemetry.CHANNEL_COUNT; channel++) {
+            Path path = paths[channel];
+            path.rewind();
+            int count = history[channel].select(from, newest, maxPoints, pointX, pointY);
+            if (count == 0) {
+                continue;
+            }
+
+            float min = pointY[0];
+            float max = pointY[0];
+            for (int i = 1; i < count; i++) {
+                min = Math.min(min, pointY[i]);
+                max = Math.max(max, pointY[i]);
+            }
+            minValues[channel] = min;
+            maxValues[channel] = max;
+
+            // Below the label, with a flat line drawn through the middle.
+            float top = channel * rowHeight + textPaint.getTextSize() + padding;
+            float height = Math.max(1, (channel + 1) * rowHeight - padding - top);
+            float range = max - min;
+            for (int i = 0; i < count; i++) {
+                float x = padding + width * (pointX[i] - from) / windowNanos;
+                float y = range > 0 ? top + height * (max - pointY[i]) / range : top + height / 2;
+                if (i == 0) {
+                    path.moveTo(x, y);
+                } else {
+                    path.lineTo(x, y);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * The recent history of one telemetry channel: a ring of {@link System#nanoTime()} stamps and
+ * float values in two preallocated primitive arrays, so adding a sample never allocates.
+ * <p>
+ * There is one writer, the Bluetooth reader thread. Readers never block it: they copy out of
+ * the arrays into a {@link Snapshot} and then check the sample count again, dropping any
+ * samples the writer overwrote while they were copying. Every sample has a sequence number
+ * counting from 0, so a reader can ask for only what arrived since its last read.
+ */
+public class TelemetrySeries {
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final int mMask;
+    // Samples ever added; the next one goes to mCount & mMask. Written only by the writer.
+    private volatile long mCount;
+
+    /**
+     * @param capacity samples kept, rounded up to a power of two.
+     */
+    public TelemetrySeries(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mTimestamps = new long[size];
+        mValues = new float[size];
+        mMask = size - 1;
+    }
+
+    public int getCapacity() {
+        return mTimestamps.length;
+    }
+
+    // Only called from the writer thread.
+    public void add(long timestampNanos, float value) {
+        long count = mCount;
+        int index = (int) (count & mMask);
+        mTimestamps[index] = timestampNanos;
+        mValues[index] = value;
+        // The volatile write publishes the slot to readers.
+        mCount = count + 1;
+    }
+
+    /**
+     * The sequence number the next sample will get, i.e. the number of samples ever added.
+     */
+    public long getSequence() {
+        return mCount;
+    }
+
+    /**
+     * The newest value, or {@code fallback} if nothing has arrived yet.
+     */
+    public float getLatest(float fallback) {
+        long count = mCount;
+        if (count == 0) {
+            return fallback;
+        }
+        // If the writer laps this slot meanwhile it holds a newer sample, which is as good.
+        return mValues[(int) ((count - 1) & mMask)];
+    }
+
+    /**
+     * Copies every sample still held, oldest first. Once the ring is full that leaves out the
+     * oldest, whose slot the writer fills next.
+     */
+    public void snapshot(Snapshot into) {
+        readSince(0, into);
+    }
+
+    /**
+     * Copies the samples from sequence number {@code sequence} on, oldest first, or from the
+     * oldest still held if the ring has already overwritten that one. At most the snapshot's
+     * capacity is copied, taking the newest samples.
+     */
+    public void readSince(long sequence, Snapshot into) {
+        long end = mCount;
+        long start = Math.max(sequence, Math.max(0, end - mTimestamps.length));
+        start = Math.max(start, end - into.mTimestamps.length);
+        if (start >= end) {
+            into.mFirstSequence = end;
+            into.mCount = 0;
+            return;
+        }
+
+        int count = (int) (end - start);
+        int first = (int) (start & mMask);
+        int tail = Math.min(count, mTimestamps.length - first);
+        System.arraycopy(mTimestamps, first, into.mTimestamps, 0, tail);
+        System.arraycopy(mValues, first, into.mValues, 0, tail);
+        if (tail < count) {
+            System.arraycopy(mTimestamps, 0, into.mTimestamps, tail, count - tail);
+            System.arraycopy(mValues, 0, into.mValues, tail, count - tail);
+        }
+
+        // Anything older than the ring's reach now may have been overwritten mid-copy,
+        // including the slot the writer may be filling for the next sample.
+        long overwritten = mCount + 1 - mTimestamps.length - start;
+        if (overwritten > 0) {
+            int lost = (int) Math.min(overwritten, count);
+            count -= lost;
+            start += lost;
+            System.arraycopy(into.mTimestamps, lost, into.mTimestamps, 0, count);
+            System.arraycopy(into.mValues, lost, into.mValues, 0, count);
+        }
+        into.mFirstSequence = start;
+        into.mCount = count;
+    }
+
+    /**
+     * A reusable copy of part of a series. Only the first {@link #getCount()} entries of the
+     * arrays are valid.
+     */
+    public static final class Snapshot {
+        final long[] mTimestamps;
+        final float[] mValues;
+        long mFirstSequence;
+        int mCount;
+
+        public Snapshot(int capacity) {
+            mTimestamps = new long[capacity];
+            mValues = new float[capacity];
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        // Sequence number of the first entry.
+        public long getFirstSequence() {
+            return mFirstSequence;
+        }
+
+        // Sequence number to pass to readSince() for the samples after these.
+        public long getNextSequence() {
+            return mFirstSequence + mCount;
+        }
+
+        public long[] getTimestamps() {
+            return mTimestamps;
+        }
+
+        public float[] getValues() {
+            return mValues;
+        }
+    }
+}
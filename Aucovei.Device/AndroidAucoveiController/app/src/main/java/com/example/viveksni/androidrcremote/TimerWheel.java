@@ -0,0 +1,467 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One thread running every timed control action: drive pulse stops, hold repeats, analog
+ * streaming, pings and timeouts. A hashed timer wheel, so scheduling and cancelling cost the same
+ * with thousands of timers pending as with one.
+ * <p>
+ * Time is cut into ticks of {@link #DEFAULT_TICK_MILLIS}, and a timer waits in the bucket of the
+ * tick it is due in, modulo the number of buckets; one due further ahead than a turn of the
+ * wheel is passed over until its turn comes. The thread sleeps until the next bucket with a timer
+ * in it, or until woken by a sooner one, so an idle wheel costs nothing. A timer runs at most a
+ * tick plus the thread's wake-up time late; {@link #getLateness()} records how late each ran.
+ * <p>
+ * Timers live in preallocated parallel arrays linked by index, and a timer is named by a long
+ * handle of its slot and a generation that changes when the slot is reused, so scheduling,
+ * cancelling and running allocate nothing unless the arrays have to grow, and a stale handle
+ * cancels nothing. Each timer can belong to an owner from {@link #newOwner()}, and
+ * {@link #cancelOwner(int)} cancels all of an owner's timers at once.
+ * <p>
+ * Tasks run one at a time on the wheel's thread, in the order they fell due, and must not block.
+ * Every method may be called from any thread, including from a task. A task that throws is
+ * logged and counted in {@link #getTaskFailures()}; the wheel carries on.
+ */
+public class TimerWheel implements Executor {
+    // java.util.logging rather than android.util.Log, so the wheel also runs on a plain JVM;
+    // Android passes it on to logcat.
+    private static final Logger LOG = Logger.getLogger("TimerWheel");
+
+    public static final long DEFAULT_TICK_MILLIS = 1;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int NO_OWNER = 0;
+
+    private static final byte FREE = 0;
+    private static final byte SCHEDULED = 1;
+    // Taken out of its bucket to run.
+    private static final byte EXPIRED = 2;
+    // Cancelled after it expired; freed when the thread comes to it.
+    private static final byte CANCELLED = 3;
+
+    private final long mTickNanos;
+    private final int mMask;
+    private final long mStartNanos = System.nanoTime();
+    private final int[] mBucketHeads;
+    private final int[] mBucketTails;
+    private final Thread mThread;
+    private final LatencyHistogram mLateness = new LatencyHistogram();
+
+    // All guarded by this. Deadlines are in nanoseconds from mStartNanos.
+    private Runnable[] mTasks;
+    private long[] mDeadlines;
+    private long[] mPeriods;
+    private int[] mGenerations;
+    private byte[] mStates;
+    private int[] mBuckets;
+    private int[] mNext;
+    private int[] mPrev;
+    private int[] mOwners;
+    private int[] mOwnerNext;
+    private int[] mOwnerPrev;
+    private int mFreeHead;
+    private int[] mOwnerHeads = new int[8];
+    private int mOwnerCount = 1;
+    // Expired timers waiting to run, oldest first.
+    private int[] mExpired;
+    private int mExpiredHead;
+    private int mExpiredCount;
+    private int mPending;
+    // The next tick to look in, and the tick the thread sleeps until.
+    private long mCursorTick;
+    private long mWakeTick = Long.MAX_VALUE;
+    private boolean mShutdown;
+
+    private volatile long mFired;
+    private volatile long mTaskFailures;
+
+    public TimerWheel(String name) {
+        this(name, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param wheelSize the number of buckets, a power of two.
+     * @param capacity  timers allocated up front; more are added as needed.
+     */
+    public TimerWheel(String name, long tickMillis, int wheelSize, int capacity) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        mTickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        mMask = wheelSize - 1;
+        mBucketHeads = new int[wheelSize];
+        mBucketTails = new int[wheelSize];
+        Arrays.fill(mBucketHeads, -1);
+        Arrays.fill(mBucketTails, -1);
+        Arrays.fill(mOwnerHeads, -1);
+        allocate(Math.max(1, capacity));
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * @return a new owner to group timers under, for {@link #cancelOwner(int)}.
+     */
+    public synchronized int newOwner() {
+        if (mOwnerCount == mOwnerHeads.length) {
+            int length = mOwnerHeads.length;
+            mOwnerHeads = Arrays.copyOf(mOwnerHeads, length * 2);
+            Arrays.fill(mOwnerHeads, length, length * 2, -1);
+        }
+        return mOwnerCount++;
+    }
+
+    /**
+     * Runs the task once after the delay.
+     *
+     * @return a handle for {@link #cancel(long)}, or 0 if the wheel is shut down.
+     */
+    public long schedule(int owner, Runnable task, long delay, TimeUnit unit) {
+        return add(owner, task, unit.toNanos(delay), 0);
+    }
+
+    /**
+     * Runs the task after the initial delay and then every period, measured from when each run
+     * was due, so the rate does not drift. Runs missed while the thread was held up are skipped
+     * rather than run back to back.
+     */
+    public long scheduleAtFixedRate(int owner, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        return add(owner, task, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    // Runs the task on the wheel's thread as soon as possible, after any already due.
+    @Override
+    public void execute(Runnable task) {
+        add(NO_OWNER, task, 0, 0);
+    }
+
+    /**
+     * @return true if the timer was pending and will not run again.
+     */
+    public synchronized boolean cancel(long handle) {
+        int index = (int) handle;
+        if (handle == 0 || index < 0 || index >= mStates.length
+                || mGenerations[index] != (int) (handle >>> 32)) {
+            return false;
+        }
+        return cancelIndex(index);
+    }
+
+    /**
+     * Cancels every pending timer of the owner.
+     *
+     * @return the number cancelled.
+     */
+    public synchronized int cancelOwner(int owner) {
+        if (owner <= NO_OWNER || owner >= mOwnerCount) {
+            return 0;
+        }
+        int cancelled = 0;
+        int index = mOwnerHeads[owner];
+        while (index >= 0) {
+            int next = mOwnerNext[index];
+            if (cancelIndex(index)) {
+                cancelled++;
+            }
+            index = next;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Stops the thread. Pending timers never run, and nothing more can be scheduled.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        LockSupport.unpark(mThread);
+    }
+
+    public synchronized boolean isShutdown() {
+        return mShutdown;
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending;
+    }
+
+    public long getFiredCount() {
+        return mFired;
+    }
+
+    // Tasks that threw; the wheel carries on with the next.
+    public long getTaskFailures() {
+        return mTaskFailures;
+    }
+
+    /**
+     * How late each task ran after it was due.
+     */
+    public LatencyHistogram getLateness() {
+        return mLateness;
+    }
+
+    private synchronized long add(int owner, Runnable task, long delayNanos, long periodNanos) {
+        if (owner < NO_OWNER || owner >= mOwnerCount) {
+            throw new IllegalArgumentException("Unknown owner " + owner);
+        }
+        if (mShutdown) {
+            return 0;
+        }
+        if (mFreeHead < 0) {
+            allocate(mStates.length * 2);
+        }
+        int index = mFreeHead;
+        mFreeHead = mNext[index];
+        mTasks[index] = task;
+        mDeadlines[index] = System.nanoTime() - mStartNanos + Math.max(0, delayNanos);
+        mPeriods[index] = periodNanos;
+        mOwners[index] = owner;
+        if (owner != NO_OWNER) {
+            int head = mOwnerHeads[owner];
+            mOwnerPrev[index] = -1;
+            mOwnerNext[index] = head;
+            if (head >= 0) {
+                mOwnerPrev[head] = index;
+            }
+            mOwnerHeads[owner] = index;
+        }
+        mPending++;
+        link(index);
+        return ((long) mGenerations[index] << 32) | index;
+    }
+
+    // Appends the timer to the bucket of the tick it is due in, or of the next tick looked at.
+    private void link(int index) {
+        long tick = Math.max(mCursorTick, (mDeadlines[index] + mTickNanos - 1) / mTickNanos);
+        int bucket = (int) (tick & mMask);
+        int tail = mBucketTails[bucket];
+        mPrev[index] = tail;
+        mNext[index] = -1;
+        if (tail >= 0) {
+            mNext[tail] = index;
+        } else {
+            mBucketHeads[bucket] = index;
+        }
+        mBucketTails[bucket] = index;
+        mBuckets[index] = bucket;
+        mStates[index] = SCHEDULED;
+        if (tick < mWakeTick) {
+            mWakeTick = tick;
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    private void unlink(int index) {
+        int bucket = mBuckets[index];
+        int prev = mPrev[index];
+        int next = mNext[index];
+        if (prev >= 0) {
+            mNext[prev] = next;
+        } else {
+            mBucketHeads[bucket] = next;
+        }
+        if (next >= 0) {
+            mPrev[next] = prev;
+        } else {
+            mBucketTails[bucket] = prev;
+        }
+    }
+
+    private boolean cancelIndex(int index) {
+        byte state = mStates[index];
+        if (state == SCHEDULED) {
+            unlink(index);
+            free(index);
+            return true;
+        } else if (state == EXPIRED) {
+            mStates[index] = CANCELLED;
+            return true;
+        }
+        return false;
+    }
+
+    private void free(int index) {
+        int owner = mOwners[index];
+        if (owner != NO_OWNER) {
+            int prev = mOwnerPrev[index];
+            int next = mOwnerNext[index];
+            if (prev >= 0) {
+                mOwnerNext[prev] = next;
+            } else {
+                mOwnerHeads[owner] = next;
+            }
+            if (next >= 0) {
+                mOwnerPrev[next] = prev;
+            }
+        }
+        mTasks[index] = null;
+        mStates[index] = FREE;
+        // Never 0, so no handle is 0.
+        mGenerations[index] = mGenerations[index] == Integer.MAX_VALUE ? 1 : mGenerations[index] + 1;
+        mNext[index] = mFreeHead;
+        mFreeHead = index;
+        mPending--;
+    }
+
+    private void allocate(int capacity) {
+        int old = mStates == null ? 0 : mStates.length;
+        if (old == 0) {
+            mTasks = new Runnable[capacity];
+            mDeadlines = new long[capacity];
+            mBuckets = new int[capacity];
+            mPeriods = new long[capacity];
+            mGenerations = new int[capacity];
+            mStates = new byte[capacity];
+            mNext = new int[capacity];
+            mPrev = new int[capacity];
+            mOwners = new int[capacity];
+            mOwnerNext = new int[capacity];
+            mOwnerPrev = new int[capacity];
+            mExpired = new int[capacity];
+        } else {
+            mTasks = Arrays.copyOf(mTasks, capacity);
+            mDeadlines = Arrays.copyOf(mDeadlines, capacity);
+            mBuckets = Arrays.copyOf(mBuckets, capacity);
+            mPeriods = Arrays.copyOf(mPeriods, capacity);
+            mGenerations = Arrays.copyOf(mGenerations, capacity);
+            mStates = Arrays.copyOf(mStates, capacity);
+            mNext = Arrays.copyOf(mNext, capacity);
+            mPrev = Arrays.copyOf(mPrev, capacity);
+            mOwners = Arrays.copyOf(mOwners, capacity);
+            mOwnerNext = Arrays.copyOf(mOwnerNext, capacity);
+            mOwnerPrev = Arrays.copyOf(mOwnerPrev, capacity);
+            // Unwrap the ring of expired timers into the larger array.
+            int[] expired = new int[capacity];
+            for (int i = 0; i < mExpiredCount; i++) {
+                expired[i] = mExpired[(mExpiredHead + i) % mExpired.length];
+            }
+            mExpired = expired;
+            mExpiredHead = 0;
+        }
+        for (int i = old; i < capacity; i++) {
+            mGenerations[i] = 1;
+            mNext[i] = i + 1 < capacity ? i + 1 : -1;
+        }
+        mFreeHead = old;
+    }
+
+    private void runLoop() {
+        while (true) {
+            Runnable task = null;
+            int taskOwner = NO_OWNER;
+            long lateNanos = 0;
+            long wakeTick;
+            synchronized (this) {
+                if (mShutdown) {
+                    return;
+                }
+                long now = System.nanoTime() - mStartNanos;
+                if (mExpiredCount == 0) {
+                    expireDue(now);
+                }
+                while (task == null && mExpiredCount > 0) {
+                    int index = mExpired[mExpiredHead];
+                    mExpiredHead = (mExpiredHead + 1) % mExpired.length;
+                    mExpiredCount--;
+                    if (mStates[index] == CANCELLED) {
+                        free(index);
+                        continue;
+                    }
+                    task = mTasks[index];
+                    taskOwner = mOwners[index];
+                    lateNanos = now - mDeadlines[index];
+                    long period = mPeriods[index];
+                    if (period > 0) {
+                        // Relinked before it runs, so the task can cancel itself.
+                        long deadline = mDeadlines[index] + period;
+                        if (deadline <= now) {
+                            deadline += ((now - deadline) / period + 1) * period;
+                        }
+                        mDeadlines[index] = deadline;
+                        link(index);
+                    } else {
+                        free(index);
+                    }
+                }
+                if (task == null) {
+                    mWakeTick = nextTick();
+                }
+                wakeTick = mWakeTick;
+            }
+
+            if (task != null) {
+                mLateness.recordNanos(Math.max(0, lateNanos));
+                mFired++;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    mTaskFailures++;
+                    LOG.log(Level.SEVERE, "Task " + task + " of owner " + taskOwner + " failed", e);
+                }
+            } else if (wakeTick == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                long sleepNanos = mStartNanos + wakeTick * mTickNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                }
+            }
+        }
+    }
+
+    // Moves every timer due by now, tick by tick, onto the expired queue.
+    private void expireDue(long now) {
+        long nowTick = now / mTickNanos;
+        if (nowTick < mCursorTick) {
+            return;
+        }
+        long limit = nowTick * mTickNanos;
+        long last = Math.min(nowTick, mCursorTick + mMask);
+        for (long tick = mCursorTick; tick <= last; tick++) {
+            int bucket = (int) (tick & mMask);
+            int index = mBucketHeads[bucket];
+            while (index >= 0) {
+                int next = mNext[index];
+                if (mDeadlines[index] <= limit) {
+                    unlink(index);
+                    mStates[index] = EXPIRED;
+                    mExpired[(mExpiredHead + mExpiredCount) % mExpired.length] = index;
+                    mExpiredCount++;
+                }
+                index = next;
+            }
+        }
+        mCursorTick = nowTick + 1;
+    }
+
+    // The first tick from the cursor whose bucket has a timer, or Long.MAX_VALUE if none.
+    private long nextTick() {
+        if (mPending == 0) {
+            return Long.MAX_VALUE;
+        }
+        for (int i = 0; i <= mMask; i++) {
+            if (mBucketHeads[(int) ((mCursorTick + i) & mMask)] >= 0) {
+                return mCursorTick + i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
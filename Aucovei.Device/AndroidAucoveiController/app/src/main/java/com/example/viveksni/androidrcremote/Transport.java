@@ -0,0 +1,42 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A byte stream connection to the car. {@link BluetoothService} frames commands over it with
+ * {@link FrameCodec} and does not care what carries the bytes: {@link RfcommTransport} is the
+ * real car, {@link LoopbackTransport} an in-process {@link DeviceSimulator}.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Opens the connection; blocks until it is established or fails.
+     */
+    void connect() throws IOException;
+
+    boolean isConnected();
+
+    // Shown to the user, e.g. the paired device's name.
+    String getName();
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Closes the connection and unblocks any thread reading from or writing to it.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Makes a new transport for each connection attempt, so {@link BluetoothService} can
+     * reconnect to the same car after a dropout.
+     */
+    interface Factory {
+        Transport create();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Hands camera frames from the network thread to the decoder with three buffers, so neither
+ * side ever waits on the other or allocates once the buffers have grown to the frame size.
+ * <p>
+ * Publishing replaces a frame the decoder has not taken yet, so the decoder always gets the
+ * newest frame and a slow decode drops stale frames instead of queueing them up.
+ */
+public class VideoFrameExchanger {
+    // Only the writer touches mWriting and only the reader touches mReading outside the lock.
+    private Frame mWriting = new Frame();
+    private Frame mReady = new Frame();
+    private Frame mReading = new Frame();
+    private boolean mFresh;
+    private boolean mClosed;
+    private long mPublishedCount;
+    private long mDroppedCount;
+
+    /**
+     * The buffer for the writer to fill next. Valid until {@link #publish()}.
+     */
+    public Frame getWriteFrame() {
+        return mWriting;
+    }
+
+    public synchronized void publish() {
+        Frame ready = mReady;
+        mReady = mWriting;
+        mWriting = ready;
+        if (mFresh) {
+            mDroppedCount++;
+        }
+        mFresh = true;
+        mPublishedCount++;
+        notifyAll();
+    }
+
+    /**
+     * Waits for a frame newer than the last one taken. The frame stays valid until the next
+     * call.
+     *
+     * @return null on timeout or once closed.
+     */
+    public synchronized Frame take(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!mFresh && !mClosed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        if (mClosed) {
+            return null;
+        }
+        Frame ready = mReady;
+        mReady = mReading;
+        mReading = ready;
+        mFresh = false;
+        return mReading;
+    }
+
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    public synchronized long getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    // Frames replaced by a newer one before the reader took them.
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * One encoded frame. The array is reused and may be longer than the frame.
+     */
+    public static final class Frame {
+        private byte[] mData = new byte[0];
+        private int mLength;
+        private long mReceivedNanos;
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        // System.nanoTime() when the last byte arrived.
+        public long getReceivedNanos() {
+            return mReceivedNanos;
+        }
+
+        byte[] ensureCapacity(int length) {
+            if (mData.length < length) {
+                // Leave headroom so a slightly larger next frame does not reallocate.
+                mData = new byte[length + (length >> 2)];
+            }
+            return mData;
+        }
+
+        void set(int length, long receivedNanos) {
+            mLength = length;
+            mReceivedNanos = receivedNanos;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.viveksni.androidrcremote;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Client for the car's camera endpoint, the "/VideoFrame" WebSocket served by HttpServer in
+ * Aucovei.Device. The car sends one JPEG as a binary message for each
+ * {"command":"VideoFrame"} text message it receives, which is what the web page's Camera.js
+ * does. Only the parts of RFC 6455 the car uses are implemented.
+ * <p>
+ * Frames are read straight into a reusable {@link VideoFrameExchanger.Frame}, so steady state
+ * streaming does not allocate.
+ */
+public class VideoFrameSocket implements Closeable {
+    public static final int DEFAULT_PORT = 80;
+    public static final String PATH = "/VideoFrame";
+    // Far above any JPEG the car's camera settings produce; anything bigger is a broken stream.
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    static final byte[] REQUEST_PAYLOAD = "{\"command\":\"VideoFrame\"}".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream mIn;
+    private final OutputStream mOut;
+    private final Closeable mCloseable;
+    private final byte[] mHeader = new byte[8];
+    private final byte[] mRequest = new byte[6 + REQUEST_PAYLOAD.length];
+    private final byte[] mMask = new byte[4];
+    private final Random mRandom = new Random();
+
+    VideoFrameSocket(InputStream in, OutputStream out, Closeable closeable) {
+        mIn = in;
+        mOut = out;
+        mCloseable = closeable;
+        mRequest[0] = (byte) 0x81; // FIN, text
+        mRequest[1] = (byte) (0x80 | REQUEST_PAYLOAD.length); // masked, as clients must
+    }
+
+    /**
+     * Connects and completes the WebSocket handshake. Reads time out after
+     * {@code timeoutMillis}, so a stalled camera surfaces as an IOException.
+     */
+    public static VideoFrameSocket connect(String host, int port, int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            VideoFrameSocket frameSocket = new VideoFrameSocket(
+                    new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE),
+                    socket.getOutputStream(), socket);
+            frameSocket.handshake(host);
+            return frameSocket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    void handshake(String host) throws IOException {
+        byte[] key = new byte[16];
+        mRandom.nextBytes(key);
+        String request = "GET " + PATH + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + base64(key) + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + "\r\n";
+        mOut.write(request.getBytes(StandardCharsets.US_ASCII));
+        mOut.flush();
+
+        // The car is the only server we talk to, so the accept key is not checked.
+        String statusLine = readLine();
+        if (!statusLine.startsWith("HTTP/1.1 101")) {
+            throw new IOException("Camera refused the stream: " + statusLine);
+        }
+        while (!readLine().isEmpty()) {
+            // Skip the remaining headers.
+        }
+    }
+
+    /**
+     * Asks the car for its next frame.
+     */
+    public void requestFrame() throws IOException {
+        mRandom.nextBytes(mMask);
+        System.arraycopy(mMask, 0, mRequest, 2, 4);
+        for (int i = 0; i < REQUEST_PAYLOAD.length; i++) {
+            mRequest[6 + i] = (byte) (REQUEST_PAYLOAD[i] ^ mMask[i & 3]);
+        }
+        mOut.write(mRequest);
+        mOut.flush();
+    }
+
+    /**
+     * Reads the next binary message into the frame, skipping anything else.
+     *
+     * @return false if the car closed the stream.
+     */
+    public boolean readFrame(VideoFrameExchanger.Frame frame) throws IOException {
+        while (true) {
+            int first = mIn.read();
+            if (first < 0) {
+                return false;
+            }
+            readFully(mHeader, 1);
+            int opcode = first & 0x0F;
+            boolean masked = (mHeader[0] & 0x80) != 0;
+            long length = mHeader[0] & 0x7F;
+            if (length == 126) {
+                readFully(mHeader, 2);
+                length = ((mHeader[0] & 0xFF) << 8) | (mHeader[1] & 0xFF);
+            } else if (length == 127) {
+                readFully(mHeader, 8);
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | (mHeader[i] & 0xFF);
+                }
+            }
+            if (length < 0 || length > MAX_FRAME_BYTES) {
+                throw new IOException("Bad camera frame length " + length);
+            }
+            if (masked) {
+                readFully(mMask, 4);
+            }
+
+            if (opcode == OPCODE_CLOSE) {
+                return false;
+            }
+            if (opcode != OPCODE_BINARY) {
+                skipFully(length);
+                continue;
+            }
+
+            int size = (int) length;
+            byte[] data = frame.ensureCapacity(size);
+            readFully(data, size);
+            if (masked) {
+                for (int i = 0; i < size; i++) {
+                    data[i] ^= mMask[i & 3];
+                }
+            }
+            frame.set(size, System.nanoTime());
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mCloseable.close();
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = mIn.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Camera closed during handshake");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = mIn.read(buffer, offset, length - offset);
+            if (count < 0) {
+                throw new EOFException("Camera stream ended mid frame");
+            }
+            offset += count;
+        }
+    }
+
+    private void skipFully(long length) throws IOException {
+        while (length > 0) {
+            long skipped = mIn.skip(length);
+            if (skipped <= 0) {
+                if (mIn.read() < 0) {
+                    throw new EOFException("Camera stream ended mid frame");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    // java.util.Base64 needs API 26 and android.util.Base64 is not available in unit tests.
+    private static String base64(byte[] bytes) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b = (bytes[i] & 0xFF) << 16;
+            if (i + 1 < bytes.length) {
+                b |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < bytes.length) {
+                b |= bytes[i + 2] & 0xFF;
+            }
+            out.append(alphabet.charAt((b >> 18) & 0x3F));
+            out.append(alphabet.charAt((b >> 12) & 0x3F));
+            out.append(i + 1 < bytes.length ? alphabet.charAt((b >> 6) & 0x3F) : '=');
+            out.append(i + 2 < bytes.length ? alphabet.charAt(b & 0x3F) : '=');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,434 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Turns recognised speech into a {@link VoicePlan}: "forward two seconds then turn left" drives
+ * forward, stops after two seconds, turns for {@link #DRIVE_PULSE_MILLIS} and stops again.
+ * <p>
+ * The grammar is a list of phrase patterns, each naming an intent. A pattern is a sequence of
+ * words separated by spaces, where "(a|b)" is a choice of words, "[a|b]" an optional one,
+ * "{duration}" a length of time such as "two seconds" or "500 milliseconds", "{count}" a number
+ * of times such as "three times" or "twice", and "{text}" the rest of the speech. Patterns are
+ * compiled into a trie of words, so matching costs one map lookup per spoken word whatever the
+ * size of the grammar.
+ * <p>
+ * Speech is matched left to right. At each word the longest phrase starting there wins, and a
+ * word that starts no phrase, such as "please", "and" or "then", is skipped. Each intent found
+ * is appended to the plan after the ones before it have finished.
+ */
+public final class VoiceIntentMatcher {
+    public static final int DRIVE_PULSE_MILLIS = 500;
+    // Caps on what a misheard number can make the car do.
+    public static final int MAX_DRIVE_MILLIS = 10000;
+    public static final int MAX_REPEAT = 10;
+    // Between repeats of a counted command such as "honk three times".
+    public static final int REPEAT_GAP_MILLIS = 300;
+
+    public static final int INTENT_FORWARD = 1;
+    public static final int INTENT_REVERSE = 2;
+    public static final int INTENT_LEFT = 3;
+    public static final int INTENT_RIGHT = 4;
+    public static final int INTENT_REVERSE_LEFT = 5;
+    public static final int INTENT_REVERSE_RIGHT = 6;
+    public static final int INTENT_STOP = 7;
+    public static final int INTENT_TILT_UP = 8;
+    public static final int INTENT_TILT_DOWN = 9;
+    public static final int INTENT_PAN_LEFT = 10;
+    public static final int INTENT_PAN_RIGHT = 11;
+    public static final int INTENT_CENTER = 12;
+    public static final int INTENT_CAMERA_ON = 13;
+    public static final int INTENT_CAMERA_OFF = 14;
+    public static final int INTENT_HORN = 15;
+    public static final int INTENT_SPEED_VERY_SLOW = 16;
+    public static final int INTENT_SPEED_SLOW = 17;
+    public static final int INTENT_SPEED_NORMAL = 18;
+    public static final int INTENT_WAIT = 19;
+    public static final int INTENT_MESSAGE = 20;
+
+    // Indexed by intent. Drive commands run for a duration and are followed by a stop; the
+    // rest are sent once, or {count} times.
+    private static final String[] COMMANDS = {
+            null,
+            Commands.DRIVE_FORWARD, Commands.DRIVE_REVERSE, Commands.DRIVE_LEFT, Commands.DRIVE_RIGHT,
+            Commands.DRIVE_REVERSE_LEFT, Commands.DRIVE_REVERSE_RIGHT, Commands.DRIVE_STOP,
+            Commands.TILT_UP, Commands.TILT_DOWN, Commands.PAN_LEFT, Commands.PAN_RIGHT,
+            Commands.PAN_TILT_CENTER, Commands.CAMERA_ON, Commands.CAMERA_OFF, Commands.HORN,
+            Commands.SPEED_VERY_SLOW, Commands.SPEED_SLOW, Commands.SPEED_NORMAL,
+            null, null};
+
+    private static final String DURATION = "{duration}";
+    private static final String COUNT = "{count}";
+    private static final String TEXT = "{text}";
+
+    private static final HashMap<String, Integer> NUMBER_WORDS = new HashMap<>();
+    private static final HashMap<String, Integer> UNIT_MILLIS = new HashMap<>();
+
+    static {
+        String[] ones = {"zero", "one", "two", "three", "four", "five", "six", "seven", "eight", "nine",
+                "ten", "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen",
+                "eighteen", "nineteen"};
+        for (int i = 0; i < ones.length; i++) {
+            NUMBER_WORDS.put(ones[i], i);
+        }
+        String[] tens = {"twenty", "thirty", "forty", "fifty", "sixty", "seventy", "eighty", "ninety"};
+        for (int i = 0; i < tens.length; i++) {
+            NUMBER_WORDS.put(tens[i], (i + 2) * 10);
+        }
+
+        for (String unit : new String[]{"millisecond", "milliseconds", "ms"}) {
+            UNIT_MILLIS.put(unit, 1);
+        }
+        for (String unit : new String[]{"second", "seconds", "sec", "secs"}) {
+            UNIT_MILLIS.put(unit, 1000);
+        }
+        for (String unit : new String[]{"minute", "minutes"}) {
+            UNIT_MILLIS.put(unit, 60000);
+        }
+    }
+
+    private final Node mRoot = new Node();
+    private int mPhraseCount;
+
+    /**
+     * The grammar ControlFragment listens for.
+     */
+    public static VoiceIntentMatcher createDefault() {
+        return new VoiceIntentMatcher()
+                .add(INTENT_FORWARD, "[go|drive|move] (forward|forwards|ahead|straight) [for] [{duration}]")
+                .add(INTENT_REVERSE, "[go|drive|move|come] (back|backward|backwards|reverse) [for] [{duration}]")
+                .add(INTENT_REVERSE, "(reverse|back) (up|out) [for] [{duration}]")
+                .add(INTENT_LEFT, "(turn|go|steer) left [for] [{duration}]")
+                .add(INTENT_RIGHT, "(turn|go|steer) right [for] [{duration}]")
+                .add(INTENT_REVERSE_LEFT, "(reverse|back) left [for] [{duration}]")
+                .add(INTENT_REVERSE_RIGHT, "(reverse|back) right [for] [{duration}]")
+                .add(INTENT_STOP, "(stop|halt|brake|freeze)")
+                .add(INTENT_TILT_UP, "(tilt|look|camera) up [{count}]")
+                .add(INTENT_TILT_DOWN, "(tilt|look|camera) down [{count}]")
+                .add(INTENT_PAN_LEFT, "(pan|look|camera) left [{count}]")
+                .add(INTENT_PAN_RIGHT, "(pan|look|camera) right [{count}]")
+                .add(INTENT_CENTER, "(center|centre|reset) [the] camera")
+                .add(INTENT_CENTER, "(look|camera) (center|centre|ahead|straight)")
+                .add(INTENT_CAMERA_ON, "(camera|video) on")
+                .add(INTENT_CAMERA_ON, "(start|show|open) [the] (camera|video)")
+                .add(INTENT_CAMERA_OFF, "(camera|video) off")
+                .add(INTENT_CAMERA_OFF, "(stop|hide|close) [the] (camera|video)")
+                .add(INTENT_HORN, "(horn|honk|beep) [the] [horn] [{count}]")
+                .add(INTENT_HORN, "sound [the] horn [{count}]")
+                .add(INTENT_SPEED_VERY_SLOW, "[go|drive] very (slow|slowly)")
+                .add(INTENT_SPEED_SLOW, "[go|drive] (slow|slowly|slower)")
+                .add(INTENT_SPEED_NORMAL, "[go|drive] (normal|faster|fast) [speed]")
+                .add(INTENT_WAIT, "(wait|pause|hold) [for] {duration}")
+                .add(INTENT_MESSAGE, "(message|say|speak) {text}");
+    }
+
+    /**
+     * Adds the phrases a pattern expands to.
+     *
+     * @throws IllegalArgumentException if one of them already names a different intent.
+     */
+    public VoiceIntentMatcher add(int intent, String pattern) {
+        if (intent <= 0 || intent > INTENT_MESSAGE) {
+            throw new IllegalArgumentException("Unknown intent " + intent);
+        }
+        insert(mRoot, pattern.trim().split("\\s+"), 0, intent, pattern);
+        return this;
+    }
+
+    private void insert(Node node, String[] parts, int index, int intent, String pattern) {
+        if (index == parts.length) {
+            if (node.mIntent != 0 && node.mIntent != intent) {
+                throw new IllegalArgumentException("\"" + pattern + "\" overlaps intent " + node.mIntent);
+            }
+            if (node.mIntent == 0) {
+                mPhraseCount++;
+            }
+            node.mIntent = intent;
+            return;
+        }
+        String part = parts[index];
+        char open = part.charAt(0);
+        if (open == '(' || open == '[') {
+            if (open == '[') {
+                insert(node, parts, index + 1, intent, pattern);
+            }
+            for (String choice : part.substring(1, part.length() - 1).split("\\|")) {
+                insert(node.child(choice), parts, index + 1, intent, pattern);
+            }
+        } else {
+            insert(node.child(part), parts, index + 1, intent, pattern);
+        }
+    }
+
+    // Distinct phrases in the grammar, for the benchmark.
+    public int getPhraseCount() {
+        return mPhraseCount;
+    }
+
+    /**
+     * @return the plan for the speech, empty if nothing in it was recognised.
+     */
+    public VoicePlan plan(String speech) {
+        Words words = new Words(speech);
+        Match match = new Match(words);
+        VoicePlan plan = new VoicePlan();
+        long at = 0;
+        int position = 0;
+        while (position < words.mCount) {
+            match.mEnd = -1;
+            search(mRoot, position, -1, -1, -1, match);
+            if (match.mEnd < 0) {
+                position++;
+                continue;
+            }
+            if (match.mIntent == INTENT_MESSAGE) {
+                // Sent as typed, case and punctuation included.
+                plan.add(at, speech.substring(words.mStarts[match.mTextStart]).trim());
+                break;
+            }
+            at = append(plan, at, match.mIntent, match.mDuration, match.mCount);
+            position = match.mEnd;
+        }
+        return plan;
+    }
+
+    /**
+     * @return the intent if the whole speech is one phrase without a duration, count or text,
+     * such as "stop" or "go forward", or 0.
+     */
+    public int matchExact(String speech) {
+        Words words = new Words(speech);
+        if (words.mCount == 0) {
+            return 0;
+        }
+        Match match = new Match(words);
+        match.mEnd = -1;
+        search(mRoot, 0, -1, -1, -1, match);
+        if (match.mEnd != words.mCount || match.mDuration >= 0 || match.mCount >= 0 || match.mTextStart >= 0) {
+            return 0;
+        }
+        return match.mIntent;
+    }
+
+    // Returns when the next intent can start.
+    private static long append(VoicePlan plan, long at, int intent, long duration, int count) {
+        String command = COMMANDS[intent];
+        if (intent == INTENT_WAIT) {
+            return at + duration;
+        }
+        if (intent <= INTENT_REVERSE_RIGHT) {
+            long millis = duration > 0 ? duration : DRIVE_PULSE_MILLIS;
+            plan.add(at, command);
+            plan.add(at + millis, Commands.DRIVE_STOP);
+            return at + millis;
+        }
+        int times = count > 0 ? count : 1;
+        for (int i = 0; i < times; i++) {
+            plan.add(at, command);
+            if (i < times - 1) {
+                at += REPEAT_GAP_MILLIS;
+            }
+        }
+        return at;
+    }
+
+    // Finds the longest phrase from position on, keeping the first found among equals.
+    private void search(Node node, int position, long duration, int count, int textStart, Match best) {
+        if (node.mIntent != 0 && position > best.mEnd) {
+            best.mEnd = position;
+            best.mIntent = node.mIntent;
+            best.mDuration = duration;
+            best.mCount = count;
+            best.mTextStart = textStart;
+        }
+        Words words = best.mWords;
+        if (position == words.mCount) {
+            return;
+        }
+        Node next = node.mChildren.get(words.mWords[position]);
+        if (next != null) {
+            search(next, position + 1, duration, count, textStart, best);
+        }
+        if (node.mDuration != null) {
+            int used = parseDuration(words, position, best);
+            if (used > 0) {
+                search(node.mDuration, position + used, best.mResult, count, textStart, best);
+            }
+        }
+        if (node.mCount != null) {
+            int used = parseCount(words, position, best);
+            if (used > 0) {
+                search(node.mCount, position + used, duration, (int) best.mResult, textStart, best);
+            }
+        }
+        if (node.mText != null) {
+            search(node.mText, words.mCount, duration, count, position, best);
+        }
+    }
+
+    // Sets mResult to the duration in milliseconds and returns the words it took, or 0.
+    private static int parseDuration(Words words, int position, Match match) {
+        String word = words.mWords[position];
+        int used;
+        if (word.equals("half")) {
+            // "half a second"
+            match.mValue = 0.5;
+            used = position + 1 < words.mCount && isArticle(words.mWords[position + 1]) ? 2 : 1;
+        } else if (isArticle(word)) {
+            // "a second"
+            match.mValue = 1;
+            used = 1;
+        } else {
+            used = parseNumber(words, position, match);
+        }
+        if (used == 0 || position + used >= words.mCount || match.mValue <= 0) {
+            return 0;
+        }
+        Integer unit = UNIT_MILLIS.get(words.mWords[position + used]);
+        if (unit == null) {
+            return 0;
+        }
+        match.mResult = Math.min(MAX_DRIVE_MILLIS, Math.max(1, Math.round(match.mValue * unit)));
+        return used + 1;
+    }
+
+    // Sets mResult to the count and returns the words it took, or 0.
+    private static int parseCount(Words words, int position, Match match) {
+        String word = words.mWords[position];
+        if (word.equals("once")) {
+            match.mResult = 1;
+            return 1;
+        } else if (word.equals("twice")) {
+            match.mResult = 2;
+            return 1;
+        } else if (word.equals("thrice")) {
+            match.mResult = 3;
+            return 1;
+        }
+        int used = parseNumber(words, position, match);
+        if (used == 0 || position + used >= words.mCount
+                || match.mValue < 1 || match.mValue != Math.floor(match.mValue)) {
+            return 0;
+        }
+        String unit = words.mWords[position + used];
+        if (!unit.equals("times") && !unit.equals("time")) {
+            return 0;
+        }
+        match.mResult = Math.min(MAX_REPEAT, (long) match.mValue);
+        return used + 1;
+    }
+
+    // "2", "2.5", "two" or "twenty five"; sets mValue and returns the words it took, or 0.
+    private static int parseNumber(Words words, int position, Match match) {
+        String word = words.mWords[position];
+        if (Character.isDigit(word.charAt(0))) {
+            try {
+                match.mValue = Double.parseDouble(word);
+                return 1;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        Integer value = NUMBER_WORDS.get(word);
+        if (value == null) {
+            return 0;
+        }
+        int used = 1;
+        if (value >= 20 && position + 1 < words.mCount) {
+            Integer ones = NUMBER_WORDS.get(words.mWords[position + 1]);
+            if (ones != null && ones > 0 && ones < 10) {
+                value += ones;
+                used++;
+            }
+        }
+        match.mValue = value;
+        return used;
+    }
+
+    private static boolean isArticle(String word) {
+        return word.equals("a") || word.equals("an");
+    }
+
+    private static final class Node {
+        final HashMap<String, Node> mChildren = new HashMap<>();
+        Node mDuration;
+        Node mCount;
+        Node mText;
+        int mIntent;
+
+        Node child(String part) {
+            if (part.equals(DURATION)) {
+                return mDuration != null ? mDuration : (mDuration = new Node());
+            } else if (part.equals(COUNT)) {
+                return mCount != null ? mCount : (mCount = new Node());
+            } else if (part.equals(TEXT)) {
+                return mText != null ? mText : (mText = new Node());
+            }
+            String word = part.toLowerCase(Locale.US);
+            Node child = mChildren.get(word);
+            if (child == null) {
+                child = new Node();
+                mChildren.put(word, child);
+            }
+            return child;
+        }
+    }
+
+    // The speech in lower case, split into words, with where each started.
+    private static final class Words {
+        final String[] mWords;
+        final int[] mStarts;
+        final int mCount;
+
+        Words(String speech) {
+            ArrayList<String> words = new ArrayList<>();
+            int[] starts = new int[speech.length() + 1];
+            int length = speech.length();
+            int i = 0;
+            while (i < length) {
+                while (i < length && !isWordChar(speech, i)) {
+                    i++;
+                }
+                int start = i;
+                while (i < length && isWordChar(speech, i)) {
+                    i++;
+                }
+                if (i > start) {
+                    starts[words.size()] = start;
+                    words.add(speech.substring(start, i).toLowerCase(Locale.US));
+                }
+            }
+            mWords = words.toArray(new String[words.size()]);
+            mStarts = starts;
+            mCount = mWords.length;
+        }
+
+        // Letters, digits, apostrophes, and a point between digits as in "1.5".
+        private static boolean isWordChar(String speech, int i) {
+            char c = speech.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '\'') {
+                return true;
+            }
+            return c == '.' && i > 0 && i + 1 < speech.length()
+                    && Character.isDigit(speech.charAt(i - 1)) && Character.isDigit(speech.charAt(i + 1));
+        }
+    }
+
+    // The best phrase found so far, and scratch for the number parsers.
+    private static final class Match {
+        final Words mWords;
+        int mEnd;
+        int mIntent;
+        long mDuration;
+        int mCount;
+        int mTextStart;
+        double mValue;
+        long mResult;
+
+        Match(Words words) {
+            mWords = words;
+        }
+    }
+}
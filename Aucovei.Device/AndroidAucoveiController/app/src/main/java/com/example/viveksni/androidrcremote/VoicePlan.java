@@ -0,0 +1,51 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.Arrays;
+
+/**
+ * Commands to send at offsets from the start of a plan, in the order they are to be sent.
+ * Built by {@link VoiceIntentMatcher} from one utterance.
+ */
+public final class VoicePlan {
+    private long[] mOffsets = new long[8];
+    private String[] mCommands = new String[8];
+    private int mSize;
+
+    void add(long offsetMillis, String command) {
+        if (mSize == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mSize * 2);
+            mCommands = Arrays.copyOf(mCommands, mSize * 2);
+        }
+        mOffsets[mSize] = offsetMillis;
+        mCommands[mSize] = command;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getOffsetMillis(int index) {
+        return mOffsets[index];
+    }
+
+    public String getCommand(int index) {
+        return mCommands[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(mOffsets[i]).append(':').append(mCommands[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.viveksni.androidrcremote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the steps of a {@link VoicePlan} at their offsets, on the {@link TimerWheel}'s thread.
+ * Each step is timed from the start of the plan, so delays do not add up.
+ * <p>
+ * A new plan replaces one still running, stopping the car first, unless it continues that
+ * plan. Manual control should {@link #cancel()} the plan, so none of its later steps moves the
+ * car without the operator; call it before queuing the control's own commands on the same
+ * wheel, so the stop goes out first. Both may be called from any thread.
+ */
+public class VoicePlanRunner {
+
+    public interface Sender {
+        void send(String command);
+    }
+
+    private final Sender mSender;
+    private final TimerWheel mTimers;
+    private final int mOwner;
+    // Only touched on the timer thread, apart from the flag.
+    private VoicePlan mPlan;
+    private int mStep;
+    private long mStartNanos;
+    private long mTask;
+    private volatile boolean mRunning;
+
+    public VoicePlanRunner(Sender sender, TimerWheel timers) {
+        mSender = sender;
+        mTimers = timers;
+        mOwner = timers.newOwner();
+    }
+
+    /**
+     * @param startNanos when the speech that produced the plan started, see {@link VoiceStream}.
+     * @param firstStep  the step to go on from, if the plan continues the one running.
+     */
+    public void run(final VoicePlan plan, final long startNanos, final int firstStep) {
+        mTimers.execute(new Runnable() {
+            @Override
+            public void run() {
+                start(plan, startNanos, firstStep);
+            }
+        });
+    }
+
+    /**
+     * Drops the rest of the running plan, if any. If a drive step was still to come, the car
+     * is stopped, as the plan would have done.
+     */
+    public void cancel() {
+        mTimers.execute(mCancel);
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    private void start(VoicePlan plan, long startNanos, int firstStep) {
+        cancelTask();
+        if (firstStep > 0 && !mRunning) {
+            // The plan it continues has already finished; start over.
+            startNanos = System.nanoTime();
+            firstStep = 0;
+        } else if (firstStep == 0 && mRunning) {
+            mSender.send(Commands.DRIVE_STOP);
+        }
+        mPlan = plan;
+        mStep = firstStep;
+        mStartNanos = startNanos;
+        mRunning = true;
+        runSteps();
+    }
+
+    private final Runnable mCancel = new Runnable() {
+        @Override
+        public void run() {
+            cancelTask();
+            if (mRunning && hasDriveStepLeft()) {
+                mSender.send(Commands.DRIVE_STOP);
+            }
+            mRunning = false;
+        }
+    };
+
+    private final Runnable mRunSteps = new Runnable() {
+        @Override
+        public void run() {
+            runSteps();
+        }
+    };
+
+    // Sends the steps that are due, then schedules itself for the next.
+    private void runSteps() {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+        while (mStep < mPlan.size() && mPlan.getOffsetMillis(mStep) <= elapsedMillis) {
+            mSender.send(mPlan.getCommand(mStep++));
+        }
+        if (mStep < mPlan.size()) {
+            mTask = mTimers.schedule(mOwner, mRunSteps,
+                    mPlan.getOffsetMillis(mStep) - elapsedMillis, TimeUnit.MILLISECONDS);
+        } else {
+            mTask = 0;
+            mRunning = false;
+        }
+    }
+
+    private boolean hasDriveStepLeft() {
+        for (int i = mStep; i < mPlan.size(); i++) {
+            if (CommandChannel.of(mPlan.getCommand(i)) == CommandChannel.DRIVE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cancelTask() {
+        if (mTask != 0) {
+            mTimers.cancel(mTask);
+            mTask = 0;
+        }
+    }
+}
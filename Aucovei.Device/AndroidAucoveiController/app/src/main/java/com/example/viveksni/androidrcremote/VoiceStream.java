@@ -0,0 +1,148 @@
+package com.example.viveksni.androidrcremote;
+
+/**
+ * Turns the results of continuous speech recognition into {@link VoicePlan}s, acting on a
+ * partial result when it is a short command that cannot mean anything else, so "stop" stops the
+ * car while the recognizer is still waiting to be sure the operator has finished.
+ * <p>
+ * A partial result is acted on when it is exactly one phrase of an {@link #isEarlyIntent early
+ * intent} with no duration or count, and it is trusted: "stop" at once, anything else when the
+ * recognizer reports a confidence of at least {@link #EARLY_CONFIDENCE} or, as most recognizers
+ * report none for partial results, when the same text has come back twice in a row. The final
+ * result of that utterance then either continues the plan begun early, if it starts with the
+ * same command, or replaces it.
+ * <p>
+ * All methods are called on one thread, the recognizer's callback thread.
+ */
+public class VoiceStream {
+    public static final float EARLY_CONFIDENCE = 0.8f;
+
+    public interface Listener {
+        /**
+         * Sends a plan, timed from startNanos. If firstStep is not 0 the plan continues the one
+         * sent last, whose first steps have already gone out; if that one has finished, the
+         * whole plan should be sent from now instead.
+         */
+        void onPlan(VoicePlan plan, long startNanos, int firstStep);
+    }
+
+    private final VoiceIntentMatcher mMatcher;
+    private final Listener mListener;
+    // From the start of speech, and from the result acted on, to handing the plan over.
+    private final LatencyHistogram mSpeechToSend = new LatencyHistogram();
+    private final LatencyHistogram mResultToSend = new LatencyHistogram();
+
+    private long mSpeechStartNanos;
+    private String mLastPartial;
+    private VoicePlan mEarlyPlan;
+    private long mEarlyNanos;
+
+    private volatile long mEarlyPlans;
+    private volatile long mFinalPlans;
+    private volatile long mUnrecognized;
+
+    public VoiceStream(VoiceIntentMatcher matcher, Listener listener) {
+        mMatcher = matcher;
+        mListener = listener;
+    }
+
+    public static boolean isEarlyIntent(int intent) {
+        return intent == VoiceIntentMatcher.INTENT_STOP
+                || (intent >= VoiceIntentMatcher.INTENT_FORWARD && intent <= VoiceIntentMatcher.INTENT_REVERSE_RIGHT)
+                || intent == VoiceIntentMatcher.INTENT_HORN;
+    }
+
+    // The recognizer heard the operator start speaking.
+    public void onSpeechStart(long nanos) {
+        mSpeechStartNanos = nanos;
+        mLastPartial = null;
+        mEarlyPlan = null;
+    }
+
+    /**
+     * @param confidence from 0 to 1, or negative if the recognizer gave none.
+     * @return true if the partial result was acted on.
+     */
+    public boolean onPartialResult(String text, float confidence, long nanos) {
+        String previous = mLastPartial;
+        mLastPartial = text;
+        if (mEarlyPlan != null) {
+            return false;
+        }
+        int intent = mMatcher.matchExact(text);
+        if (!isEarlyIntent(intent)) {
+            return false;
+        }
+        boolean trusted = intent == VoiceIntentMatcher.INTENT_STOP
+                || confidence >= EARLY_CONFIDENCE
+                || text.equalsIgnoreCase(previous);
+        if (!trusted) {
+            return false;
+        }
+        mEarlyPlan = mMatcher.plan(text);
+        mEarlyNanos = nanos;
+        mEarlyPlans++;
+        dispatch(mEarlyPlan, mSpeechStartNanos, nanos);
+        return true;
+    }
+
+    /**
+     * @return true if a plan was sent for the result, other than one already sent early.
+     */
+    public boolean onFinalResult(String text, long nanos) {
+        VoicePlan early = mEarlyPlan;
+        long speechStartNanos = mSpeechStartNanos;
+        onNoResult();
+        VoicePlan plan = mMatcher.plan(text);
+        if (plan.isEmpty()) {
+            if (early == null) {
+                mUnrecognized++;
+            }
+            return false;
+        }
+        mFinalPlans++;
+        if (early != null && plan.getOffsetMillis(0) == 0 && plan.getCommand(0).equals(early.getCommand(0))) {
+            // Its latency was counted when the early plan went out.
+            mListener.onPlan(plan, mEarlyNanos, 1);
+            return !plan.toString().equals(early.toString());
+        }
+        dispatch(plan, speechStartNanos, nanos);
+        return true;
+    }
+
+    // The utterance ended without a result, so nothing refines an early plan.
+    public void onNoResult() {
+        mEarlyPlan = null;
+        mLastPartial = null;
+        mSpeechStartNanos = 0;
+    }
+
+    private void dispatch(VoicePlan plan, long speechStartNanos, long resultNanos) {
+        mListener.onPlan(plan, resultNanos, 0);
+        long now = System.nanoTime();
+        if (speechStartNanos != 0) {
+            mSpeechToSend.recordNanos(now - speechStartNanos);
+        }
+        mResultToSend.recordNanos(now - resultNanos);
+    }
+
+    public LatencyHistogram getSpeechToSend() {
+        return mSpeechToSend;
+    }
+
+    public LatencyHistogram getResultToSend() {
+        return mResultToSend;
+    }
+
+    public long getEarlyPlans() {
+        return mEarlyPlans;
+    }
+
+    public long getFinalPlans() {
+        return mFinalPlans;
+    }
+
+    public long getUnrecognized() {
+        return mUnrecognized;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveQualityControllerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long WINDOW = AdaptiveQualityController.WINDOW_MILLIS * MS;
+
+    private final List<String> mCommands = new ArrayList<>();
+    private long mNow;
+    private final AdaptiveQualityController mController = new AdaptiveQualityController(
+            new AdaptiveQualityController.Listener() {
+                @Override
+                public void onLevelChanged(AdaptiveQualityController.Level level) {
+                    mCommands.add(level.toCommand());
+                }
+            }, 250, 0);
+
+    @Test
+    public void congestedLink_stepsDownUntilWithinBudget() {
+        // 200 kB/s: level 1 frames take about 280 ms, level 0 about 200 ms.
+        simulate(200 * 1024, 100, 10);
+
+        assertEquals(0, mController.getLevelIndex());
+        assertEquals("VIDEO-4,30", mCommands.get(mCommands.size() - 1));
+        assertEquals(2, mCommands.size());
+    }
+
+    @Test
+    public void fastLink_stepsUpToTop() {
+        simulate(20 * 1024 * 1024, 100, 30);
+
+        assertEquals(AdaptiveQualityController.LEVELS.length - 1, mController.getLevelIndex());
+        assertEquals("VIDEO-1,80", mCommands.get(mCommands.size() - 1));
+    }
+
+    @Test
+    public void slowDecoder_stepsDownEvenOnFastLink() {
+        // 60 ms to decode 800x600 cannot keep up with 20 frames per second.
+        simulate(20 * 1024 * 1024, 8, 3);
+
+        assertTrue(mController.getLevelIndex() < AdaptiveQualityController.INITIAL_LEVEL);
+    }
+
+    @Test
+    public void failedUpgrade_doublesWindowsBeforeNextTry() {
+        // Fine at the initial level, too slow one level up.
+        window(40 * MS, 3);
+        window(40 * MS, 3);
+        window(40 * MS, 3);
+        assertEquals(3, mController.getLevelIndex());
+        window(40 * MS, 3); // settling
+        window(400 * MS, 3);
+        assertEquals(2, mController.getLevelIndex());
+        window(40 * MS, 3); // settling
+
+        for (int i = 0; i < 2 * AdaptiveQualityController.UPGRADE_WINDOWS - 1; i++) {
+            window(40 * MS, 3);
+            assertEquals(2, mController.getLevelIndex());
+        }
+        window(40 * MS, 3);
+        assertEquals(3, mController.getLevelIndex());
+    }
+
+    @Test
+    public void lagNearBudget_holdsLevel() {
+        // Within budget but not by enough to try the next level.
+        for (int i = 0; i < 20; i++) {
+            window(200 * MS, 3);
+        }
+
+        assertEquals(AdaptiveQualityController.INITIAL_LEVEL, mController.getLevelIndex());
+        assertTrue(mCommands.isEmpty());
+    }
+
+    @Test
+    public void idleWindows_changeNothing() {
+        for (int i = 0; i < 10; i++) {
+            mNow += WINDOW;
+            mController.evaluate(mNow);
+        }
+
+        assertEquals(AdaptiveQualityController.INITIAL_LEVEL, mController.getLevelIndex());
+        assertTrue(mCommands.isEmpty());
+    }
+
+    @Test
+    public void frameInterval_followsLevel() {
+        assertEquals(50 * MS, mController.getMinFrameIntervalNanos());
+        window(400 * MS, 2);
+        assertEquals(1000 * MS / 15, mController.getMinFrameIntervalNanos());
+    }
+
+    private void window(long transferNanos, int frames) {
+        for (int i = 0; i < frames; i++) {
+            mController.onFrameReceived(10000, transferNanos);
+            mController.onFrameDecoded(2 * MS);
+        }
+        mNow += WINDOW;
+        mController.evaluate(mNow);
+    }
+
+    // A pull stream over a link of the given bandwidth: each frame is requested when the last
+    // one arrives, no faster than the level's frame rate.
+    private void simulate(long bytesPerSecond, long decodePixelsPerMilli, int windows) {
+        for (int w = 0; w < windows; w++) {
+            AdaptiveQualityController.Level level = mController.getLevel();
+            long pixels = pixels(level.getResolution());
+            int bytes = (int) (pixels * (level.getQuality() + 20) / 400);
+            long transferNanos = 10 * MS + bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            long decodeNanos = pixels / decodePixelsPerMilli * MS / 1000;
+            long intervalNanos = Math.max(transferNanos, mController.getMinFrameIntervalNanos());
+            long frames = WINDOW / intervalNanos;
+            for (long i = 0; i < frames; i++) {
+                mController.onFrameReceived(bytes, transferNanos);
+                mController.onFrameDecoded(decodeNanos);
+            }
+            mNow += WINDOW;
+            mController.evaluate(mNow);
+        }
+    }
+
+    private static long pixels(int resolution) {
+        switch (resolution) {
+            case AdaptiveQualityController.Level.HD720P:
+                return 1280 * 720;
+            case AdaptiveQualityController.Level.SD1024_768:
+                return 1024 * 768;
+            case AdaptiveQualityController.Level.SD800_600:
+                return 800 * 600;
+            default:
+                return 640 * 480;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AnalogDriveStreamerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private float throttle, steering;
+    private final List<String> sent = new ArrayList<>();
+    private AnalogDriveStreamer streamer;
+
+    @Before
+    public void setUp() {
+        AnalogDriveStreamer.Source source = new AnalogDriveStreamer.Source() {
+            @Override
+            public float getThrottle() {
+                return throttle;
+            }
+
+            @Override
+            public float getSteering() {
+                return steering;
+            }
+        };
+        AnalogDriveStreamer.Sink sink = new AnalogDriveStreamer.Sink() {
+            @Override
+            public void onDrive(int throttle, int steering) {
+                sent.add(throttle + "," + steering);
+            }
+        };
+        // Never started, so no timer wheel is needed.
+        streamer = new AnalogDriveStreamer(source, sink, null, 50, 4, 500);
+    }
+
+    @Test
+    public void quantize_clampsAndRounds() {
+        assertEquals(0, AnalogDriveStreamer.quantize(0f));
+        assertEquals(50, AnalogDriveStreamer.quantize(0.5f));
+        assertEquals(-100, AnalogDriveStreamer.quantize(-3f));
+        assertEquals(100, AnalogDriveStreamer.quantize(1.2f));
+        assertEquals(0, AnalogDriveStreamer.quantize(Float.NaN));
+    }
+
+    @Test
+    public void tick_sendsOnlyMovementCentringAndKeyframes() {
+        streamer.tick(0);                 // first sample is a keyframe
+        throttle = 0.02f;
+        streamer.tick(20 * MS);           // below threshold
+        throttle = 0.5f;
+        steering = -0.25f;
+        streamer.tick(40 * MS);           // moved
+        streamer.tick(60 * MS);           // unchanged
+        streamer.tick(540 * MS);          // keyframe
+        throttle = 0;
+        steering = 0;
+        streamer.tick(560 * MS);          // back to centre
+
+        assertEquals(6, streamer.getTickCount());
+        assertEquals(4, streamer.getSentCount());
+        assertEquals(2, streamer.getKeyframeCount());
+        assertEquals("[0,0, 50,-25, 50,-25, 0,0]", sent.toString());
+    }
+
+    @Test
+    public void tick_sendsReturnToCentreBelowThreshold() {
+        throttle = 0.02f;
+        streamer.tick(0);
+        throttle = 0;
+        streamer.tick(20 * MS);
+
+        assertEquals("[2,0, 0,0]", sent.toString());
+    }
+
+    @Test
+    public void toDriveCommand_picksDominantAxis() {
+        assertEquals(Commands.DRIVE_STOP, AnalogDriveStreamer.toDriveCommand(10, -10));
+        assertEquals(Commands.DRIVE_FORWARD, AnalogDriveStreamer.toDriveCommand(80, 30));
+        assertEquals(Commands.DRIVE_REVERSE, AnalogDriveStreamer.toDriveCommand(-60, 0));
+        assertEquals(Commands.DRIVE_LEFT, AnalogDriveStreamer.toDriveCommand(20, -70));
+        assertEquals(Commands.DRIVE_RIGHT, AnalogDriveStreamer.toDriveCommand(0, 40));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BinaryCommandCodec} and {@link DeviceCapabilities}.
+ */
+public class BinaryCommandCodecTest {
+
+    private static final String[] COMMANDS = {
+            Commands.DRIVE_STOP, Commands.DRIVE_FORWARD, Commands.DRIVE_REVERSE,
+            Commands.DRIVE_LEFT, Commands.DRIVE_RIGHT, Commands.DRIVE_REVERSE_LEFT,
+            Commands.DRIVE_REVERSE_RIGHT, Commands.DRIVE_AUTO_ON, Commands.DRIVE_AUTO_OFF,
+            Commands.TILT_UP, Commands.TILT_DOWN, Commands.PAN_LEFT, Commands.PAN_RIGHT,
+            Commands.PAN_TILT_CENTER, Commands.CAMERA_ON, Commands.CAMERA_OFF,
+            Commands.CAMERA_LED_ON, Commands.CAMERA_LED_OFF, Commands.HORN,
+            Commands.SPEED_STOP, Commands.SPEED_VERY_SLOW, Commands.SPEED_SLOW,
+            Commands.SPEED_NORMAL
+    };
+
+    @Test
+    public void encode_roundTripsEveryCommand() {
+        byte[] buffer = new byte[BinaryCommandCodec.MAX_ENCODED_LENGTH];
+        for (String command : COMMANDS) {
+            int length = BinaryCommandCodec.encode(command, buffer, 0);
+            assertTrue(command, length > 0);
+            assertEquals(command, BinaryCommandCodec.decode(ByteBuffer.wrap(buffer, 0, length)));
+        }
+    }
+
+    @Test
+    public void encode_rejectsCommandsWithoutBinaryForm() {
+        assertEquals(-1, BinaryCommandCodec.encode("hello there", new byte[2], 0));
+        assertNull(BinaryCommandCodec.decode(ByteBuffer.wrap("DRIVE-2".getBytes())));
+    }
+
+    @Test
+    public void encode_framesAreSmallerThanText() throws IOException {
+        FrameCodec codec = new FrameCodec();
+        byte[] buffer = new byte[BinaryCommandCodec.MAX_ENCODED_LENGTH];
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        for (String command : COMMANDS) {
+            codec.writeFrame(text, command);
+            codec.writeFrame(binary, buffer, 0, BinaryCommandCodec.encode(command, buffer, 0));
+        }
+
+        // 12.1 bytes per command as text, 6.0 as binary.
+        assertEquals(279, text.size());
+        assertEquals(137, binary.size());
+    }
+
+    @Test
+    public void parse_readsAdvertisedCapabilities() {
+        assertEquals(DeviceCapabilities.BINARY_COMMANDS, DeviceCapabilities.parse("caps:bin1"));
+        assertEquals(DeviceCapabilities.BINARY_COMMANDS, DeviceCapabilities.parse("caps:future,BIN1"));
+        assertEquals(DeviceCapabilities.NONE, DeviceCapabilities.parse("caps:bin10"));
+        assertEquals(DeviceCapabilities.NONE, DeviceCapabilities.parse("hostip:10.0.0.2"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BluetoothMetricsTest {
+
+    @Test
+    public void snapshot_copiesCounters() {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        metrics.increment(BluetoothMetrics.FRAMES_RECEIVED);
+        metrics.add(BluetoothMetrics.BYTES_RECEIVED, 12);
+        metrics.recordWriteLatency(TimeUnit.MILLISECONDS.toNanos(3));
+
+        BluetoothMetrics.Snapshot snapshot = metrics.snapshot(5);
+        metrics.increment(BluetoothMetrics.FRAMES_RECEIVED);
+        metrics.recordWriteLatency(TimeUnit.MILLISECONDS.toNanos(4));
+
+        assertEquals(1, snapshot.get(BluetoothMetrics.FRAMES_RECEIVED));
+        assertEquals(12, snapshot.get(BluetoothMetrics.BYTES_RECEIVED));
+        assertEquals(0, snapshot.get(BluetoothMetrics.DECODE_ERRORS));
+        assertEquals(5, snapshot.getQueueDepth());
+        assertEquals(1, snapshot.getWriteLatency().getTotalCount());
+        assertEquals(2, metrics.get(BluetoothMetrics.FRAMES_RECEIVED));
+    }
+
+    @Test
+    public void writeTo_listsEveryCounter() throws Exception {
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        metrics.add(BluetoothMetrics.RECONNECTS, 2);
+        StringWriter out = new StringWriter();
+        metrics.snapshot(0).writeTo(out);
+
+        String text = out.toString();
+        for (int i = 0; i < BluetoothMetrics.COUNT; i++) {
+            assertTrue(text, text.contains("\n" + BluetoothMetrics.name(i) + " "));
+        }
+        assertTrue(text, text.contains("\nreconnects 2\n"));
+        assertTrue(text, text.contains("\nqueue_depth 0\n"));
+    }
+
+    @Test
+    public void counters_areExactUnderConcurrentUpdates() throws Exception {
+        final BluetoothMetrics metrics = new BluetoothMetrics();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        metrics.increment(BluetoothMetrics.FRAMES_SENT);
+                        metrics.recordWriteLatency(i * 1000L);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, metrics.get(BluetoothMetrics.FRAMES_SENT));
+        assertEquals(40000, metrics.getWriteLatency().getTotalCount());
+        assertEquals(0, metrics.getWriteLatency().getMinMicros());
+        assertEquals(9999, metrics.getWriteLatency().getMaxMicros());
+    }
+}
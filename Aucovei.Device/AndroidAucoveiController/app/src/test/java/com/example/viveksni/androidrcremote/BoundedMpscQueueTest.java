@@ -0,0 +1,71 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BoundedMpscQueue}.
+ */
+public class BoundedMpscQueueTest {
+
+    @Test
+    public void offer_rejectsWhenFull() {
+        BoundedMpscQueue<String> queue = new BoundedMpscQueue<>(2);
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertFalse(queue.offer("c"));
+        assertEquals("a", queue.poll());
+        assertTrue(queue.offer("c"));
+        assertEquals("b", queue.poll());
+        assertEquals("c", queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void poll_seesEveryElementFromConcurrentProducers() throws InterruptedException {
+        final BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(16);
+        final int producers = 4;
+        final int perProducer = 10000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!queue.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        boolean[] seen = new boolean[producers * perProducer];
+        int[] lastPerProducer = new int[producers];
+        Arrays.fill(lastPerProducer, -1);
+        for (int received = 0; received < seen.length; ) {
+            Integer value = queue.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            assertFalse(seen[value]);
+            seen[value] = true;
+            int producer = value / perProducer;
+            assertTrue(value % perProducer > lastPerProducer[producer]);
+            lastPerProducer[producer] = value % perProducer;
+            received++;
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CarLinkTest {
+
+    private final TimerWheel timers = new TimerWheel("CarLinkTest");
+    private final ExecutorService closer = Executors.newCachedThreadPool();
+    private final BluetoothMetrics metrics = new BluetoothMetrics();
+    private final ConnectionEventBus eventBus = new ConnectionEventBus();
+    private final CarLink link = new CarLink(ConnectionPool.PRIMARY, eventBus, metrics, null, timers, closer);
+    private final DeviceSimulator simulator = new DeviceSimulator();
+    private volatile boolean reachable = true;
+    private volatile LoopbackTransport lastTransport;
+
+    @After
+    public void tearDown() {
+        link.shutdown();
+        closer.shutdown();
+        timers.shutdown();
+    }
+
+    @Test
+    public void connect_reachesTheCarAndDisconnectGoesIdle() throws Exception {
+        link.connect(factory());
+        awaitState(BluetoothService.STATE_CONNECTED);
+        assertEquals(DeviceSimulator.NAME, link.getDeviceName());
+
+        assertTrue(link.send(Commands.CAMERA_ON).await(1, TimeUnit.SECONDS));
+        assertTrue(simulator.awaitCommands(1, 1000));
+        assertTrue(simulator.isCameraOn());
+
+        link.disconnect();
+        awaitState(BluetoothService.STATE_IDLE);
+        assertEquals(PendingSend.STATE_FAILED, link.send(Commands.HORN).getState());
+    }
+
+    @Test
+    public void listenerFailure_dropsTheLinkAndReconnects() throws Exception {
+        eventBus.subscribe(new ConnectionListenerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                if (DeviceMessages.CAMERA_ON.equals(message)) {
+                    throw new IllegalStateException("listener bug");
+                }
+            }
+        }, ConnectionEventBus.DIRECT);
+        link.connect(factory());
+        awaitState(BluetoothService.STATE_CONNECTED);
+
+        link.send(Commands.CAMERA_ON);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (metrics.get(BluetoothMetrics.RECONNECTS) == 0) {
+            assertTrue("no reconnect", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        awaitState(BluetoothService.STATE_CONNECTED);
+        assertEquals(1, metrics.get(BluetoothMetrics.DECODE_ERRORS));
+        assertEquals(1, metrics.get(BluetoothMetrics.DISCONNECTS));
+
+        // The new connection works.
+        long received = simulator.getCommandsReceived();
+        link.send(Commands.HORN);
+        assertTrue(simulator.awaitCommands(received + 1, 1000));
+    }
+
+    @Test
+    public void disconnect_endsTheBackoffWaitAtOnce() throws Exception {
+        link.connect(factory());
+        awaitState(BluetoothService.STATE_CONNECTED);
+
+        reachable = false;
+        lastTransport.close();
+        // The fourth attempt waits at least 500 ms.
+        long deadline = System.currentTimeMillis() + 3000;
+        while (metrics.get(BluetoothMetrics.RECONNECT_ATTEMPTS) < 4) {
+            assertTrue("no retries", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        long start = System.nanoTime();
+        link.disconnect();
+        awaitState(BluetoothService.STATE_IDLE);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 300);
+    }
+
+    private void awaitState(int state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (link.getState() != state) {
+            assertTrue("state " + link.getState(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private Transport.Factory factory() {
+        return new Transport.Factory() {
+            @Override
+            public Transport create() {
+                if (!reachable) {
+                    return new LoopbackTransport(simulator) {
+                        @Override
+                        public synchronized void connect() throws IOException {
+                            throw new IOException("Out of range");
+                        }
+                    };
+                }
+                LoopbackTransport transport = new LoopbackTransport(simulator);
+                lastTransport = transport;
+                return transport;
+            }
+        };
+    }
+
+    private static class ConnectionListenerAdapter implements ConnectionListener {
+        @Override
+        public void onConnected(String deviceName) {
+        }
+
+        @Override
+        public void onConnectFailed(String deviceName) {
+        }
+
+        @Override
+        public void onReconnecting(String deviceName, int attempt) {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onWriteFailed(String command) {
+        }
+    }
+}
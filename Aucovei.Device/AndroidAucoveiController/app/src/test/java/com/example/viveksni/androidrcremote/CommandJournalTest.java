@@ -0,0 +1,107 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_returnsEntriesWithTheirStamps() throws Exception {
+        File file = folder.newFile("run.journal");
+        CommandJournal journal = new CommandJournal(file, 16);
+        journal.recordConnected("car", 1000);
+        journal.recordCommand(Commands.DRIVE_FORWARD, 2000);
+        journal.recordAnalogDrive(-100, 50, 1500);
+        journal.recordFrame(new byte[]{'x', 'C', 'A', 'M', 'O', 'N'}, 1, 5, 3000);
+        journal.recordCommand("héllo 🚗", 4000);
+        journal.close();
+        assertTrue(journal.awaitClosed(5000));
+
+        List<String> entries = read(file);
+        assertEquals(5, entries.size());
+        assertEquals(CommandJournal.ENTRY_CONNECTED + " 1000 car", entries.get(0));
+        assertEquals(CommandJournal.ENTRY_COMMAND + " 2000 " + Commands.DRIVE_FORWARD, entries.get(1));
+        assertEquals(CommandJournal.ENTRY_ANALOG_DRIVE + " 1500 -100,50", entries.get(2));
+        assertEquals(CommandJournal.ENTRY_FRAME + " 3000 CAMON", entries.get(3));
+        assertEquals(CommandJournal.ENTRY_COMMAND + " 4000 héllo 🚗", entries.get(4));
+        assertEquals(5, journal.getEntriesWritten());
+    }
+
+    @Test
+    public void recordCommand_encodesLikeTheWireAndCutsAtACharacter() throws Exception {
+        File file = folder.newFile("utf8.journal");
+        CommandJournal journal = new CommandJournal(file, 16);
+        String lone = "say a\ud800b";
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() < CommandJournal.MAX_ENTRY_BYTES) {
+            longText.append("\u00e9");
+        }
+        journal.recordCommand(lone, 1000);
+        journal.recordCommand(longText.toString(), 2000);
+        journal.close();
+        assertTrue(journal.awaitClosed(5000));
+
+        final List<byte[]> payloads = new ArrayList<>();
+        CommandJournal.read(file, new CommandJournal.Visitor() {
+            @Override
+            public void onEntry(byte type, long nanos, byte[] payload, int length) {
+                payloads.add(Arrays.copyOf(payload, length));
+            }
+        });
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        new FrameCodec().writeFrame(wire, lone);
+        byte[] frame = wire.toByteArray();
+        assertArrayEquals(Arrays.copyOfRange(frame, FrameCodec.HEADER_LENGTH, frame.length), payloads.get(0));
+        assertArrayEquals(lone.getBytes(SessionLog.UTF_8), payloads.get(0));
+        // Two byte characters, so an even number of bytes fits.
+        assertEquals(CommandJournal.MAX_ENTRY_BYTES & ~1, payloads.get(1).length);
+    }
+
+    @Test
+    public void record_dropsWhenTheRingIsFullAndReadStopsAtATornEntry() throws Exception {
+        File file = folder.newFile("full.journal");
+        CommandJournal journal = new CommandJournal(file, 4);
+        // Faster than the writer drains, so some are dropped instead of blocking.
+        for (int i = 0; i < 1000; i++) {
+            journal.recordCommand("HORN", i);
+        }
+        journal.close();
+        assertTrue(journal.awaitClosed(5000));
+        assertTrue(journal.getDroppedCount() > 0);
+        assertEquals(1000, journal.getDroppedCount() + journal.getEntriesWritten());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        assertEquals(journal.getEntriesWritten() - 1, read(file).size());
+    }
+
+    private static List<String> read(File file) throws Exception {
+        final List<String> entries = new ArrayList<>();
+        CommandJournal.read(file, new CommandJournal.Visitor() {
+            @Override
+            public void onEntry(byte type, long nanos, byte[] payload, int length) {
+                String text = type == CommandJournal.ENTRY_ANALOG_DRIVE
+                        ? payload[0] + "," + payload[1]
+                        : new String(payload, 0, length, SessionLog.UTF_8);
+                entries.add(type + " " + nanos + " " + text);
+            }
+        });
+        return entries;
+    }
+}
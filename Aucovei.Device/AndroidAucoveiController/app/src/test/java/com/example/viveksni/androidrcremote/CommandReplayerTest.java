@@ -0,0 +1,165 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replay_keepsTheRecordedGaps() throws Exception {
+        File file = journal(0, 50, 120);
+        RecordingTarget target = new RecordingTarget();
+        CommandReplayer replayer = new CommandReplayer(target, 1);
+
+        assertEquals(3, replayer.replay(file));
+
+        assertEquals(3, target.mCommands.size());
+        // Each command is due at its offset from the first, so lateness does not add up.
+        long offset1 = TimeUnit.NANOSECONDS.toMillis(target.mNanos.get(1) - target.mNanos.get(0));
+        long offset2 = TimeUnit.NANOSECONDS.toMillis(target.mNanos.get(2) - target.mNanos.get(0));
+        assertTrue("offset " + offset1, offset1 >= 49 && offset1 < 90);
+        assertTrue("offset " + offset2, offset2 >= 119 && offset2 < 160);
+        assertEquals(1, replayer.getFramesRecorded());
+        assertEquals("JOY-10,-20", target.mCommands.get(1));
+    }
+
+    @Test
+    public void replay_fasterThanRealTime() throws Exception {
+        File file = journal(0, 1000, 2000);
+        RecordingTarget target = new RecordingTarget();
+
+        long start = System.nanoTime();
+        new CommandReplayer(target, 20).replay(file);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 99 && elapsedMillis < 1000);
+
+        start = System.nanoTime();
+        new CommandReplayer(target, CommandReplayer.AS_FAST_AS_POSSIBLE).replay(file);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+        assertEquals(6, target.mCommands.size());
+    }
+
+    @Test
+    public void cancel_endsTheWaitAndSendsNothingMore() throws Exception {
+        final File file = journal(0, 20, 5000);
+        final List<String> commands = new CopyOnWriteArrayList<>();
+        final CommandReplayer replayer = new CommandReplayer(new CommandReplayer.Target() {
+            @Override
+            public void sendCommand(String command) {
+                commands.add(command);
+            }
+
+            @Override
+            public void sendAnalogDrive(int throttle, int steering) {
+                commands.add(Commands.ANALOG_DRIVE_PREFIX + throttle + "," + steering);
+            }
+        }, 1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replayer.replay(file);
+                } catch (IOException | InterruptedException e) {
+                    // Expected once interrupted.
+                }
+            }
+        });
+        thread.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (commands.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        replayer.cancel();
+        thread.interrupt();
+        thread.join(1000);
+
+        assertFalse(thread.isAlive());
+        assertTrue(replayer.isCancelled());
+        assertEquals(2, commands.size());
+        assertEquals(2, replayer.getCommandsReplayed());
+    }
+
+    @Test
+    public void replay_reachesTheSimulatorOverLoopback() throws Exception {
+        File file = journal(0, 10, 20);
+        DeviceSimulator simulator = new DeviceSimulator().setCapabilities("joy1");
+        LoopbackTransport transport = new LoopbackTransport(simulator);
+        transport.connect();
+        final CommandWriter writer = new CommandWriter(transport.getOutputStream(), new CommandWriter.Callback() {
+            @Override
+            public void onWritten(PendingSend send) {
+            }
+
+            @Override
+            public void onWriteFailed(PendingSend send, IOException e) {
+            }
+        });
+        writer.start();
+        try {
+            new CommandReplayer(new CommandReplayer.Target() {
+                @Override
+                public void sendCommand(String command) {
+                    writer.send(command);
+                }
+
+                @Override
+                public void sendAnalogDrive(int throttle, int steering) {
+                    writer.sendAnalogDrive(throttle, steering);
+                }
+            }, 1).replay(file);
+
+            assertTrue(simulator.awaitCommands(3, 1000));
+            assertEquals(Commands.HORN, simulator.getLastCommand());
+        } finally {
+            writer.close();
+            transport.close();
+        }
+    }
+
+    // DRIVE-2, an analog drive update and HORN at the given offsets, with a reply in between.
+    private File journal(long... offsetsMillis) throws Exception {
+        File file = folder.newFile();
+        CommandJournal journal = new CommandJournal(file, 16);
+        long base = System.nanoTime();
+        journal.recordCommand(Commands.DRIVE_FORWARD, base + TimeUnit.MILLISECONDS.toNanos(offsetsMillis[0]));
+        journal.recordFrame("CAMON".getBytes(), 0, 5, base + 1);
+        journal.recordAnalogDrive(10, -20, base + TimeUnit.MILLISECONDS.toNanos(offsetsMillis[1]));
+        journal.recordCommand(Commands.HORN, base + TimeUnit.MILLISECONDS.toNanos(offsetsMillis[2]));
+        journal.close();
+        assertTrue(journal.awaitClosed(5000));
+        return file;
+    }
+
+    private static final class RecordingTarget implements CommandReplayer.Target {
+        final List<String> mCommands = new ArrayList<>();
+        final List<Long> mNanos = new ArrayList<>();
+
+        @Override
+        public void sendCommand(String command) {
+            mNanos.add(System.nanoTime());
+            mCommands.add(command);
+        }
+
+        @Override
+        public void sendAnalogDrive(int throttle, int steering) {
+            mNanos.add(System.nanoTime());
+            mCommands.add(Commands.ANALOG_DRIVE_PREFIX + throttle + "," + steering);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CommandWriter}.
+ */
+public class CommandWriterTest {
+
+    private CommandWriter writer;
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void send_writesFramesInOrderOnWriterThread() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordingCallback callback = new RecordingCallback();
+        writer = new CommandWriter(out, callback);
+        writer.start();
+
+        writer.send(Commands.DRIVE_FORWARD);
+        PendingSend last = writer.send(Commands.HORN);
+        assertTrue(last.await(1, TimeUnit.SECONDS));
+        assertTrue(last.getLatencyNanos() >= 0);
+        assertEquals(2, callback.written);
+        assertNotSame(Thread.currentThread(), callback.thread);
+
+        FrameCodec codec = new FrameCodec();
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        codec.readFrame(in);
+        assertEquals(Commands.DRIVE_FORWARD, codec.getPayloadString());
+        codec.readFrame(in);
+        assertEquals(Commands.HORN, codec.getPayloadString());
+    }
+
+    @Test
+    public void send_countsFramesInSharedMetrics() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BluetoothMetrics metrics = new BluetoothMetrics();
+        writer = new CommandWriter(out, new RecordingCallback(), CommandWriter.DEFAULT_QUEUE_CAPACITY, metrics);
+        writer.start();
+
+        writer.send(Commands.CAMERA_ON);
+        assertTrue(writer.send(Commands.HORN).await(1, TimeUnit.SECONDS));
+
+        assertEquals(2, metrics.get(BluetoothMetrics.FRAMES_SENT));
+        assertEquals(out.size(), metrics.get(BluetoothMetrics.BYTES_SENT));
+        assertEquals(writer.getBytesSent(), metrics.get(BluetoothMetrics.BYTES_SENT));
+    }
+
+    @Test
+    public void acknowledgeBinaryCommands_switchesEncodingAfterAcknowledgement() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer = new CommandWriter(out, new RecordingCallback());
+        writer.start();
+
+        writer.acknowledgeBinaryCommands();
+        assertTrue(writer.send(Commands.HORN).await(1, TimeUnit.SECONDS));
+        assertTrue(writer.isBinaryCommands());
+
+        FrameCodec codec = new FrameCodec();
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        codec.readFrame(in);
+        assertEquals(BinaryCommandCodec.ACKNOWLEDGE_COMMAND, codec.getPayloadString());
+        codec.readFrame(in);
+        assertEquals(Commands.HORN, BinaryCommandCodec.decode(codec.getPayload()));
+    }
+
+    @Test
+    public void send_failsWithoutThrowingWhenStreamBreaks() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        writer = new CommandWriter(new BrokenOutputStream(), callback);
+        writer.start();
+
+        PendingSend send = writer.send("DRIVE-2");
+        assertFalse(send.await(1, TimeUnit.SECONDS));
+        assertEquals(PendingSend.FAILURE_IO, send.getFailure());
+        assertEquals(1, callback.failed);
+        assertEquals(PendingSend.FAILURE_CLOSED, writer.send("DRIVE-1").getFailure());
+    }
+
+    @Test
+    public void close_failsCommandsQueuedBeforeTheWriterStarted() {
+        writer = new CommandWriter(new ByteArrayOutputStream(), new RecordingCallback());
+        PendingSend horn = writer.send(Commands.HORN);
+        PendingSend drive = writer.send(Commands.DRIVE_FORWARD);
+        assertFalse(horn.isDone());
+
+        writer.close();
+        assertEquals(PendingSend.FAILURE_CLOSED, horn.getFailure());
+        assertEquals(PendingSend.FAILURE_CLOSED, drive.getFailure());
+    }
+
+    @Test
+    public void sendRacingClose_alwaysCompletes() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final CommandWriter racing = new CommandWriter(new ByteArrayOutputStream(), new RecordingCallback());
+            racing.start();
+            final PendingSend[] sends = new PendingSend[20];
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < sends.length; i++) {
+                        sends[i] = racing.send(i % 2 == 0 ? Commands.HORN : Commands.DRIVE_FORWARD);
+                    }
+                }
+            });
+            sender.start();
+            racing.close();
+            sender.join();
+
+            // Sent, superseded or failed, but never left pending.
+            for (PendingSend send : sends) {
+                send.await(1, TimeUnit.SECONDS);
+                assertTrue("round " + round, send.isDone());
+            }
+        }
+    }
+
+    @Test
+    public void send_failsWhenQueueIsFull() {
+        writer = new CommandWriter(new ByteArrayOutputStream(), new RecordingCallback(), 8);
+
+        for (int i = 0; i < 8 - CommandChannel.COUNT - 1; i++) {
+            assertFalse(writer.send(Commands.HORN).isDone());
+        }
+        PendingSend send = writer.send(Commands.HORN);
+        assertTrue(send.isDone());
+        assertEquals(PendingSend.FAILURE_QUEUE_FULL, send.getFailure());
+
+        // Channel commands still get through, their queue entries are reserved.
+        assertFalse(writer.send(Commands.TILT_UP).isDone());
+        assertFalse(writer.send(Commands.DRIVE_FORWARD).isDone());
+    }
+
+    @Test
+    public void send_conflatesUnsentCommandsPerChannel() throws Exception {
+        BlockingOutputStream out = new BlockingOutputStream();
+        writer = new CommandWriter(out, new RecordingCallback());
+        writer.start();
+
+        PendingSend first = writer.send(Commands.DRIVE_FORWARD);
+        out.awaitBlocked();
+        PendingSend left = writer.send(Commands.DRIVE_LEFT);
+        PendingSend tiltUp = writer.send(Commands.TILT_UP);
+        PendingSend right = writer.send(Commands.DRIVE_RIGHT);
+        PendingSend horn = writer.send(Commands.HORN);
+        PendingSend hornAgain = writer.send(Commands.HORN);
+        PendingSend center = writer.send(Commands.PAN_TILT_CENTER);
+        PendingSend stop = writer.send(Commands.DRIVE_STOP);
+        out.release();
+
+        assertTrue(first.await(1, TimeUnit.SECONDS));
+        assertTrue(stop.await(1, TimeUnit.SECONDS));
+        assertTrue(center.await(1, TimeUnit.SECONDS));
+        assertTrue(horn.await(1, TimeUnit.SECONDS));
+        assertTrue(hornAgain.await(1, TimeUnit.SECONDS));
+        assertTrue(left.isSuperseded());
+        assertTrue(right.isSuperseded());
+        assertTrue(tiltUp.isSuperseded());
+        assertEquals(2, writer.getSupersededCount(CommandChannel.DRIVE));
+        assertEquals(1, writer.getSupersededCount(CommandChannel.PAN_TILT));
+        assertEquals(3, writer.getSupersededCount());
+
+        FrameCodec codec = new FrameCodec();
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        String[] expected = {Commands.DRIVE_FORWARD, Commands.DRIVE_STOP, Commands.PAN_TILT_CENTER,
+                Commands.HORN, Commands.HORN};
+        for (String command : expected) {
+            codec.readFrame(in);
+            assertEquals(command, codec.getPayloadString());
+        }
+        assertEquals(-1, codec.readFrame(in));
+    }
+
+    private static class RecordingCallback implements CommandWriter.Callback {
+        volatile int written;
+        volatile int failed;
+        volatile Thread thread;
+
+        @Override
+        public void onWritten(PendingSend send) {
+            thread = Thread.currentThread();
+            written++;
+        }
+
+        @Override
+        public void onWriteFailed(PendingSend send, IOException e) {
+            failed++;
+        }
+    }
+
+    private static class BlockingOutputStream extends ByteArrayOutputStream {
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            blocked.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(b, off, len);
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+    private static class BrokenOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("Broken pipe");
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ConnectionEventBusTest {
+
+    @Test
+    public void publish_batchesEventsIntoOnePost() {
+        ConnectionEventBus bus = new ConnectionEventBus();
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        bus.subscribe(listener, executor);
+
+        bus.publishConnected(ConnectionPool.PRIMARY, "car");
+        for (int i = 0; i < 100; i++) {
+            bus.publishMessage(ConnectionPool.PRIMARY, "m" + i);
+        }
+        assertEquals(1, executor.mTasks.size());
+
+        executor.runAll();
+        assertEquals(101, listener.mEvents.size());
+        assertEquals("connected car", listener.mEvents.get(0));
+        assertEquals("message m0", listener.mEvents.get(1));
+        assertEquals("message m99", listener.mEvents.get(100));
+
+        // A drained subscriber schedules again for the next event.
+        bus.publishDisconnected(ConnectionPool.PRIMARY);
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+        assertEquals("disconnected", listener.mEvents.get(101));
+    }
+
+    @Test
+    public void publish_reachesEverySubscriber() {
+        ConnectionEventBus bus = new ConnectionEventBus();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        bus.subscribe(first, ConnectionEventBus.DIRECT);
+        bus.subscribe(second, ConnectionEventBus.DIRECT);
+
+        bus.publishConnectFailed(ConnectionPool.PRIMARY, "car");
+        bus.publishWriteFailed(ConnectionPool.PRIMARY, "HORN");
+        bus.publishReconnecting(ConnectionPool.PRIMARY, "car", 3);
+
+        assertEquals(3, first.mEvents.size());
+        assertEquals(first.mEvents, second.mEvents);
+        assertEquals("write failed HORN", second.mEvents.get(1));
+        assertEquals("reconnecting car 3", second.mEvents.get(2));
+    }
+
+    @Test
+    public void subscribe_hearsOnlyTheLinksInItsAddress() {
+        ConnectionEventBus bus = new ConnectionEventBus();
+        RecordingListener primary = new RecordingListener();
+        RecordingListener follower = new RecordingListener();
+        RecordingListener both = new RecordingListener();
+        bus.subscribe(primary, ConnectionEventBus.DIRECT);
+        bus.subscribe(follower, ConnectionEventBus.DIRECT, ConnectionPool.address(2));
+        bus.subscribe(both, ConnectionEventBus.DIRECT, ConnectionPool.address(ConnectionPool.PRIMARY, 2));
+
+        bus.publishConnected(ConnectionPool.PRIMARY, "car");
+        bus.publishConnected(2, "follower");
+        bus.publishDisconnected(3);
+
+        assertEquals("[connected car]", primary.mEvents.toString());
+        assertEquals("[connected follower]", follower.mEvents.toString());
+        assertEquals(2, both.mEvents.size());
+    }
+
+    @Test
+    public void publish_directFromManyThreadsNeverOverlapsCallbacks() throws Exception {
+        final int publishers = 4;
+        final int messages = 5000;
+        final ConnectionEventBus bus = new ConnectionEventBus();
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onMessage(String message) {
+                if (inside.getAndIncrement() != 0) {
+                    overlapped.set(true);
+                }
+                super.onMessage(message);
+                inside.decrementAndGet();
+            }
+        };
+        bus.subscribe(listener, ConnectionEventBus.DIRECT);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[publishers];
+        for (int p = 0; p < publishers; p++) {
+            final int publisher = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < messages; i++) {
+                        bus.publishMessage(ConnectionPool.PRIMARY, publisher + ":" + i);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(overlapped.get());
+        assertEquals(publishers * messages, listener.mEvents.size());
+        // Each publisher's messages arrive in the order it sent them.
+        int[] next = new int[publishers];
+        for (String event : listener.mEvents) {
+            String[] parts = event.substring("message ".length()).split(":");
+            int publisher = Integer.parseInt(parts[0]);
+            assertEquals(next[publisher]++, Integer.parseInt(parts[1]));
+        }
+    }
+
+    @Test
+    public void unsubscribe_dropsQueuedEvents() {
+        ConnectionEventBus bus = new ConnectionEventBus();
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        bus.subscribe(listener, executor);
+
+        bus.publishMessage(ConnectionPool.PRIMARY, "CAMON");
+        bus.unsubscribe(listener);
+        bus.publishMessage(ConnectionPool.PRIMARY, "CAMOFF");
+        executor.runAll();
+
+        assertEquals(0, listener.mEvents.size());
+    }
+
+    private static final class QueueExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements ConnectionListener {
+        final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onConnected(String deviceName) {
+            mEvents.add("connected " + deviceName);
+        }
+
+        @Override
+        public void onConnectFailed(String deviceName) {
+            mEvents.add("connect failed " + deviceName);
+        }
+
+        @Override
+        public void onReconnecting(String deviceName, int attempt) {
+            mEvents.add("reconnecting " + deviceName + " " + attempt);
+        }
+
+        @Override
+        public void onDisconnected() {
+            mEvents.add("disconnected");
+        }
+
+        @Override
+        public void onMessage(String message) {
+            mEvents.add("message " + message);
+        }
+
+        @Override
+        public void onWriteFailed(String command) {
+            mEvents.add("write failed " + command);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest {
+
+    private final TimerWheel timers = new TimerWheel("PoolTest");
+    private final ConnectionEventBus eventBus = new ConnectionEventBus();
+    private final ConnectionPool pool = new ConnectionPool(timers, eventBus, new BluetoothMetrics(), null);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        timers.shutdown();
+    }
+
+    @Test
+    public void send_reachesOnlyTheAddressedCars() throws Exception {
+        DeviceSimulator[] cars = {new DeviceSimulator(), new DeviceSimulator(), new DeviceSimulator()};
+        pool.getPrimary().connect(factory(cars[0]));
+        assertEquals(1, pool.add(factory(cars[1])));
+        assertEquals(2, pool.add(factory(cars[2])));
+        awaitConnected(ConnectionPool.address(0, 1, 2));
+
+        assertEquals(1, pool.send(ConnectionPool.address(1), Commands.HORN));
+        assertEquals(2, pool.send(ConnectionPool.address(0, 2), Commands.HORN));
+        assertEquals(3, pool.send(ConnectionPool.ALL, Commands.CAMERA_ON));
+        // Nobody on link 5.
+        assertEquals(0, pool.send(ConnectionPool.address(5), Commands.HORN));
+
+        for (DeviceSimulator car : cars) {
+            assertTrue(car.awaitCommands(2, 1000));
+            assertTrue(car.isCameraOn());
+        }
+        assertEquals(Commands.CAMERA_ON, cars[1].getLastCommand());
+        assertEquals(2, cars[1].getCommandsReceived());
+    }
+
+    @Test
+    public void add_publishesTheFollowersEventsTaggedWithItsId() throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final AtomicReference<String> followerName = new AtomicReference<>();
+        final AtomicReference<String> primaryName = new AtomicReference<>();
+        eventBus.subscribe(new ConnectionListenerAdapter() {
+            @Override
+            public void onConnected(String deviceName) {
+                followerName.set(deviceName);
+                connected.countDown();
+            }
+        }, ConnectionEventBus.DIRECT, ConnectionPool.address(1));
+        eventBus.subscribe(new ConnectionListenerAdapter() {
+            @Override
+            public void onConnected(String deviceName) {
+                primaryName.set(deviceName);
+            }
+        }, ConnectionEventBus.DIRECT);
+
+        assertEquals(1, pool.add(factory(new DeviceSimulator())));
+        assertTrue(connected.await(2, TimeUnit.SECONDS));
+        assertEquals(DeviceSimulator.NAME, followerName.get());
+        // Listeners for the primary do not hear followers.
+        assertNull(primaryName.get());
+    }
+
+    @Test
+    public void add_usesEveryFreeLinkAndReusesRemovedOnes() {
+        for (int id = 1; id < ConnectionPool.MAX_LINKS; id++) {
+            assertEquals(id, pool.add(factory(new DeviceSimulator())));
+        }
+        assertEquals(-1, pool.add(factory(new DeviceSimulator())));
+
+        pool.remove(3);
+        assertNull(pool.get(3));
+        assertEquals(3, pool.add(factory(new DeviceSimulator())));
+
+        // The primary is only disconnected.
+        pool.remove(ConnectionPool.PRIMARY);
+        assertEquals(BluetoothService.STATE_IDLE, pool.getPrimary().getState());
+        assertEquals((1L << ConnectionPool.MAX_LINKS) - 1, pool.getLinkAddress());
+    }
+
+    @Test
+    public void stalledLink_doesNotHoldUpTheOthers() throws Exception {
+        final DeviceSimulator stalled = new DeviceSimulator();
+        DeviceSimulator[] cars = {new DeviceSimulator(), new DeviceSimulator()};
+        pool.getPrimary().connect(new Transport.Factory() {
+            @Override
+            public Transport create() {
+                return new StalledTransport(stalled);
+            }
+        });
+        pool.add(factory(cars[0]));
+        pool.add(factory(cars[1]));
+        awaitConnected(ConnectionPool.address(0, 1, 2));
+
+        for (int i = 0; i < 20; i++) {
+            // Queued on every link, the stalled one included, without waiting for any.
+            assertEquals(3, pool.send(ConnectionPool.ALL, Commands.HORN));
+        }
+        for (DeviceSimulator car : cars) {
+            assertTrue(car.awaitCommands(20, 2000));
+        }
+        assertEquals(0, stalled.getCommandsReceived());
+        assertEquals(BluetoothService.STATE_CONNECTED, pool.getPrimary().getState());
+    }
+
+    @Test
+    public void addAndRemove_whileSendingToAll() throws Exception {
+        DeviceSimulator primary = new DeviceSimulator();
+        pool.getPrimary().connect(factory(primary));
+        awaitConnected(ConnectionPool.address(ConnectionPool.PRIMARY));
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (done.getCount() > 0) {
+                        pool.send(ConnectionPool.ALL, Commands.HORN);
+                        Thread.sleep(1);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "PoolSender");
+        sender.start();
+
+        for (int i = 0; i < 20; i++) {
+            int id = pool.add(factory(new DeviceSimulator()));
+            assertTrue(id > 0);
+            Thread.sleep(2);
+            pool.remove(id);
+        }
+        int kept = pool.add(factory(new DeviceSimulator()));
+        done.countDown();
+        sender.join(1000);
+        assertNull(failure.get());
+
+        assertEquals(ConnectionPool.address(ConnectionPool.PRIMARY, kept), pool.getLinkAddress());
+        awaitConnected(pool.getLinkAddress());
+        long received = primary.getCommandsReceived();
+        assertEquals(2, pool.send(ConnectionPool.ALL, Commands.CAMERA_ON));
+        assertTrue(primary.awaitCommands(received + 1, 1000));
+        assertTrue(primary.isCameraOn());
+    }
+
+    private void awaitConnected(long address) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pool.getConnectedAddress() != address) {
+            assertTrue("connected " + Long.toBinaryString(pool.getConnectedAddress()),
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static Transport.Factory factory(final DeviceSimulator simulator) {
+        return new Transport.Factory() {
+            @Override
+            public Transport create() {
+                return new LoopbackTransport(simulator);
+            }
+        };
+    }
+
+    private static class ConnectionListenerAdapter implements ConnectionListener {
+        @Override
+        public void onConnected(String deviceName) {
+        }
+
+        @Override
+        public void onConnectFailed(String deviceName) {
+        }
+
+        @Override
+        public void onReconnecting(String deviceName, int attempt) {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onWriteFailed(String command) {
+        }
+    }
+
+    // A congested socket: reads work, every write blocks until the transport is closed.
+    private static class StalledTransport extends LoopbackTransport {
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        StalledTransport(DeviceSimulator simulator) {
+            super(simulator);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    try {
+                        closed.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    throw new IOException("Link closed");
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    write(0);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ControlPadTest {
+
+    private final List<String> updates = new ArrayList<>();
+    private final ControlPad pad = new ControlPad(new ControlPad.Listener() {
+        @Override
+        public void onPress(int key, String command, String releaseCommand) {
+            updates.add(key + ":" + command);
+        }
+
+        @Override
+        public void onRelease(int key) {
+            updates.add(key + ":up");
+        }
+    });
+    private int forward;
+    private int left;
+    private int stop;
+    private int tiltUp;
+
+    // Buttons 100 wide in a row, tilt up further right.
+    @Before
+    public void setUp() {
+        forward = addButton(Commands.DRIVE_FORWARD, Commands.DRIVE_STOP, false, 0);
+        left = addButton(Commands.DRIVE_LEFT, Commands.DRIVE_STOP, false, 100);
+        stop = addButton(Commands.DRIVE_STOP, null, true, 200);
+        tiltUp = addButton(Commands.TILT_UP, null, false, 500);
+    }
+
+    private int addButton(String command, String release, boolean override, float left) {
+        int button = pad.addButton(command, release, override);
+        pad.setBounds(button, left, 0, left + 100, 100);
+        return button;
+    }
+
+    @Test
+    public void simultaneousPresses_areOneUpdatePerChannelInOneFrame() {
+        pad.onPointerDown(1, 50, 50, 1000);
+        pad.onPointerDown(2, 550, 50, 2000);
+        assertEquals(2, pad.sample(5000));
+        assertEquals("[0:DRIVE-2, 1:TILT-1]", updates.toString());
+        assertTrue(pad.isTouched(forward) && pad.isTouched(tiltUp));
+        assertEquals(1, pad.getInputToSend().getTotalCount());
+        assertEquals(4, pad.getInputToSend().getMaxMicros());
+
+        // Nothing new, nothing sent.
+        pad.onPointerMove(1, 60, 50, 6000);
+        assertEquals(0, pad.sample(7000));
+        assertEquals(0, pad.sample(8000));
+
+        pad.onPointerUp(1, 9000);
+        pad.onPointerUp(2, 9000);
+        assertEquals(2, pad.sample(10000));
+        assertEquals("[0:DRIVE-2, 1:TILT-1, 0:up, 1:up]", updates.toString());
+    }
+
+    @Test
+    public void slidingBetweenButtons_takesOverTheChannelWithoutARelease() {
+        pad.onPointerDown(1, 50, 50, 1000);
+        pad.sample(2000);
+        // Several moves within one frame only count where the finger ended up.
+        pad.onPointerMove(1, 90, 50, 3000);
+        pad.onPointerMove(1, 120, 50, 3100);
+        pad.onPointerMove(1, 150, 50, 3200);
+        assertEquals(1, pad.sample(4000));
+        assertEquals("[0:DRIVE-2, 0:DRIVE-4]", updates.toString());
+        assertFalse(pad.isTouched(forward));
+        assertTrue(pad.isTouched(left));
+
+        // Off every button lets go.
+        pad.onPointerMove(1, 350, 50, 5000);
+        pad.sample(6000);
+        assertEquals("0:up", updates.get(2));
+        assertEquals(3, pad.getInputToSend().getTotalCount());
+    }
+
+    @Test
+    public void stop_overridesADriveHeldWithItAndTheNewestTouchWinsOtherwise() {
+        pad.onPointerDown(1, 50, 50, 1000);
+        pad.onPointerDown(2, 250, 50, 1000);
+        pad.sample(2000);
+        assertEquals("[0:DRIVE-1]", updates.toString());
+
+        // A drive touched after stop still loses to it.
+        pad.onPointerDown(3, 150, 50, 3000);
+        assertEquals(0, pad.sample(4000));
+
+        pad.onPointerUp(2, 5000);
+        pad.sample(6000);
+        assertEquals("0:DRIVE-4", updates.get(1));
+        assertFalse(pad.isTouched(stop));
+    }
+
+    @Test
+    public void disabledButtonsAndCancel_releaseTheirChannels() {
+        pad.onPointerDown(1, 50, 50, 1000);
+        pad.onPointerDown(2, 550, 50, 1000);
+        pad.sample(2000);
+
+        pad.setEnabled(forward, false);
+        assertTrue(pad.isDirty());
+        pad.sample(3000);
+        assertEquals("0:up", updates.get(2));
+        // No touch caused that one.
+        assertEquals(1, pad.getInputToSend().getTotalCount());
+
+        pad.onCancel(4000);
+        pad.sample(5000);
+        assertEquals("[0:DRIVE-2, 1:TILT-1, 0:up, 1:up]", updates.toString());
+
+        // Reset forgets holds ended elsewhere; a finger still down presses again.
+        pad.onPointerDown(3, 550, 50, 6000);
+        pad.sample(7000);
+        pad.reset();
+        assertEquals(1, pad.sample(8000));
+        assertEquals("[0:DRIVE-2, 1:TILT-1, 0:up, 1:up, 1:TILT-1, 1:TILT-1]", updates.toString());
+    }
+}
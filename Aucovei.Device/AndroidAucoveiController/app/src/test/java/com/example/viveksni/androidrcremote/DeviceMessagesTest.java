@@ -0,0 +1,22 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceMessagesTest {
+
+    @Test
+    public void classify_routesKnownMessages() {
+        assertEquals(DeviceMessages.TYPE_HOST_IP, DeviceMessages.classify("hostip:192.168.100.57"));
+        assertEquals(DeviceMessages.TYPE_CAMERA_ON, DeviceMessages.classify("CAMON"));
+        assertEquals(DeviceMessages.TYPE_CAMERA_OFF, DeviceMessages.classify("CAMOFF"));
+        assertEquals(DeviceMessages.TYPE_OTHER, DeviceMessages.classify("CAMERA-LED-ON"));
+        assertEquals(DeviceMessages.TYPE_OTHER, DeviceMessages.classify("Ready!"));
+    }
+
+    @Test
+    public void getHostIp_stripsPrefix() {
+        assertEquals("192.168.100.57", DeviceMessages.getHostIp("hostip:192.168.100.57"));
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceSimulatorTest {
+
+    private LoopbackTransport transport;
+    private CommandWriter writer;
+    private final FrameCodec codec = new FrameCodec();
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void connect_sendsHandshake() throws Exception {
+        connect(new DeviceSimulator().setCapabilities("bin1,ping1"));
+
+        assertEquals("hostip:" + DeviceSimulator.DEFAULT_HOST_IP, read());
+        assertEquals("caps:bin1,ping1", read());
+        assertEquals(DeviceSimulator.READY_MESSAGE, read());
+    }
+
+    @Test
+    public void commands_areAcceptedAndCameraAnswered() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator();
+        connectAndSkipHandshake(simulator, 2);
+
+        writer.send(Commands.CAMERA_ON);
+        assertEquals(DeviceMessages.CAMERA_ON, read());
+        writer.send(Commands.DRIVE_FORWARD);
+        writer.send(Commands.PAN_LEFT);
+        writer.send(Commands.HORN);
+        writer.send("hello");
+        assertTrue(simulator.awaitCommands(5, 1000));
+
+        assertTrue(simulator.isCameraOn());
+        assertEquals(Commands.DRIVE_FORWARD, simulator.getLastDriveCommand());
+        assertEquals(Commands.PAN_LEFT, simulator.getLastTiltCommand());
+        assertEquals(1, simulator.getSpokenCount());
+    }
+
+    @Test
+    public void binaryCommands_areDecodedAfterAcknowledgement() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator().setCapabilities("bin1");
+        connectAndSkipHandshake(simulator, 3);
+
+        writer.acknowledgeBinaryCommands();
+        assertTrue(writer.send(Commands.DRIVE_LEFT).await(1, TimeUnit.SECONDS));
+        assertTrue(simulator.awaitCommands(2, 1000));
+
+        assertTrue(writer.isBinaryCommands());
+        assertEquals(Commands.DRIVE_LEFT, simulator.getLastDriveCommand());
+        assertEquals(0, simulator.getSpokenCount());
+    }
+
+    @Test
+    public void binaryCommands_areAllDecodedInSequence() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator().setCapabilities("bin1");
+        connectAndSkipHandshake(simulator, 3);
+
+        writer.acknowledgeBinaryCommands();
+        // One at a time, so none is superseded by the next on its channel.
+        String[] commands = {Commands.DRIVE_LEFT, Commands.CAMERA_ON, Commands.PAN_LEFT, Commands.DRIVE_STOP};
+        for (int i = 0; i < commands.length; i++) {
+            assertTrue(writer.send(commands[i]).await(1, TimeUnit.SECONDS));
+            assertTrue(simulator.awaitCommands(i + 2, 1000));
+        }
+
+        assertTrue(writer.isBinaryCommands());
+        assertTrue(simulator.isCameraOn());
+        assertEquals(Commands.PAN_LEFT, simulator.getLastTiltCommand());
+        assertEquals(Commands.DRIVE_STOP, simulator.getLastDriveCommand());
+        assertEquals(DeviceMessages.CAMERA_ON, read());
+    }
+
+    @Test
+    public void ping_roundTripIncludesLatencyBothWays() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator().setCapabilities("ping1").setLatencyMillis(30);
+        connectAndSkipHandshake(simulator, 3);
+        LatencyProbe probe = new LatencyProbe(null, null, TimerWheel.NO_OWNER);
+
+        writer.send(Commands.PING_PREFIX + System.nanoTime());
+        assertTrue(probe.onMessage(read(), System.nanoTime()));
+
+        assertEquals(1, probe.getPongsReceived());
+        assertTrue(probe.getHistogram().getMinMicros() >= 60000);
+    }
+
+    @Test
+    public void videoSettings_onlyAcceptedWhenAdvertised() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator().setCapabilities("vid1");
+        connectAndSkipHandshake(simulator, 3);
+        String command = AdaptiveQualityController.LEVELS[0].toCommand();
+
+        writer.send(command);
+        assertTrue(simulator.awaitCommands(1, 1000));
+        assertEquals(command, simulator.getLastVideoCommand());
+        assertEquals(0, simulator.getSpokenCount());
+
+        tearDown();
+        simulator = new DeviceSimulator();
+        connectAndSkipHandshake(simulator, 2);
+        writer.send(command);
+        assertTrue(simulator.awaitCommands(1, 1000));
+        assertEquals(1, simulator.getSpokenCount());
+    }
+
+    @Test
+    public void telemetry_streamsEveryChannelWhenAdvertised() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator().setCapabilities("tel1").setTelemetryHz(100);
+        connectAndSkipHandshake(simulator, 3);
+        Telemetry telemetry = new Telemetry(16);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(codec.readFrame(transport.getInputStream()) > 0);
+            assertTrue(telemetry.decode(codec.getPayload(), System.nanoTime()));
+        }
+        for (int channel = 0; channel < Telemetry.CHANNEL_COUNT; channel++) {
+            assertEquals(3, telemetry.getSeries(channel).getSequence());
+        }
+
+        // The stream does not get in the way of replies.
+        writer.send(Commands.CAMERA_ON);
+        String reply;
+        do {
+            reply = read();
+        } while (Telemetry.isTelemetryPayload(codec.getPayload()));
+        assertEquals(DeviceMessages.CAMERA_ON, reply);
+    }
+
+    @Test
+    public void bandwidth_limitsThroughput() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator().setBytesPerSecond(2000);
+        connectAndSkipHandshake(simulator, 2);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 40; i++) {
+            writer.send(Commands.HORN);
+        }
+        assertTrue(simulator.awaitCommands(40, 2000));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 40 frames of 8 bytes at 2000 bytes per second.
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 150);
+    }
+
+    @Test
+    public void loss_dropsAboutTheConfiguredFraction() throws Exception {
+        DeviceSimulator simulator = new DeviceSimulator().setLossRate(0.5).setSeed(1);
+        connectAndSkipHandshake(simulator, 2);
+
+        for (int i = 0; i < 40; i++) {
+            writer.send(Commands.HORN);
+        }
+        assertTrue(simulator.awaitCommands(40, 1000));
+
+        long lost = simulator.getCommandsLost();
+        assertTrue("lost " + lost, lost >= 10 && lost <= 30);
+    }
+
+    private void connect(DeviceSimulator simulator) throws IOException {
+        transport = new LoopbackTransport(simulator);
+        transport.connect();
+        assertTrue(transport.isConnected());
+    }
+
+    private void connectAndSkipHandshake(DeviceSimulator simulator, int handshakeMessages) throws IOException {
+        connect(simulator);
+        for (int i = 0; i < handshakeMessages; i++) {
+            read();
+        }
+        writer = new CommandWriter(transport.getOutputStream(), new CommandWriter.Callback() {
+            @Override
+            public void onWritten(PendingSend send) {
+            }
+
+            @Override
+            public void onWriteFailed(PendingSend send, IOException e) {
+            }
+        });
+        writer.start();
+    }
+
+    private String read() throws IOException {
+        assertTrue(codec.readFrame(transport.getInputStream()) >= 0);
+        return codec.getPayloadString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownsampledSeriesTest {
+
+    @Test
+    public void select_recentWindowUsesRawSamples() {
+        DownsampledSeries series = new DownsampledSeries();
+        for (int i = 0; i < 100; i++) {
+            series.add(i, i);
+        }
+
+        long[] outX = new long[200];
+        float[] outY = new float[200];
+        int count = series.select(50, 99, 200, outX, outY);
+
+        assertEquals(50, count);
+        assertEquals(50, outX[0]);
+        assertEquals(99, outY[49], 0);
+    }
+
+    @Test
+    public void select_longHistoryStaysBoundedAndReachesTheNewestSample() {
+        DownsampledSeries series = new DownsampledSeries();
+        int total = 200000;
+        for (int i = 0; i < total; i++) {
+            // A spike that only the coarser levels can still show.
+            series.add(i, i == 1000 ? 500 : i % 10);
+        }
+        assertTrue(series.getOldestTimestamp() <= 1000);
+        assertEquals(total - 1, series.getNewestTimestamp());
+
+        long[] outX = new long[300];
+        float[] outY = new float[300];
+        int count = series.select(0, total, 300, outX, outY);
+
+        assertEquals(300, count);
+        assertEquals(total - 1, outX[count - 1]);
+        boolean spike = false;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                assertTrue(outX[i] > outX[i - 1]);
+            }
+            spike |= outY[i] == 500;
+        }
+        assertTrue(spike);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FrameCodec}.
+ */
+public class FrameCodecTest {
+
+    @Test
+    public void writeFrame_roundTripsThroughReadFrame() throws IOException {
+        FrameCodec codec = new FrameCodec();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(11, codec.writeFrame(out, "DRIVE-2"));
+        codec.writeFrame(out, "hostip:192.168.1.20");
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(7, codec.readFrame(in));
+        assertEquals("DRIVE-2", codec.getPayloadString());
+        assertEquals(19, codec.readFrame(in));
+        assertEquals("hostip:192.168.1.20", codec.getPayloadString());
+        assertEquals(-1, codec.readFrame(in));
+    }
+
+    @Test
+    public void writeFrame_lengthPrefixCountsEncodedBytes() throws IOException {
+        FrameCodec codec = new FrameCodec();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeFrame(out, "message h\u00e9llo \ud83d\ude97");
+
+        byte[] expected = "message h\u00e9llo \ud83d\ude97".getBytes("UTF-8");
+        byte[] written = out.toByteArray();
+        assertEquals(expected.length, written[3]);
+        assertEquals(4 + expected.length, written.length);
+
+        codec.readFrame(new ByteArrayInputStream(written));
+        assertEquals("message h\u00e9llo \ud83d\ude97", codec.getPayloadString());
+    }
+
+    @Test
+    public void writeFrame_replacesUnpairedSurrogatesLikeGetBytes() throws IOException {
+        String[] texts = {"a\ud800b", "tail \ud83d", "\ude97 head", "\ude97\ud83d"};
+        for (String text : texts) {
+            FrameCodec codec = new FrameCodec();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.writeFrame(out, text);
+
+            byte[] written = out.toByteArray();
+            assertArrayEquals(text, text.getBytes("UTF-8"),
+                    Arrays.copyOfRange(written, FrameCodec.HEADER_LENGTH, written.length));
+        }
+    }
+
+    @Test
+    public void readFrame_completesSplitReads() throws IOException {
+        FrameCodec codec = new FrameCodec();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeFrame(out, "CAMON");
+        codec.writeFrame(out, "Ready!");
+
+        InputStream in = new OneByteInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(5, codec.readFrame(in));
+        assertEquals("CAMON", codec.getPayloadString());
+        assertEquals(6, codec.readFrame(in));
+        assertEquals("Ready!", codec.getPayloadString());
+    }
+
+    @Test
+    public void readFrame_resyncsAfterCorruptLength() throws IOException {
+        FrameCodec codec = new FrameCodec(64);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xFF, 0x7F});
+        codec.writeFrame(out, "CAMOFF");
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(6, codec.readFrame(in));
+        assertEquals("CAMOFF", codec.getPayloadString());
+        assertEquals(1, codec.getResyncCount());
+        assertEquals(2, codec.getSkippedBytes());
+    }
+
+    @Test
+    public void readFrame_readsAFrameAfterOneShorterThanTheHeader() throws IOException {
+        FrameCodec codec = new FrameCodec();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeFrame(out, "OK");
+        codec.writeFrame(out, "hello");
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(2, codec.readFrame(in));
+        assertEquals("OK", codec.getPayloadString());
+        assertEquals(5, codec.readFrame(in));
+        assertEquals("hello", codec.getPayloadString());
+    }
+
+    @Test
+    public void readFrame_readsEmptyFrames() throws IOException {
+        FrameCodec codec = new FrameCodec();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeFrame(out, "");
+        codec.writeFrame(out, "");
+        codec.writeFrame(out, "Ready!");
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(0, codec.readFrame(in));
+        assertEquals("", codec.getPayloadString());
+        assertEquals(0, codec.readFrame(in));
+        assertEquals(6, codec.readFrame(in));
+        assertEquals("Ready!", codec.getPayloadString());
+        assertEquals(0, codec.getResyncCount());
+    }
+
+    @Test
+    public void readFrame_returnsEndOfStreamForTruncatedFrame() throws IOException {
+        FrameCodec codec = new FrameCodec();
+        InputStream in = new ByteArrayInputStream(new byte[]{0, 0, 0, 10, 'D', 'R'});
+        assertEquals(-1, codec.readFrame(in));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeFrame_rejectsOversizedPayload() throws IOException {
+        FrameCodec codec = new FrameCodec(4);
+        codec.writeFrame(new ByteArrayOutputStream(), "DRIVE-2");
+    }
+
+    private static class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameRecorderTest {
+
+    private static final int SEGMENT_BYTES = 1024;
+    private static final int FRAME_BYTES = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void append_rotatesSegmentsWithinBudget() throws IOException {
+        File directory = new File(folder.getRoot(), "recordings");
+        FrameRecorder recorder = new FrameRecorder(directory, SEGMENT_BYTES, 3 * SEGMENT_BYTES);
+
+        // Four frames fit in a segment, so 20 frames need five segments.
+        for (int i = 0; i < 20; i++) {
+            recorder.append(new byte[FRAME_BYTES], FRAME_BYTES, 1000 + i * 100);
+        }
+        recorder.close();
+
+        File[] segments = FrameRecorder.listSegments(directory);
+        assertEquals(3, segments.length);
+        assertEquals("0000000001800.frames", segments[0].getName());
+        assertEquals(20, recorder.getFramesRecorded());
+    }
+
+    @Test
+    public void findSegment_seeksAcrossSegments() throws IOException {
+        File directory = folder.getRoot();
+        FrameRecorder recorder = new FrameRecorder(directory, SEGMENT_BYTES, 100 * SEGMENT_BYTES);
+        for (int i = 0; i < 10; i++) {
+            byte[] data = new byte[FRAME_BYTES];
+            data[0] = (byte) i;
+            recorder.append(data, FRAME_BYTES, 1000 + i * 100);
+        }
+        recorder.close();
+
+        FrameRecording recording = FrameRecording.open(directory);
+        assertEquals(3, recording.getSegmentCount());
+        assertEquals(1000, recording.getStartMillis());
+        assertEquals(1900, recording.getEndMillis());
+
+        VideoFrameExchanger.Frame frame = new VideoFrameExchanger.Frame();
+        int segment = recording.findSegment(1550);
+        FrameSegment found = recording.getSegment(segment);
+        found.readFrame(found.findFrame(1550), frame);
+        assertEquals(5, frame.getData()[0]);
+
+        assertEquals(0, recording.findSegment(0));
+        assertEquals(2, recording.findSegment(5000));
+    }
+}
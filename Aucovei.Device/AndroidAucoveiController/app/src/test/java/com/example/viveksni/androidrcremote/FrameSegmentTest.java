@@ -0,0 +1,94 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSegmentTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void append_readsBackAfterReopen() throws IOException {
+        File file = folder.newFile("a.frames");
+        FrameSegment segment = FrameSegment.create(file, 4096);
+        assertTrue(segment.append(jpeg(10, 1), 10, 1000));
+        assertTrue(segment.append(jpeg(300, 2), 300, 1040));
+
+        FrameSegment reopened = FrameSegment.open(file);
+        assertEquals(2, reopened.getFrameCount());
+        assertEquals(segment.getLength(), reopened.getLength());
+        assertEquals(1040, reopened.getTimestampMillis(1));
+
+        VideoFrameExchanger.Frame frame = new VideoFrameExchanger.Frame();
+        reopened.readFrame(1, frame);
+        assertEquals(300, frame.getLength());
+        assertEquals(2, frame.getData()[299]);
+    }
+
+    @Test
+    public void append_refusesFrameThatDoesNotFit() throws IOException {
+        FrameSegment segment = FrameSegment.create(folder.newFile(), 100);
+        int room = 100 - FrameSegment.HEADER_BYTES - FrameSegment.FRAME_HEADER_BYTES;
+
+        assertFalse(segment.append(new byte[room + 1], room + 1, 0));
+        assertTrue(segment.append(new byte[room], room, 0));
+        assertFalse(segment.append(new byte[0], 0, 0));
+    }
+
+    @Test
+    public void findFrame_returnsFrameShowingAtTime() throws IOException {
+        FrameSegment segment = FrameSegment.create(folder.newFile(), 4096);
+        long[] times = {100, 200, 200, 300};
+        for (long time : times) {
+            segment.append(new byte[1], 1, time);
+        }
+
+        assertEquals(0, segment.findFrame(50));
+        assertEquals(0, segment.findFrame(100));
+        assertEquals(0, segment.findFrame(199));
+        assertEquals(2, segment.findFrame(200));
+        assertEquals(2, segment.findFrame(250));
+        assertEquals(3, segment.findFrame(1000));
+    }
+
+    @Test
+    public void append_keepsTimestampsSortedWhenClockGoesBack() throws IOException {
+        FrameSegment segment = FrameSegment.create(folder.newFile(), 4096);
+        segment.append(new byte[1], 1, 500);
+        segment.append(new byte[1], 1, 400);
+
+        assertEquals(500, segment.getTimestampMillis(1));
+    }
+
+    @Test
+    public void open_ignoresUncommittedFrame() throws IOException {
+        File file = folder.newFile();
+        FrameSegment segment = FrameSegment.create(file, 4096);
+        segment.append(jpeg(20, 1), 20, 1000);
+        // A frame header written past the committed length, as if the app died mid frame.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(segment.getLength());
+            raf.writeLong(2000);
+            raf.writeInt(20);
+        }
+
+        assertEquals(1, FrameSegment.open(file).getFrameCount());
+    }
+
+    private static byte[] jpeg(int length, int fill) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) fill);
+        return data;
+    }
+}
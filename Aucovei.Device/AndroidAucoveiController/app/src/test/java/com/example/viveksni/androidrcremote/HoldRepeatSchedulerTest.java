@@ -0,0 +1,105 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HoldRepeatScheduler}.
+ */
+public class HoldRepeatSchedulerTest {
+
+    private static final int FORWARD = 1;
+    private static final int LEFT = 2;
+    private static final int TILT_UP = 3;
+
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    private TimerWheel timers;
+    private HoldRepeatScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        timers = new TimerWheel("HoldRepeatSchedulerTest");
+        scheduler = new HoldRepeatScheduler(new HoldRepeatScheduler.Sender() {
+            @Override
+            public void send(String command) {
+                sent.add(command);
+            }
+        }, 10, timers);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+        timers.shutdown();
+    }
+
+    @Test
+    public void release_sendsReleaseCommandAfterLastRepeat() throws Exception {
+        scheduler.press(FORWARD, "DRIVE-2", "DRIVE-1");
+        Thread.sleep(55);
+        scheduler.release(FORWARD);
+        flush();
+        int count = sent.size();
+        Thread.sleep(30);
+        assertEquals(count, sent.size());
+
+        assertTrue(sent.size() >= 3);
+        assertEquals("DRIVE-1", sent.get(sent.size() - 1));
+        assertEquals(sent.size() - 1, Collections.frequency(sent, "DRIVE-2"));
+        assertTrue(scheduler.getTickCount() >= 2);
+    }
+
+    @Test
+    public void press_onHeldChannelTakesOverHold() throws Exception {
+        scheduler.press(FORWARD, "DRIVE-2", "DRIVE-1");
+        scheduler.press(LEFT, "DRIVE-4", "DRIVE-1");
+        flush();
+        sent.clear();
+
+        // The forward hold was taken over, so letting go of it must not stop the car.
+        scheduler.release(FORWARD);
+        Thread.sleep(35);
+        flush();
+        assertFalse(sent.contains("DRIVE-1"));
+        assertFalse(sent.contains("DRIVE-2"));
+        assertTrue(sent.contains("DRIVE-4"));
+
+        scheduler.release(LEFT);
+        flush();
+        assertEquals("DRIVE-1", sent.get(sent.size() - 1));
+    }
+
+    @Test
+    public void press_holdsOnDifferentChannelsRepeatTogether() throws Exception {
+        scheduler.press(FORWARD, "DRIVE-2", "DRIVE-1");
+        scheduler.press(TILT_UP, "TILT-1", null);
+        Thread.sleep(55);
+        scheduler.releaseAll(false);
+        flush();
+
+        assertTrue(Collections.frequency(sent, "DRIVE-2") >= 3);
+        assertTrue(Collections.frequency(sent, "TILT-1") >= 3);
+        assertFalse(sent.contains("DRIVE-1"));
+    }
+
+    // Waits for everything already handed to the scheduler thread to run.
+    private void flush() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        timers.execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverValuesWithinOnePercent() {
+        for (long micros = 1; micros < LatencyHistogram.HIGHEST_TRACKABLE_MICROS; micros = micros * 3 / 2 + 1) {
+            int index = LatencyHistogram.countsIndex(micros);
+            long lowest = LatencyHistogram.lowestEquivalentValue(index);
+            long next = LatencyHistogram.lowestEquivalentValue(index + 1);
+            assertTrue(micros + " below its bucket", lowest <= micros);
+            assertTrue(micros + " above its bucket", micros < next);
+            assertTrue(micros + " bucket too wide", next - lowest <= Math.max(1, micros / 100));
+        }
+    }
+
+    @Test
+    public void percentiles_ofUniformSamples() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(1000, histogram.getMinMicros());
+        assertEquals(100000, histogram.getMaxMicros());
+        assertEquals(50500, histogram.getMeanMicros(), 0.001);
+        assertEquals(50000, histogram.getValueAtPercentile(50), 500);
+        assertEquals(95000, histogram.getValueAtPercentile(95), 950);
+        assertEquals(99000, histogram.getValueAtPercentile(99), 990);
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+        assertEquals("n=100 p50=50.2 p95=95.2 p99=99.3 max=100.0 ms", histogram.toSummaryString());
+    }
+
+    @Test
+    public void copy_isIndependentAndReset_clears() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(TimeUnit.SECONDS.toNanos(120));
+        LatencyHistogram copy = histogram.copy();
+        histogram.reset();
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(1, copy.getTotalCount());
+        assertEquals(1, copy.getClampedCount());
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE_MICROS, copy.getMaxMicros());
+    }
+
+    @Test
+    public void writePercentileDistribution_endsAtTotalCount() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        StringWriter out = new StringWriter();
+        histogram.writePercentileDistribution(out);
+
+        String text = out.toString();
+        assertTrue(text, text.contains("Percentile"));
+        assertTrue(text, text.contains("10.000 1.000000000000          2"));
+        assertTrue(text, text.contains("Total count    =            2"));
+    }
+}
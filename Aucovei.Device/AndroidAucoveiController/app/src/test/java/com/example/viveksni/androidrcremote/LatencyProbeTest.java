@@ -0,0 +1,47 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyProbeTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void onMessage_recordsEchoedStamps() {
+        LatencyProbe probe = new LatencyProbe(null, null, TimerWheel.NO_OWNER);
+
+        assertTrue(probe.onMessage(Commands.PONG_PREFIX + 1000 * MS, 1012 * MS));
+        assertTrue(probe.onMessage(Commands.PONG_PREFIX + 2000 * MS, 2030 * MS));
+
+        assertEquals(2, probe.getPongsReceived());
+        assertEquals(12000, probe.getHistogram().getMinMicros());
+        assertEquals(30000, probe.getHistogram().getMaxMicros());
+    }
+
+    @Test
+    public void onMessage_passesOtherMessagesOn() {
+        LatencyProbe probe = new LatencyProbe(null, null, TimerWheel.NO_OWNER);
+
+        assertFalse(probe.onMessage("hostip:192.168.1.2", 0));
+        assertFalse(probe.onMessage("CAMON", 0));
+        assertEquals(0, probe.getHistogram().getTotalCount());
+    }
+
+    @Test
+    public void onMessage_discardsBadAndStaleEchoes() {
+        LatencyProbe probe = new LatencyProbe(null, null, TimerWheel.NO_OWNER);
+
+        assertTrue(probe.onMessage(Commands.PONG_PREFIX + "garbage", 0));
+        assertTrue(probe.onMessage(Commands.PONG_PREFIX + 5000 * MS, 1000 * MS));
+        assertTrue(probe.onMessage(Commands.PONG_PREFIX + 0, TimeUnit.MINUTES.toNanos(5)));
+
+        assertEquals(3, probe.getPongsDiscarded());
+        assertEquals(0, probe.getPongsReceived());
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LttbTest {
+
+    @Test
+    public void downsample_keepsEndsAndPeaks() {
+        int count = 1000;
+        long[] xs = new long[count];
+        float[] ys = new float[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = 1000000000L + i * 50000000L;
+            ys[i] = i == 500 ? 100 : i == 750 ? -100 : (float) Math.sin(i / 50.0);
+        }
+
+        long[] outX = new long[20];
+        float[] outY = new float[20];
+        int kept = Lttb.downsample(xs, ys, 0, count, 20, outX, outY);
+
+        assertEquals(20, kept);
+        assertEquals(xs[0], outX[0]);
+        assertEquals(xs[count - 1], outX[kept - 1]);
+        boolean peak = false;
+        boolean dip = false;
+        for (int i = 0; i < kept; i++) {
+            if (i > 0) {
+                assertTrue(outX[i] > outX[i - 1]);
+            }
+            peak |= outY[i] == 100;
+            dip |= outY[i] == -100;
+        }
+        assertTrue(peak);
+        assertTrue(dip);
+    }
+
+    @Test
+    public void downsample_copiesWhenAlreadySmallEnough() {
+        long[] xs = {5, 6, 7, 8};
+        float[] ys = {1, 2, 3, 4};
+        long[] outX = new long[4];
+        float[] outY = new float[4];
+
+        assertEquals(3, Lttb.downsample(xs, ys, 1, 3, 10, outX, outY));
+        assertEquals(6, outX[0]);
+        assertEquals(4, outY[2], 0);
+        assertEquals(2, Lttb.downsample(xs, ys, 0, 4, 2, outX, outY));
+        assertEquals(8, outX[1]);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MacroEngineTest {
+
+    private final TimerWheel timers = new TimerWheel("MacroEngineTest");
+    private final RecordingSender sender = new RecordingSender();
+    private final MacroEngine engine = new MacroEngine(sender, timers);
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private volatile int endReason = -1;
+
+    {
+        engine.setListener(new MacroEngine.Listener() {
+            @Override
+            public void onMacroEnded(Macro macro, int reason) {
+                endReason = reason;
+                ended.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        timers.shutdown();
+    }
+
+    @Test
+    public void run_sendsStepsAtTheirOffsets() throws InterruptedException {
+        Macro macro = Macro.compile("square", "drive forward 50ms\ndrive left 50ms\nrepeat 2\nhorn 10ms\nend");
+        // Steps are timed from run(), not from the first send.
+        long start = System.nanoTime();
+        engine.run(macro);
+        assertTrue(ended.await(2, TimeUnit.SECONDS));
+
+        assertEquals(MacroEngine.END_COMPLETED, endReason);
+        assertEquals("[DRIVE-2, DRIVE-4, HORN, HORN, DRIVE-1]", sender.commands().toString());
+        long left = sender.offsetMillis(1, start);
+        long stop = sender.offsetMillis(4, start);
+        assertTrue("left at " + left, left >= 49 && left < 250);
+        assertTrue("stop at " + stop, stop >= 119 && stop < 400);
+        assertEquals(5, engine.getStepError().getTotalCount());
+        assertFalse(engine.isRunning());
+    }
+
+    @Test
+    public void abort_stopsTheCarAndNothingFollows() throws InterruptedException {
+        engine.run(Macro.compile("patrol", "repeat\ndrive forward 20ms\ndrive reverse 20ms\nend"));
+        Thread.sleep(70);
+        assertTrue(engine.abort());
+        assertEquals(MacroEngine.END_ABORTED, endReason);
+        int sent = sender.commands().size();
+        assertEquals(Commands.DRIVE_STOP, sender.commands().get(sent - 1));
+
+        Thread.sleep(60);
+        assertEquals(sent, sender.commands().size());
+        assertFalse(engine.abort());
+    }
+
+    @Test
+    public void await_resumesOnTheMessageAndTimesOut() throws InterruptedException {
+        engine.run(Macro.compile("dock", "drive forward\nawait DOCKED 1s\ndrive stop\nawait CHARGING 30ms\nhorn"));
+        Thread.sleep(30);
+        assertEquals("[DRIVE-2]", sender.commands().toString());
+
+        engine.onMessage("something else");
+        engine.onMessage("docked:bay1");
+        assertTrue(ended.await(2, TimeUnit.SECONDS));
+        assertEquals(MacroEngine.END_TIMED_OUT, endReason);
+        assertEquals("[DRIVE-2, DRIVE-1, DRIVE-1]", sender.commands().toString());
+    }
+
+    @Test
+    public void conditions_endLoopsAndAbort() throws InterruptedException {
+        engine.run(Macro.compile("wander", "repeat until HOME\nhorn 10ms\nend\ntilt center"));
+        Thread.sleep(35);
+        engine.onMessage("HOME");
+        assertTrue(ended.await(2, TimeUnit.SECONDS));
+        assertEquals(MacroEngine.END_COMPLETED, endReason);
+        assertEquals(Commands.PAN_TILT_CENTER, sender.commands().get(sender.commands().size() - 1));
+
+        engine.run(Macro.compile("patrol", "abort on OBSTACLE\nrepeat\ndrive forward 20ms\nend"));
+        Thread.sleep(30);
+        engine.onMessage("obstacle 12cm");
+        assertFalse(engine.isRunning());
+        assertEquals(MacroEngine.END_CONDITION, endReason);
+        assertEquals(Commands.DRIVE_STOP, sender.commands().get(sender.commands().size() - 1));
+        assertEquals(1, engine.getCompleted());
+        assertEquals(1, engine.getAborted());
+    }
+
+    private static class RecordingSender implements MacroEngine.Sender {
+        private final List<String> mCommands = new ArrayList<>();
+        private final List<Long> mNanos = new ArrayList<>();
+
+        @Override
+        public synchronized void send(String command) {
+            mCommands.add(command);
+            mNanos.add(System.nanoTime());
+        }
+
+        synchronized List<String> commands() {
+            return new ArrayList<>(mCommands);
+        }
+
+        synchronized long offsetMillis(int index, long startNanos) {
+            return TimeUnit.NANOSECONDS.toMillis(mNanos.get(index) - startNanos);
+        }
+    }
+}
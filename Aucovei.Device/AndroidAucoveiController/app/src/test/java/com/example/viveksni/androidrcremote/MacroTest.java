@@ -0,0 +1,77 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MacroTest {
+
+    @Test
+    public void compile_flattensLoopsIntoJumps() {
+        Macro macro = Macro.compile("patrol",
+                "# Up and down until docked\n"
+                        + "abort on OBSTACLE\n"
+                        + "repeat until DOCKED\n"
+                        + "  drive forward 2s\n"
+                        + "  repeat 2\n"
+                        + "    horn 250ms\n"
+                        + "  end\n"
+                        + "  DRIVE reverse 1.5s\n"
+                        + "end\n");
+        assertEquals("patrol"
+                + "\n0 abort-on OBSTACLE"
+                + "\n1 clear DOCKED"
+                + "\n2 send DRIVE-2"
+                + "\n3 wait 2000"
+                + "\n4 set 0 2"
+                + "\n5 send HORN"
+                + "\n6 wait 250"
+                + "\n7 loop 0 5"
+                + "\n8 send DRIVE-3"
+                + "\n9 wait 1500"
+                + "\n10 break-if DOCKED 12"
+                + "\n11 jump 2"
+                // Still driving after the loop, so it stops.
+                + "\n12 send DRIVE-1"
+                + "\n13 end", macro.toString());
+        assertEquals(2, macro.getMessageCount());
+        assertTrue(macro.matches(0, "obstacle:12cm"));
+    }
+
+    @Test
+    public void compile_endsWithoutStopWhenTheCarIsNotDriving() {
+        Macro macro = Macro.compile("sweep", "cam on\ntilt left 500ms\ntilt right 1s\ntilt center\nawait FRAME 2s");
+        assertEquals("sweep"
+                + "\n0 send CAM-1"
+                + "\n1 send TILT-3"
+                + "\n2 wait 500"
+                + "\n3 send TILT-4"
+                + "\n4 wait 1000"
+                + "\n5 send TILT-5"
+                + "\n6 clear FRAME"
+                + "\n7 await FRAME 2000"
+                + "\n8 end", macro.toString());
+    }
+
+    @Test
+    public void compile_rejectsInvalidScripts() {
+        assertInvalid("drive sideways", "line 1");
+        assertInvalid("wait 2", "ms or s");
+        assertInvalid("horn\nend", "line 2: end without repeat");
+        assertInvalid("repeat 3\nhorn", "repeat without end");
+        assertInvalid("repeat\nhorn\nend", "must wait");
+        assertInvalid("repeat 5000\nhorn 1s\nend", "repeat count");
+        assertInvalid("fly", "unknown step");
+    }
+
+    private static void assertInvalid(String source, String expected) {
+        try {
+            Macro.compile("bad", source);
+            fail("Compiled " + source);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expected));
+        }
+    }
+}
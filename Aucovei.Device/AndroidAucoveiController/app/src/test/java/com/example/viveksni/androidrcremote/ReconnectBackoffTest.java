@@ -0,0 +1,45 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void nextDelay_firstAttemptIsImmediate() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, 5, new Random(0));
+
+        assertEquals(0, backoff.nextDelayMillis());
+        assertEquals(1, backoff.getAttempts());
+    }
+
+    @Test
+    public void nextDelay_doublesWithJitterUpToTheCap() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, 10, new Random(0));
+        backoff.nextDelayMillis();
+
+        long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+        for (long ceiling : ceilings) {
+            long delay = backoff.nextDelayMillis();
+            assertTrue(delay + " for " + ceiling, delay >= ceiling / 2 && delay <= ceiling);
+        }
+    }
+
+    @Test
+    public void nextDelay_givesUpAfterMaxAttemptsUntilReset() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, 3, new Random(0));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(backoff.nextDelayMillis() >= 0);
+        }
+        assertEquals(-1, backoff.nextDelayMillis());
+        assertEquals(-1, backoff.nextDelayMillis());
+
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertEquals(0, backoff.nextDelayMillis());
+    }
+}
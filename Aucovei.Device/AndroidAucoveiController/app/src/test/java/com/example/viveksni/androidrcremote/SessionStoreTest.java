@@ -0,0 +1,144 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void close_commitsEventsAndTelemetryInOneBatch() throws Exception {
+        Telemetry telemetry = new Telemetry(64);
+        addReading(telemetry, Telemetry.CHANNEL_BATTERY, 7.5f);
+        addReading(telemetry, Telemetry.CHANNEL_DISTANCE, 30);
+        SessionStore store = new SessionStore(folder.getRoot(), telemetry, 60000, 4096, 5);
+        store.onConnected("car");
+        store.onMessage("CAMON");
+        store.onDisconnected();
+        store.close();
+
+        assertTrue(store.awaitClosed(5000));
+        assertNull(store.getError());
+        assertEquals(1, store.getBatchesWritten());
+
+        File[] logs = SessionStore.listLogs(folder.getRoot());
+        assertEquals(1, logs.length);
+        RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(logs[0].length(), SessionLog.read(logs[0], visitor));
+        assertEquals(3, visitor.mEvents.size());
+        assertEquals(SessionLog.EVENT_CONNECTED + " car", visitor.mEvents.get(0));
+        assertEquals(SessionLog.EVENT_MESSAGE + " CAMON", visitor.mEvents.get(1));
+        assertEquals(SessionLog.EVENT_DISCONNECTED + " null", visitor.mEvents.get(2));
+        assertEquals(2, visitor.mSamples.size());
+        assertTrue(visitor.mSamples.contains(Telemetry.CHANNEL_BATTERY + " 7.5"));
+        long now = System.currentTimeMillis();
+        assertTrue(Math.abs(visitor.mLastTime - now) < 10000);
+    }
+
+    @Test
+    public void stagingFull_dropsEventsInsteadOfBlocking() throws Exception {
+        SessionStore store = new SessionStore(folder.getRoot(), new Telemetry(16), 60000, 256, 5);
+        for (int i = 0; i < 100; i++) {
+            store.onMessage("message " + i);
+        }
+        store.close();
+        assertTrue(store.awaitClosed(5000));
+
+        assertTrue(store.getDroppedEvents() > 0);
+        RecordingVisitor visitor = new RecordingVisitor();
+        SessionLog.read(SessionStore.listLogs(folder.getRoot())[0], visitor);
+        assertEquals(100 - store.getDroppedEvents(), visitor.mEvents.size());
+    }
+
+    @Test
+    public void recover_cutsTornBatchAndKeepsTheOnesBefore() throws Exception {
+        File directory = folder.newFolder("sessions");
+        SessionStore store = new SessionStore(directory, new Telemetry(16), 20, 4096, 5);
+        store.onConnected("first");
+        waitForBatches(store, 1);
+        store.onConnected("second");
+        waitForBatches(store, 2);
+        store.close();
+        assertTrue(store.awaitClosed(5000));
+
+        // A crash halfway through writing a third batch.
+        File log = SessionStore.listLogs(directory)[0];
+        long intact = log.length();
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.seek(intact);
+            raf.writeInt(100);
+            raf.writeInt(0);
+            raf.write(new byte[40]);
+        }
+
+        SessionStore next = new SessionStore(directory, new Telemetry(16), 20, 4096, 5);
+        next.close();
+        assertTrue(next.awaitClosed(5000));
+
+        assertEquals(48, next.getRecoveredBytes());
+        assertEquals(intact, log.length());
+        RecordingVisitor visitor = new RecordingVisitor();
+        SessionLog.read(log, visitor);
+        assertEquals(2, visitor.mEvents.size());
+        assertEquals(SessionLog.EVENT_CONNECTED + " second", visitor.mEvents.get(1));
+    }
+
+    @Test
+    public void varints_roundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        long[] values = {0, 1, -1, 63, -64, 1000000, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            SessionLog.writeZigzag(buffer, value);
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, SessionLog.readZigzag(buffer));
+        }
+    }
+
+    private static void addReading(Telemetry telemetry, int channel, float value) {
+        byte[] payload = new byte[16];
+        int length = Telemetry.encode(new int[]{channel}, new float[]{value}, 1, payload, 0);
+        telemetry.decode(ByteBuffer.wrap(payload, 0, length), System.nanoTime());
+    }
+
+    private static void waitForBatches(SessionStore store, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getBatchesWritten() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, store.getBatchesWritten());
+    }
+
+    private static final class RecordingVisitor implements SessionLog.Visitor {
+        final List<String> mEvents = new ArrayList<>();
+        final List<String> mSamples = new ArrayList<>();
+        long mLastTime;
+
+        @Override
+        public void onSample(int channel, long timeMillis, float value) {
+            mSamples.add(channel + " " + value);
+            mLastTime = timeMillis;
+        }
+
+        @Override
+        public void onEvent(int event, long timeMillis, String detail) {
+            mEvents.add(event + " " + detail);
+            mLastTime = timeMillis;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TelemetrySeriesTest {
+
+    @Test
+    public void snapshot_returnsNewestSamplesOldestFirstAfterWrapping() {
+        TelemetrySeries series = new TelemetrySeries(8);
+        for (int i = 0; i < 13; i++) {
+            series.add(i * 1000L, i);
+        }
+
+        TelemetrySeries.Snapshot snapshot = new TelemetrySeries.Snapshot(8);
+        series.snapshot(snapshot);
+
+        // The oldest slot is the one the writer fills next, so it is left out.
+        assertEquals(7, snapshot.getCount());
+        assertEquals(6, snapshot.getFirstSequence());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(6 + i, snapshot.getValues()[i], 0);
+            assertEquals((6 + i) * 1000L, snapshot.getTimestamps()[i]);
+        }
+        assertEquals(12, series.getLatest(Float.NaN), 0);
+    }
+
+    @Test
+    public void readSince_returnsOnlyNewSamples() {
+        TelemetrySeries series = new TelemetrySeries(16);
+        TelemetrySeries.Snapshot snapshot = new TelemetrySeries.Snapshot(16);
+        series.add(1, 1);
+        series.add(2, 2);
+        series.readSince(0, snapshot);
+        assertEquals(2, snapshot.getCount());
+
+        series.add(3, 3);
+        series.readSince(snapshot.getNextSequence(), snapshot);
+        assertEquals(1, snapshot.getCount());
+        assertEquals(3, snapshot.getValues()[0], 0);
+
+        series.readSince(snapshot.getNextSequence(), snapshot);
+        assertEquals(0, snapshot.getCount());
+        assertEquals(3, snapshot.getNextSequence());
+    }
+
+    @Test
+    public void readSince_leavesOutTheSlotTheWriterFillsNextOnceTheRingIsFull() {
+        TelemetrySeries series = new TelemetrySeries(4);
+        TelemetrySeries.Snapshot snapshot = new TelemetrySeries.Snapshot(4);
+        for (int i = 0; i < 3; i++) {
+            series.add(i, i);
+        }
+        series.readSince(0, snapshot);
+        assertEquals(3, snapshot.getCount());
+        assertEquals(0, snapshot.getFirstSequence());
+
+        // Exactly full: sample 0 shares its slot with sample 4, which may be mid-write.
+        series.add(3, 3);
+        series.readSince(0, snapshot);
+        assertEquals(3, snapshot.getCount());
+        assertEquals(1, snapshot.getFirstSequence());
+        assertEquals(1, snapshot.getValues()[0], 0);
+        assertEquals(3, snapshot.getValues()[2], 0);
+    }
+
+    @Test
+    public void readSince_skipsSamplesTheRingOverwrote() {
+        TelemetrySeries series = new TelemetrySeries(4);
+        for (int i = 0; i < 10; i++) {
+            series.add(i, i);
+        }
+
+        // A smaller snapshot keeps the newest samples.
+        TelemetrySeries.Snapshot snapshot = new TelemetrySeries.Snapshot(3);
+        series.readSince(2, snapshot);
+        assertEquals(7, snapshot.getFirstSequence());
+        assertEquals(3, snapshot.getCount());
+        assertEquals(9, snapshot.getValues()[2], 0);
+        assertEquals(Float.NaN, new TelemetrySeries(4).getLatest(Float.NaN), 0);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryTest {
+
+    @Test
+    public void decode_addsEachReadingToItsChannel() {
+        Telemetry telemetry = new Telemetry(16);
+        byte[] payload = new byte[32];
+        int length = Telemetry.encode(
+                new int[]{Telemetry.CHANNEL_DISTANCE, Telemetry.CHANNEL_BATTERY},
+                new float[]{42.5f, 7.25f}, 2, payload, 0);
+
+        assertTrue(telemetry.decode(ByteBuffer.wrap(payload, 0, length), 100));
+
+        TelemetrySeries.Snapshot snapshot = new TelemetrySeries.Snapshot(4);
+        telemetry.getSeries(Telemetry.CHANNEL_BATTERY).snapshot(snapshot);
+        assertEquals(1, snapshot.getCount());
+        assertEquals(7.25f, snapshot.getValues()[0], 0);
+        assertEquals(100, snapshot.getTimestamps()[0]);
+        assertEquals(42.5f, telemetry.getSeries(Telemetry.CHANNEL_DISTANCE).getLatest(0), 0);
+        assertEquals(0, telemetry.getSeries(Telemetry.CHANNEL_SPEED).getSequence());
+        assertEquals("Distance 42.5 cm  Battery 7.3 V", telemetry.toSummaryString());
+    }
+
+    @Test
+    public void decode_skipsUnknownChannelsAndCountsTruncatedFrames() {
+        Telemetry telemetry = new Telemetry(16);
+        byte[] payload = new byte[32];
+        int length = Telemetry.encode(new int[]{9, Telemetry.CHANNEL_SPEED},
+                new float[]{1, 2}, 2, payload, 0);
+
+        assertTrue(telemetry.decode(ByteBuffer.wrap(payload, 0, length), 1));
+        assertFalse(telemetry.decode(ByteBuffer.wrap(payload, 0, length - 1), 2));
+        assertFalse(telemetry.decode(ByteBuffer.wrap("Ready!".getBytes()), 3));
+
+        assertEquals(1, telemetry.getSeries(Telemetry.CHANNEL_SPEED).getSequence());
+        assertEquals(1, telemetry.getFramesDecoded());
+        assertEquals(1, telemetry.getMalformedFrames());
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    private final TimerWheel wheel = new TimerWheel("TimerWheelTest");
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        wheel.shutdown();
+    }
+
+    @Test
+    public void schedule_runsInDueOrderAndCancelledTimersNever() throws Exception {
+        wheel.schedule(TimerWheel.NO_OWNER, record("c"), 30, TimeUnit.MILLISECONDS);
+        long cancelled = wheel.schedule(TimerWheel.NO_OWNER, record("x"), 20, TimeUnit.MILLISECONDS);
+        wheel.schedule(TimerWheel.NO_OWNER, record("b"), 10, TimeUnit.MILLISECONDS);
+        wheel.execute(record("a"));
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+
+        await(40);
+        assertEquals("[a, b, c]", ran.toString());
+        assertEquals(0, wheel.getPendingCount());
+        // Including the one await scheduled.
+        assertEquals(4, wheel.getFiredCount());
+    }
+
+    @Test
+    public void cancel_ignoresAHandleWhoseSlotWasReused() throws Exception {
+        long first = wheel.schedule(TimerWheel.NO_OWNER, record("first"), 0, TimeUnit.MILLISECONDS);
+        Thread.sleep(10);
+        long second = wheel.schedule(TimerWheel.NO_OWNER, record("second"), 10, TimeUnit.MILLISECONDS);
+        assertEquals((int) first, (int) second);
+
+        assertFalse(wheel.cancel(first));
+        await(20);
+        assertEquals("[first, second]", ran.toString());
+    }
+
+    @Test
+    public void scheduleAtFixedRate_keepsItsRateUntilItCancelsItself() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicLong handle = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        handle.set(wheel.scheduleAtFixedRate(TimerWheel.NO_OWNER, new Runnable() {
+            @Override
+            public void run() {
+                if (runs.incrementAndGet() == 20) {
+                    assertTrue(wheel.cancel(handle.get()));
+                    done.countDown();
+                }
+            }
+        }, 5, 5, TimeUnit.MILLISECONDS));
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsedMillis, elapsedMillis >= 99 && elapsedMillis < 200);
+        Thread.sleep(20);
+        assertEquals(20, runs.get());
+    }
+
+    @Test
+    public void cancelOwner_clearsOnlyThatOwnersTimers() throws Exception {
+        int link = wheel.newOwner();
+        int ui = wheel.newOwner();
+        for (int i = 0; i < 100; i++) {
+            wheel.schedule(link, record("link"), 20, TimeUnit.MILLISECONDS);
+        }
+        wheel.scheduleAtFixedRate(link, record("ping"), 5, 5, TimeUnit.MILLISECONDS);
+        wheel.schedule(ui, record("ui"), 20, TimeUnit.MILLISECONDS);
+
+        assertEquals(101, wheel.cancelOwner(link));
+        assertEquals(0, wheel.cancelOwner(link));
+        await(30);
+        assertEquals("[ui]", ran.toString());
+    }
+
+    @Test
+    public void schedule_thousandsOfTimersAcrossSeveralTurnsOfTheWheel() throws Exception {
+        final int count = 5000;
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicLong maxLateNanos = new AtomicLong();
+        Random random = new Random(7);
+        final long base = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final long delayMillis = random.nextInt(1500);
+            wheel.schedule(TimerWheel.NO_OWNER, new Runnable() {
+                @Override
+                public void run() {
+                    long late = System.nanoTime() - base - TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                    assertTrue("early by " + -late, late > -TimeUnit.MILLISECONDS.toNanos(1));
+                    if (late > maxLateNanos.get()) {
+                        maxLateNanos.set(late);
+                    }
+                    done.countDown();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(wheel.getPendingCount() > TimerWheel.DEFAULT_CAPACITY);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(10);
+        assertEquals(0, wheel.getPendingCount());
+        assertEquals(count, wheel.getFiredCount());
+        assertEquals(0, wheel.getTaskFailures());
+        // Scheduling all of them takes a few milliseconds of the budget.
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(maxLateNanos.get()) + " ms late",
+                maxLateNanos.get() < TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void failingTask_isLoggedWithItsOwnerAndTheWheelCarriesOn() throws Exception {
+        final List<LogRecord> logged = Collections.synchronizedList(new ArrayList<LogRecord>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                logged.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger("TimerWheel");
+        logger.addHandler(handler);
+        try {
+            int owner = wheel.newOwner();
+            wheel.schedule(owner, new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("broken probe");
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+            wheel.schedule(owner, record("after"), 5, TimeUnit.MILLISECONDS);
+
+            await(10);
+            assertEquals("[after]", ran.toString());
+            assertEquals(1, wheel.getTaskFailures());
+            assertEquals(1, logged.size());
+            assertEquals(Level.SEVERE, logged.get(0).getLevel());
+            assertTrue(logged.get(0).getMessage(), logged.get(0).getMessage().contains("owner " + owner));
+            assertEquals("broken probe", logged.get(0).getThrown().getMessage());
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    // Waits for the wheel to run everything due within the given time.
+    private void await(long millis) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        wheel.schedule(TimerWheel.NO_OWNER, new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VideoFrameExchangerTest {
+
+    @Test
+    public void take_returnsNewestFrameAndCountsDropped() throws InterruptedException {
+        VideoFrameExchanger exchanger = new VideoFrameExchanger();
+
+        for (int i = 1; i <= 3; i++) {
+            write(exchanger, i);
+        }
+
+        VideoFrameExchanger.Frame frame = exchanger.take(0);
+        assertEquals(3, frame.getData()[0]);
+        assertEquals(3, exchanger.getPublishedCount());
+        assertEquals(2, exchanger.getDroppedCount());
+        assertNull(exchanger.take(0));
+    }
+
+    @Test
+    public void publish_neverWritesIntoTheFrameBeingRead() throws InterruptedException {
+        VideoFrameExchanger exchanger = new VideoFrameExchanger();
+        write(exchanger, 1);
+        VideoFrameExchanger.Frame reading = exchanger.take(0);
+
+        for (int i = 2; i <= 10; i++) {
+            assertTrue(exchanger.getWriteFrame() != reading);
+            write(exchanger, i);
+        }
+
+        assertEquals(1, reading.getData()[0]);
+        assertEquals(10, exchanger.take(0).getData()[0]);
+    }
+
+    @Test
+    public void take_returnsNullOnceClosed() throws InterruptedException {
+        VideoFrameExchanger exchanger = new VideoFrameExchanger();
+        write(exchanger, 1);
+        exchanger.close();
+
+        assertNull(exchanger.take(1000));
+    }
+
+    private static void write(VideoFrameExchanger exchanger, int value) {
+        VideoFrameExchanger.Frame frame = exchanger.getWriteFrame();
+        frame.ensureCapacity(1)[0] = (byte) value;
+        frame.set(1, value);
+        exchanger.publish();
+    }
+}
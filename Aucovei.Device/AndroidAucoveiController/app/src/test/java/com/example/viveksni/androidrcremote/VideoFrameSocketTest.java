@@ -0,0 +1,148 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VideoFrameSocketTest {
+
+    private static final Closeable NO_CLOSE = new Closeable() {
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    public void handshake_sendsUpgradeAndAcceptsSwitchingProtocols() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String response = "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\n"
+                + "Upgrade: websocket\r\nSec-WebSocket-Accept: abc=\r\n\r\n";
+        byte[] frame = binaryFrame(new byte[]{1, 2, 3});
+        VideoFrameSocket socket = new VideoFrameSocket(new ByteArrayInputStream(concat(
+                response.getBytes(StandardCharsets.US_ASCII), frame)), out, NO_CLOSE);
+
+        socket.handshake("10.0.0.2");
+
+        String request = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        assertTrue(request.startsWith("GET /VideoFrame HTTP/1.1\r\n"));
+        assertTrue(request.contains("Sec-WebSocket-Version: 13\r\n"));
+        assertTrue(request.matches("(?s).*Sec-WebSocket-Key: [A-Za-z0-9+/]{22}==\r\n.*"));
+        // The headers were consumed, so the first frame follows.
+        VideoFrameExchanger.Frame read = new VideoFrameExchanger.Frame();
+        assertTrue(socket.readFrame(read));
+        assertEquals(3, read.getLength());
+    }
+
+    @Test
+    public void handshake_rejectsOtherStatus() {
+        String response = "HTTP/1.1 426 Upgrade Required\r\n\r\n";
+        VideoFrameSocket socket = new VideoFrameSocket(new ByteArrayInputStream(
+                response.getBytes(StandardCharsets.US_ASCII)), new ByteArrayOutputStream(), NO_CLOSE);
+        try {
+            socket.handshake("10.0.0.2");
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void requestFrame_sendsMaskedCommand() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VideoFrameSocket socket = new VideoFrameSocket(new ByteArrayInputStream(new byte[0]), out, NO_CLOSE);
+
+        socket.requestFrame();
+
+        byte[] sent = out.toByteArray();
+        int length = VideoFrameSocket.REQUEST_PAYLOAD.length;
+        assertEquals(6 + length, sent.length);
+        assertEquals((byte) 0x81, sent[0]);
+        assertEquals((byte) (0x80 | length), sent[1]);
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (sent[6 + i] ^ sent[2 + (i & 3)]);
+        }
+        assertEquals("{\"command\":\"VideoFrame\"}", new String(payload, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void readFrame_readsEveryLengthEncodingIntoReusedBuffer() throws IOException {
+        byte[] small = filled(100);
+        byte[] medium = filled(40000);
+        byte[] large = filled(70000);
+        VideoFrameSocket socket = new VideoFrameSocket(new ByteArrayInputStream(concat(
+                binaryFrame(large), binaryFrame(small), binaryFrame(medium))), null, NO_CLOSE);
+        VideoFrameExchanger.Frame frame = new VideoFrameExchanger.Frame();
+
+        assertTrue(socket.readFrame(frame));
+        assertArrayEquals(large, Arrays.copyOf(frame.getData(), frame.getLength()));
+        byte[] buffer = frame.getData();
+
+        assertTrue(socket.readFrame(frame));
+        assertArrayEquals(small, Arrays.copyOf(frame.getData(), frame.getLength()));
+        assertTrue(socket.readFrame(frame));
+        assertArrayEquals(medium, Arrays.copyOf(frame.getData(), frame.getLength()));
+        assertTrue(buffer == frame.getData());
+
+        assertFalse(socket.readFrame(frame));
+    }
+
+    @Test
+    public void readFrame_skipsTextAndStopsAtClose() throws IOException {
+        byte[] text = {(byte) 0x81, 2, 'h', 'i'};
+        byte[] close = {(byte) 0x88, 0};
+        VideoFrameSocket socket = new VideoFrameSocket(new ByteArrayInputStream(concat(
+                text, binaryFrame(new byte[]{9}), close, binaryFrame(new byte[]{8}))), null, NO_CLOSE);
+        VideoFrameExchanger.Frame frame = new VideoFrameExchanger.Frame();
+
+        assertTrue(socket.readFrame(frame));
+        assertEquals(9, frame.getData()[0]);
+        assertFalse(socket.readFrame(frame));
+    }
+
+    // Encodes an unmasked binary message the way the car's WebSocket.WriteFrame does.
+    private static byte[] binaryFrame(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x82);
+        if (payload.length <= 125) {
+            out.write(payload.length);
+        } else if (payload.length <= 65535) {
+            out.write(126);
+            out.write(payload.length >> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >> shift));
+            }
+        }
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] filled(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + length);
+        }
+        return data;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VoiceIntentMatcherTest {
+
+    private final VoiceIntentMatcher matcher = VoiceIntentMatcher.createDefault();
+
+    @Test
+    public void plan_drivesForAPulseByDefault() {
+        assertPlan("go forward", "0:DRIVE-2 500:DRIVE-1");
+        assertPlan("come back", "0:DRIVE-3 500:DRIVE-1");
+        assertPlan("turn left now", "0:DRIVE-4 500:DRIVE-1");
+        assertPlan("please turn right", "0:DRIVE-5 500:DRIVE-1");
+        assertPlan("back up", "0:DRIVE-3 500:DRIVE-1");
+        assertPlan("hello", "");
+    }
+
+    @Test
+    public void plan_chainsClausesWithDurationsAndCounts() {
+        assertPlan("Forward two seconds, then turn left",
+                "0:DRIVE-2 2000:DRIVE-1 2000:DRIVE-4 2500:DRIVE-1");
+        assertPlan("reverse right for 1.5 seconds and honk twice",
+                "0:DRIVE-11 1500:DRIVE-1 1500:HORN 1800:HORN");
+        assertPlan("look up three times then wait half a second and go ahead for a second",
+                "0:TILT-1 300:TILT-1 600:TILT-1 1100:DRIVE-2 2100:DRIVE-1");
+        assertPlan("drive straight for twenty five seconds", "0:DRIVE-2 "
+                + VoiceIntentMatcher.MAX_DRIVE_MILLIS + ":DRIVE-1");
+    }
+
+    @Test
+    public void plan_prefersTheLongestPhrase() {
+        assertPlan("stop", "0:DRIVE-1");
+        assertPlan("stop the camera", "0:CAM-0");
+        assertPlan("back left", "0:DRIVE-10 500:DRIVE-1");
+        assertPlan("drive very slowly", "0:SPEEDVERYSLOW");
+        assertPlan("center camera then camera on", "0:TILT-5 0:CAM-1");
+    }
+
+    @Test
+    public void plan_sendsTheRestOfAMessageAsSpoken() {
+        VoicePlan plan = matcher.plan("forward then say Hello, World! then stop");
+        assertEquals(3, plan.size());
+        assertEquals("Hello, World! then stop", plan.getCommand(2));
+        assertEquals(500, plan.getOffsetMillis(2));
+    }
+
+    @Test
+    public void add_rejectsAPhraseNamingAnotherIntent() {
+        try {
+            new VoiceIntentMatcher().add(VoiceIntentMatcher.INTENT_STOP, "halt [now]")
+                    .add(VoiceIntentMatcher.INTENT_HORN, "(halt|honk)");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void plan_staysFastWithAGrownGrammar() {
+        VoiceIntentMatcher large = VoiceIntentMatcher.createDefault();
+        for (int i = 0; i < 1000; i++) {
+            large.add(VoiceIntentMatcher.INTENT_HORN, "(signal|alert) pattern" + i + " [{count}]");
+        }
+        assertTrue(large.getPhraseCount() > 4000);
+        String speech = "look up twice, wait half a second, then back up for 1.5 seconds and stop";
+        for (int i = 0; i < 20000; i++) {
+            large.plan(speech);
+        }
+        int runs = 20000;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            large.plan(speech);
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / runs;
+        // Typically a few microseconds; the JMH benchmark has the real numbers.
+        assertTrue(micros + " us per plan", micros < 200);
+    }
+
+    private void assertPlan(String speech, String expected) {
+        assertEquals(speech, expected, matcher.plan(speech).toString());
+    }
+}
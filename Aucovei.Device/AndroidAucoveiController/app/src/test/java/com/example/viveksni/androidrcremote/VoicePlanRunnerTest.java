@@ -0,0 +1,119 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VoicePlanRunnerTest {
+
+    private final TimerWheel timers = new TimerWheel("VoicePlanRunnerTest");
+    private final List<String> sent = new ArrayList<>();
+    private final VoicePlanRunner runner = new VoicePlanRunner(new VoicePlanRunner.Sender() {
+        @Override
+        public void send(String command) {
+            synchronized (sent) {
+                sent.add(command);
+            }
+        }
+    }, timers);
+
+    @After
+    public void tearDown() {
+        timers.shutdown();
+    }
+
+    @Test
+    public void run_sendsEveryStepAtItsOffset() throws InterruptedException {
+        runner.run(plan(0, Commands.DRIVE_FORWARD, 40, Commands.DRIVE_STOP, 40, Commands.HORN),
+                System.nanoTime(), 0);
+        Thread.sleep(20);
+        assertEquals("[DRIVE-2]", sent());
+        assertTrue(runner.isRunning());
+
+        Thread.sleep(150);
+        assertEquals("[DRIVE-2, DRIVE-1, HORN]", sent());
+        assertFalse(runner.isRunning());
+    }
+
+    @Test
+    public void cancel_dropsTheStepsStillToCome() throws InterruptedException {
+        // "forward then turn left", cut short by a manual press.
+        runner.run(plan(0, Commands.DRIVE_FORWARD, 100, Commands.DRIVE_STOP,
+                100, Commands.DRIVE_LEFT, 200, Commands.DRIVE_STOP), System.nanoTime(), 0);
+        Thread.sleep(20);
+        runner.cancel();
+
+        Thread.sleep(300);
+        // The car is not left driving.
+        assertEquals("[DRIVE-2, DRIVE-1]", sent());
+        assertFalse(runner.isRunning());
+    }
+
+    @Test
+    public void cancel_duringATimedDriveStopsTheCar() throws InterruptedException {
+        // "forward ten seconds", then a touch on tilt.
+        runner.run(plan(0, Commands.DRIVE_FORWARD, 10000, Commands.DRIVE_STOP), System.nanoTime(), 0);
+        Thread.sleep(20);
+        runner.cancel();
+        Thread.sleep(20);
+        assertEquals("[DRIVE-2, DRIVE-1]", sent());
+    }
+
+    @Test
+    public void cancel_sendsNoStopWithoutADriveStepLeft() throws InterruptedException {
+        runner.run(plan(0, Commands.DRIVE_FORWARD, 40, Commands.DRIVE_STOP, 100, Commands.HORN),
+                System.nanoTime(), 0);
+        Thread.sleep(70);
+        runner.cancel();
+        Thread.sleep(100);
+        assertEquals("[DRIVE-2, DRIVE-1]", sent());
+
+        // Nor once the plan is over.
+        runner.cancel();
+        Thread.sleep(20);
+        assertEquals("[DRIVE-2, DRIVE-1]", sent());
+    }
+
+    @Test
+    public void run_replacesARunningPlanAndStopsTheCarFirst() throws InterruptedException {
+        runner.run(plan(0, Commands.DRIVE_FORWARD, 100, Commands.DRIVE_STOP), System.nanoTime(), 0);
+        Thread.sleep(20);
+        runner.run(plan(0, Commands.TILT_UP), System.nanoTime(), 0);
+
+        Thread.sleep(150);
+        assertEquals("[DRIVE-2, DRIVE-1, TILT-1]", sent());
+    }
+
+    @Test
+    public void run_continuesARunningPlanFromItsStep() throws InterruptedException {
+        long start = System.nanoTime();
+        runner.run(plan(0, Commands.DRIVE_FORWARD, 100, Commands.DRIVE_STOP), start, 0);
+        Thread.sleep(20);
+        // The final result of the same speech adds a step.
+        runner.run(plan(0, Commands.DRIVE_FORWARD, 40, Commands.HORN, 100, Commands.DRIVE_STOP), start, 1);
+
+        Thread.sleep(150);
+        assertEquals("[DRIVE-2, HORN, DRIVE-1]", sent());
+    }
+
+    private String sent() {
+        synchronized (sent) {
+            return sent.toString();
+        }
+    }
+
+    // Offset and command pairs.
+    private static VoicePlan plan(Object... steps) {
+        VoicePlan plan = new VoicePlan();
+        for (int i = 0; i < steps.length; i += 2) {
+            plan.add((Integer) steps[i], (String) steps[i + 1]);
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.viveksni.androidrcremote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VoiceStreamTest {
+
+    private final RecordingListener listener = new RecordingListener();
+    private final VoiceStream stream = new VoiceStream(VoiceIntentMatcher.createDefault(), listener);
+
+    @Test
+    public void partialStop_isSentAtOnce() {
+        stream.onSpeechStart(1);
+        assertTrue(stream.onPartialResult("stop", -1, 100));
+        assertEquals("0:DRIVE-1 @100 from 0", listener.mPlans.get(0));
+
+        // The final result only confirms it.
+        assertFalse(stream.onFinalResult("stop", 900));
+        assertEquals("0:DRIVE-1 @100 from 1", listener.mPlans.get(1));
+        assertEquals(1, stream.getEarlyPlans());
+        assertEquals(1, stream.getSpeechToSend().getTotalCount());
+    }
+
+    @Test
+    public void partialDrive_waitsUntilStableAndIsContinuedByTheFinalResult() {
+        stream.onSpeechStart(1);
+        assertFalse(stream.onPartialResult("go", -1, 100));
+        assertFalse(stream.onPartialResult("go forward", -1, 200));
+        assertTrue(stream.onPartialResult("go forward", -1, 300));
+        assertFalse(stream.onPartialResult("go forward two", -1, 400));
+        assertEquals(1, listener.mPlans.size());
+
+        assertTrue(stream.onFinalResult("go forward two seconds", 1000));
+        assertEquals("0:DRIVE-2 2000:DRIVE-1 @300 from 1", listener.mPlans.get(1));
+    }
+
+    @Test
+    public void confidentPartial_isSentWithoutWaiting() {
+        stream.onSpeechStart(1);
+        assertFalse(stream.onPartialResult("honk", 0.5f, 100));
+        stream.onNoResult();
+        assertTrue(stream.onPartialResult("honk", 0.9f, 200));
+        assertEquals("0:HORN @200 from 0", listener.mPlans.get(0));
+    }
+
+    @Test
+    public void finalResult_replacesAnEarlyPlanItDoesNotContinue() {
+        stream.onSpeechStart(1);
+        stream.onPartialResult("back", -1, 100);
+        stream.onPartialResult("back", -1, 200);
+        assertTrue(stream.onFinalResult("back left", 800));
+        assertEquals("0:DRIVE-10 500:DRIVE-1 @800 from 0", listener.mPlans.get(1));
+        assertEquals(2, stream.getResultToSend().getTotalCount());
+    }
+
+    @Test
+    public void finalResult_withoutAPartial() {
+        stream.onSpeechStart(1);
+        assertFalse(stream.onFinalResult("what a nice day", 500));
+        assertEquals(1, stream.getUnrecognized());
+        assertTrue(stream.onFinalResult("tilt up twice", 900));
+        assertEquals("0:TILT-1 300:TILT-1 @900 from 0", listener.mPlans.get(0));
+        assertEquals(0, stream.getEarlyPlans());
+        assertEquals(1, stream.getFinalPlans());
+    }
+
+    private static final class RecordingListener implements VoiceStream.Listener {
+        final List<String> mPlans = new ArrayList<>();
+
+        @Override
+        public void onPlan(VoicePlan plan, long startNanos, int firstStep) {
+            mPlans.add(plan + " @" + startNanos + " from " + firstStep);
+        }
+    }
+}
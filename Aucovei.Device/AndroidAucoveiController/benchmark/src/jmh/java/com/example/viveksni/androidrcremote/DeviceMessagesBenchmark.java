@@ -0,0 +1,34 @@
+package com.example.viveksni.androidrcremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Routing of inbound messages, compared with the contains() chain MainActivity's handler used
+ * before DeviceMessages.
+ */
+@State(Scope.Thread)
+public class DeviceMessagesBenchmark {
+
+    @Param({"hostip:192.168.100.57", "CAMON", "Hello from the car, obstacle ahead"})
+    public String message;
+
+    @Benchmark
+    public int classify() {
+        return DeviceMessages.classify(message);
+    }
+
+    @Benchmark
+    public int classifyWithContains() {
+        if (message.contains("hostip:")) {
+            return DeviceMessages.TYPE_HOST_IP;
+        } else if (message.contains("CAM")) {
+            return message.equalsIgnoreCase("CAMON")
+                    ? DeviceMessages.TYPE_CAMERA_ON
+                    : DeviceMessages.TYPE_CAMERA_OFF;
+        }
+        return DeviceMessages.TYPE_OTHER;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.viveksni.androidrcremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed frame encoding and decoding, compared with the allocating code
+ * BluetoothService's ConnectedThread used before FrameCodec.
+ */
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+
+    @Param({Commands.DRIVE_FORWARD, "hostip:192.168.100.57"})
+    public String command;
+
+    private final FrameCodec codec = new FrameCodec();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    private final byte[] binary = new byte[BinaryCommandCodec.MAX_ENCODED_LENGTH];
+    private ByteArrayInputStream in;
+    private ByteArrayInputStream binaryIn;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        new FrameCodec().writeFrame(frame, command);
+        in = new ByteArrayInputStream(frame.toByteArray());
+
+        // Commands without a binary form stay text, as on the wire.
+        frame.reset();
+        int length = BinaryCommandCodec.encode(command, binary, 0);
+        if (length > 0) {
+            new FrameCodec().writeFrame(frame, binary, 0, length);
+        } else {
+            new FrameCodec().writeFrame(frame, command);
+        }
+        binaryIn = new ByteArrayInputStream(frame.toByteArray());
+    }
+
+    @Benchmark
+    public int writeTextFrame() throws IOException {
+        out.reset();
+        return codec.writeFrame(out, command);
+    }
+
+    @Benchmark
+    public int writeBinaryFrame() throws IOException {
+        out.reset();
+        int length = BinaryCommandCodec.encode(command, binary, 0);
+        return length > 0
+                ? codec.writeFrame(out, binary, 0, length)
+                : codec.writeFrame(out, command);
+    }
+
+    @Benchmark
+    public int writeTextFrameAllocating() throws IOException {
+        out.reset();
+        ByteBuffer bb = ByteBuffer.allocate(4 + command.length())
+                .putInt(command.length())
+                .put(command.getBytes());
+        out.write(bb.array());
+        return bb.capacity();
+    }
+
+    @Benchmark
+    public String readTextFrame() throws IOException {
+        in.reset();
+        codec.readFrame(in);
+        return codec.getPayloadString();
+    }
+
+    @Benchmark
+    public String readBinaryFrame() throws IOException {
+        binaryIn.reset();
+        codec.readFrame(binaryIn);
+        ByteBuffer payload = codec.getPayload();
+        return BinaryCommandCodec.isBinaryPayload(payload)
+                ? BinaryCommandCodec.decode(payload)
+                : codec.getPayloadString();
+    }
+
+    @Benchmark
+    public String readTextFrameAllocating() throws IOException {
+        in.reset();
+        return readAllocating(in);
+    }
+
+    private static String readAllocating(InputStream in) throws IOException {
+        byte[] buffer = new byte[4];
+        in.read(buffer);
+        int dataLength = ByteBuffer.wrap(buffer).getInt();
+        buffer = new byte[dataLength];
+        in.read(buffer);
+        return new String(buffer);
+    }
+}
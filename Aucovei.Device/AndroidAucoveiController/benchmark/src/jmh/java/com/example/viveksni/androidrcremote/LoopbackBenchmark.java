@@ -0,0 +1,52 @@
+package com.example.viveksni.androidrcremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * Round trip through the whole send path (CommandWriter, FrameCodec, a zero latency
+ * LoopbackTransport and the DeviceSimulator) and back through the reader's FrameCodec.
+ */
+@State(Scope.Thread)
+public class LoopbackBenchmark {
+
+    private LoopbackTransport transport;
+    private CommandWriter writer;
+    private final FrameCodec codec = new FrameCodec();
+
+    @Setup
+    public void setUp() throws IOException {
+        transport = new LoopbackTransport(new DeviceSimulator());
+        transport.connect();
+        // hostip: and Ready!
+        codec.readFrame(transport.getInputStream());
+        codec.readFrame(transport.getInputStream());
+        writer = new CommandWriter(transport.getOutputStream(), new CommandWriter.Callback() {
+            @Override
+            public void onWritten(PendingSend send) {
+            }
+
+            @Override
+            public void onWriteFailed(PendingSend send, IOException e) {
+            }
+        });
+        writer.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.close();
+        transport.close();
+    }
+
+    @Benchmark
+    public int cameraOnRoundTrip() throws IOException {
+        writer.send(Commands.CAMERA_ON);
+        return codec.readFrame(transport.getInputStream());
+    }
+}
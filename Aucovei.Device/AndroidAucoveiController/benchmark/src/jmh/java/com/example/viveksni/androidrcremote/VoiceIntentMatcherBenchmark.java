@@ -0,0 +1,41 @@
+package com.example.viveksni.androidrcremote;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Planning recognised speech with the default grammar, and with it grown by extra made-up
+ * phrases to show the cost does not follow the size of the vocabulary. The last phrase matches
+ * nothing, so every word is looked up and skipped.
+ */
+@State(Scope.Thread)
+public class VoiceIntentMatcherBenchmark {
+
+    @Param({"go forward",
+            "forward two seconds then turn left and honk three times",
+            "look up twice, wait half a second, then back up for 1.5 seconds and stop",
+            "message hello there",
+            "what is the weather like today"})
+    public String speech;
+
+    @Param({"0", "1000"})
+    public int extraPhrases;
+
+    private VoiceIntentMatcher matcher;
+
+    @Setup
+    public void setUp() {
+        matcher = VoiceIntentMatcher.createDefault();
+        for (int i = 0; i < extraPhrases; i++) {
+            matcher.add(VoiceIntentMatcher.INTENT_HORN, "(signal|alert) pattern" + i + " [{count}]");
+        }
+    }
+
+    @Benchmark
+    public VoicePlan plan() {
+        return matcher.plan(speech);
+    }
+}